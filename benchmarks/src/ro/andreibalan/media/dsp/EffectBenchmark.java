@@ -0,0 +1,148 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the cost of processing one mix block of the software sample pools, 256 stereo frames at 44.1 kHz.
+ * <br/><br/>
+ * Run with the library sources and JMH on the classpath, e.g. <code>java -jar benchmarks.jar EffectBenchmark -prof gc</code>.
+ * The gc profiler should report no allocation per operation for every effect.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EffectBenchmark {
+
+    public final static int SAMPLE_RATE = 44100;
+
+    public final static int BLOCK_FRAMES = 256;
+
+    public enum Setting {
+        EMPTY,
+        BYPASSED,
+        PEAK_EQ,
+        COMPRESSOR,
+        LIMITER,
+        DELAY,
+        MASTERING
+    }
+
+    @Param
+    public Setting mSetting;
+
+    private final float[] mSource = new float[BLOCK_FRAMES * 2 * 64];
+
+    private final float[] mBlock = new float[BLOCK_FRAMES * 2];
+
+    private int mSourceOffset;
+
+    private EffectChain mChain;
+
+    @Setup
+    public void setup() {
+        // Noise loud enough to keep the compressor and the limiter working on every block.
+        final Random random = new Random(1);
+        for (int i = 0; i < mSource.length; i++)
+            mSource[i] = (random.nextFloat() * 2 - 1) * 1.2f;
+
+        mChain = new EffectChain();
+        switch (mSetting) {
+            case EMPTY:
+                break;
+
+            case BYPASSED:
+                mChain.add(new BiquadFilter(BiquadFilter.Type.PEAK, 1000, 1, 6));
+                mChain.add(new Limiter(-1));
+                mChain.setBypassed(true);
+                break;
+
+            case PEAK_EQ:
+                mChain.add(new BiquadFilter(BiquadFilter.Type.PEAK, 1000, 1, 6));
+                break;
+
+            case COMPRESSOR:
+                mChain.add(new Compressor(-18, 4));
+                break;
+
+            case LIMITER:
+                mChain.add(new Limiter(-1));
+                break;
+
+            case DELAY:
+                mChain.add(new Delay(500, 250, 0.4f, 0.3f));
+                break;
+
+            case MASTERING:
+                mChain.add(new BiquadFilter(BiquadFilter.Type.HIGH_PASS, 40, BiquadFilter.DEFAULT_Q, 0));
+                mChain.add(new BiquadFilter(BiquadFilter.Type.LOW_SHELF, 120, BiquadFilter.DEFAULT_Q, 2));
+                mChain.add(new BiquadFilter(BiquadFilter.Type.PEAK, 3000, 1, -2));
+                mChain.add(new BiquadFilter(BiquadFilter.Type.HIGH_SHELF, 10000, BiquadFilter.DEFAULT_Q, 1));
+                mChain.add(new Compressor(-18, 3));
+                mChain.add(new Limiter(-1));
+                break;
+        }
+
+        mChain.prepare(SAMPLE_RATE, 2);
+    }
+
+    /**
+     * Copies the next block of the source and processes it, like the mixer does with every mix block.
+     */
+    @Benchmark
+    public float[] processBlock() {
+        System.arraycopy(mSource, mSourceOffset, mBlock, 0, mBlock.length);
+        mSourceOffset = (mSourceOffset + mBlock.length) % mSource.length;
+
+        if (mChain.isActive())
+            mChain.process(mBlock, 0, BLOCK_FRAMES);
+
+        return mBlock;
+    }
+
+    /**
+     * Only copies the next block, the cost every setting includes.
+     */
+    @Benchmark
+    public float[] copyBlock() {
+        System.arraycopy(mSource, mSourceOffset, mBlock, 0, mBlock.length);
+        mSourceOffset = (mSourceOffset + mBlock.length) % mSource.length;
+
+        return mBlock;
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Process wide cache of opened AssetFileDescriptors shared by the FX and Music factories.
+ * <br/><br/>
+ * Every asset is opened once and shared by all the Audio Instances created from it. Music Instances hold a {@link Reference}
+ * until they are released, FX Instances only while their samples are loaded since the SoundPool duplicates the descriptor.
+ * The descriptor is closed when its last reference is released.
+ */
+public class AssetDescriptorCache {
+
+    public final static String TAG = AssetDescriptorCache.class.getSimpleName();
+
+    private static AssetDescriptorCache sInstance;
+
+    /**
+     * Opened descriptors by asset path.
+     */
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /**
+     * Number of times a descriptor was opened and number of times an opened descriptor was reused.
+     */
+    private int mOpenCalls;
+
+    private int mHits;
+
+    private AssetDescriptorCache() {
+    }
+
+    public static synchronized AssetDescriptorCache getInstance() {
+        if (sInstance == null)
+            sInstance = new AssetDescriptorCache();
+
+        return sInstance;
+    }
+
+    /**
+     * Returns a reference to the descriptor of the given asset, opening it only if no other reference to it is held.
+     * 
+     * @param assetManager - AssetManager used to open the asset.
+     * @param assetPath - Path of the asset.
+     * 
+     * @throws IOException if the asset can not be opened.
+     */
+    public synchronized Reference acquire(final AssetManager assetManager, final String assetPath) throws IOException {
+        if (assetPath == null)
+            throw new IllegalArgumentException("Asset path can not be null.");
+
+        Entry entry = mEntries.get(assetPath);
+        if (entry == null) {
+            Log.v(TAG, "open assetPath: " + assetPath);
+
+            entry = new Entry(assetPath, assetManager.openFd(assetPath));
+            mEntries.put(assetPath, entry);
+            mOpenCalls++;
+        } else {
+            mHits++;
+        }
+
+        entry.mReferenceCount++;
+        return new Reference(entry);
+    }
+
+    private synchronized void release(final Entry entry) {
+        if (--entry.mReferenceCount > 0)
+            return;
+
+        Log.v(TAG, "close assetPath: " + entry.mAssetPath);
+        mEntries.remove(entry.mAssetPath);
+
+        try {
+            entry.mDescriptor.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close the descriptor of " + entry.mAssetPath, e);
+        }
+    }
+
+    /**
+     * Returns the number of descriptors that are currently open.
+     */
+    public synchronized int getOpenCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the number of references held to the given asset, 0 if it is not open.
+     */
+    public synchronized int getReferenceCount(final String assetPath) {
+        final Entry entry = mEntries.get(assetPath);
+        return (entry != null) ? entry.mReferenceCount : 0;
+    }
+
+    /**
+     * Returns the number of times an asset had to be opened.
+     */
+    public synchronized int getOpenCallCount() {
+        return mOpenCalls;
+    }
+
+    /**
+     * Returns the number of times an already open descriptor was shared.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    private final static class Entry {
+
+        private final String mAssetPath;
+
+        private final AssetFileDescriptor mDescriptor;
+
+        /**
+         * Guarded by the cache.
+         */
+        private int mReferenceCount;
+
+        private Entry(final String assetPath, final AssetFileDescriptor descriptor) {
+            mAssetPath = assetPath;
+            mDescriptor = descriptor;
+        }
+    }
+
+    /**
+     * Reference to a shared asset descriptor. Releasing it more than once has no effect.
+     */
+    public final class Reference {
+
+        private final Entry mEntry;
+
+        private final AtomicBoolean mReleased = new AtomicBoolean(false);
+
+        private Reference(final Entry entry) {
+            mEntry = entry;
+        }
+
+        public String getAssetPath() {
+            return mEntry.mAssetPath;
+        }
+
+        public AssetFileDescriptor getAssetFileDescriptor() {
+            return mEntry.mDescriptor;
+        }
+
+        public FileDescriptor getFileDescriptor() {
+            return mEntry.mDescriptor.getFileDescriptor();
+        }
+
+        public long getStartOffset() {
+            return mEntry.mDescriptor.getStartOffset();
+        }
+
+        public long getLength() {
+            return mEntry.mDescriptor.getLength();
+        }
+
+        public boolean isReleased() {
+            return mReleased.get();
+        }
+
+        public void release() {
+            if (mReleased.compareAndSet(false, true))
+                AssetDescriptorCache.this.release(mEntry);
+        }
+    }
+
+}
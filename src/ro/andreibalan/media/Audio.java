@@ -19,8 +19,20 @@
  */
 package ro.andreibalan.media;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ro.andreibalan.media.flow.AudioFlow;
+import ro.andreibalan.media.flow.ConflatingPublisher;
 import ro.andreibalan.media.volume.Volume;
 import ro.andreibalan.media.volume.Volume.OnVolumeChangeListener;
+import android.util.Log;
 
 public abstract class Audio implements AudioManager.OnMasterVolumeChange {
 
@@ -34,8 +46,29 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
     /**
      * This is the current state of the Audio Instance. 
      * Default this will be set to STOPPED.
+     * <br/><br/>
+     * It is only changed from the audio thread but can be read from any thread.
+     */
+    private volatile State mState = State.STOPPED;
+
+    /**
+     * Publisher of the state transitions, completed when the instance is released.
+     */
+    private final ConflatingPublisher<State> mStatePublisher = new ConflatingPublisher<State>();
+
+    /**
+     * Transport operations posted to the audio thread.
+     */
+    private final static int TRANSPORT_NONE = 0;
+    private final static int TRANSPORT_PLAY = 1;
+    private final static int TRANSPORT_STOP = 2;
+    private final static int TRANSPORT_PAUSE = 3;
+    private final static int TRANSPORT_RELEASE = 4;
+
+    /**
+     * Maximum number of transport commands kept for reuse, enough for the plays a busy FX Instance posts within a frame.
      */
-    private State mState = State.STOPPED;
+    private final static int MAX_FREE_TRANSPORT_COMMANDS = 16;
 
     /**
      * The Volume instance that the user can use to manipulate channel volume and balance value.
@@ -71,12 +104,12 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
      * For the moment it only needs to listen to onVolumeChange evets so it can call handleVolumeChange method to call 
      * the child classes so they can manage the volume change.
      */
-    private OnVolumeChangeListener mVolumeChangeListener = new OnVolumeChangeListener() {
+    private final OnVolumeChangeListener mVolumeChangeListener = new OnVolumeChangeListener() {
 
         @Override
         public void onVolumeChange(float leftChannel, float rightChannel) {
-            // Call handleVolumeChange on child classes to let them do the change they need.
-            handleVolumeChange();
+            // Call handleVolumeChange on child classes on the audio thread. Every change within the same frame is coalesced into one call.
+            mAudioManager.getAudioThread().execute(mVolumeCommand);
         }
 
         @Override
@@ -84,15 +117,184 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
         }
     };
 
+    /**
+     * Reused command that applies the current volume values on the audio thread.
+     */
+    private final AudioCommand mVolumeCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            handleVolumeChange();
+        }
+    };
+
+    /**
+     * Reused command for child classes that coalesce their transport operations. Only the last operation posted within a frame runs.
+     */
+    private final TransportCommand mTransportCommand = new TransportCommand(false);
+
+    /**
+     * Transport commands that have run and can be posted again, so transports that are not coalesced do not allocate a command per call.
+     */
+    private final ArrayDeque<TransportCommand> mFreeTransportCommands = new ArrayDeque<TransportCommand>();
+
+    /**
+     * Command that executes a transport operation on the audio thread.
+     */
+    private final class TransportCommand extends AudioCommand {
+
+        private final AtomicInteger mTransport = new AtomicInteger(TRANSPORT_NONE);
+
+        /**
+         * True if the command goes back to the free commands once it has been taken off the queue.
+         */
+        private final boolean mRecycled;
+
+        private TransportCommand(final boolean recycled) {
+            mRecycled = recycled;
+        }
+
+        @Override
+        public void run() {
+            final int transport = mTransport.getAndSet(TRANSPORT_NONE);
+
+            // The command is no longer queued, so it can be handed out again even by a transport posted from the child class.
+            if (mRecycled)
+                recycleTransportCommand(this);
+
+            executeTransport(transport);
+        }
+    }
+
+    /**
+     * Where the audio has been loaded from, or null if it can not be loaded again.
+     */
+    private volatile AudioSource mSource;
+
+    /**
+     * Tag used by the {@link TrimPolicy} to decide at which memory pressure this instance is trimmed.
+     */
+    private volatile String mTrimTag;
+
+    /**
+     * True while the loaded audio has been released by the {@link TrimPolicy}. It is loaded again on the next play.
+     */
+    private volatile boolean mTrimmed = false;
+
+    /**
+     * True once the instance has been released and detached from its volume.
+     */
+    private volatile boolean mReleased = false;
+
+    /**
+     * True once the volume listener has been attached by {@link #attach()}. Volume changes made while the child constructors are still
+     * running are not forwarded, since {@link #handleVolumeChange()} could run on the audio thread before the child fields are set.
+     */
+    private boolean mAttached = false;
+
+    /**
+     * Guards the volume listener registration against concurrent {@link #setVolume(Volume)} and {@link #attach()} calls.
+     */
+    private final Object mVolumeLock = new Object();
+
+    /**
+     * {@link AudioClock} time of the last transport operation, used to find instances that have not been used lately.
+     */
+    private volatile long mLastUsedTime;
+
+    /**
+     * True if the instance has been restored from an {@link AudioSnapshot} taken while it was playing.
+     */
+    private boolean mPlayingInSnapshot = false;
+
+    /**
+     * Gain that brings the loaded audio to the target loudness of the manager, combined with the master volume into the channel offset.
+     */
+    private volatile float mNormalizationGain = 1.0f;
+
+    /**
+     * Scheduled plays that have not run yet, so they can be cancelled by {@link #stop()} and {@link #release()}.
+     */
+    private final Set<ScheduledPlayCommand> mScheduledPlays = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledPlayCommand, Boolean>());
+
+    /**
+     * Command that starts the playback at a clock time.
+     */
+    private final class ScheduledPlayCommand extends AudioCommand {
+
+        private final long mTime;
+
+        private ScheduledPlayCommand(final long time) {
+            mTime = time;
+        }
+
+        @Override
+        public void run() {
+            if (mScheduledPlays.remove(this)) {
+                markUsed();
+                if (restore())
+                    handlePlayAt(mTime);
+            }
+        }
+    }
+
     /**
      * This is the main constructor. Must always be called from child constructors so it can set the AudioManager Instance.
      * @param audioManager
      */
     protected Audio(final AudioManager<? extends Audio> audioManager) {
         mAudioManager = audioManager;
+        mLastUsedTime = audioManager.getAudioThread().getClock().nanoTime();
+        mStatePublisher.publish(mState);
 
         // Set a new Volume Object. All to maximum.
-        setVolume(new Volume(1.0f, 1.0f));
+        setVolume(audioManager.createVolume());
+    }
+
+    /**
+     * Constructor used by child classes to restore an instance from an {@link AudioSnapshot} without loading its audio.<br/>
+     * The instance starts out trimmed, so its audio is only loaded the first time it is played. Reads the state written by {@link #writeSnapshot(DataOutput)}.
+     * 
+     * @param audioManager - Manager the instance is restored in.
+     * @param source - Source the audio will be loaded from.
+     * @param in - Snapshot record positioned after the source.
+     * 
+     * @throws IOException if the record can not be read.
+     */
+    protected Audio(final AudioManager<? extends Audio> audioManager, final AudioSource source, final DataInput in) throws IOException {
+        this(audioManager);
+
+        if (source == null)
+            throw new IllegalArgumentException("A restored instance needs a source to load from.");
+
+        mSource = source;
+        mTrimmed = true;
+
+        final int state = in.readUnsignedByte();
+        if (state >= State.values().length)
+            throw new IOException("Unknown state " + state);
+
+        // Nothing is playing after a restore, a playing instance is paused at its position until it is resumed.
+        mPlayingInSnapshot = (State.values()[state] == State.PLAYING);
+        mState = mPlayingInSnapshot ? State.PAUSED : State.values()[state];
+        mStatePublisher.publish(mState);
+
+        final float leftChannel = in.readFloat();
+        final float rightChannel = in.readFloat();
+        final float channelOffset = in.readFloat();
+        final float balance = in.readFloat();
+        final boolean muted = in.readBoolean();
+        mTrimTag = in.readBoolean() ? in.readUTF() : null;
+
+        mVolume.setChannels(leftChannel, rightChannel);
+        mVolume.setChannelOffset(channelOffset);
+        mVolume.setBalance(balance);
+        if (muted)
+            mVolume.mute();
+
+        // The stored offset holds the gain of the index the snapshot was taken with, which may have been rebuilt since.
+        if (audioManager.getLoudnessIndex() != null)
+            setNormalizationGain(audioManager.getNormalizationGain(source));
     }
 
     /**
@@ -103,27 +305,338 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
     }
 
     /**
-     * This should be called from the child class only when they are sure that the audio has started playing.<br/>
-     * It changes the current state to PLAYING.
+     * Starts the playback. The call is posted to the audio thread where {@link #handlePlay()} will be called.
      */
     public void play() {
-        setState(mState = State.PLAYING);
+        postTransport(TRANSPORT_PLAY);
+    }
+
+    /**
+     * Starts the playback at the given time of the audio thread's {@link AudioClock}.<br/>
+     * The command is dispatched ahead of the time by {@link #getScheduleLead()} so backends that can start a stream at an exact
+     * time have it in time. Pending scheduled plays are cancelled by {@link #stop()}, {@link #release()} and {@link #cancelScheduledPlays()}.
+     * 
+     * @param time - Clock time in nanoseconds, see {@link AudioThread#getClock()}.
+     */
+    public void playAt(final long time) {
+        final ScheduledPlayCommand command = new ScheduledPlayCommand(time);
+        mScheduledPlays.add(command);
+        mAudioManager.getAudioThread().schedule(command, time - getScheduleLead());
     }
 
     /**
-     * This should be called from the child class only when tey are sure that the audio has stopped playing.<br/>
-     * It changes the current state to STOPPED.
+     * Starts the playback on the next beat of the given tempo.
+     */
+    public void playOnNextBeat(final Tempo tempo) {
+        playOnNextBeat(tempo, 1);
+    }
+
+    /**
+     * Starts the playback on the next subdivision of a beat of the given tempo.
+     * 
+     * @param tempo - Tempo to quantize to.
+     * @param subdivision - Number of equal parts a beat is divided in.
+     */
+    public void playOnNextBeat(final Tempo tempo, final int subdivision) {
+        final long now = mAudioManager.getAudioThread().getClock().nanoTime();
+        playAt(tempo.getNextBeatTime(now + getScheduleLead(), subdivision));
+    }
+
+    /**
+     * Cancels every scheduled play that has not started yet.
+     */
+    public void cancelScheduledPlays() {
+        final AudioThread audioThread = mAudioManager.getAudioThread();
+        for (ScheduledPlayCommand command : mScheduledPlays) {
+            mScheduledPlays.remove(command);
+            audioThread.unschedule(command);
+        }
+    }
+
+    /**
+     * Stops the playback. The call is posted to the audio thread where {@link #handleStop()} will be called.
      */
     public void stop() {
-        setState(State.STOPPED);
+        postTransport(TRANSPORT_STOP);
     }
 
     /**
-     * This should be called from the child class only when they are sure that the audio has been set to pause state.
-     * It changes the current state to PAUSED.
+     * Pauses the playback. The call is posted to the audio thread where {@link #handlePause()} will be called.
      */
     public void pause() {
-        setState(State.PAUSED);
+        postTransport(TRANSPORT_PAUSE);
+    }
+
+    /**
+     * Releases the current instance. The call is posted to the audio thread where {@link #handleRelease()} will be called.
+     */
+    public void release() {
+        postTransport(TRANSPORT_RELEASE);
+    }
+
+    /**
+     * Posts the transport operation to the audio thread or runs it right away if we are already on it.
+     */
+    private void postTransport(final int transport) {
+        final AudioThread audioThread = mAudioManager.getAudioThread();
+
+        if (audioThread.isCurrentThread()) {
+            // Anything still waiting in the coalesced command has been issued before this one so it is superseded.
+            mTransportCommand.mTransport.set(TRANSPORT_NONE);
+            executeTransport(transport);
+        } else if (isTransportCoalesced()) {
+            mTransportCommand.mTransport.set(transport);
+            audioThread.post(mTransportCommand);
+        } else {
+            final TransportCommand command = obtainTransportCommand();
+            command.mTransport.set(transport);
+            audioThread.post(command);
+        }
+    }
+
+    private TransportCommand obtainTransportCommand() {
+        synchronized (mFreeTransportCommands) {
+            final TransportCommand command = mFreeTransportCommands.poll();
+            if (command != null)
+                return command;
+        }
+
+        return new TransportCommand(true);
+    }
+
+    private void recycleTransportCommand(final TransportCommand command) {
+        synchronized (mFreeTransportCommands) {
+            if (mFreeTransportCommands.size() < MAX_FREE_TRANSPORT_COMMANDS)
+                mFreeTransportCommands.push(command);
+        }
+    }
+
+    /**
+     * Runs the transport operation on the child class. Always called on the audio thread.
+     */
+    private void executeTransport(final int transport) {
+        if (transport != TRANSPORT_NONE)
+            markUsed();
+
+        switch (transport) {
+            case TRANSPORT_PLAY:
+                if (restore())
+                    handlePlay();
+                break;
+
+            case TRANSPORT_STOP:
+                cancelScheduledPlays();
+                handleStop();
+                break;
+
+            case TRANSPORT_PAUSE:
+                handlePause();
+                break;
+
+            case TRANSPORT_RELEASE:
+                cancelScheduledPlays();
+                mVolume.stopAutomation();
+                synchronized (mVolumeLock) {
+                    mReleased = true;
+                    mVolume.removeOnVolumeChangeListener(mVolumeChangeListener);
+                }
+                handleRelease();
+                mStatePublisher.complete();
+                break;
+        }
+    }
+
+    private void markUsed() {
+        mLastUsedTime = mAudioManager.getAudioThread().getClock().nanoTime();
+    }
+
+    /**
+     * Releases the loaded audio if the instance is not playing and can be loaded again from its source. Called on the audio thread.
+     * 
+     * @return - true if the instance has been trimmed.
+     */
+    boolean trim() {
+        if (mTrimmed || !isRestorable() || !isIdle())
+            return false;
+
+        if (!handleTrim())
+            return false;
+
+        mTrimmed = true;
+        return true;
+    }
+
+    /**
+     * Loads the audio again if it has been trimmed. Called on the audio thread before playing.
+     * 
+     * @return - false if the audio could not be loaded again.
+     */
+    private boolean restore() {
+        if (!mTrimmed)
+            return true;
+
+        try {
+            handleRestore();
+            mTrimmed = false;
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "restore: failed to load " + mSource, e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the loaded audio has been released to save memory. It will be loaded again on the next play.
+     */
+    public boolean isTrimmed() {
+        return mTrimmed;
+    }
+
+    /**
+     * Returns the source the audio has been loaded from, or null if it can not be loaded again.
+     */
+    public AudioSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * Sets the source the audio has been loaded from. Instances without a source are never trimmed.
+     */
+    protected void setSource(final AudioSource source) {
+        mSource = source;
+
+        if (source != null && mAudioManager.getLoudnessIndex() != null)
+            setNormalizationGain(mAudioManager.getNormalizationGain(source));
+    }
+
+    /**
+     * Returns the gain applied to bring the audio to the target loudness of the manager, 1.0 if it has not been normalized.
+     */
+    public float getNormalizationGain() {
+        return mNormalizationGain;
+    }
+
+    /**
+     * Sets the gain applied on top of the volume to bring the audio to a target loudness.<br/>
+     * It is set from the {@link ro.andreibalan.media.pcm.LoudnessIndex} of the manager when the instance is created, so this is only needed to override it.
+     * 
+     * @param gain - Gain between 0.0 and 1.0.
+     */
+    public void setNormalizationGain(final float gain) {
+        if (gain < 0 || gain > 1)
+            throw new IllegalArgumentException("The normalization gain must be between 0.0 and 1.0.");
+
+        mNormalizationGain = gain;
+        onMasterVolumeChange(mAudioManager.getMasterVolume());
+    }
+
+    public String getTrimTag() {
+        return mTrimTag;
+    }
+
+    /**
+     * Tags this instance for the {@link TrimPolicy}, which decides per tag at which memory pressure it is trimmed.
+     */
+    public void setTrimTag(final String trimTag) {
+        mTrimTag = trimTag;
+    }
+
+    /**
+     * Returns the {@link AudioClock} time the instance has been used the last time.
+     */
+    public long getLastUsedTime() {
+        return mLastUsedTime;
+    }
+
+    /**
+     * Returns the lowest memory pressure at which untagged instances of this type are trimmed. {@link TrimPolicy.Tier#NONE} by default.
+     */
+    protected TrimPolicy.Tier getDefaultTrimTier() {
+        return TrimPolicy.Tier.NONE;
+    }
+
+    /**
+     * Returns true if nothing of this instance is audible anymore, so its audio can be trimmed. Always called on the audio thread.<br/>
+     * Child classes whose state does not follow the end of the playback (e.g. FX, since sample pools do not report finished streams) override this.
+     */
+    protected boolean isIdle() {
+        return !isPlaying();
+    }
+
+    /**
+     * Returns true if the audio can be loaded again after a trim. By default instances with a {@link #getSource()} can.
+     */
+    protected boolean isRestorable() {
+        return mSource != null;
+    }
+
+    /**
+     * Implemented by child classes that can release their loaded audio. Always called on the audio thread while idle.
+     * 
+     * @return - true if memory has been released.
+     */
+    protected boolean handleTrim() {
+        return false;
+    }
+
+    /**
+     * Implemented by child classes to load the audio again from {@link #getSource()} after {@link #handleTrim()}.<br/>
+     * Always called on the audio thread right before the next play.
+     */
+    protected void handleRestore() {
+    }
+
+    /**
+     * Returns true if the instance has been restored from an {@link AudioSnapshot} taken while it was playing.
+     */
+    boolean isPlayingInSnapshot() {
+        return mPlayingInSnapshot;
+    }
+
+    /**
+     * Writes the state of this instance to an {@link AudioSnapshot}: state, volume channels, offset, balance, mute and the trim tag.<br/>
+     * Child classes append their own state after calling this and read it back in their restore constructor, see {@link #Audio(AudioManager, AudioSource, DataInput)}.
+     */
+    protected void writeSnapshot(final DataOutput out) throws IOException {
+        final Volume volume = mVolume;
+
+        out.writeByte(mState.ordinal());
+        out.writeFloat(volume.getLeftChannel());
+        out.writeFloat(volume.getRightChannel());
+        out.writeFloat(volume.getChannelOffset());
+        out.writeFloat(volume.getBalance());
+        out.writeBoolean(volume.isMuted());
+
+        final String trimTag = mTrimTag;
+        out.writeBoolean(trimTag != null);
+        if (trimTag != null)
+            out.writeUTF(trimTag);
+    }
+
+    /**
+     * Child classes return true if only the last of the transport operations posted within the same frame should run.<br/>
+     * This is false by default so every call to {@link #play()} reaches the child class.
+     */
+    protected boolean isTransportCoalesced() {
+        return false;
+    }
+
+    /**
+     * Returns how many nanoseconds before its time a scheduled play is dispatched to {@link #handlePlayAt(long)}.<br/>
+     * This is 0 by default, child classes whose backend can start at an exact time return how far ahead it needs to know.
+     */
+    protected long getScheduleLead() {
+        return 0;
+    }
+
+    /**
+     * Called on the audio thread for a scheduled play, {@link #getScheduleLead()} before the given time.<br/>
+     * The default implementation starts the playback right away.
+     * 
+     * @param time - Clock time the playback should start at.
+     */
+    protected void handlePlayAt(final long time) {
+        handlePlay();
     }
 
     /**
@@ -134,7 +647,7 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
 
     /**
      * Implemented by child classes this is used to be notified when the volume values have changed so you can 
-     * control your media player.
+     * control your media player. Always called on the audio thread.
      */
     protected abstract void handleVolumeChange();
 
@@ -144,9 +657,27 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
     protected abstract void handleStateChange(State state);
 
     /**
-     * Implemented by child classes this will be publicly called when the application needs to release the current instances.
+     * Implemented by child classes to start the playback. Always called on the audio thread.<br/>
+     * Child classes must call {@link #setState(State)} with PLAYING only when they are sure that the audio has started playing.
+     */
+    protected abstract void handlePlay();
+
+    /**
+     * Implemented by child classes to stop the playback. Always called on the audio thread.<br/>
+     * Child classes must call {@link #setState(State)} with STOPPED only when they are sure that the audio has stopped playing.
+     */
+    protected abstract void handleStop();
+
+    /**
+     * Implemented by child classes to pause the playback. Always called on the audio thread.<br/>
+     * Child classes must call {@link #setState(State)} with PAUSED only when they are sure that the audio has been set to pause state.
+     */
+    protected abstract void handlePause();
+
+    /**
+     * Implemented by child classes to release the current instance. Always called on the audio thread.
      */
-    public abstract void release();
+    protected abstract void handleRelease();
 
     /**
      * Internally returns the current state of the Audio instance.
@@ -163,6 +694,15 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
     protected void setState(final State state) {
         mState = state;
         handleStateChange(state);
+        mStatePublisher.publish(state);
+    }
+
+    /**
+     * Returns a publisher of the state transitions that conflates to the latest state for every subscriber.<br/>
+     * Subscribers receive the current state first and are completed once the instance has been released.
+     */
+    public AudioFlow.Publisher<State> getStatePublisher() {
+        return mStatePublisher;
     }
 
     /**
@@ -209,17 +749,67 @@ public abstract class Audio implements AudioManager.OnMasterVolumeChange {
         if (volume == null)
             throw new IllegalArgumentException("You cannot pass a null object to setVolume.");
 
-        mVolume = volume;
-        mVolume.addOnVolumeChangeListener(mVolumeChangeListener);
+        synchronized (mVolumeLock) {
+            final Volume previousVolume = mVolume;
+            if (previousVolume == volume)
+                return;
+
+            // Detach from the replaced volume so it stops notifying this instance and keeping it reachable.
+            if (previousVolume != null)
+                previousVolume.removeOnVolumeChangeListener(mVolumeChangeListener);
+
+            mVolume = volume;
+            if (mReleased || !mAttached)
+                return;
+
+            attachVolumeListener();
+        }
+    }
+
+    /**
+     * Attaches the volume listener and applies the current volume on the audio thread. Called by the {@link AudioManager} when the
+     * instance is added to its pool, after every constructor has finished, so {@link #handleVolumeChange()} never sees a half built instance.
+     * Only the first call has an effect.
+     */
+    final void attach() {
+        synchronized (mVolumeLock) {
+            if (mAttached || mReleased)
+                return;
+
+            mAttached = true;
+            attachVolumeListener();
+        }
+    }
+
+    /**
+     * Must hold the volume lock.
+     */
+    private void attachVolumeListener() {
+        // Held weakly, so a volume shared between instances never keeps an instance that has been dropped without a release.
+        mVolume.registerWeakOnVolumeChangeListener(mVolumeChangeListener);
 
         // Manually notify our listener because the instance has changed therefore the volume will most probably not be the same.
         mVolumeChangeListener.onVolumeChange(mVolume.getCalculatedLeftChannel(), mVolume.getCalculatedRightChannel());
     }
 
+    /**
+     * Audio Instances are compared by identity so the AudioManager pool index can hash them.
+     * Child classes that override this have to keep {@link #hashCode()} consistent with it.
+     */
+    @Override
+    public boolean equals(final Object object) {
+        return (this == object);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
     @Override
     public void onMasterVolumeChange(final Volume volume) {
         if (mVolume != null)
-            mVolume.setChannelOffset(volume.getCalculatedChannel());
+            mVolume.setChannelOffset(volume.getCalculatedChannel() * mNormalizationGain);
     }
 
 }
@@ -0,0 +1,61 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+/**
+ * Monotonic time source used to schedule playback, in nanoseconds.
+ * <br/><br/>
+ * Times are only meaningful relative to each other, they never jump with the wall clock and keep running while the device sleeps
+ * the same way {@link System#nanoTime()} does.
+ */
+public abstract class AudioClock {
+
+    public final static long NANOS_PER_MILLISECOND = 1000000L;
+
+    public final static long NANOS_PER_SECOND = 1000000000L;
+
+    private final static AudioClock MONOTONIC = new AudioClock() {
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the clock backed by {@link System#nanoTime()} that is used by default.
+     */
+    public static AudioClock getMonotonic() {
+        return MONOTONIC;
+    }
+
+    /**
+     * Returns the current time in nanoseconds.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Returns the time the given amount of milliseconds from now.
+     */
+    public long fromNow(final long delayMillis) {
+        return nanoTime() + delayMillis * NANOS_PER_MILLISECOND;
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A unit of work executed on the {@link AudioThread}.
+ * <br/><br/>
+ * Commands are linked directly into the command queue, so posting one never allocates a queue node.
+ * A command can only be queued once at a time: posting it again while it is still waiting to be executed is coalesced
+ * into the pending execution. Commands that apply the latest state of an object (e.g. its volume) should therefore be
+ * allocated once and reused, while one-shot commands should be created every time they are posted.
+ */
+public abstract class AudioCommand implements Runnable {
+
+    /**
+     * Next command in the queue. Only written by the queue.
+     */
+    volatile AudioCommand mNext;
+
+    /**
+     * True while the command is waiting in the queue.
+     */
+    final AtomicBoolean mQueued = new AtomicBoolean(false);
+
+    /**
+     * Returns true if the command is waiting to be executed on the audio thread.
+     */
+    public boolean isQueued() {
+        return mQueued.get();
+    }
+
+}
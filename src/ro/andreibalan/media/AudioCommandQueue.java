@@ -0,0 +1,100 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multiple producer single consumer queue of {@link AudioCommand}s.
+ * <br/><br/>
+ * This is an intrusive queue: the commands themselves are the queue nodes. Producers only do one atomic exchange on the head,
+ * and the consumer (the {@link AudioThread}) walks the links without any atomic operation in the common case.
+ */
+final class AudioCommandQueue {
+
+    /**
+     * Placeholder node that keeps the queue non empty so producers never have to touch the tail.
+     */
+    private final AudioCommand mStub = new AudioCommand() {
+
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * Last command offered. Swapped by the producers.
+     */
+    private final AtomicReference<AudioCommand> mHead = new AtomicReference<AudioCommand>(mStub);
+
+    /**
+     * Next command to be polled. Only accessed by the consumer thread.
+     */
+    private AudioCommand mTail = mStub;
+
+    /**
+     * Adds the command at the end of the queue. Can be called from any thread.
+     */
+    void offer(final AudioCommand command) {
+        command.mNext = null;
+        final AudioCommand previous = mHead.getAndSet(command);
+        previous.mNext = command;
+    }
+
+    /**
+     * Removes the first command from the queue. Must only be called from the consumer thread.
+     * <br/><br/>
+     * Returns null if the queue is empty or if a producer is in the middle of linking its command, in which case that producer
+     * will wake the consumer up again once it is done.
+     */
+    AudioCommand poll() {
+        AudioCommand tail = mTail;
+        AudioCommand next = tail.mNext;
+
+        if (tail == mStub) {
+            if (next == null)
+                return null;
+
+            mTail = next;
+            tail = next;
+            next = next.mNext;
+        }
+
+        if (next != null) {
+            mTail = next;
+            return tail;
+        }
+
+        if (tail != mHead.get())
+            return null;
+
+        // The tail is the last command, put the stub back behind it so we can hand it out.
+        offer(mStub);
+
+        next = tail.mNext;
+        if (next != null) {
+            mTail = next;
+            return tail;
+        }
+
+        return null;
+    }
+
+}
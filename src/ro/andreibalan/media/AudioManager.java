@@ -19,9 +19,25 @@
  */
 package ro.andreibalan.media;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ro.andreibalan.media.backend.AndroidAudioBackend;
+import ro.andreibalan.media.backend.AudioBackend;
+import ro.andreibalan.media.flow.AudioFlow;
+import ro.andreibalan.media.flow.ConflatingPublisher;
+import ro.andreibalan.media.pcm.LoudnessIndex;
+import ro.andreibalan.media.volume.Fader;
 import ro.andreibalan.media.volume.Volume;
 import ro.andreibalan.media.volume.Volume.OnVolumeChangeListener;
 import android.content.Context;
@@ -31,6 +47,11 @@ public abstract class AudioManager<T extends Audio> {
 
     public final static String TAG = AudioManager.class.getSimpleName();
 
+    /**
+     * Default target loudness in LUFS, the EBU R 128 broadcast level.
+     */
+    public final static float DEFAULT_TARGET_LOUDNESS = -23f;
+
     /**
      * Every Audio Instance will be added to this audio pool when it's created using the Factory Methods.
      * This way the AudioManager can keep track of every initialized instance.
@@ -38,9 +59,51 @@ public abstract class AudioManager<T extends Audio> {
     private final CopyOnWriteArrayList<T> mAudioPool = new CopyOnWriteArrayList<T>();
 
     /**
-     * The system audio manager that will be retrieved in the Constructor.
+     * Identity hashed index of the audio pool, so checking if an instance is in the pool is O(1) and never walks the list.
+     * Changes to both are made while holding the index.
+     */
+    private final Set<T> mAudioPoolIndex = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    /**
+     * Incremented every time an instance is added to or removed from the audio pool so we know when the snapshot is stale.
+     */
+    private final AtomicInteger mPoolVersion = new AtomicInteger();
+
+    /**
+     * Array snapshot of the audio pool used for iteration, or null if it has been dropped.
+     * It is only rebuilt lazily the first time it is needed after the pool has changed.
+     */
+    private volatile PoolSnapshot mPoolSnapshot;
+
+    /**
+     * Immutable holder of the audio pool array together with the pool version it has been built from.
+     */
+    private static final class PoolSnapshot {
+
+        private final int mVersion;
+
+        private final Object[] mItems;
+
+        private PoolSnapshot(final int version, final Object[] items) {
+            mVersion = version;
+            mItems = items;
+        }
+    }
+
+    /**
+     * The audio thread where all the audio control operations of this manager and its instances are executed.
      */
-    private android.media.AudioManager mSystemAudioManager;
+    private final AudioThread mAudioThread;
+
+    /**
+     * Drives the fades of the volumes this manager creates for itself and its instances.
+     */
+    private final Fader mFader;
+
+    /**
+     * The backend every platform audio call of this manager and its instances goes through.
+     */
+    private final AudioBackend mBackend;
 
     /**
      * Context
@@ -52,12 +115,57 @@ public abstract class AudioManager<T extends Audio> {
      */
     private Volume mMasterVolume;
 
+    /**
+     * Loudness measurements used to normalize new instances, or null to leave them as they are.
+     */
+    private volatile LoudnessIndex mLoudnessIndex;
+
+    private volatile float mTargetLoudness = DEFAULT_TARGET_LOUDNESS;
+
+    /**
+     * Output device the audio is currently routed to, or null until it has been queried after a routing change.
+     */
+    private volatile AudioOutputDevice mOutputDevice;
+
+    /**
+     * Output device whose profile has been applied last, so a routing change that does not change the device applies nothing.
+     */
+    private volatile AudioOutputDevice mAppliedOutputDevice;
+
+    /**
+     * Profiles applied to the master volume for every output device. Guarded by itself.
+     */
+    private final EnumMap<AudioOutputDevice, OutputProfile> mOutputProfiles = new EnumMap<AudioOutputDevice, OutputProfile>(AudioOutputDevice.class);
+
+    /**
+     * Drops the cached output device when the backend reports a routing change and applies the profile of the new one.
+     * Kept in a field since the backend only holds it weakly.
+     */
+    private final AudioBackend.OnRoutingChangeListener mRoutingChangeListener = new AudioBackend.OnRoutingChangeListener() {
+
+        @Override
+        public void onRoutingChange() {
+            invalidateOutputDevice();
+        }
+    };
+
+    /**
+     * True while the routing change listener is registered with the backend. It is removed by {@link #handleReleaseAll()} and added back by
+     * {@link #handleStart()}.
+     */
+    private boolean mRoutingChangeListenerAdded = false;
+
     /**
      * The current state of this Audio manager.
      * By default it is set to STOPPED.
      */
     private ManagerState mCurrentState = ManagerState.IDLE;
 
+    /**
+     * Publisher of the manager state transitions.
+     */
+    private final ConflatingPublisher<ManagerState> mStatePublisher = new ConflatingPublisher<ManagerState>();
+
     /**
      *  Interface that will be implemented by Audio to be used when notifying the master volume change to all the Audio Instances.
      */
@@ -73,12 +181,12 @@ public abstract class AudioManager<T extends Audio> {
     /**
      * Volume change listener that will be attached to the current volume instance.
      */
-    private OnVolumeChangeListener mMasterVolumeChangeListener = new Volume.OnVolumeChangeListener() {
+    private final OnVolumeChangeListener mMasterVolumeChangeListener = new Volume.OnVolumeChangeListener() {
 
         @Override
         public void onVolumeChange(float leftChannel, float rightChannel) {
-            // When the master volume changes we notify all the OnMasterVolumeChange instances.
-            notifyMasterVolumeChange();
+            // When the master volume changes we notify all the OnMasterVolumeChange instances on the audio thread.
+            mAudioThread.execute(mMasterVolumeCommand);
         }
 
         @Override
@@ -87,6 +195,17 @@ public abstract class AudioManager<T extends Audio> {
         }
     };
 
+    /**
+     * Reused command that notifies the master volume change. Every change within the same frame is coalesced into one notification.
+     */
+    private final AudioCommand mMasterVolumeCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            notifyMasterVolumeChange();
+        }
+    };
+
     /**
      * Type of Audio Output Devices.
      * This will reflect what output is currently used by the phone.
@@ -108,35 +227,133 @@ public abstract class AudioManager<T extends Audio> {
     }
 
     /**
-     * This is the main constructor for the AudioManager but will be called for all the child constructors.
+     * This is the main constructor for the AudioManager but will be called for all the child constructors.<br/>
+     * All the platform audio calls will go to Android through an {@link AndroidAudioBackend}.
      */
     protected AudioManager(Context context) {
-        Log.v(TAG, "Constructor");
+        this(context, new AndroidAudioBackend(context));
+    }
 
-        this.mContext = context;
+    /**
+     * Constructor used to run the AudioManager on a specific backend, e.g. a simulated one.
+     */
+    protected AudioManager(Context context, AudioBackend backend) {
+        this(context, backend, AudioThread.getInstance(), Fader.getDefault());
+    }
 
-        // Retrieve the Audio Manager from the system context.
-        mSystemAudioManager = (android.media.AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+    /**
+     * Constructor used to run the AudioManager on a specific backend and audio thread, e.g. ones driven by a
+     * {@link ro.andreibalan.media.backend.VirtualClock} so tests are deterministic.
+     * 
+     * @param backend - Backend used for every platform audio call.
+     * @param audioThread - Thread where all the audio control operations are executed, its clock times the scheduled playback.
+     * @param fader - Fader of the volumes created by the manager, use {@link Fader#forAudioThread(AudioThread)} when the thread has no Looper.
+     */
+    protected AudioManager(Context context, AudioBackend backend, AudioThread audioThread, Fader fader) {
+        Log.v(TAG, "Constructor: backend: " + backend);
+
+        if (backend == null)
+            throw new IllegalArgumentException("You cannot pass a null backend to the AudioManager.");
+
+        if (audioThread == null || fader == null)
+            throw new IllegalArgumentException("You cannot pass a null audio thread or fader to the AudioManager.");
+
+        this.mContext = context;
+        this.mBackend = backend;
+        this.mAudioThread = audioThread;
+        this.mFader = fader;
 
         // Set a new Volume Object. All to maximum.
-        setMasterVolume(new Volume(1.0f, 1.0f));
+        setMasterVolume(createVolume());
+        mStatePublisher.publish(mCurrentState);
+
+        mBackend.addOnRoutingChangeListener(mRoutingChangeListener);
+        mRoutingChangeListenerAdded = true;
+    }
+
+    /**
+     * Returns the audio thread where all the audio control operations are executed.
+     */
+    public AudioThread getAudioThread() {
+        return mAudioThread;
+    }
+
+    /**
+     * Returns the fader of the volumes created by this manager.
+     */
+    public Fader getFader() {
+        return mFader;
     }
 
-    protected android.media.AudioManager getSystemAudioManager() {
-        Log.v(TAG, "getSystemAudioManager");
-        return mSystemAudioManager;
+    /**
+     * Returns a new Volume at maximum that fades with the fader of this manager.
+     */
+    public Volume createVolume() {
+        final Volume volume = new Volume(1.0f, 1.0f);
+        volume.setFader(mFader);
+        return volume;
+    }
+
+    /**
+     * Returns the Context this manager has been created with.
+     */
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns the backend every platform audio call goes through.
+     */
+    public AudioBackend getBackend() {
+        return mBackend;
     }
 
     /**
-     * Adds an Audio Instance to the audio pool.
+     * Adds an Audio Instance to the audio pool.<br/>
+     * The first time an instance is added its volume listener is attached and its volume applied, see {@link Audio#attach()}.
      */
     public boolean add(final T audio) {
         Log.v(TAG, "add: " + audio);
 
-        if (!mAudioPool.contains(audio))
-            return mAudioPool.add(audio);
+        synchronized (mAudioPoolIndex) {
+            if (!mAudioPoolIndex.add(audio))
+                return false;
 
-        return false;
+            mAudioPool.add(audio);
+            invalidatePool();
+        }
+
+        audio.attach();
+        return true;
+    }
+
+    /**
+     * Adds all the given Audio Instances to the audio pool.<br/>
+     * The pool list is only copied and the snapshot invalidated once, so this should be preferred when adding a lot of instances.
+     * 
+     * @return - true if at least one instance has been added.
+     */
+    public boolean addAll(final Collection<? extends T> audio) {
+        Log.v(TAG, "addAll: " + audio.size());
+
+        final List<T> added = new ArrayList<T>(audio.size());
+        synchronized (mAudioPoolIndex) {
+            for (T audioInstance : audio) {
+                if (mAudioPoolIndex.add(audioInstance))
+                    added.add(audioInstance);
+            }
+
+            if (added.isEmpty())
+                return false;
+
+            mAudioPool.addAll(added);
+            invalidatePool();
+        }
+
+        for (T audioInstance : added)
+            audioInstance.attach();
+
+        return true;
     }
 
     /**
@@ -144,28 +361,130 @@ public abstract class AudioManager<T extends Audio> {
      */
     public boolean remove(final T audio) {
         Log.v(TAG, "remove: " + audio);
-        if (mAudioPool.contains(audio))
-            return mAudioPool.remove(audio);
 
-        return false;
+        synchronized (mAudioPoolIndex) {
+            if (!mAudioPoolIndex.remove(audio))
+                return false;
+
+            mAudioPool.remove(audio);
+            invalidatePool();
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all the given Audio Instances from the audio pool.<br/>
+     * The pool list is only copied and the snapshot invalidated once, so this should be preferred when removing a lot of instances.
+     * 
+     * @return - true if at least one instance has been removed.
+     */
+    public boolean removeAll(final Collection<? extends T> audio) {
+        Log.v(TAG, "removeAll: " + audio.size());
+
+        final List<T> removed = new ArrayList<T>(audio.size());
+        synchronized (mAudioPoolIndex) {
+            for (T audioInstance : audio) {
+                if (mAudioPoolIndex.remove(audioInstance))
+                    removed.add(audioInstance);
+            }
+
+            if (removed.isEmpty())
+                return false;
+
+            mAudioPool.removeAll(removed);
+            invalidatePool();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if the Audio Instance is in the audio pool.
+     */
+    public boolean contains(final T audio) {
+        return mAudioPoolIndex.contains(audio);
+    }
+
+    /**
+     * Returns the number of Audio Instances in the audio pool.
+     */
+    public int getPoolSize() {
+        return mAudioPool.size();
+    }
+
+    /**
+     * Marks the current pool snapshot as stale so it will be rebuilt the next time it is needed.
+     * Called after the pool list has changed, while holding the pool index.
+     */
+    private void invalidatePool() {
+        mPoolVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the array snapshot of the audio pool in insertion order, rebuilding it only if the pool has changed since the last one.<br/>
+     * The returned array must never be modified.
+     */
+    protected Object[] getPoolSnapshot() {
+        final PoolSnapshot snapshot = mPoolSnapshot;
+        final int version = mPoolVersion.get();
+
+        if (snapshot != null && snapshot.mVersion == version)
+            return snapshot.mItems;
+
+        // The version is read before the copy, so a change made while we copy is picked up by the next call.
+        final Object[] items = mAudioPool.toArray();
+        mPoolSnapshot = new PoolSnapshot(version, items);
+        return items;
     }
 
     /**
-     * Returns the current audio pool list.
+     * Called by the {@link TrimPolicy} on the audio thread under critical memory pressure, after the instances have been trimmed.<br/>
+     * Drops the pool snapshot so it is only rebuilt when it is needed again. Child classes shrink their own caches as well.
+     */
+    protected void handleTrimMemory() {
+        Log.v(TAG, "handleTrimMemory");
+        mPoolSnapshot = null;
+    }
+
+    /**
+     * Creates an instance from an {@link AudioSnapshot} record without loading its audio and adds it to the audio pool.<br/>
+     * Child classes read the state they have written in their Audio Instance's writeSnapshot. Managers that do not support snapshots return null
+     * and the record is skipped.
+     * 
+     * @param source - Source the audio will be loaded from on the first play.
+     * @param in - Snapshot record positioned after the source.
+     * @return - The restored instance or null.
+     * 
+     * @throws IOException if the record can not be read.
+     */
+    protected T createFromSnapshot(final AudioSource source, final DataInput in) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the current audio pool list in the order the instances have been added.<br/>
+     * Use {@link #add} and {@link #remove} to change the audio pool so its index and snapshot stay up to date.
      */
     public CopyOnWriteArrayList<T> getPool() {
         Log.v(TAG, "getPool");
         return mAudioPool;
     }
 
+    /**
+     * Returns a new list with the Audio Instances that are in one of the given states, the most recently added first.
+     */
+    @SuppressWarnings("unchecked")
     public CopyOnWriteArrayList<T> getPool(Audio.State... state) {
         Log.v(TAG, "getPool: state: " + state);
 
+        final List<Audio.State> states = Arrays.asList(state);
         final CopyOnWriteArrayList<T> pool = new CopyOnWriteArrayList<T>();
 
-        for (int i = mAudioPool.size() - 1; i >= 0; i--) {
-            final T audioInstance = mAudioPool.get(i);
-            if (Arrays.asList(state).contains(audioInstance.getState()))
+        final Object[] snapshot = getPoolSnapshot();
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            final T audioInstance = (T) snapshot[i];
+            if (states.contains(audioInstance.getState()))
                 pool.add(audioInstance);
         }
 
@@ -182,8 +501,20 @@ public abstract class AudioManager<T extends Audio> {
         if (volume == null)
             throw new IllegalArgumentException("You cannot pass a null object to setVolume.");
 
+        if (mMasterVolume == volume)
+            return;
+
+        // Detach from the replaced volume so it stops notifying the pool.
+        if (mMasterVolume != null)
+            mMasterVolume.removeOnVolumeChangeListener(mMasterVolumeChangeListener);
+
         mMasterVolume = volume;
-        mMasterVolume.addOnVolumeChangeListener(mMasterVolumeChangeListener);
+        mMasterVolume.registerWeakOnVolumeChangeListener(mMasterVolumeChangeListener);
+
+        // The new volume gets the profile of the current device.
+        final AudioOutputDevice outputDevice = mOutputDevice;
+        if (outputDevice != null)
+            applyOutputProfile(outputDevice);
 
         // Manually notify our listener because the instance has changed therefore the volume will most probably not be the same.
         mMasterVolumeChangeListener.onVolumeChange(mMasterVolume.getCalculatedLeftChannel(), mMasterVolume.getCalculatedRightChannel());
@@ -199,21 +530,61 @@ public abstract class AudioManager<T extends Audio> {
     }
 
     /**
-     * Notifies every Audio instance in the pool starting with the last one added.<br/>
+     * Sets the loudness measurements used to normalize the instances created from now on.<br/>
+     * Instances created from an indexed asset or file get a gain that brings them to the target loudness, so quiet and loud assets
+     * play at the same level without the volume of every instance being tuned by hand. Louder files are attenuated, quieter ones keep their level.
+     * Instances that already exist are not changed.
+     * 
+     * @param index - Measurements, e.g. read from an asset using {@link LoudnessIndex#read(java.io.InputStream)}, or null to stop normalizing.
+     * @param targetLoudness - Target loudness in LUFS, e.g. {@link #DEFAULT_TARGET_LOUDNESS}.
+     */
+    public void setLoudnessIndex(final LoudnessIndex index, final float targetLoudness) {
+        Log.v(TAG, "setLoudnessIndex: " + index + ", targetLoudness: " + targetLoudness);
+
+        if (targetLoudness > 0 || Float.isNaN(targetLoudness))
+            throw new IllegalArgumentException("The target loudness must be a negative LUFS value.");
+
+        mTargetLoudness = targetLoudness;
+        mLoudnessIndex = index;
+    }
+
+    public LoudnessIndex getLoudnessIndex() {
+        return mLoudnessIndex;
+    }
+
+    public float getTargetLoudness() {
+        return mTargetLoudness;
+    }
+
+    /**
+     * Returns the normalization gain of audio loaded from the source, 1.0 if it is not in the loudness index.<br/>
+     * Assets are looked up by their asset path and files by their absolute path; resources are never indexed.
+     */
+    float getNormalizationGain(final AudioSource source) {
+        final LoudnessIndex index = mLoudnessIndex;
+        if (index == null || source.getPath() == null)
+            return 1.0f;
+
+        return index.getGain(source.getPath(), mTargetLoudness);
+    }
+
+    /**
+     * Notifies every Audio instance in the pool.<br/>
      * This should normally be called when the master volume has been changed and we get notified using the Volume.OnVolumeChangeListener.
      */
     private void notifyMasterVolumeChange() {
         Log.v(TAG, "notifyMasterVolumeChange");
 
-        for (int i = mAudioPool.size() - 1; i >= 0; i--) {
-            ((OnMasterVolumeChange) mAudioPool.get(i)).onMasterVolumeChange(mMasterVolume);
+        final Object[] snapshot = getPoolSnapshot();
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            ((OnMasterVolumeChange) snapshot[i]).onMasterVolumeChange(mMasterVolume);
         }
     }
 
     /**
      * Returns the current state of the Audio Manager.
      */
-    public ManagerState getState() {
+    public synchronized ManagerState getState() {
         Log.v(TAG, "getState: " + mCurrentState.toString());
 
         return mCurrentState;
@@ -222,29 +593,71 @@ public abstract class AudioManager<T extends Audio> {
     /**
      * Changes the state of the Audio Manager.
      */
-    public void setState(final ManagerState state) {
+    public synchronized void setState(final ManagerState state) {
         Log.v(TAG, "setState: " + state);
 
         mCurrentState = state;
+        mStatePublisher.publish(state);
     }
 
     /**
-     * This will return the Audio Output device.
+     * Returns a publisher of the manager state transitions that conflates to the latest state for every subscriber.<br/>
+     * The levels of the master volume are published by {@link Volume#getPublisher()} of {@link #getMasterVolume()}.
+     */
+    public AudioFlow.Publisher<ManagerState> getStatePublisher() {
+        return mStatePublisher;
+    }
+
+    /**
+     * This will return the Audio Output device.<br/>
+     * The device is cached and only queried again after the backend has reported a routing change, so this can be called as often as needed.
      */
-    @SuppressWarnings("deprecation")
     public AudioOutputDevice getOutputDevice() {
-        Log.v(TAG, "getOutputDevice");
+        final AudioOutputDevice outputDevice = mOutputDevice;
+        return (outputDevice != null) ? outputDevice : updateOutputDevice();
+    }
+
+    /**
+     * Drops the cached output device, queries the current one and applies its profile if it has changed.<br/>
+     * Called on routing changes reported by the backend. Has to be called by whoever toggles the speakerphone, which is not broadcast.
+     */
+    public void invalidateOutputDevice() {
+        Log.v(TAG, "invalidateOutputDevice");
+
+        mOutputDevice = null;
+        updateOutputDevice();
+    }
+
+    private synchronized AudioOutputDevice updateOutputDevice() {
+        if (mOutputDevice != null)
+            return mOutputDevice;
+
+        final AudioOutputDevice previousDevice = mAppliedOutputDevice;
+        final AudioOutputDevice outputDevice = queryOutputDevice();
+        mOutputDevice = outputDevice;
+
+        Log.v(TAG, "updateOutputDevice: " + outputDevice);
+
+        if (outputDevice != previousDevice)
+            applyOutputProfile(outputDevice);
+
+        return outputDevice;
+    }
 
+    /**
+     * Asks the backend for the current output device.
+     */
+    private AudioOutputDevice queryOutputDevice() {
         // Query for Bluetooth A2DP
-        if (mSystemAudioManager.isBluetoothA2dpOn())
+        if (mBackend.isBluetoothA2dpOn())
             return AudioOutputDevice.A2DP;
 
         // Query for SpeakerPhone
-        if (mSystemAudioManager.isSpeakerphoneOn())
+        if (mBackend.isSpeakerphoneOn())
             return AudioOutputDevice.SPEAKERPHONE;
 
         // Query for Wired Headset
-        if (mSystemAudioManager.isWiredHeadsetOn())
+        if (mBackend.isWiredHeadsetOn())
             return AudioOutputDevice.HEADSET;
 
         // Return Default Device Output (Device Speaker)
@@ -252,34 +665,137 @@ public abstract class AudioManager<T extends Audio> {
     }
 
     /**
-     * Releases all the Audio Instances added to the AudioPool starting with the last one added.
+     * Sets the gain and ceiling applied to the master volume while the given device is in use.<br/>
+     * The profile is applied once when the device becomes the current one, or right away if it already is.
+     * 
+     * @param outputDevice - Output device.
+     * @param profile - Profile of the device, or null for {@link OutputProfile#DEFAULT}.
+     */
+    public void setOutputProfile(final AudioOutputDevice outputDevice, final OutputProfile profile) {
+        Log.v(TAG, "setOutputProfile: " + outputDevice + ", " + profile);
+
+        if (outputDevice == null)
+            throw new IllegalArgumentException("You cannot set a profile for a null device.");
+
+        synchronized (mOutputProfiles) {
+            if (profile != null)
+                mOutputProfiles.put(outputDevice, profile);
+            else
+                mOutputProfiles.remove(outputDevice);
+        }
+
+        if (getOutputDevice() == outputDevice)
+            applyOutputProfile(outputDevice);
+    }
+
+    /**
+     * Returns the profile of the device, {@link OutputProfile#DEFAULT} if none has been set.
+     */
+    public OutputProfile getOutputProfile(final AudioOutputDevice outputDevice) {
+        synchronized (mOutputProfiles) {
+            final OutputProfile profile = mOutputProfiles.get(outputDevice);
+            return (profile != null) ? profile : OutputProfile.DEFAULT;
+        }
+    }
+
+    private void applyOutputProfile(final AudioOutputDevice outputDevice) {
+        final OutputProfile profile = getOutputProfile(outputDevice);
+        Log.v(TAG, "applyOutputProfile: " + outputDevice + ", " + profile);
+
+        mAppliedOutputDevice = outputDevice;
+        mMasterVolume.setOutputGain(profile.getGain(), profile.getCeiling());
+    }
+
+    /**
+     * Releases all the Audio Instances added to the AudioPool.<br/>
+     * The call is posted to the audio thread where {@link #handleReleaseAll()} will be called.
      */
     public void releaseAll() {
-        Log.v(TAG, "releaseAll: Releasing " + mAudioPool.size() + " Audio Instances");
+        Log.v(TAG, "releaseAll");
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                handleReleaseAll();
+            }
+        });
+    }
+
+    /**
+     * Stops and releases all the Audio Instances added to the AudioPool and stops following routing changes until the manager is started again.
+     * Always called on the audio thread.
+     */
+    @SuppressWarnings("unchecked")
+    protected void handleReleaseAll() {
+        Log.v(TAG, "handleReleaseAll: Releasing " + mAudioPool.size() + " Audio Instances");
 
-        for (int i = mAudioPool.size() - 1; i >= 0; i--) {
-            final T audio = mAudioPool.get(i);
+        final Object[] snapshot = getPoolSnapshot();
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            final T audio = (T) snapshot[i];
 
             audio.stop();
             audio.release();
         }
 
+        // Lets the backend unregister its broadcast receiver while the manager is not used.
+        mBackend.removeOnRoutingChangeListener(mRoutingChangeListener);
+        mRoutingChangeListenerAdded = false;
+
         setState(ManagerState.IDLE);
     }
 
     /**
-     * This is called when you want to start the AudioManager.
+     * This is called when you want to start the AudioManager.<br/>
+     * The call is posted to the audio thread where {@link #handleStart()} will be called.
      */
     public void start() {
         Log.v(TAG, "start");
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                handleStart();
+            }
+        });
+    }
+
+    /**
+     * Starts the Audio Manager. Always called on the audio thread.
+     */
+    protected void handleStart() {
+        if (!mRoutingChangeListenerAdded) {
+            mBackend.addOnRoutingChangeListener(mRoutingChangeListener);
+            mRoutingChangeListenerAdded = true;
+
+            // Routing changes have not been followed since the release.
+            invalidateOutputDevice();
+        }
+
         setState(ManagerState.STARTED);
     }
 
     /**
-     * This is called when you want to stop the Audio Manager.
+     * This is called when you want to stop the Audio Manager.<br/>
+     * The call is posted to the audio thread where {@link #handleStop()} will be called.
      */
     public void stop() {
         Log.v(TAG, "stop");
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                handleStop();
+            }
+        });
+    }
+
+    /**
+     * Stops the Audio Manager. Always called on the audio thread.
+     */
+    protected void handleStop() {
         setState(ManagerState.STOPPED);
     }
 
@@ -0,0 +1,150 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of commands ordered by their clock time, used by the {@link AudioThread} scheduler.
+ * <br/><br/>
+ * Commands due at the same time run in the order they have been scheduled. The heap is backed by arrays that only grow,
+ * so scheduling does not allocate once the heap has reached its working size.
+ */
+final class AudioScheduleQueue {
+
+    private long[] mTimes = new long[16];
+
+    private long[] mSequences = new long[16];
+
+    private AudioCommand[] mCommands = new AudioCommand[16];
+
+    private int mSize = 0;
+
+    private long mNextSequence = 0;
+
+    synchronized void add(final AudioCommand command, final long time) {
+        if (mSize == mCommands.length) {
+            mTimes = Arrays.copyOf(mTimes, mSize * 2);
+            mSequences = Arrays.copyOf(mSequences, mSize * 2);
+            mCommands = Arrays.copyOf(mCommands, mSize * 2);
+        }
+
+        int index = mSize++;
+        set(index, time, mNextSequence++, command);
+        siftUp(index);
+    }
+
+    /**
+     * Returns the time of the earliest command or Long.MAX_VALUE if the heap is empty.
+     */
+    synchronized long peekTime() {
+        return (mSize > 0) ? mTimes[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Removes and returns the earliest command if it is due at the given time, otherwise null.
+     */
+    synchronized AudioCommand pollDue(final long time) {
+        if (mSize == 0 || mTimes[0] > time)
+            return null;
+
+        final AudioCommand command = mCommands[0];
+        removeAt(0);
+        return command;
+    }
+
+    /**
+     * Removes every scheduled execution of the command.
+     * 
+     * @return - true if the command was scheduled.
+     */
+    synchronized boolean remove(final AudioCommand command) {
+        boolean removed = false;
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (mCommands[i] == command) {
+                removeAt(i);
+                removed = true;
+            }
+        }
+
+        return removed;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    private void removeAt(final int index) {
+        final int last = --mSize;
+        if (index != last) {
+            set(index, mTimes[last], mSequences[last], mCommands[last]);
+            siftDown(index);
+            siftUp(index);
+        }
+
+        mCommands[last] = null;
+    }
+
+    private boolean less(final int a, final int b) {
+        return mTimes[a] < mTimes[b] || (mTimes[a] == mTimes[b] && mSequences[a] < mSequences[b]);
+    }
+
+    private void set(final int index, final long time, final long sequence, final AudioCommand command) {
+        mTimes[index] = time;
+        mSequences[index] = sequence;
+        mCommands[index] = command;
+    }
+
+    private void swap(final int a, final int b) {
+        final long time = mTimes[a];
+        final long sequence = mSequences[a];
+        final AudioCommand command = mCommands[a];
+        set(a, mTimes[b], mSequences[b], mCommands[b]);
+        set(b, time, sequence, command);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!less(index, parent))
+                return;
+
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            final int left = index * 2 + 1;
+            if (left >= mSize)
+                return;
+
+            final int right = left + 1;
+            final int child = (right < mSize && less(right, left)) ? right : left;
+            if (!less(child, index))
+                return;
+
+            swap(index, child);
+            index = child;
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Saves the audio pool of a manager into a compact binary file and restores it after the process has been killed.
+ * <br/><br/>
+ * Every instance that has a {@link AudioSource} is written with its state and volume, child classes add their own settings like
+ * the Music position, looping and crossfade. Restoring does not load any audio: the instances are created trimmed and are only
+ * loaded the first time they are played, so restoring a large pool takes about as long as reading the file.
+ * <br/><br/>
+ * <b>NOTE: Resource IDs can change between builds of the app, so a snapshot should be deleted when the app is updated.</b>
+ */
+public final class AudioSnapshot {
+
+    public final static String TAG = AudioSnapshot.class.getSimpleName();
+
+    /**
+     * "AMSN" in ASCII.
+     */
+    private final static int MAGIC = 0x414D534E;
+
+    private final static int VERSION = 1;
+
+    private AudioSnapshot() {
+    }
+
+    /**
+     * Writes the audio pool of the manager to the file. The file is replaced only once the snapshot has been written completely.
+     * <br/><br/>
+     * Instances without a single source (e.g. FX Containers) are skipped with a warning since they can not be restored from a record.
+     * 
+     * @param manager - Manager whose pool is saved.
+     * @param file - Snapshot file.
+     * @return - Number of instances written.
+     * 
+     * @throws IOException
+     */
+    public static int write(final AudioManager<?> manager, final File file) throws IOException {
+        if (manager == null || file == null)
+            throw new IllegalArgumentException("Manager and file can not be null.");
+
+        final Object[] pool = manager.getPoolSnapshot();
+
+        // Every record is prefixed with its length so a record that can not be restored is skipped without losing the rest.
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        final DataOutputStream recordOut = new DataOutputStream(record);
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream(pool.length * 64);
+        final DataOutputStream recordsOut = new DataOutputStream(records);
+
+        int count = 0;
+        for (Object item : pool) {
+            final Audio audio = (Audio) item;
+            final AudioSource source = audio.getSource();
+            if (source == null) {
+                Log.w(TAG, "write: skipping " + audio.getClass().getSimpleName() + ", it has no single source to be restored from.");
+                continue;
+            }
+
+            record.reset();
+            source.write(recordOut);
+            audio.writeSnapshot(recordOut);
+            recordOut.flush();
+
+            recordsOut.writeInt(record.size());
+            record.writeTo(recordsOut);
+            count++;
+        }
+
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(count);
+            records.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+
+        Log.v(TAG, "write: " + count + " instances, " + (records.size() + 10) + " bytes to " + file);
+        return count;
+    }
+
+    /**
+     * Restores the instances saved in the file into the manager without loading their audio.
+     * 
+     * @see #restore(AudioManager, File, boolean)
+     */
+    public static <T extends Audio> List<T> restore(final AudioManager<T> manager, final File file) throws IOException {
+        return restore(manager, file, false);
+    }
+
+    /**
+     * Restores the instances saved in the file into the manager. Their audio is loaded the first time they are played.
+     * <br/><br/>
+     * Instances that were playing when the snapshot was taken are restored paused at their position. If resume is true they are played
+     * right away, so only the audio that is heard is loaded. Records that can not be restored are skipped.
+     * 
+     * @param manager - Manager the instances are restored in.
+     * @param file - Snapshot file.
+     * @param resume - True to play the instances that were playing.
+     * @return - The restored instances, empty if there is no snapshot.
+     * 
+     * @throws IOException if the file is not a snapshot or can not be read.
+     */
+    public static <T extends Audio> List<T> restore(final AudioManager<T> manager, final File file, final boolean resume) throws IOException {
+        if (manager == null || file == null)
+            throw new IllegalArgumentException("Manager and file can not be null.");
+
+        final List<T> restored = new ArrayList<T>();
+        if (!file.exists())
+            return restored;
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not an audio snapshot.");
+
+            final int version = in.readUnsignedShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+
+                final T audio = restore(manager, record);
+                if (audio != null)
+                    restored.add(audio);
+            }
+        } finally {
+            in.close();
+        }
+
+        Log.v(TAG, "restore: " + restored.size() + " instances from " + file);
+
+        if (resume)
+            for (T audio : restored)
+                if (audio.isPlayingInSnapshot())
+                    audio.play();
+
+        return restored;
+    }
+
+    private static <T extends Audio> T restore(final AudioManager<T> manager, final byte[] record) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+        try {
+            return manager.createFromSnapshot(AudioSource.read(in), in);
+        } catch (IOException e) {
+            Log.w(TAG, "restore: skipping a record that can not be read.", e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "restore: skipping a record that can not be restored.", e);
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Describes where the audio of an instance has been loaded from so it can be loaded again later, e.g. after it has been trimmed.
+ * <br/><br/>
+ * Instances created from a descriptor owned by the caller have no source since the descriptor might be gone by then.
+ */
+public final class AudioSource {
+
+    public final static String TAG = AudioSource.class.getSimpleName();
+
+    public enum Type {
+        ASSET,
+        FILE,
+        RESOURCE
+    }
+
+    private final Type mType;
+
+    private final String mPath;
+
+    private final int mResourceID;
+
+    private AudioSource(final Type type, final String path, final int resourceID) {
+        mType = type;
+        mPath = path;
+        mResourceID = resourceID;
+    }
+
+    public static AudioSource asset(final String assetPath) {
+        if (assetPath == null)
+            throw new IllegalArgumentException("Asset path can not be null.");
+
+        return new AudioSource(Type.ASSET, assetPath, 0);
+    }
+
+    public static AudioSource file(final File file) {
+        if (file == null)
+            throw new IllegalArgumentException("File can not be null.");
+
+        return new AudioSource(Type.FILE, file.getAbsolutePath(), 0);
+    }
+
+    public static AudioSource resource(final int rawResID) {
+        return new AudioSource(Type.RESOURCE, null, rawResID);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the asset path or absolute file path, null for resources.
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    public int getResourceID() {
+        return mResourceID;
+    }
+
+    public File getFile() {
+        return (mType == Type.FILE) ? new File(mPath) : null;
+    }
+
+    /**
+     * Writes the source to an {@link AudioSnapshot}.
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeByte(mType.ordinal());
+        if (mType == Type.RESOURCE)
+            out.writeInt(mResourceID);
+        else
+            out.writeUTF(mPath);
+    }
+
+    /**
+     * Reads a source written by {@link #write(DataOutput)}.
+     * 
+     * @throws IOException if the type is unknown.
+     */
+    static AudioSource read(final DataInput in) throws IOException {
+        final int type = in.readUnsignedByte();
+        if (type >= Type.values().length)
+            throw new IOException("Unknown source type " + type);
+
+        if (Type.values()[type] == Type.RESOURCE)
+            return new AudioSource(Type.RESOURCE, null, in.readInt());
+
+        return new AudioSource(Type.values()[type], in.readUTF(), 0);
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (!(object instanceof AudioSource))
+            return false;
+
+        final AudioSource source = (AudioSource) object;
+        return mType == source.mType && mResourceID == source.mResourceID && (mPath == null ? source.mPath == null : mPath.equals(source.mPath));
+    }
+
+    @Override
+    public int hashCode() {
+        return mType.hashCode() * 31 + ((mPath != null) ? mPath.hashCode() : mResourceID);
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[" + mType + ": " + ((mPath != null) ? mPath : String.valueOf(mResourceID)) + "]";
+    }
+
+}
@@ -0,0 +1,419 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Dedicated thread that executes every audio control operation of the library.
+ * <br/><br/>
+ * The public methods of {@link Audio} and {@link AudioManager} only post {@link AudioCommand}s to the lock-free command queue
+ * of this thread and return immediately, so slow SoundPool and MediaPlayer calls never run on the UI thread. Because every
+ * command, including the audio focus callbacks, runs here in the order it has been posted the ordering between them is deterministic.
+ * <br/><br/>
+ * All the commands that are waiting when the thread wakes up are executed together as one frame. Reusable commands that are posted
+ * again within the same frame are coalesced into one execution.
+ * <br/><br/>
+ * By default the commands run on a Looper thread so animators started from the commands (e.g. Volume fades) run there as well.
+ * The clock and the thread the frames run on can be replaced by creating an instance with another {@link AudioClock} and
+ * {@link Dispatcher}, e.g. one driven by a {@link ro.andreibalan.media.backend.VirtualClock} for deterministic tests.
+ * <br/><br/>
+ * Commands can also be scheduled at an {@link AudioClock} time. They are kept in a heap and the thread only wakes for the earliest
+ * one, so there is no polling timer. The wake up itself has millisecond resolution, backends that can place a command more precisely
+ * get the exact time from the command and are dispatched ahead of it.
+ */
+public class AudioThread {
+
+    public final static String TAG = AudioThread.class.getSimpleName();
+
+    /**
+     * Scheduled commands due within this time of the wake up run right away instead of waiting for another, shorter wake up.
+     */
+    private final static long SCHEDULE_TOLERANCE = AudioClock.NANOS_PER_MILLISECOND;
+
+    private static volatile AudioThread sInstance;
+
+    private final AudioCommandQueue mQueue = new AudioCommandQueue();
+
+    private final AudioScheduleQueue mScheduleQueue = new AudioScheduleQueue();
+
+    private final AudioClock mClock;
+
+    private final Dispatcher mDispatcher;
+
+    /**
+     * True when a drain message has been sent and not yet handled, so producers only wake the thread once per frame.
+     */
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+
+    /**
+     * Number of frames run so far, including the runs of scheduled commands. Only touched on the audio thread.
+     */
+    private long mFrame = 0;
+
+    private boolean mInFrame = false;
+
+    /**
+     * Commands that run once the current frame has executed all of its commands. Only touched on the audio thread.
+     */
+    private final ArrayList<AudioCommand> mFrameEndCommands = new ArrayList<AudioCommand>();
+
+    /**
+     * Runs the frames of an AudioThread on a thread of its choice.
+     * <br/><br/>
+     * Every callback requested through a dispatcher must run on the same thread, one at a time.
+     */
+    public interface Dispatcher {
+
+        /**
+         * Called once by the AudioThread constructor.
+         * 
+         * @param drain - Runs every posted command as one frame.
+         * @param runScheduled - Runs every scheduled command that is due as one frame.
+         */
+        public void attach(Runnable drain, Runnable runScheduled);
+
+        /**
+         * Returns true if the caller is running on the dispatching thread.
+         */
+        public boolean isCurrentThread();
+
+        /**
+         * Runs the drain runnable as soon as possible. Never called again before the drain has started.
+         */
+        public void requestDrain();
+
+        /**
+         * Runs the runScheduled runnable after the given delay, replacing the previous request.
+         */
+        public void requestScheduled(long delayMillis);
+
+        /**
+         * Runs the runnable on the dispatching thread after the given delay.
+         */
+        public void postDelayed(Runnable runnable, long delayMillis);
+
+        /**
+         * Removes any pending delayed execution of the runnable.
+         */
+        public void removeCallbacks(Runnable runnable);
+    }
+
+    /**
+     * Default dispatcher that runs the frames on a Looper thread with audio priority.
+     */
+    private final static class HandlerDispatcher implements Dispatcher {
+
+        private final static int MSG_DRAIN = 1;
+
+        private final static int MSG_SCHEDULE = 2;
+
+        private HandlerThread mThread;
+
+        private Handler mHandler;
+
+        @Override
+        public void attach(final Runnable drain, final Runnable runScheduled) {
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_AUDIO);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper(), new Handler.Callback() {
+
+                @Override
+                public boolean handleMessage(Message message) {
+                    if (message.what == MSG_DRAIN) {
+                        drain.run();
+                        return true;
+                    }
+
+                    if (message.what == MSG_SCHEDULE) {
+                        runScheduled.run();
+                        return true;
+                    }
+
+                    return false;
+                }
+            });
+        }
+
+        @Override
+        public boolean isCurrentThread() {
+            return (Thread.currentThread() == mThread);
+        }
+
+        @Override
+        public void requestDrain() {
+            mHandler.sendEmptyMessage(MSG_DRAIN);
+        }
+
+        @Override
+        public void requestScheduled(final long delayMillis) {
+            mHandler.removeMessages(MSG_SCHEDULE);
+            mHandler.sendEmptyMessageDelayed(MSG_SCHEDULE, delayMillis);
+        }
+
+        @Override
+        public void postDelayed(final Runnable runnable, final long delayMillis) {
+            mHandler.postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(final Runnable runnable) {
+            mHandler.removeCallbacks(runnable);
+        }
+    }
+
+    private final Runnable mDrainRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable mScheduledRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            runScheduled();
+        }
+    };
+
+    /**
+     * Creates an audio thread with its own clock and dispatcher, e.g. a virtual one for tests.<br/>
+     * Managers only use it when it is passed to their constructor, everything else uses {@link #getInstance()}.
+     * 
+     * @param clock - Clock the scheduled commands are timed with.
+     * @param dispatcher - Runs the frames, it is attached right away.
+     */
+    public AudioThread(final AudioClock clock, final Dispatcher dispatcher) {
+        if (clock == null || dispatcher == null)
+            throw new IllegalArgumentException("Clock and dispatcher can not be null.");
+
+        mClock = clock;
+        mDispatcher = dispatcher;
+        mDispatcher.attach(mDrainRunnable, mScheduledRunnable);
+    }
+
+    /**
+     * Returns the process wide audio thread, starting it the first time it is needed.
+     */
+    public static AudioThread getInstance() {
+        AudioThread instance = sInstance;
+        if (instance == null) {
+            synchronized (AudioThread.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new AudioThread(AudioClock.getMonotonic(), new HandlerDispatcher());
+                    sInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns true if the caller is running on the audio thread.
+     */
+    public boolean isCurrentThread() {
+        return mDispatcher.isCurrentThread();
+    }
+
+    /**
+     * Posts the command to the end of the queue.
+     * 
+     * @return - false if the command was already waiting in the queue and has been coalesced.
+     */
+    public boolean post(final AudioCommand command) {
+        if (!command.mQueued.compareAndSet(false, true))
+            return false;
+
+        mQueue.offer(command);
+
+        if (mDrainScheduled.compareAndSet(false, true))
+            mDispatcher.requestDrain();
+
+        return true;
+    }
+
+    /**
+     * Runs the command right away if the caller is on the audio thread, otherwise posts it.
+     */
+    public void execute(final AudioCommand command) {
+        if (isCurrentThread())
+            command.run();
+        else
+            post(command);
+    }
+
+    /**
+     * Runs the runnable on the audio thread after the given delay.
+     */
+    public void postDelayed(final Runnable runnable, final long delayMillis) {
+        mDispatcher.postDelayed(runnable, delayMillis);
+    }
+
+    /**
+     * Removes any pending delayed execution of the runnable.
+     */
+    public void removeCallbacks(final Runnable runnable) {
+        mDispatcher.removeCallbacks(runnable);
+    }
+
+    /**
+     * Returns the number of the current frame, so commands can tell if they run within the same frame. Only meaningful on the audio thread.
+     */
+    public long getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * Runs the command after every other command of the current frame, e.g. to merge the work of all the commands of a frame.<br/>
+     * Must be called on the audio thread. Outside of a frame the command runs right away.
+     */
+    public void runAtFrameEnd(final AudioCommand command) {
+        if (mInFrame)
+            mFrameEndCommands.add(command);
+        else
+            command.run();
+    }
+
+    /**
+     * Runs the commands registered using {@link #runAtFrameEnd(AudioCommand)} and ends the frame.
+     */
+    private void endFrame() {
+        // Commands registered while these run are added to the end and run in this loop as well.
+        for (int i = 0; i < mFrameEndCommands.size(); i++) {
+            final AudioCommand command = mFrameEndCommands.get(i);
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "endFrame: command failed: " + command, e);
+            }
+        }
+
+        mFrameEndCommands.clear();
+        mInFrame = false;
+    }
+
+    /**
+     * Returns the clock scheduled commands are timed with.
+     */
+    public AudioClock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Runs the command on the audio thread at the given clock time. A command can be scheduled more than once.
+     * 
+     * @param command - Command to run.
+     * @param time - {@link AudioClock} time in nanoseconds. Times in the past run as soon as possible.
+     */
+    public void schedule(final AudioCommand command, final long time) {
+        if (command == null)
+            throw new IllegalArgumentException("Command can not be null.");
+
+        mScheduleQueue.add(command, time);
+
+        // Only a new earliest command changes the next wake up.
+        if (mScheduleQueue.peekTime() == time)
+            armSchedule();
+    }
+
+    /**
+     * Removes every pending scheduled execution of the command.
+     * 
+     * @return - true if the command was scheduled.
+     */
+    public boolean unschedule(final AudioCommand command) {
+        return mScheduleQueue.remove(command);
+    }
+
+    /**
+     * Returns the number of scheduled commands that have not run yet.
+     */
+    public int getScheduledCount() {
+        return mScheduleQueue.size();
+    }
+
+    /**
+     * Sets the wake up for the earliest scheduled command.
+     */
+    private void armSchedule() {
+        final long time = mScheduleQueue.peekTime();
+        if (time == Long.MAX_VALUE)
+            return;
+
+        final long delay = Math.max(0, time - mClock.nanoTime()) / AudioClock.NANOS_PER_MILLISECOND;
+        mDispatcher.requestScheduled(delay);
+    }
+
+    /**
+     * Runs every scheduled command that is due and sets the wake up for the next one.
+     */
+    private void runScheduled() {
+        mFrame++;
+        mInFrame = true;
+
+        AudioCommand command;
+        while ((command = mScheduleQueue.pollDue(mClock.nanoTime() + SCHEDULE_TOLERANCE)) != null) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "runScheduled: command failed: " + command, e);
+            }
+        }
+
+        endFrame();
+        armSchedule();
+    }
+
+    /**
+     * Executes all the commands that are in the queue as one frame.
+     */
+    private void drain() {
+        // Cleared before polling so a command posted while we drain always schedules another frame.
+        mDrainScheduled.set(false);
+        mFrame++;
+        mInFrame = true;
+
+        AudioCommand command;
+        while ((command = mQueue.poll()) != null) {
+            // Cleared before running so the command can be posted again while it executes.
+            command.mQueued.set(false);
+
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain: command failed: " + command, e);
+            }
+        }
+
+        endFrame();
+    }
+
+}
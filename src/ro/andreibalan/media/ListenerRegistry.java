@@ -0,0 +1,210 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Thread safe set of listeners that never keeps dead listeners around.
+ * <br/><br/>
+ * Every listener is held by a {@link Registration}, either strongly or weakly. Weak registrations do not keep the listener
+ * reachable and are dropped the first time a dispatch finds them cleared, so owners that are never released do not leak through
+ * the objects they listen to. Registrations can also be removed through the handle itself, which scopes a registration to the
+ * lifetime of whatever keeps the handle.
+ * <br/><br/>
+ * Dispatching iterates {@link #getSnapshot()}, an array that is replaced on every change, so it neither locks nor allocates.
+ */
+public class ListenerRegistry<L> {
+
+    public final static String TAG = ListenerRegistry.class.getSimpleName();
+
+    @SuppressWarnings("rawtypes")
+    private final static Registration[] NO_REGISTRATIONS = new Registration[0];
+
+    @SuppressWarnings("unchecked")
+    private volatile Registration<L>[] mRegistrations = NO_REGISTRATIONS;
+
+    /**
+     * Handle of one registered listener.
+     */
+    public final static class Registration<L> {
+
+        private final ListenerRegistry<L> mRegistry;
+
+        private final L mListener;
+
+        private final WeakReference<L> mWeakListener;
+
+        private Registration(final ListenerRegistry<L> registry, final L listener, final boolean weak) {
+            mRegistry = registry;
+            mListener = weak ? null : listener;
+            mWeakListener = weak ? new WeakReference<L>(listener) : null;
+        }
+
+        /**
+         * Returns the listener, or null if it has been collected or removed. A collected listener is removed from the registry.
+         */
+        public L get() {
+            if (mWeakListener == null)
+                return mListener;
+
+            final L listener = mWeakListener.get();
+            if (listener == null)
+                mRegistry.unregister(this);
+
+            return listener;
+        }
+
+        public boolean isWeak() {
+            return (mWeakListener != null);
+        }
+
+        /**
+         * Removes the listener from the registry. Does nothing if it has already been removed.
+         */
+        public void remove() {
+            mRegistry.unregister(this);
+        }
+
+        private boolean isCleared() {
+            return (mWeakListener != null && mWeakListener.get() == null);
+        }
+
+        private boolean holds(final Object listener) {
+            return (mWeakListener != null) ? (mWeakListener.get() == listener) : (mListener == listener);
+        }
+    }
+
+    /**
+     * Registers a listener that is kept reachable until it is removed.<br/>
+     * A listener that is already registered is not added twice, its existing registration is returned.
+     */
+    public Registration<L> add(final L listener) {
+        return add(listener, false);
+    }
+
+    /**
+     * Registers a listener that is only held weakly, so it is removed once nothing else references it.<br/>
+     * <b>NOTE: Anonymous listeners that are not stored anywhere are collected right away.</b>
+     */
+    public Registration<L> addWeak(final L listener) {
+        return add(listener, true);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private synchronized Registration<L> add(final L listener, final boolean weak) {
+        if (listener == null)
+            throw new IllegalArgumentException("You cannot register a null listener.");
+
+        final Registration<L>[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].holds(listener))
+                return registrations[i];
+        }
+
+        final Registration<L> registration = new Registration<L>(this, listener, weak);
+        final Registration<L>[] newRegistrations = new Registration[registrations.length + 1];
+        System.arraycopy(registrations, 0, newRegistrations, 0, registrations.length);
+        newRegistrations[registrations.length] = registration;
+        mRegistrations = newRegistrations;
+        return registration;
+    }
+
+    /**
+     * Removes the registration of the listener.
+     * 
+     * @return - true if the listener was registered.
+     */
+    public synchronized boolean remove(final L listener) {
+        final Registration<L>[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].holds(listener))
+                return removeAt(i);
+        }
+
+        return false;
+    }
+
+    private synchronized boolean unregister(final Registration<L> registration) {
+        final Registration<L>[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i] == registration)
+                return removeAt(i);
+        }
+
+        return false;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean removeAt(final int index) {
+        final Registration<L>[] registrations = mRegistrations;
+        if (registrations.length == 1) {
+            mRegistrations = NO_REGISTRATIONS;
+            return true;
+        }
+
+        final Registration<L>[] newRegistrations = new Registration[registrations.length - 1];
+        System.arraycopy(registrations, 0, newRegistrations, 0, index);
+        System.arraycopy(registrations, index + 1, newRegistrations, index, registrations.length - index - 1);
+        mRegistrations = newRegistrations;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        mRegistrations = NO_REGISTRATIONS;
+    }
+
+    /**
+     * Removes the weak registrations whose listener has been collected, so {@link #size()} only counts live listeners.
+     */
+    public synchronized void purge() {
+        for (int i = mRegistrations.length - 1; i >= 0; i--) {
+            if (mRegistrations[i].isCleared())
+                removeAt(i);
+        }
+    }
+
+    public boolean contains(final L listener) {
+        final Registration<L>[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].holds(listener))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of registrations, including weak ones whose listener has been collected but not dispatched to or purged since.
+     */
+    public int size() {
+        return mRegistrations.length;
+    }
+
+    /**
+     * Returns the registrations to dispatch to. The array is never modified, changes replace it.<br/>
+     * Listeners must be fetched with {@link Registration#get()} and skipped when it returns null.
+     */
+    public Registration<L>[] getSnapshot() {
+        return mRegistrations;
+    }
+
+}
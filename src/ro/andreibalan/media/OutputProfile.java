@@ -0,0 +1,69 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+/**
+ * Gain and ceiling applied to the master volume of an {@link AudioManager} while a given output device is in use,
+ * e.g. to bring the level down on headsets and keep the phone speaker from clipping.
+ * <br/><br/>
+ * See {@link AudioManager#setOutputProfile(AudioManager.AudioOutputDevice, OutputProfile)}.
+ */
+public final class OutputProfile {
+
+    public final static String TAG = OutputProfile.class.getSimpleName();
+
+    /**
+     * Profile that leaves the master volume as it is.
+     */
+    public final static OutputProfile DEFAULT = new OutputProfile(1.0f, 1.0f);
+
+    private final float mGain;
+
+    private final float mCeiling;
+
+    /**
+     * @param gain - Multiplier of the master volume, between 0.0 and 1.0.
+     * @param ceiling - Highest level the master volume can reach after the gain, between 0.0 and 1.0.
+     */
+    public OutputProfile(final float gain, final float ceiling) {
+        if (gain < 0 || gain > 1)
+            throw new IllegalArgumentException("The gain must be between 0.0 and 1.0.");
+
+        if (ceiling < 0 || ceiling > 1)
+            throw new IllegalArgumentException("The ceiling must be between 0.0 and 1.0.");
+
+        mGain = gain;
+        mCeiling = ceiling;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    public float getCeiling() {
+        return mCeiling;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[gain: " + mGain + ", ceiling: " + mCeiling + "]";
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+/**
+ * A steady tempo anchored at a clock time, used to quantize scheduled playback to beats.
+ * <br/><br/>
+ * Beat times are computed from the origin so rounding never accumulates over a long session.
+ */
+public class Tempo {
+
+    public final static String TAG = Tempo.class.getSimpleName();
+
+    private final double mBeatsPerMinute;
+
+    private final long mOrigin;
+
+    private final double mBeatDuration;
+
+    /**
+     * @param beatsPerMinute - Tempo in beats per minute.
+     * @param origin - {@link AudioClock} time of beat 0, e.g. the time the music track started.
+     */
+    public Tempo(final double beatsPerMinute, final long origin) {
+        if (beatsPerMinute <= 0)
+            throw new IllegalArgumentException("Tempo must be positive.");
+
+        mBeatsPerMinute = beatsPerMinute;
+        mOrigin = origin;
+        mBeatDuration = 60.0 * AudioClock.NANOS_PER_SECOND / beatsPerMinute;
+    }
+
+    public double getBeatsPerMinute() {
+        return mBeatsPerMinute;
+    }
+
+    public long getOrigin() {
+        return mOrigin;
+    }
+
+    /**
+     * Returns the duration of one beat in nanoseconds.
+     */
+    public long getBeatDuration() {
+        return Math.round(mBeatDuration);
+    }
+
+    /**
+     * Returns the clock time of the given beat.
+     */
+    public long getBeatTime(final long beat) {
+        return mOrigin + Math.round(beat * mBeatDuration);
+    }
+
+    /**
+     * Returns the beat that is playing at the given time, negative before the origin.
+     */
+    public long getBeat(final long time) {
+        return (long) Math.floor((time - mOrigin) / mBeatDuration);
+    }
+
+    /**
+     * Returns the time of the first beat after the given time.
+     */
+    public long getNextBeatTime(final long time) {
+        return getNextBeatTime(time, 1);
+    }
+
+    /**
+     * Returns the time of the first subdivision of a beat after the given time.
+     * 
+     * @param time - Clock time.
+     * @param subdivision - Number of equal parts a beat is divided in, e.g. 2 for eighth notes in 4/4.
+     */
+    public long getNextBeatTime(final long time, final int subdivision) {
+        if (subdivision <= 0)
+            throw new IllegalArgumentException("Subdivision must be positive.");
+
+        final double step = mBeatDuration / subdivision;
+        final long index = (long) Math.floor((time - mOrigin) / step) + 1;
+        return mOrigin + Math.round(index * step);
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+/**
+ * Releases loaded audio under memory pressure. The app feeds it the levels it receives in onTrimMemory.
+ * <br/><br/>
+ * Every level maps to a {@link Tier}. An instance is trimmed when it is not playing, it can be loaded again from its {@link AudioSource},
+ * its own tier is not higher than the current one and it has not been used for the age of the current tier. An instance's tier is the one
+ * set for its trim tag using {@link #setTagTier(String, Tier)}, or the default of its type: idle Music players go first, then FX samples.
+ * Trimmed instances are loaded again transparently on their next play.
+ * <br/><br/>
+ * Candidates are trimmed in the order of their tier and then least recently used first.
+ */
+public class TrimPolicy {
+
+    public final static String TAG = TrimPolicy.class.getSimpleName();
+
+    /**
+     * Memory pressure tiers from lowest to highest.
+     */
+    public enum Tier {
+        /**
+         * Nothing is trimmed. Tagging instances with this tier keeps them loaded at any pressure.
+         */
+        NONE,
+
+        /**
+         * Instances that have been idle for the idle age are trimmed, by default only Music players.
+         */
+        IDLE,
+
+        /**
+         * Instances that have not been used for the stale age are trimmed, by default FX samples as well.
+         */
+        STALE,
+
+        /**
+         * Everything that is not playing is trimmed and caches are shrunk.
+         */
+        CRITICAL
+    }
+
+    public final static long DEFAULT_IDLE_AGE = 60000;
+
+    public final static long DEFAULT_STALE_AGE = 15000;
+
+    private final CopyOnWriteArrayList<AudioManager<?>> mManagers = new CopyOnWriteArrayList<AudioManager<?>>();
+
+    private final ConcurrentHashMap<String, Tier> mTagTiers = new ConcurrentHashMap<String, Tier>();
+
+    private volatile long mIdleAge = DEFAULT_IDLE_AGE;
+
+    private volatile long mStaleAge = DEFAULT_STALE_AGE;
+
+    private final AtomicLong mTrimmedCount = new AtomicLong();
+
+    /**
+     * Thread the trims run on, it should be the thread of the registered managers.
+     */
+    private final AudioThread mAudioThread;
+
+    /**
+     * Creates a policy that trims on the process wide {@link AudioThread}.
+     */
+    public TrimPolicy() {
+        this(AudioThread.getInstance());
+    }
+
+    /**
+     * Creates a policy that trims on the given audio thread, for managers that have been created with it.
+     */
+    public TrimPolicy(final AudioThread audioThread) {
+        if (audioThread == null)
+            throw new IllegalArgumentException("Audio thread can not be null.");
+
+        mAudioThread = audioThread;
+    }
+
+    /**
+     * Adds a manager whose pool will be trimmed.
+     */
+    public void addManager(final AudioManager<?> manager) {
+        if (manager == null)
+            throw new IllegalArgumentException("Manager can not be null.");
+
+        mManagers.addIfAbsent(manager);
+    }
+
+    public void removeManager(final AudioManager<?> manager) {
+        mManagers.remove(manager);
+    }
+
+    /**
+     * Sets the lowest tier at which instances with the given tag are trimmed.
+     * 
+     * @param tag - Trim tag set using {@link Audio#setTrimTag(String)}.
+     * @param tier - Lowest tier, {@link Tier#NONE} to never trim them.
+     */
+    public void setTagTier(final String tag, final Tier tier) {
+        if (tag == null || tier == null)
+            throw new IllegalArgumentException("Tag and tier can not be null.");
+
+        mTagTiers.put(tag, tier);
+    }
+
+    /**
+     * Sets how long in milliseconds an instance has to be unused before it is trimmed at the {@link Tier#IDLE} tier.
+     */
+    public void setIdleAge(final long idleAge) {
+        if (idleAge < 0)
+            throw new IllegalArgumentException("Idle age can not be negative.");
+
+        mIdleAge = idleAge;
+    }
+
+    /**
+     * Sets how long in milliseconds an instance has to be unused before it is trimmed at the {@link Tier#STALE} tier.
+     */
+    public void setStaleAge(final long staleAge) {
+        if (staleAge < 0)
+            throw new IllegalArgumentException("Stale age can not be negative.");
+
+        mStaleAge = staleAge;
+    }
+
+    /**
+     * Returns the total number of instances that have been trimmed.
+     */
+    public long getTrimmedCount() {
+        return mTrimmedCount.get();
+    }
+
+    /**
+     * Maps an onTrimMemory level to a tier.
+     */
+    public static Tier getTier(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            return Tier.CRITICAL;
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            return Tier.STALE;
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            return Tier.IDLE;
+
+        return Tier.NONE;
+    }
+
+    /**
+     * Forward the level received in ComponentCallbacks2.onTrimMemory here.
+     */
+    public void onTrimMemory(final int level) {
+        Log.v(TAG, "onTrimMemory: " + level);
+        trim(getTier(level));
+    }
+
+    /**
+     * Forward ComponentCallbacks.onLowMemory here.
+     */
+    public void onLowMemory() {
+        trim(Tier.CRITICAL);
+    }
+
+    /**
+     * Trims every registered manager for the given tier on the audio thread.
+     */
+    public void trim(final Tier tier) {
+        if (tier == Tier.NONE)
+            return;
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                handleTrim(tier);
+            }
+        });
+    }
+
+    private Tier getTier(final Audio audio) {
+        final String tag = audio.getTrimTag();
+        final Tier tagTier = (tag != null) ? mTagTiers.get(tag) : null;
+        return (tagTier != null) ? tagTier : audio.getDefaultTrimTier();
+    }
+
+    private long getAge(final Tier tier) {
+        switch (tier) {
+            case IDLE:
+                return mIdleAge;
+
+            case STALE:
+                return mStaleAge;
+
+            default:
+                return 0;
+        }
+    }
+
+    private void handleTrim(final Tier tier) {
+        final long now = mAudioThread.getClock().nanoTime();
+        final long maxLastUsedTime = now - getAge(tier) * AudioClock.NANOS_PER_MILLISECOND;
+
+        final ArrayList<Audio> candidates = new ArrayList<Audio>();
+        for (AudioManager<?> manager : mManagers) {
+            for (Object item : manager.getPoolSnapshot()) {
+                final Audio audio = (Audio) item;
+                final Tier audioTier = getTier(audio);
+
+                if (audioTier != Tier.NONE && audioTier.compareTo(tier) <= 0 && audio.getLastUsedTime() <= maxLastUsedTime && !audio.isTrimmed()
+                        && audio.isRestorable() && audio.isIdle())
+                    candidates.add(audio);
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<Audio>() {
+
+            @Override
+            public int compare(final Audio first, final Audio second) {
+                final int byTier = getTier(first).compareTo(getTier(second));
+                if (byTier != 0)
+                    return byTier;
+
+                return (first.getLastUsedTime() < second.getLastUsedTime()) ? -1 : (first.getLastUsedTime() == second.getLastUsedTime() ? 0 : 1);
+            }
+        });
+
+        int trimmed = 0;
+        for (Audio audio : candidates)
+            if (audio.trim())
+                trimmed++;
+
+        if (tier == Tier.CRITICAL)
+            for (AudioManager<?> manager : mManagers)
+                manager.handleTrimMemory();
+
+        mTrimmedCount.addAndGet(trimmed);
+        Log.v(TAG, "trim tier: " + tier + ", candidates: " + candidates.size() + ", trimmed: " + trimmed);
+    }
+
+}
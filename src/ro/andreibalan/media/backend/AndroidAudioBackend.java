@@ -0,0 +1,176 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import ro.andreibalan.media.ListenerRegistry;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.media.AudioManager.OnAudioFocusChangeListener;
+import android.media.MediaPlayer;
+import android.media.SoundPool;
+
+/**
+ * Default backend that forwards every call to the Android platform.
+ */
+public class AndroidAudioBackend implements AudioBackend {
+
+    public final static String TAG = AndroidAudioBackend.class.getSimpleName();
+
+    /**
+     * Broadcast of BluetoothA2dp, spelled out since the Bluetooth classes are not needed otherwise.
+     */
+    private final static String ACTION_A2DP_CONNECTION_STATE_CHANGED = "android.bluetooth.a2dp.profile.action.CONNECTION_STATE_CHANGED";
+
+    /**
+     * The system audio manager that will be retrieved in the Constructor.
+     */
+    private final AudioManager mSystemAudioManager;
+
+    private final Context mContext;
+
+    private final ListenerRegistry<OnRoutingChangeListener> mRoutingListeners = new ListenerRegistry<OnRoutingChangeListener>();
+
+    /**
+     * True while the routing receiver is registered, which is only the case while somebody listens.
+     */
+    private boolean mRoutingReceiverRegistered = false;
+
+    /**
+     * Receives the broadcasts that follow a routing change and notifies the routing listeners.
+     */
+    private final BroadcastReceiver mRoutingReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            final ListenerRegistry.Registration<OnRoutingChangeListener>[] listeners = mRoutingListeners.getSnapshot();
+            for (int i = 0; i < listeners.length; i++) {
+                final OnRoutingChangeListener listener = listeners[i].get();
+                if (listener != null)
+                    listener.onRoutingChange();
+            }
+
+            // Every listener may have been collected since the last broadcast.
+            unregisterUnusedReceiver();
+        }
+    };
+
+    public AndroidAudioBackend(final Context context) {
+        mContext = context.getApplicationContext();
+        mSystemAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * Returns the system audio manager.
+     */
+    public AudioManager getSystemAudioManager() {
+        return mSystemAudioManager;
+    }
+
+    @Override
+    public SampleBackend createSamplePool(final int maxSimultaneousStreams) {
+        return new AndroidSampleBackend(new SoundPool(maxSimultaneousStreams, AudioManager.STREAM_MUSIC, 0));
+    }
+
+    @Override
+    public PlayerBackend createPlayer() {
+        return new AndroidPlayerBackend(new MediaPlayer());
+    }
+
+    @Override
+    public PlayerBackend createPlayer(final Context context, final int rawResID) {
+        final MediaPlayer mediaPlayer = MediaPlayer.create(context, rawResID);
+        return (mediaPlayer != null) ? new AndroidPlayerBackend(mediaPlayer) : null;
+    }
+
+    @Override
+    public int requestAudioFocus(final OnAudioFocusChangeListener listener, final int streamType, final int focusType) {
+        if (mSystemAudioManager == null)
+            return AudioManager.AUDIOFOCUS_REQUEST_FAILED;
+
+        return mSystemAudioManager.requestAudioFocus(listener, streamType, focusType);
+    }
+
+    @Override
+    public int abandonAudioFocus(final OnAudioFocusChangeListener listener) {
+        if (mSystemAudioManager == null)
+            return AudioManager.AUDIOFOCUS_REQUEST_FAILED;
+
+        return mSystemAudioManager.abandonAudioFocus(listener);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isBluetoothA2dpOn() {
+        return mSystemAudioManager.isBluetoothA2dpOn();
+    }
+
+    @Override
+    public boolean isSpeakerphoneOn() {
+        return mSystemAudioManager.isSpeakerphoneOn();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isWiredHeadsetOn() {
+        return mSystemAudioManager.isWiredHeadsetOn();
+    }
+
+    /**
+     * Registers the listener and, for the first one, the receiver of the headset, Bluetooth A2DP, SCO and becoming noisy broadcasts.<br/>
+     * Speakerphone changes are not broadcast, so whoever toggles the speakerphone has to tell the manager, see
+     * {@link ro.andreibalan.media.AudioManager#invalidateOutputDevice()}.
+     */
+    @Override
+    public synchronized void addOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mRoutingListeners.addWeak(listener);
+
+        if (!mRoutingReceiverRegistered) {
+            final IntentFilter filter = new IntentFilter(Intent.ACTION_HEADSET_PLUG);
+            filter.addAction(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
+            filter.addAction(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED);
+            filter.addAction(ACTION_A2DP_CONNECTION_STATE_CHANGED);
+
+            mContext.registerReceiver(mRoutingReceiver, filter);
+            mRoutingReceiverRegistered = true;
+        }
+    }
+
+    @Override
+    public synchronized void removeOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mRoutingListeners.remove(listener);
+        unregisterUnusedReceiver();
+    }
+
+    /**
+     * Unregisters the receiver once no routing listener is left, counting collected weak listeners as gone.
+     */
+    private synchronized void unregisterUnusedReceiver() {
+        mRoutingListeners.purge();
+
+        if (mRoutingReceiverRegistered && mRoutingListeners.size() == 0) {
+            mContext.unregisterReceiver(mRoutingReceiver);
+            mRoutingReceiverRegistered = false;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import android.media.MediaPlayer;
+
+/**
+ * Player backend that forwards every call to an android.media.MediaPlayer.
+ */
+public class AndroidPlayerBackend implements PlayerBackend {
+
+    private final MediaPlayer mMediaPlayer;
+
+    public AndroidPlayerBackend(final MediaPlayer mediaPlayer) {
+        mMediaPlayer = mediaPlayer;
+    }
+
+    /**
+     * Returns the wrapped MediaPlayer.
+     */
+    public MediaPlayer getMediaPlayer() {
+        return mMediaPlayer;
+    }
+
+    @Override
+    public void setDataSource(final FileDescriptor fileDescriptor) throws IOException {
+        mMediaPlayer.setDataSource(fileDescriptor);
+    }
+
+    @Override
+    public void setDataSource(final FileDescriptor fileDescriptor, final long offset, final long length) throws IOException {
+        mMediaPlayer.setDataSource(fileDescriptor, offset, length);
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        mMediaPlayer.prepare();
+    }
+
+    @Override
+    public void start() {
+        mMediaPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mMediaPlayer.pause();
+    }
+
+    @Override
+    public void seekTo(final int position) {
+        mMediaPlayer.seekTo(position);
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        mMediaPlayer.setVolume(leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setLooping(final boolean looping) {
+        mMediaPlayer.setLooping(looping);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mMediaPlayer.isPlaying();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mMediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mMediaPlayer.getDuration();
+    }
+
+    @Override
+    public void release() {
+        mMediaPlayer.release();
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+
+/**
+ * Sample backend that forwards every call to an android.media.SoundPool.
+ */
+public class AndroidSampleBackend implements SampleBackend, SoundPool.OnLoadCompleteListener {
+
+    private final SoundPool mSoundPool;
+
+    private volatile OnLoadCompleteListener mListener;
+
+    public AndroidSampleBackend(final SoundPool soundPool) {
+        mSoundPool = soundPool;
+        mSoundPool.setOnLoadCompleteListener(this);
+    }
+
+    /**
+     * Returns the wrapped SoundPool.
+     */
+    public SoundPool getSoundPool() {
+        return mSoundPool;
+    }
+
+    @Override
+    public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+        final OnLoadCompleteListener listener = mListener;
+        if (listener != null)
+            listener.onLoadComplete(this, sampleId, status);
+    }
+
+    @Override
+    public float getMinRate() {
+        return MIN_RATE;
+    }
+
+    @Override
+    public float getMaxRate() {
+        return MAX_RATE;
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(final OnLoadCompleteListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public int load(final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return mSoundPool.load(assetFileDescriptor, priority);
+    }
+
+    @Override
+    public int loadAsset(final String assetPath, final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return mSoundPool.load(assetFileDescriptor, priority);
+    }
+
+    @Override
+    public int load(final String path, final int priority) {
+        return mSoundPool.load(path, priority);
+    }
+
+    @Override
+    public int load(final Context context, final int rawResID, final int priority) {
+        return mSoundPool.load(context, rawResID, priority);
+    }
+
+    @Override
+    public boolean unload(final int sampleID) {
+        return mSoundPool.unload(sampleID);
+    }
+
+    @Override
+    public int play(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop, final float rate) {
+        return mSoundPool.play(sampleID, leftVolume, rightVolume, priority, loop, rate);
+    }
+
+    @Override
+    public void pause(final int streamID) {
+        mSoundPool.pause(streamID);
+    }
+
+    @Override
+    public void resume(final int streamID) {
+        mSoundPool.resume(streamID);
+    }
+
+    @Override
+    public void stop(final int streamID) {
+        mSoundPool.stop(streamID);
+    }
+
+    @Override
+    public void setVolume(final int streamID, final float leftVolume, final float rightVolume) {
+        mSoundPool.setVolume(streamID, leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setRate(final int streamID, final float rate) {
+        mSoundPool.setRate(streamID, rate);
+    }
+
+    @Override
+    public void release() {
+        mSoundPool.release();
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import android.content.Context;
+import android.media.AudioManager.OnAudioFocusChangeListener;
+
+/**
+ * Abstraction of every platform audio call used by the library.
+ * <br/><br/>
+ * The managers never talk to SoundPool, MediaPlayer or the system AudioManager directly. They go through the backend they have
+ * been created with, which is {@link AndroidAudioBackend} by default. {@link SimulatedAudioBackend} can be used instead to run the
+ * manager logic off-device against a virtual clock.
+ */
+public interface AudioBackend {
+
+    /**
+     * Notified when the audio output routing may have changed, e.g. when a headset has been plugged in or a Bluetooth device has connected.
+     */
+    public static interface OnRoutingChangeListener {
+
+        public void onRoutingChange();
+    }
+
+    /**
+     * Creates a new sample pool with the given number of simultaneous playback streams. Mirrors the SoundPool constructor.
+     */
+    public SampleBackend createSamplePool(final int maxSimultaneousStreams);
+
+    /**
+     * Creates a new idle player. Mirrors the MediaPlayer constructor.
+     */
+    public PlayerBackend createPlayer();
+
+    /**
+     * Creates a new player for the given resource that is already prepared. Mirrors MediaPlayer.create().
+     * 
+     * @return - The prepared player or null if the resource could not be loaded.
+     */
+    public PlayerBackend createPlayer(final Context context, final int rawResID);
+
+    /**
+     * Requests the audio focus. Mirrors AudioManager.requestAudioFocus().
+     */
+    public int requestAudioFocus(final OnAudioFocusChangeListener listener, final int streamType, final int focusType);
+
+    /**
+     * Abandons the audio focus. Mirrors AudioManager.abandonAudioFocus().
+     */
+    public int abandonAudioFocus(final OnAudioFocusChangeListener listener);
+
+    /**
+     * Mirrors AudioManager.isBluetoothA2dpOn().
+     */
+    public boolean isBluetoothA2dpOn();
+
+    /**
+     * Mirrors AudioManager.isSpeakerphoneOn().
+     */
+    public boolean isSpeakerphoneOn();
+
+    /**
+     * Mirrors AudioManager.isWiredHeadsetOn().
+     */
+    public boolean isWiredHeadsetOn();
+
+    /**
+     * Registers a listener for routing changes. Listeners are only held weakly, so their owner must keep a reference to them.
+     */
+    public void addOnRoutingChangeListener(final OnRoutingChangeListener listener);
+
+    public void removeOnRoutingChangeListener(final OnRoutingChangeListener listener);
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Abstraction of a player for long audio tracks. Mirrors android.media.MediaPlayer.
+ */
+public interface PlayerBackend {
+
+    public void setDataSource(final FileDescriptor fileDescriptor) throws IOException;
+
+    public void setDataSource(final FileDescriptor fileDescriptor, final long offset, final long length) throws IOException;
+
+    public void prepare() throws IOException;
+
+    public void start();
+
+    public void pause();
+
+    public void seekTo(final int position);
+
+    public void setVolume(final float leftVolume, final float rightVolume);
+
+    public void setLooping(final boolean looping);
+
+    public boolean isPlaying();
+
+    /**
+     * Returns the playback position in milliseconds.
+     */
+    public int getCurrentPosition();
+
+    /**
+     * Returns the duration in milliseconds or -1 if it is not known.
+     */
+    public int getDuration();
+
+    public void release();
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+/**
+ * Abstraction of a pool of short samples that are fully loaded in memory. Mirrors android.media.SoundPool.
+ * <br/><br/>
+ * Sample IDs and stream IDs are only unique per sample pool and 0 is never a valid ID.
+ */
+public interface SampleBackend {
+
+    /**
+     * Playback rate range supported by SoundPool.
+     */
+    public final static float MIN_RATE = 0.5f;
+
+    public final static float MAX_RATE = 2.0f;
+
+    /**
+     * Called when a sample has finished loading. A status of 0 means success.
+     */
+    public static interface OnLoadCompleteListener {
+
+        public void onLoadComplete(final SampleBackend sampleBackend, final int sampleID, final int status);
+
+    }
+
+    public void setOnLoadCompleteListener(final OnLoadCompleteListener listener);
+
+    /**
+     * Returns the lowest playback rate this sample pool can play.
+     */
+    public float getMinRate();
+
+    /**
+     * Returns the highest playback rate this sample pool can play.
+     */
+    public float getMaxRate();
+
+    public int load(final AssetFileDescriptor assetFileDescriptor, final int priority);
+
+    /**
+     * Loads an asset from its descriptor. The path identifies the asset, so a pool that shares decoded samples can share them between
+     * loads of the same asset through different descriptors.
+     */
+    public int loadAsset(final String assetPath, final AssetFileDescriptor assetFileDescriptor, final int priority);
+
+    public int load(final String path, final int priority);
+
+    public int load(final Context context, final int rawResID, final int priority);
+
+    public boolean unload(final int sampleID);
+
+    /**
+     * Starts a new stream of the sample.
+     * 
+     * @return - Stream ID or 0 if the sample could not be played.
+     */
+    public int play(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop, final float rate);
+
+    public void pause(final int streamID);
+
+    public void resume(final int streamID);
+
+    public void stop(final int streamID);
+
+    public void setVolume(final int streamID, final float leftVolume, final float rightVolume);
+
+    public void setRate(final int streamID, final float rate);
+
+    public void release();
+
+}
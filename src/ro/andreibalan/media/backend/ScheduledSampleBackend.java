@@ -0,0 +1,43 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import ro.andreibalan.media.AudioClock;
+
+/**
+ * Sample pool that can start a stream at an exact {@link AudioClock} time instead of as soon as the call is made.
+ */
+public interface ScheduledSampleBackend extends SampleBackend {
+
+    /**
+     * Returns how many nanoseconds before its start time a stream has to be played so it starts exactly in time.
+     */
+    public long getScheduleLead();
+
+    /**
+     * Starts a new stream of the sample at the given time. Times that have already passed start right away.
+     * 
+     * @param time - {@link AudioClock#getMonotonic()} time in nanoseconds.
+     * @return - Stream ID or 0 if the sample could not be played.
+     */
+    public int playAt(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop, final float rate,
+            final long time);
+
+}
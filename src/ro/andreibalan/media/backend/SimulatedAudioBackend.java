@@ -0,0 +1,274 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.ListenerRegistry;
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.AudioManager.OnAudioFocusChangeListener;
+
+/**
+ * Backend that simulates the Android platform against a {@link VirtualClock}.
+ * <br/><br/>
+ * Loading samples and preparing players take a configurable amount of virtual time, sample pools enforce their stream limit
+ * the same way SoundPool does and focus changes can be dispatched at will. Nothing is ever decoded or played, so pools of
+ * thousands of instances, focus storms and crossfades can be run deterministically without a device.
+ * <br/><br/>
+ * Every call made through the backend is counted so tests can assert on the amount of platform work.
+ */
+public class SimulatedAudioBackend implements AudioBackend {
+
+    public final static String TAG = SimulatedAudioBackend.class.getSimpleName();
+
+    private final VirtualClock mClock;
+
+    private volatile long mLoadLatency = 20;
+
+    private volatile long mPrepareLatency = 150;
+
+    private volatile long mSampleDuration = 500;
+
+    private volatile int mTrackDuration = 180000;
+
+    private volatile boolean mFocusGranted = true;
+
+    private volatile boolean mBluetoothA2dpOn = false;
+
+    private volatile boolean mSpeakerphoneOn = false;
+
+    private volatile boolean mWiredHeadsetOn = false;
+
+    /**
+     * The listener of the last granted focus request, used to dispatch simulated focus changes.
+     */
+    private volatile OnAudioFocusChangeListener mFocusListener;
+
+    private final AtomicLong mCallCount = new AtomicLong();
+
+    private final ListenerRegistry<OnRoutingChangeListener> mRoutingListeners = new ListenerRegistry<OnRoutingChangeListener>();
+
+    public SimulatedAudioBackend(final VirtualClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Returns the clock that drives this backend.
+     */
+    public VirtualClock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Returns a new AudioThread that runs on the clock of this backend, so the managers using both are fully deterministic.
+     */
+    public AudioThread createAudioThread() {
+        return VirtualDispatcher.createAudioThread(mClock);
+    }
+
+    /**
+     * Counts one platform call. Used by the simulated sample pools and players as well.
+     */
+    void countCall() {
+        mCallCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of platform calls made through this backend.
+     */
+    public long getCallCount() {
+        return mCallCount.get();
+    }
+
+    /**
+     * Resets the platform call counter.
+     */
+    public void resetCallCount() {
+        mCallCount.set(0);
+    }
+
+    /**
+     * Changes the virtual time a sample takes to load before its load complete callback is called.
+     */
+    public void setLoadLatency(final long loadLatency) {
+        mLoadLatency = loadLatency;
+    }
+
+    public long getLoadLatency() {
+        return mLoadLatency;
+    }
+
+    /**
+     * Changes the virtual time a prepare call blocks for. The clock is advanced by that amount during the call.
+     */
+    public void setPrepareLatency(final long prepareLatency) {
+        mPrepareLatency = prepareLatency;
+    }
+
+    public long getPrepareLatency() {
+        return mPrepareLatency;
+    }
+
+    /**
+     * Changes the duration of every loaded sample at a playback rate of 1.0.
+     */
+    public void setSampleDuration(final long sampleDuration) {
+        mSampleDuration = sampleDuration;
+    }
+
+    public long getSampleDuration() {
+        return mSampleDuration;
+    }
+
+    /**
+     * Changes the duration in milliseconds of every track opened by a player.
+     */
+    public void setTrackDuration(final int trackDuration) {
+        mTrackDuration = trackDuration;
+    }
+
+    public int getTrackDuration() {
+        return mTrackDuration;
+    }
+
+    /**
+     * Changes whether focus requests will be granted.
+     */
+    public void setFocusGranted(final boolean focusGranted) {
+        mFocusGranted = focusGranted;
+    }
+
+    /**
+     * Simulates the system reporting a focus change to the current focus owner.
+     */
+    public void dispatchFocusChange(final int focusChange) {
+        final OnAudioFocusChangeListener listener = mFocusListener;
+        if (listener != null)
+            listener.onAudioFocusChange(focusChange);
+    }
+
+    /**
+     * Changes the simulated output routing and notifies the routing listeners, like the platform broadcasts do.
+     */
+    public void setOutputDevice(final boolean bluetoothA2dpOn, final boolean speakerphoneOn, final boolean wiredHeadsetOn) {
+        mBluetoothA2dpOn = bluetoothA2dpOn;
+        mSpeakerphoneOn = speakerphoneOn;
+        mWiredHeadsetOn = wiredHeadsetOn;
+
+        dispatchRoutingChange();
+    }
+
+    /**
+     * Notifies the routing listeners without changing the routing, e.g. to simulate a spurious broadcast.
+     */
+    public void dispatchRoutingChange() {
+        final ListenerRegistry.Registration<OnRoutingChangeListener>[] listeners = mRoutingListeners.getSnapshot();
+        for (int i = 0; i < listeners.length; i++) {
+            final OnRoutingChangeListener listener = listeners[i].get();
+            if (listener != null)
+                listener.onRoutingChange();
+        }
+    }
+
+    @Override
+    public SampleBackend createSamplePool(final int maxSimultaneousStreams) {
+        countCall();
+        return new SimulatedSampleBackend(this, maxSimultaneousStreams);
+    }
+
+    @Override
+    public PlayerBackend createPlayer() {
+        countCall();
+        return new SimulatedPlayerBackend(this);
+    }
+
+    @Override
+    public PlayerBackend createPlayer(final Context context, final int rawResID) {
+        countCall();
+        final SimulatedPlayerBackend player = new SimulatedPlayerBackend(this);
+        player.open();
+        return player;
+    }
+
+    @Override
+    public int requestAudioFocus(final OnAudioFocusChangeListener listener, final int streamType, final int focusType) {
+        countCall();
+
+        if (!mFocusGranted)
+            return AudioManager.AUDIOFOCUS_REQUEST_FAILED;
+
+        // The previous owner loses the focus just like on the platform.
+        final OnAudioFocusChangeListener previous = mFocusListener;
+        mFocusListener = listener;
+        if (previous != null && previous != listener)
+            previous.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS);
+
+        return AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+    }
+
+    @Override
+    public int abandonAudioFocus(final OnAudioFocusChangeListener listener) {
+        countCall();
+
+        if (mFocusListener == listener)
+            mFocusListener = null;
+
+        return AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        countCall();
+        return mBluetoothA2dpOn;
+    }
+
+    @Override
+    public boolean isSpeakerphoneOn() {
+        countCall();
+        return mSpeakerphoneOn;
+    }
+
+    @Override
+    public boolean isWiredHeadsetOn() {
+        countCall();
+        return mWiredHeadsetOn;
+    }
+
+    @Override
+    public void addOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mRoutingListeners.addWeak(listener);
+    }
+
+    @Override
+    public void removeOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mRoutingListeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of routing listeners whose listener has not been collected.
+     */
+    public int getRoutingListenerCount() {
+        mRoutingListeners.purge();
+        return mRoutingListeners.size();
+    }
+
+}
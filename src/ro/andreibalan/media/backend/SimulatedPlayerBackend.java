@@ -0,0 +1,228 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Simulated MediaPlayer driven by the {@link VirtualClock} of its {@link SimulatedAudioBackend}.
+ * <br/><br/>
+ * Preparing advances the clock by the configured prepare latency, just like the calling thread would be blocked on a device.
+ * The playback position moves with the clock while the player is started and every track has the configured duration.
+ */
+public class SimulatedPlayerBackend implements PlayerBackend {
+
+    public final static String TAG = SimulatedPlayerBackend.class.getSimpleName();
+
+    private final SimulatedAudioBackend mBackend;
+
+    private final VirtualClock mClock;
+
+    private boolean mHasDataSource = false;
+
+    private boolean mPrepared = false;
+
+    private boolean mStarted = false;
+
+    private boolean mLooping = false;
+
+    private boolean mReleased = false;
+
+    private int mDuration = -1;
+
+    /**
+     * Position in milliseconds at the time the player has been started the last time.
+     */
+    private long mAnchorPosition = 0;
+
+    /**
+     * Virtual time when the player has been started the last time.
+     */
+    private long mAnchorTime = 0;
+
+    private float mLeftVolume = 1.0f;
+
+    private float mRightVolume = 1.0f;
+
+    SimulatedPlayerBackend(final SimulatedAudioBackend backend) {
+        mBackend = backend;
+        mClock = backend.getClock();
+    }
+
+    /**
+     * Marks the player as having a data source and being prepared without costing any time. Used for players created from resources.
+     */
+    synchronized void open() {
+        mHasDataSource = true;
+        mPrepared = true;
+        mDuration = mBackend.getTrackDuration();
+    }
+
+    @Override
+    public synchronized void setDataSource(final FileDescriptor fileDescriptor) throws IOException {
+        mBackend.countCall();
+        checkNotReleased();
+        mHasDataSource = true;
+    }
+
+    @Override
+    public synchronized void setDataSource(final FileDescriptor fileDescriptor, final long offset, final long length) throws IOException {
+        mBackend.countCall();
+        checkNotReleased();
+        mHasDataSource = true;
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        mBackend.countCall();
+
+        synchronized (this) {
+            checkNotReleased();
+            if (!mHasDataSource)
+                throw new IllegalStateException("prepare called without a data source.");
+        }
+
+        // Blocking call, the caller is stuck for the prepare latency.
+        mClock.advance(mBackend.getPrepareLatency());
+
+        synchronized (this) {
+            mPrepared = true;
+            mDuration = mBackend.getTrackDuration();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        mBackend.countCall();
+        checkPrepared();
+
+        if (mStarted)
+            return;
+
+        if (computePosition() >= mDuration)
+            mAnchorPosition = 0;
+
+        mAnchorTime = mClock.now();
+        mStarted = true;
+    }
+
+    @Override
+    public synchronized void pause() {
+        mBackend.countCall();
+        checkPrepared();
+
+        if (!mStarted)
+            return;
+
+        mAnchorPosition = computePosition();
+        mStarted = false;
+    }
+
+    @Override
+    public synchronized void seekTo(final int position) {
+        mBackend.countCall();
+        checkPrepared();
+
+        mAnchorPosition = Math.max(0, Math.min(position, mDuration));
+        mAnchorTime = mClock.now();
+    }
+
+    @Override
+    public synchronized void setVolume(final float leftVolume, final float rightVolume) {
+        mBackend.countCall();
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
+    }
+
+    @Override
+    public synchronized void setLooping(final boolean looping) {
+        mBackend.countCall();
+
+        if (mStarted) {
+            mAnchorPosition = computePosition();
+            mAnchorTime = mClock.now();
+        }
+
+        mLooping = looping;
+    }
+
+    @Override
+    public synchronized boolean isPlaying() {
+        mBackend.countCall();
+        return mStarted && (mLooping || computePosition() < mDuration);
+    }
+
+    @Override
+    public synchronized int getCurrentPosition() {
+        mBackend.countCall();
+        return mPrepared ? (int) computePosition() : 0;
+    }
+
+    @Override
+    public synchronized int getDuration() {
+        mBackend.countCall();
+        return mPrepared ? mDuration : -1;
+    }
+
+    @Override
+    public synchronized void release() {
+        mBackend.countCall();
+        mReleased = true;
+        mStarted = false;
+    }
+
+    /**
+     * Returns the last volume set on the player for the left channel.
+     */
+    public synchronized float getLeftVolume() {
+        return mLeftVolume;
+    }
+
+    /**
+     * Returns the last volume set on the player for the right channel.
+     */
+    public synchronized float getRightVolume() {
+        return mRightVolume;
+    }
+
+    private long computePosition() {
+        if (!mStarted)
+            return mAnchorPosition;
+
+        final long position = mAnchorPosition + (mClock.now() - mAnchorTime);
+        if (mDuration <= 0)
+            return position;
+
+        return mLooping ? (position % mDuration) : Math.min(position, mDuration);
+    }
+
+    private void checkNotReleased() {
+        if (mReleased)
+            throw new IllegalStateException("The player has been released.");
+    }
+
+    private void checkPrepared() {
+        checkNotReleased();
+        if (!mPrepared)
+            throw new IllegalStateException("The player has not been prepared.");
+    }
+
+}
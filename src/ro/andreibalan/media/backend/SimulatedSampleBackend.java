@@ -0,0 +1,407 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ro.andreibalan.media.AudioClock;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+/**
+ * Simulated SoundPool driven by the {@link VirtualClock} of its {@link SimulatedAudioBackend}.
+ * <br/><br/>
+ * Samples finish loading after the configured load latency. When the stream limit is reached a new stream steals the oldest
+ * stream with the lowest priority, or is rejected if every playing stream has a higher priority, like SoundPool does.
+ * Streams end on their own once the sample duration, scaled by the rate and the loop count, has passed. Scheduled streams hold their slot
+ * paused until their time.
+ */
+public class SimulatedSampleBackend implements ScheduledSampleBackend {
+
+    public final static String TAG = SimulatedSampleBackend.class.getSimpleName();
+
+    /**
+     * The audio thread of the simulation runs every command exactly at its virtual time, so scheduled plays need no lead.
+     */
+    public final static long SCHEDULE_LEAD = 0;
+
+    /**
+     * A playing or paused stream.
+     */
+    private static final class Stream {
+
+        private final int mSampleID;
+
+        private final int mPriority;
+
+        private float mRate;
+
+        private boolean mPaused;
+
+        /**
+         * Playback time left in milliseconds, or -1 if the stream loops forever.
+         */
+        private long mRemaining;
+
+        /**
+         * Virtual time when the stream has been started or resumed the last time.
+         */
+        private long mStartTime;
+
+        /**
+         * Incremented on every pause, resume or rate change so stale end events are ignored.
+         */
+        private int mGeneration;
+
+        private Stream(final int sampleID, final int priority) {
+            mSampleID = sampleID;
+            mPriority = priority;
+        }
+    }
+
+    private final SimulatedAudioBackend mBackend;
+
+    private final VirtualClock mClock;
+
+    private final int mMaxSimultaneousStreams;
+
+    private volatile OnLoadCompleteListener mListener;
+
+    /**
+     * Sample IDs mapped to their loaded flag.
+     */
+    private final HashMap<Integer, Boolean> mSamples = new HashMap<Integer, Boolean>();
+
+    /**
+     * Active streams in the order they have been started.
+     */
+    private final LinkedHashMap<Integer, Stream> mStreams = new LinkedHashMap<Integer, Stream>();
+
+    private int mNextSampleID = 1;
+
+    private int mNextStreamID = 1;
+
+    private long mStolenStreamCount = 0;
+
+    private long mRejectedStreamCount = 0;
+
+    private boolean mReleased = false;
+
+    SimulatedSampleBackend(final SimulatedAudioBackend backend, final int maxSimultaneousStreams) {
+        mBackend = backend;
+        mClock = backend.getClock();
+        mMaxSimultaneousStreams = maxSimultaneousStreams;
+    }
+
+    @Override
+    public float getMinRate() {
+        return MIN_RATE;
+    }
+
+    @Override
+    public float getMaxRate() {
+        return MAX_RATE;
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(final OnLoadCompleteListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public int load(final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return load();
+    }
+
+    @Override
+    public int loadAsset(final String assetPath, final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return load();
+    }
+
+    @Override
+    public int load(final String path, final int priority) {
+        return load();
+    }
+
+    @Override
+    public int load(final Context context, final int rawResID, final int priority) {
+        return load();
+    }
+
+    private int load() {
+        mBackend.countCall();
+
+        final int sampleID;
+        synchronized (this) {
+            if (mReleased)
+                return 0;
+
+            sampleID = mNextSampleID++;
+            mSamples.put(sampleID, Boolean.FALSE);
+        }
+
+        mClock.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (SimulatedSampleBackend.this) {
+                    // The sample might have been unloaded before it finished loading.
+                    if (mReleased || !mSamples.containsKey(sampleID))
+                        return;
+
+                    mSamples.put(sampleID, Boolean.TRUE);
+                }
+
+                final OnLoadCompleteListener listener = mListener;
+                if (listener != null)
+                    listener.onLoadComplete(SimulatedSampleBackend.this, sampleID, 0);
+            }
+        }, mBackend.getLoadLatency());
+
+        return sampleID;
+    }
+
+    @Override
+    public synchronized boolean unload(final int sampleID) {
+        mBackend.countCall();
+
+        if (mSamples.remove(sampleID) == null)
+            return false;
+
+        final Iterator<Stream> iterator = mStreams.values().iterator();
+        while (iterator.hasNext())
+            if (iterator.next().mSampleID == sampleID)
+                iterator.remove();
+
+        return true;
+    }
+
+    @Override
+    public synchronized int play(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop, final float rate) {
+        mBackend.countCall();
+
+        if (mReleased || !Boolean.TRUE.equals(mSamples.get(sampleID)))
+            return 0;
+
+        if (mStreams.size() >= mMaxSimultaneousStreams && !stealStream(priority)) {
+            mRejectedStreamCount++;
+            return 0;
+        }
+
+        final int streamID = mNextStreamID++;
+        final Stream stream = new Stream(sampleID, priority);
+        stream.mRate = rate;
+        stream.mRemaining = (loop < 0) ? -1 : mBackend.getSampleDuration() * (loop + 1);
+        mStreams.put(streamID, stream);
+
+        start(streamID, stream);
+        return streamID;
+    }
+
+    @Override
+    public long getScheduleLead() {
+        return SCHEDULE_LEAD;
+    }
+
+    @Override
+    public synchronized int playAt(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop,
+            final float rate, final long time) {
+        final int streamID = play(sampleID, leftVolume, rightVolume, priority, loop, rate);
+        final long delay = (time + AudioClock.NANOS_PER_MILLISECOND - 1) / AudioClock.NANOS_PER_MILLISECOND - mClock.now();
+        if (streamID == 0 || delay <= 0)
+            return streamID;
+
+        final Stream stream = mStreams.get(streamID);
+        hold(stream);
+        stream.mPaused = true;
+
+        final int generation = stream.mGeneration;
+        mClock.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (SimulatedSampleBackend.this) {
+                    if (mStreams.get(streamID) == stream && stream.mGeneration == generation)
+                        start(streamID, stream);
+                }
+            }
+        }, delay);
+
+        return streamID;
+    }
+
+    /**
+     * Removes the oldest stream with the lowest priority if its priority is not higher than the given one.
+     */
+    private boolean stealStream(final int priority) {
+        Integer victimID = null;
+        Stream victim = null;
+
+        for (Map.Entry<Integer, Stream> entry : mStreams.entrySet()) {
+            if (victim == null || entry.getValue().mPriority < victim.mPriority) {
+                victimID = entry.getKey();
+                victim = entry.getValue();
+            }
+        }
+
+        if (victim == null || victim.mPriority > priority)
+            return false;
+
+        mStreams.remove(victimID);
+        mStolenStreamCount++;
+        return true;
+    }
+
+    /**
+     * Starts the playback clock of the stream and schedules its end.
+     */
+    private void start(final int streamID, final Stream stream) {
+        stream.mPaused = false;
+        stream.mStartTime = mClock.now();
+
+        final int generation = ++stream.mGeneration;
+        if (stream.mRemaining < 0)
+            return;
+
+        mClock.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (SimulatedSampleBackend.this) {
+                    if (mStreams.get(streamID) == stream && stream.mGeneration == generation)
+                        mStreams.remove(streamID);
+                }
+            }
+        }, (long) Math.ceil(stream.mRemaining / stream.mRate));
+    }
+
+    /**
+     * Stops the playback clock of the stream keeping the remaining time.
+     */
+    private void hold(final Stream stream) {
+        stream.mGeneration++;
+        if (stream.mRemaining > 0)
+            stream.mRemaining = Math.max(0, stream.mRemaining - (long) ((mClock.now() - stream.mStartTime) * stream.mRate));
+    }
+
+    @Override
+    public synchronized void pause(final int streamID) {
+        mBackend.countCall();
+
+        final Stream stream = mStreams.get(streamID);
+        if (stream == null || stream.mPaused)
+            return;
+
+        hold(stream);
+        stream.mPaused = true;
+    }
+
+    @Override
+    public synchronized void resume(final int streamID) {
+        mBackend.countCall();
+
+        final Stream stream = mStreams.get(streamID);
+        if (stream != null && stream.mPaused)
+            start(streamID, stream);
+    }
+
+    @Override
+    public synchronized void stop(final int streamID) {
+        mBackend.countCall();
+        mStreams.remove(streamID);
+    }
+
+    @Override
+    public void setVolume(final int streamID, final float leftVolume, final float rightVolume) {
+        mBackend.countCall();
+    }
+
+    @Override
+    public synchronized void setRate(final int streamID, final float rate) {
+        mBackend.countCall();
+
+        final Stream stream = mStreams.get(streamID);
+        if (stream == null)
+            return;
+
+        if (stream.mPaused) {
+            stream.mRate = rate;
+            return;
+        }
+
+        hold(stream);
+        stream.mRate = rate;
+        start(streamID, stream);
+    }
+
+    @Override
+    public synchronized void release() {
+        mBackend.countCall();
+
+        mReleased = true;
+        mSamples.clear();
+        mStreams.clear();
+    }
+
+    /**
+     * Returns the number of streams that are playing or paused.
+     */
+    public synchronized int getActiveStreamCount() {
+        return mStreams.size();
+    }
+
+    /**
+     * Returns the playback rate of a playing or paused stream, or 0 if there is no such stream.
+     */
+    public synchronized float getStreamRate(final int streamID) {
+        final Stream stream = mStreams.get(streamID);
+        return (stream != null) ? stream.mRate : 0;
+    }
+
+    /**
+     * Returns the number of samples that have finished loading.
+     */
+    public synchronized int getLoadedSampleCount() {
+        int count = 0;
+        for (Boolean loaded : mSamples.values())
+            if (loaded)
+                count++;
+
+        return count;
+    }
+
+    /**
+     * Returns the number of streams that have been stopped to make room for a new one.
+     */
+    public synchronized long getStolenStreamCount() {
+        return mStolenStreamCount;
+    }
+
+    /**
+     * Returns the number of play calls that have been rejected because of the stream limit.
+     */
+    public synchronized long getRejectedStreamCount() {
+        return mRejectedStreamCount;
+    }
+
+}
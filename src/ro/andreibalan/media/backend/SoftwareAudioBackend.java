@@ -0,0 +1,132 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import ro.andreibalan.media.pcm.AudioTrackSink;
+import ro.andreibalan.media.pcm.PcmSink;
+import ro.andreibalan.media.pcm.Resampler;
+import android.content.Context;
+import android.media.AudioManager.OnAudioFocusChangeListener;
+
+/**
+ * Backend whose sample pools are mixed in software by {@link SoftwareSampleBackend}, so FX can be played at any rate between
+ * {@link SoftwareSampleBackend#MIN_RATE} and {@link SoftwareSampleBackend#MAX_RATE} with a selectable resampling quality.
+ * <br/><br/>
+ * Players, focus and routing are delegated to another backend, by default the Android one.
+ */
+public class SoftwareAudioBackend implements AudioBackend {
+
+    public final static String TAG = SoftwareAudioBackend.class.getSimpleName();
+
+    public final static int DEFAULT_SAMPLE_RATE = 44100;
+
+    private final AudioBackend mDelegate;
+
+    private final int mOutputSampleRate;
+
+    private final Resampler.Quality mQuality;
+
+    public SoftwareAudioBackend(final Context context) {
+        this(new AndroidAudioBackend(context), DEFAULT_SAMPLE_RATE, Resampler.Quality.CUBIC);
+    }
+
+    /**
+     * @param delegate - Backend used for everything except sample pools.
+     * @param outputSampleRate - Sample rate the sample pools mix at.
+     * @param quality - Resampling quality of the sample pools.
+     */
+    public SoftwareAudioBackend(final AudioBackend delegate, final int outputSampleRate, final Resampler.Quality quality) {
+        if (delegate == null)
+            throw new IllegalArgumentException("Delegate backend can not be null.");
+
+        if (quality == null)
+            throw new IllegalArgumentException("Quality can not be null.");
+
+        mDelegate = delegate;
+        mOutputSampleRate = outputSampleRate;
+        mQuality = quality;
+    }
+
+    public Resampler.Quality getQuality() {
+        return mQuality;
+    }
+
+    public int getOutputSampleRate() {
+        return mOutputSampleRate;
+    }
+
+    /**
+     * Creates the sink a new sample pool writes to. Every pool mixes into its own sink.
+     */
+    protected PcmSink createSink() {
+        return new AudioTrackSink();
+    }
+
+    @Override
+    public SampleBackend createSamplePool(final int maxSimultaneousStreams) {
+        return new SoftwareSampleBackend(createSink(), maxSimultaneousStreams, mOutputSampleRate, mQuality);
+    }
+
+    @Override
+    public PlayerBackend createPlayer() {
+        return mDelegate.createPlayer();
+    }
+
+    @Override
+    public PlayerBackend createPlayer(final Context context, final int rawResID) {
+        return mDelegate.createPlayer(context, rawResID);
+    }
+
+    @Override
+    public int requestAudioFocus(final OnAudioFocusChangeListener listener, final int streamType, final int focusType) {
+        return mDelegate.requestAudioFocus(listener, streamType, focusType);
+    }
+
+    @Override
+    public int abandonAudioFocus(final OnAudioFocusChangeListener listener) {
+        return mDelegate.abandonAudioFocus(listener);
+    }
+
+    @Override
+    public boolean isBluetoothA2dpOn() {
+        return mDelegate.isBluetoothA2dpOn();
+    }
+
+    @Override
+    public boolean isSpeakerphoneOn() {
+        return mDelegate.isSpeakerphoneOn();
+    }
+
+    @Override
+    public boolean isWiredHeadsetOn() {
+        return mDelegate.isWiredHeadsetOn();
+    }
+
+    @Override
+    public void addOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mDelegate.addOnRoutingChangeListener(listener);
+    }
+
+    @Override
+    public void removeOnRoutingChangeListener(final OnRoutingChangeListener listener) {
+        mDelegate.removeOnRoutingChangeListener(listener);
+    }
+
+}
@@ -0,0 +1,797 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ro.andreibalan.media.AudioClock;
+import ro.andreibalan.media.dsp.EffectChain;
+import ro.andreibalan.media.pcm.PcmSample;
+import ro.andreibalan.media.pcm.PcmSampleStore;
+import ro.andreibalan.media.pcm.PcmSink;
+import ro.andreibalan.media.pcm.Resampler;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Sample pool that decodes WAVE samples into memory and mixes its streams itself, writing the result to a {@link PcmSink}.
+ * <br/><br/>
+ * Decoded samples are held off-heap by a {@link PcmSampleStore}, so loading the same source in several pools, FX or variants decodes
+ * it once and every stream reads the same frames. A sample is freed when the last pool that loaded it unloads it or is released.
+ * <br/><br/>
+ * Every stream is resampled by the shared {@link Resampler} of the chosen quality, so rates between {@link #MIN_RATE} and
+ * {@link #MAX_RATE} are supported with the same quality on every device. Mixing runs in blocks of {@link #BLOCK_FRAMES} frames
+ * on a dedicated thread and never allocates.
+ * <br/><br/>
+ * Streams are limited and stolen by priority the same way SoundPool does.
+ * <br/><br/>
+ * Streams started with {@link #playAt} begin on the exact output frame of their time. The mixer keeps a frame timeline anchored to the
+ * {@link AudioClock} when it starts mixing, so scheduled streams keep their relative timing to the frame no matter when the calls arrive.
+ * <br/><br/>
+ * An {@link EffectChain} can be inserted on a single stream with {@link #setStreamEffectChain(int, EffectChain)} or on the whole mix with
+ * {@link #setEffectChain(EffectChain)}. A stream with an active chain is mixed into a scratch block first, every other stream is mixed
+ * straight into the mix block as before.
+ */
+public class SoftwareSampleBackend implements ScheduledSampleBackend {
+
+    public final static String TAG = SoftwareSampleBackend.class.getSimpleName();
+
+    public final static float MIN_RATE = 0.125f;
+
+    public final static float MAX_RATE = 8.0f;
+
+    public final static int BLOCK_FRAMES = 256;
+
+    /**
+     * Scheduled streams have to be played at least this long before their time, which covers the data buffered in the sink.
+     */
+    public final static long SCHEDULE_LEAD = 150 * AudioClock.NANOS_PER_MILLISECOND;
+
+    private final static long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * A stream slot. Slots are allocated once and reused, a stream ID of 0 marks a free slot.
+     */
+    private static final class Voice {
+
+        private int mStreamID;
+
+        private int mSampleID;
+
+        private PcmSample mSample;
+
+        private int mPriority;
+
+        private int mLoop;
+
+        private boolean mPaused;
+
+        private float mRate;
+
+        private float mLeftVolume;
+
+        private float mRightVolume;
+
+        /**
+         * Fixed point read position and increment, see {@link Resampler}.
+         */
+        private long mPosition;
+
+        private long mIncrement;
+
+        /**
+         * Start order used to steal the oldest stream first.
+         */
+        private long mStartOrder;
+
+        /**
+         * Clock time the voice starts at, or {@link #NO_TIME} once it has started.
+         */
+        private long mStartTime = NO_TIME;
+
+        /**
+         * Insert effects of the stream, or null.
+         */
+        private EffectChain mEffects;
+    }
+
+    private final PcmSink mSink;
+
+    private final int mOutputSampleRate;
+
+    private final Resampler mResampler;
+
+    private final Voice[] mVoices;
+
+    private volatile OnLoadCompleteListener mListener;
+
+    private final PcmSampleStore mStore;
+
+    /**
+     * References to the decoded samples and samples that are still loading.
+     */
+    private final HashMap<Integer, PcmSampleStore.Reference> mSamples = new HashMap<Integer, PcmSampleStore.Reference>();
+
+    private final HashSet<Integer> mLoading = new HashSet<Integer>();
+
+    private final ExecutorService mLoader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, TAG + "-Loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final float[] mMixBuffer = new float[BLOCK_FRAMES * 2];
+
+    /**
+     * Block a stream with insert effects is mixed into before it is processed and added to the mix.
+     */
+    private final float[] mStreamBuffer = new float[BLOCK_FRAMES * 2];
+
+    /**
+     * Insert effects of the whole mix, processed by the mixer thread outside of the lock.
+     */
+    private volatile EffectChain mEffects;
+
+    private final ByteBuffer mOutput = ByteBuffer.allocateDirect(BLOCK_FRAMES * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final Thread mMixerThread;
+
+    private final AudioClock mClock = AudioClock.getMonotonic();
+
+    /**
+     * Clock time of the first frame of the mixer timeline and the number of frames mixed since. Only used by the mixer thread.
+     */
+    private long mAnchorTime;
+
+    private long mMixedFrames;
+
+    private int mNextSampleID = 1;
+
+    private int mNextStreamID = 1;
+
+    private long mStartCounter = 0;
+
+    private int mActiveVoiceCount = 0;
+
+    private long mStolenStreamCount = 0;
+
+    private long mRejectedStreamCount = 0;
+
+    private boolean mReleased = false;
+
+    /**
+     * @param sink - Sink the mixed stereo output is written to. It is opened by the mixer thread.
+     * @param maxSimultaneousStreams - Maximum number of streams mixed at once.
+     * @param outputSampleRate - Sample rate of the output.
+     * @param quality - Quality of the resampling of every stream.
+     */
+    public SoftwareSampleBackend(final PcmSink sink, final int maxSimultaneousStreams, final int outputSampleRate, final Resampler.Quality quality) {
+        this(sink, maxSimultaneousStreams, outputSampleRate, quality, PcmSampleStore.getInstance());
+    }
+
+    /**
+     * @param sink - Sink the mixed stereo output is written to. It is opened by the mixer thread.
+     * @param maxSimultaneousStreams - Maximum number of streams mixed at once.
+     * @param outputSampleRate - Sample rate of the output.
+     * @param quality - Quality of the resampling of every stream.
+     * @param store - Store the decoded samples are shared through.
+     */
+    public SoftwareSampleBackend(final PcmSink sink, final int maxSimultaneousStreams, final int outputSampleRate, final Resampler.Quality quality,
+            final PcmSampleStore store) {
+        if (sink == null)
+            throw new IllegalArgumentException("Sink can not be null.");
+
+        if (maxSimultaneousStreams <= 0)
+            throw new IllegalArgumentException("Max simultaneous streams must be positive.");
+
+        if (outputSampleRate <= 0)
+            throw new IllegalArgumentException("Output sample rate must be positive.");
+
+        if (store == null)
+            throw new IllegalArgumentException("Store can not be null.");
+
+        mSink = sink;
+        mStore = store;
+        mOutputSampleRate = outputSampleRate;
+        mResampler = Resampler.getInstance(quality);
+
+        mVoices = new Voice[maxSimultaneousStreams];
+        for (int i = 0; i < mVoices.length; i++)
+            mVoices[i] = new Voice();
+
+        mMixerThread = new Thread(mMixer, TAG + "-Mixer");
+        mMixerThread.start();
+    }
+
+    @Override
+    public long getScheduleLead() {
+        return SCHEDULE_LEAD;
+    }
+
+    @Override
+    public float getMinRate() {
+        return MIN_RATE;
+    }
+
+    @Override
+    public float getMaxRate() {
+        return MAX_RATE;
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(final OnLoadCompleteListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public int load(final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return load(PcmSampleStore.getDescriptorKey(assetFileDescriptor.getFileDescriptor(), assetFileDescriptor.getStartOffset(),
+                assetFileDescriptor.getLength()), assetFileDescriptor);
+    }
+
+    @Override
+    public int loadAsset(final String assetPath, final AssetFileDescriptor assetFileDescriptor, final int priority) {
+        return load(PcmSampleStore.getAssetKey(assetPath, assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength()), assetFileDescriptor);
+    }
+
+    private int load(final Object key, final AssetFileDescriptor assetFileDescriptor) {
+        // The descriptor is duplicated like SoundPool does so the caller may close it before the sample has been decoded.
+        final ParcelFileDescriptor descriptor;
+        try {
+            descriptor = ParcelFileDescriptor.dup(assetFileDescriptor.getFileDescriptor());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to duplicate the sample descriptor.", e);
+            return 0;
+        }
+
+        final long offset = assetFileDescriptor.getStartOffset();
+        final long length = assetFileDescriptor.getLength();
+
+        // The duplicate is closed after the sample has been acquired, it is not used at all if the store already holds the sample.
+        return load(key, new PcmSampleStore.Source() {
+
+            @Override
+            public PcmSample decode() throws IOException {
+                final FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor());
+                return PcmSample.decode(inputStream.getChannel(), offset, length);
+            }
+        }, descriptor);
+    }
+
+    @Override
+    public int load(final String path, final int priority) {
+        return load(PcmSampleStore.getFileKey(path), new PcmSampleStore.Source() {
+
+            @Override
+            public PcmSample decode() throws IOException {
+                final FileInputStream inputStream = new FileInputStream(path);
+                try {
+                    return PcmSample.decode(inputStream.getChannel(), 0, -1);
+                } finally {
+                    inputStream.close();
+                }
+            }
+        }, null);
+    }
+
+    @Override
+    public int load(final Context context, final int rawResID, final int priority) {
+        final AssetFileDescriptor assetFileDescriptor = context.getResources().openRawResourceFd(rawResID);
+        if (assetFileDescriptor == null) {
+            Log.e(TAG, "Resource " + rawResID + " is compressed and can not be decoded.");
+            return 0;
+        }
+
+        try {
+            return load(PcmSampleStore.getResourceKey(rawResID), assetFileDescriptor);
+        } finally {
+            try {
+                assetFileDescriptor.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close the resource descriptor.", e);
+            }
+        }
+    }
+
+    /**
+     * Acquires the sample of the key from the store on the loader thread, decoding it from the source if nobody holds it yet.
+     * 
+     * @param closeable - Closed once the sample has been acquired, or null.
+     */
+    private int load(final Object key, final PcmSampleStore.Source source, final Closeable closeable) {
+        synchronized (this) {
+            if (mReleased) {
+                close(closeable);
+                return 0;
+            }
+
+            final int sampleID = mNextSampleID++;
+            mLoading.add(sampleID);
+
+            // Submitted while holding the lock that release() sets mReleased under, so the loader can not have been shut down yet.
+            mLoader.execute(new LoadTask(sampleID, key, source, closeable));
+
+            return sampleID;
+        }
+    }
+
+    /**
+     * Loads one sample on the loader thread. Tasks dropped by release() before they ran only close their descriptor.
+     */
+    private final class LoadTask implements Runnable {
+
+        private final int mSampleID;
+
+        private final Object mKey;
+
+        private final PcmSampleStore.Source mSource;
+
+        private final Closeable mCloseable;
+
+        private LoadTask(final int sampleID, final Object key, final PcmSampleStore.Source source, final Closeable closeable) {
+            mSampleID = sampleID;
+            mKey = key;
+            mSource = source;
+            mCloseable = closeable;
+        }
+
+        @Override
+        public void run() {
+            PcmSampleStore.Reference reference = null;
+            try {
+                reference = mStore.acquire(mKey, mSource);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to decode sample " + mSampleID, e);
+            } finally {
+                close(mCloseable);
+            }
+
+            synchronized (SoftwareSampleBackend.this) {
+                // The sample might have been unloaded before it finished loading.
+                if (!mLoading.remove(mSampleID) || mReleased) {
+                    if (reference != null)
+                        reference.release();
+                    return;
+                }
+
+                if (reference != null)
+                    mSamples.put(mSampleID, reference);
+            }
+
+            final OnLoadCompleteListener listener = mListener;
+            if (listener != null)
+                listener.onLoadComplete(SoftwareSampleBackend.this, mSampleID, (reference != null) ? 0 : 1);
+        }
+    }
+
+    private static void close(final Closeable closeable) {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close the sample descriptor.", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean unload(final int sampleID) {
+        final boolean wasLoading = mLoading.remove(sampleID);
+        final PcmSampleStore.Reference reference = mSamples.remove(sampleID);
+        if (reference == null && !wasLoading)
+            return false;
+
+        for (Voice voice : mVoices)
+            if (voice.mStreamID != 0 && voice.mSampleID == sampleID)
+                freeVoice(voice);
+
+        // The mixer only reads samples while holding the lock, so no stream reads the sample once its voices are free.
+        if (reference != null)
+            reference.release();
+
+        return true;
+    }
+
+    @Override
+    public int play(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop, final float rate) {
+        return playAt(sampleID, leftVolume, rightVolume, priority, loop, rate, NO_TIME);
+    }
+
+    @Override
+    public synchronized int playAt(final int sampleID, final float leftVolume, final float rightVolume, final int priority, final int loop,
+            final float rate, final long time) {
+        final PcmSampleStore.Reference reference = mSamples.get(sampleID);
+        if (mReleased || reference == null)
+            return 0;
+
+        final PcmSample sample = reference.getSample();
+
+        Voice voice = findFreeVoice();
+        if (voice == null) {
+            voice = findVictim(priority);
+            if (voice == null) {
+                mRejectedStreamCount++;
+                return 0;
+            }
+
+            freeVoice(voice);
+            mStolenStreamCount++;
+        }
+
+        voice.mStreamID = mNextStreamID++;
+        voice.mSampleID = sampleID;
+        voice.mSample = sample;
+        voice.mPriority = priority;
+        voice.mLoop = loop;
+        voice.mPaused = false;
+        voice.mLeftVolume = leftVolume;
+        voice.mRightVolume = rightVolume;
+        voice.mPosition = 0;
+        voice.mStartOrder = mStartCounter++;
+        voice.mStartTime = time;
+        setVoiceRate(voice, rate);
+
+        mActiveVoiceCount++;
+        notifyAll();
+        return voice.mStreamID;
+    }
+
+    private Voice findFreeVoice() {
+        for (Voice voice : mVoices)
+            if (voice.mStreamID == 0)
+                return voice;
+
+        return null;
+    }
+
+    /**
+     * Returns the oldest voice with the lowest priority if its priority is not higher than the given one.
+     */
+    private Voice findVictim(final int priority) {
+        Voice victim = null;
+        for (Voice voice : mVoices)
+            if (victim == null || voice.mPriority < victim.mPriority || (voice.mPriority == victim.mPriority && voice.mStartOrder < victim.mStartOrder))
+                victim = voice;
+
+        return (victim != null && victim.mPriority <= priority) ? victim : null;
+    }
+
+    private void freeVoice(final Voice voice) {
+        voice.mStreamID = 0;
+        voice.mSample = null;
+        voice.mEffects = null;
+        mActiveVoiceCount--;
+    }
+
+    private void setVoiceRate(final Voice voice, final float rate) {
+        voice.mRate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        voice.mIncrement = Resampler.getIncrement(voice.mRate, voice.mSample.getSampleRate(), mOutputSampleRate);
+    }
+
+    private Voice getVoice(final int streamID) {
+        if (streamID == 0)
+            return null;
+
+        for (Voice voice : mVoices)
+            if (voice.mStreamID == streamID)
+                return voice;
+
+        return null;
+    }
+
+    @Override
+    public synchronized void pause(final int streamID) {
+        final Voice voice = getVoice(streamID);
+        if (voice != null)
+            voice.mPaused = true;
+    }
+
+    @Override
+    public synchronized void resume(final int streamID) {
+        final Voice voice = getVoice(streamID);
+        if (voice != null && voice.mPaused) {
+            voice.mPaused = false;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void stop(final int streamID) {
+        final Voice voice = getVoice(streamID);
+        if (voice != null)
+            freeVoice(voice);
+    }
+
+    @Override
+    public synchronized void setVolume(final int streamID, final float leftVolume, final float rightVolume) {
+        final Voice voice = getVoice(streamID);
+        if (voice != null) {
+            voice.mLeftVolume = leftVolume;
+            voice.mRightVolume = rightVolume;
+        }
+    }
+
+    @Override
+    public synchronized void setRate(final int streamID, final float rate) {
+        final Voice voice = getVoice(streamID);
+        if (voice != null)
+            setVoiceRate(voice, rate);
+    }
+
+    /**
+     * Inserts an effect chain on a single stream, or removes it when the chain is null. The chain is prepared for the output format and
+     * stays attached until the stream ends, effect tails like the echoes of a delay end with it.
+     * 
+     * @return - False if the stream is not playing anymore.
+     */
+    public synchronized boolean setStreamEffectChain(final int streamID, final EffectChain chain) {
+        final Voice voice = getVoice(streamID);
+        if (voice == null)
+            return false;
+
+        if (chain != null && chain != voice.mEffects)
+            chain.prepare(mOutputSampleRate, 2);
+
+        voice.mEffects = chain;
+        return true;
+    }
+
+    /**
+     * Returns the effect chain of a stream, or null.
+     */
+    public synchronized EffectChain getStreamEffectChain(final int streamID) {
+        final Voice voice = getVoice(streamID);
+        return (voice != null) ? voice.mEffects : null;
+    }
+
+    /**
+     * Inserts an effect chain on the mix of all the streams of this pool, or removes it when the chain is null.
+     * The chain is prepared for the output format, which must not happen while it is attached somewhere else.
+     */
+    public void setEffectChain(final EffectChain chain) {
+        if (chain != null && chain != mEffects)
+            chain.prepare(mOutputSampleRate, 2);
+
+        mEffects = chain;
+    }
+
+    public EffectChain getEffectChain() {
+        return mEffects;
+    }
+
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (mReleased)
+                return;
+
+            mReleased = true;
+            mLoading.clear();
+            for (Voice voice : mVoices)
+                if (voice.mStreamID != 0)
+                    freeVoice(voice);
+
+            for (PcmSampleStore.Reference reference : mSamples.values())
+                reference.release();
+            mSamples.clear();
+
+            notifyAll();
+        }
+
+        for (Runnable task : mLoader.shutdownNow())
+            close(((LoadTask) task).mCloseable);
+
+        try {
+            mMixerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mSink.close();
+    }
+
+    /**
+     * Returns true if there is at least one voice that is not paused. Must hold the lock.
+     */
+    private boolean hasPlayingVoice() {
+        if (mActiveVoiceCount == 0)
+            return false;
+
+        for (Voice voice : mVoices)
+            if (voice.mStreamID != 0 && !voice.mPaused)
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Mixes one block of every playing voice into the mix buffer. Must hold the lock.
+     */
+    private void mixBlock() {
+        Arrays.fill(mMixBuffer, 0f);
+
+        for (Voice voice : mVoices) {
+            if (voice.mStreamID == 0 || voice.mPaused)
+                continue;
+
+            final PcmSample sample = voice.mSample;
+            final int frameCount = sample.getFrameCount();
+
+            int offset = 0;
+            if (voice.mStartTime != NO_TIME) {
+                // Frames between the start of this block and the start of the voice on the timeline.
+                final long startFrame = (voice.mStartTime - mAnchorTime) * mOutputSampleRate / AudioClock.NANOS_PER_SECOND - mMixedFrames;
+                if (startFrame >= BLOCK_FRAMES)
+                    continue;
+
+                offset = (int) Math.max(0, startFrame);
+                voice.mStartTime = NO_TIME;
+            }
+
+            // Streams without active effects are mixed straight into the mix, so an idle or bypassed chain costs nothing.
+            final EffectChain effects = voice.mEffects;
+            final boolean insert = effects != null && effects.isActive();
+            final float[] target = insert ? mStreamBuffer : mMixBuffer;
+            if (insert)
+                Arrays.fill(mStreamBuffer, 0f);
+
+            while (offset < BLOCK_FRAMES) {
+                final int frames = mResampler.mix(sample.getData(), sample.getChannelCount(), frameCount, voice.mPosition, voice.mIncrement, target,
+                        offset, BLOCK_FRAMES - offset, voice.mLeftVolume, voice.mRightVolume);
+
+                voice.mPosition += frames * voice.mIncrement;
+                offset += frames;
+
+                if (offset < BLOCK_FRAMES) {
+                    // The voice reached the end of its sample, loop it or free it.
+                    if (voice.mLoop == 0 || frameCount == 0) {
+                        freeVoice(voice);
+                        break;
+                    }
+
+                    if (voice.mLoop > 0)
+                        voice.mLoop--;
+
+                    voice.mPosition = Math.max(0, voice.mPosition - ((long) frameCount << Resampler.FRACTION_BITS));
+                }
+            }
+
+            if (insert) {
+                effects.process(mStreamBuffer, 0, BLOCK_FRAMES);
+                for (int i = 0; i < mMixBuffer.length; i++)
+                    mMixBuffer[i] += mStreamBuffer[i];
+            }
+        }
+    }
+
+    /**
+     * Converts the mix buffer to 16 bit PCM in the output buffer.
+     */
+    private void convertBlock() {
+        mOutput.clear();
+        for (int i = 0; i < mMixBuffer.length; i++) {
+            final float value = Math.max(-1f, Math.min(1f, mMixBuffer[i]));
+            mOutput.putShort((short) (value * Short.MAX_VALUE));
+        }
+        mOutput.flip();
+    }
+
+    private final Runnable mMixer = new Runnable() {
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+            try {
+                mSink.open(mOutputSampleRate, 2);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open the sink, nothing will be played.", e);
+                return;
+            }
+
+            mSink.play();
+
+            final long blockDuration = BLOCK_FRAMES * AudioClock.NANOS_PER_SECOND / mOutputSampleRate;
+            boolean anchor = true;
+
+            while (true) {
+                synchronized (SoftwareSampleBackend.this) {
+                    while (!mReleased && !hasPlayingVoice()) {
+                        anchor = true;
+                        try {
+                            SoftwareSampleBackend.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    if (mReleased)
+                        return;
+
+                    // The timeline restarts after idling or when the sink ran dry, otherwise it only advances by the mixed frames.
+                    final long now = mClock.nanoTime();
+                    if (anchor || mAnchorTime + mMixedFrames * AudioClock.NANOS_PER_SECOND / mOutputSampleRate < now - blockDuration) {
+                        mAnchorTime = now;
+                        mMixedFrames = 0;
+                        anchor = false;
+                    }
+
+                    mixBlock();
+                    mMixedFrames += BLOCK_FRAMES;
+                }
+
+                // The sink paces the mixer, so the lock is not held while processing the mix or writing.
+                final EffectChain effects = mEffects;
+                if (effects != null && effects.isActive())
+                    effects.process(mMixBuffer, 0, BLOCK_FRAMES);
+
+                convertBlock();
+                mSink.write(mOutput);
+            }
+        }
+    };
+
+    /**
+     * Returns the number of streams that are playing or paused.
+     */
+    public synchronized int getActiveStreamCount() {
+        return mActiveVoiceCount;
+    }
+
+    /**
+     * Returns the number of samples that have finished loading.
+     */
+    public synchronized int getLoadedSampleCount() {
+        return mSamples.size();
+    }
+
+    /**
+     * Returns the number of streams that have been stopped to make room for a new one.
+     */
+    public synchronized long getStolenStreamCount() {
+        return mStolenStreamCount;
+    }
+
+    /**
+     * Returns the number of play calls that have been rejected because of the stream limit.
+     */
+    public synchronized long getRejectedStreamCount() {
+        return mRejectedStreamCount;
+    }
+
+}
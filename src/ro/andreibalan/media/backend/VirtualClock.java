@@ -0,0 +1,184 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import ro.andreibalan.media.AudioClock;
+
+/**
+ * Deterministic clock used by the {@link SimulatedAudioBackend}.
+ * <br/><br/>
+ * Time only moves when {@link #advance(long)} is called. Every event scheduled on the clock runs on the calling thread,
+ * in time order and in scheduling order for events due at the same time, so simulations always produce the same results.
+ */
+public class VirtualClock {
+
+    public final static String TAG = VirtualClock.class.getSimpleName();
+
+    /**
+     * An event waiting for the clock to reach its time.
+     */
+    private static final class Event implements Comparable<Event> {
+
+        private final long mTime;
+
+        private final long mSequence;
+
+        private final Runnable mRunnable;
+
+        private Event(final long time, final long sequence, final Runnable runnable) {
+            mTime = time;
+            mSequence = sequence;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(final Event other) {
+            if (mTime != other.mTime)
+                return (mTime < other.mTime) ? -1 : 1;
+
+            return (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<Event>();
+
+    private long mNow = 0;
+
+    private long mSequence = 0;
+
+    /**
+     * The virtual time as an {@link AudioClock}, so an AudioThread can be timed with it.
+     */
+    private final AudioClock mAudioClock = new AudioClock() {
+
+        @Override
+        public long nanoTime() {
+            return now() * NANOS_PER_MILLISECOND;
+        }
+    };
+
+    /**
+     * Returns the current virtual time in milliseconds.
+     */
+    public synchronized long now() {
+        return mNow;
+    }
+
+    /**
+     * Runs the runnable when the clock has been advanced by the given delay.
+     */
+    public synchronized void schedule(final Runnable runnable, final long delayMillis) {
+        if (delayMillis < 0)
+            throw new IllegalArgumentException("Delay cannot be negative.");
+
+        mEvents.add(new Event(mNow + delayMillis, mSequence++, runnable));
+    }
+
+    /**
+     * Removes every event of the runnable, or of a runnable equal to it, that has not run yet.
+     * 
+     * @return - Number of events that have been removed.
+     */
+    public synchronized int cancel(final Runnable runnable) {
+        int count = 0;
+        final Iterator<Event> iterator = mEvents.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mRunnable.equals(runnable)) {
+                iterator.remove();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the virtual time as an {@link AudioClock} with millisecond resolution.
+     */
+    public AudioClock getAudioClock() {
+        return mAudioClock;
+    }
+
+    /**
+     * Moves the clock forward by the given amount of milliseconds running every event that becomes due.
+     */
+    public void advance(final long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("The clock cannot go backwards.");
+
+        final long target;
+        synchronized (this) {
+            target = mNow + millis;
+        }
+
+        while (true) {
+            final Event event;
+            synchronized (this) {
+                final Event next = mEvents.peek();
+                if (next == null || next.mTime > target) {
+                    mNow = Math.max(mNow, target);
+                    return;
+                }
+
+                event = mEvents.poll();
+                mNow = Math.max(mNow, event.mTime);
+            }
+
+            // Events run outside the lock so they can schedule new events or advance the clock themselves.
+            event.mRunnable.run();
+        }
+    }
+
+    /**
+     * Moves the clock forward from event to event until no events are left, taking at most the given number of steps.
+     * Every step advances the clock to the time of the next event and runs all the events due at that time.
+     * 
+     * @return - Number of steps that have been taken.
+     */
+    public int runAll(final int maxSteps) {
+        int count = 0;
+        while (count < maxSteps) {
+            final long delay;
+            synchronized (this) {
+                final Event next = mEvents.peek();
+                if (next == null)
+                    return count;
+
+                delay = next.mTime - mNow;
+            }
+
+            advance(Math.max(0, delay));
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of events still waiting for the clock.
+     */
+    public synchronized int getPendingEventCount() {
+        return mEvents.size();
+    }
+
+}
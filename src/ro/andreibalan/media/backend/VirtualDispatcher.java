@@ -0,0 +1,148 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.backend;
+
+import ro.andreibalan.media.AudioThread;
+
+/**
+ * {@link AudioThread.Dispatcher} that runs the frames as events of a {@link VirtualClock}.
+ * <br/><br/>
+ * Nothing runs until the clock is advanced, posted commands run on the next {@link VirtualClock#advance(long)}, even one of 0 ms,
+ * and scheduled commands when the clock reaches their time. The thread advancing the clock is the audio thread while the events run.
+ */
+public class VirtualDispatcher implements AudioThread.Dispatcher {
+
+    public final static String TAG = VirtualDispatcher.class.getSimpleName();
+
+    private final VirtualClock mClock;
+
+    private Runnable mDrain;
+
+    private Runnable mRunScheduled;
+
+    /**
+     * Thread that is running an event of this dispatcher, or null between events.
+     */
+    private volatile Thread mDispatchThread;
+
+    private final Runnable mDrainEvent = new Runnable() {
+
+        @Override
+        public void run() {
+            dispatch(mDrain);
+        }
+    };
+
+    private final Runnable mScheduledEvent = new Runnable() {
+
+        @Override
+        public void run() {
+            dispatch(mRunScheduled);
+        }
+    };
+
+    public VirtualDispatcher(final VirtualClock clock) {
+        if (clock == null)
+            throw new IllegalArgumentException("Clock can not be null.");
+
+        mClock = clock;
+    }
+
+    /**
+     * Returns a new AudioThread timed by and running on the given clock.
+     */
+    public static AudioThread createAudioThread(final VirtualClock clock) {
+        return new AudioThread(clock.getAudioClock(), new VirtualDispatcher(clock));
+    }
+
+    public VirtualClock getClock() {
+        return mClock;
+    }
+
+    @Override
+    public void attach(final Runnable drain, final Runnable runScheduled) {
+        mDrain = drain;
+        mRunScheduled = runScheduled;
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return (Thread.currentThread() == mDispatchThread);
+    }
+
+    @Override
+    public void requestDrain() {
+        mClock.schedule(mDrainEvent, 0);
+    }
+
+    @Override
+    public void requestScheduled(final long delayMillis) {
+        mClock.cancel(mScheduledEvent);
+        mClock.schedule(mScheduledEvent, delayMillis);
+    }
+
+    @Override
+    public void postDelayed(final Runnable runnable, final long delayMillis) {
+        mClock.schedule(new DelayedEvent(runnable), delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(final Runnable runnable) {
+        mClock.cancel(new DelayedEvent(runnable));
+    }
+
+    private void dispatch(final Runnable runnable) {
+        final Thread previous = mDispatchThread;
+        mDispatchThread = Thread.currentThread();
+        try {
+            runnable.run();
+        } finally {
+            mDispatchThread = previous;
+        }
+    }
+
+    /**
+     * Wraps a delayed runnable so it runs as the audio thread. Events of the same runnable are equal so they can be cancelled together.
+     */
+    private final class DelayedEvent implements Runnable {
+
+        private final Runnable mRunnable;
+
+        private DelayedEvent(final Runnable runnable) {
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            dispatch(mRunnable);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return (other instanceof DelayedEvent) && ((DelayedEvent) other).mRunnable == mRunnable;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mRunnable);
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Second order IIR filter for equalization, with the coefficients of the RBJ Audio EQ Cookbook.
+ * <br/><br/>
+ * Several filters in an {@link EffectChain} make a parametric EQ. The coefficients are computed by the thread that changes the
+ * parameters and handed over to the processing thread as a whole, so a block is never filtered with a mix of old and new coefficients.
+ */
+public class BiquadFilter extends Effect {
+
+    public final static String TAG = BiquadFilter.class.getSimpleName();
+
+    public enum Type {
+        LOW_PASS,
+        HIGH_PASS,
+        BAND_PASS,
+        NOTCH,
+        PEAK,
+        LOW_SHELF,
+        HIGH_SHELF
+    }
+
+    public final static float DEFAULT_Q = 0.7071f;
+
+    private final static double DENORMAL_THRESHOLD = 1e-20;
+
+    private Type mType;
+
+    private float mFrequency;
+
+    private float mQ;
+
+    private float mGain;
+
+    /**
+     * Coefficients b0, b1, b2, a1, a2 normalized by a0, waiting to be picked up by the next block.
+     */
+    private final AtomicReference<double[]> mPendingCoefficients = new AtomicReference<double[]>();
+
+    private double mB0 = 1, mB1, mB2, mA1, mA2;
+
+    /**
+     * Transposed direct form II state, two values per channel.
+     */
+    private double[] mState;
+
+    /**
+     * @param type - Filter type.
+     * @param frequency - Cutoff or center frequency in Hz.
+     * @param q - Quality factor, {@link #DEFAULT_Q} for a flat pass band.
+     * @param gain - Gain in dB of the peak and shelf types, ignored by the others.
+     */
+    public BiquadFilter(final Type type, final float frequency, final float q, final float gain) {
+        set(type, frequency, q, gain);
+    }
+
+    /**
+     * Changes all the parameters at once.
+     */
+    public synchronized void set(final Type type, final float frequency, final float q, final float gain) {
+        if (type == null)
+            throw new IllegalArgumentException("Type can not be null.");
+
+        if (frequency <= 0)
+            throw new IllegalArgumentException("Frequency must be positive.");
+
+        if (q <= 0)
+            throw new IllegalArgumentException("Q must be positive.");
+
+        mType = type;
+        mFrequency = frequency;
+        mQ = q;
+        mGain = gain;
+
+        if (isPrepared())
+            mPendingCoefficients.set(computeCoefficients(getSampleRate()));
+    }
+
+    public synchronized void setFrequency(final float frequency) {
+        set(mType, frequency, mQ, mGain);
+    }
+
+    public synchronized void setQ(final float q) {
+        set(mType, mFrequency, q, mGain);
+    }
+
+    public synchronized void setGain(final float gain) {
+        set(mType, mFrequency, mQ, gain);
+    }
+
+    public synchronized Type getType() {
+        return mType;
+    }
+
+    public synchronized float getFrequency() {
+        return mFrequency;
+    }
+
+    public synchronized float getQ() {
+        return mQ;
+    }
+
+    public synchronized float getGain() {
+        return mGain;
+    }
+
+    private double[] computeCoefficients(final int sampleRate) {
+        // The frequency is kept below Nyquist so the filter stays stable whatever the sample rate.
+        final double omega = 2 * Math.PI * Math.min(mFrequency, sampleRate * 0.49) / sampleRate;
+        final double cos = Math.cos(omega);
+        final double alpha = Math.sin(omega) / (2 * mQ);
+        final double a = Math.pow(10, mGain / 40.0);
+
+        double b0, b1, b2, a0, a1, a2;
+        switch (mType) {
+            case LOW_PASS:
+                b0 = (1 - cos) / 2;
+                b1 = 1 - cos;
+                b2 = (1 - cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+
+            case HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+
+            case BAND_PASS:
+                b0 = alpha;
+                b1 = 0;
+                b2 = -alpha;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+
+            case NOTCH:
+                b0 = 1;
+                b1 = -2 * cos;
+                b2 = 1;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+
+            case PEAK:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+
+            case LOW_SHELF: {
+                final double root = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) - (a - 1) * cos + root);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - root);
+                a0 = (a + 1) + (a - 1) * cos + root;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - root;
+                break;
+            }
+
+            case HIGH_SHELF: {
+                final double root = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) + (a - 1) * cos + root);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - root);
+                a0 = (a + 1) - (a - 1) * cos + root;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - root;
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Unknown filter type " + mType);
+        }
+
+        return new double[] { b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0 };
+    }
+
+    @Override
+    protected synchronized void onPrepare(final int sampleRate, final int channelCount) {
+        mState = new double[channelCount * 2];
+        mPendingCoefficients.set(computeCoefficients(sampleRate));
+    }
+
+    @Override
+    protected void onReset() {
+        for (int i = 0; i < mState.length; i++)
+            mState[i] = 0;
+    }
+
+    @Override
+    protected void onProcess(final float[] buffer, final int offset, final int frames) {
+        final double[] coefficients = mPendingCoefficients.getAndSet(null);
+        if (coefficients != null) {
+            mB0 = coefficients[0];
+            mB1 = coefficients[1];
+            mB2 = coefficients[2];
+            mA1 = coefficients[3];
+            mA2 = coefficients[4];
+        }
+
+        final double b0 = mB0, b1 = mB1, b2 = mB2, a1 = mA1, a2 = mA2;
+        final double[] state = mState;
+        final int channelCount = getChannelCount();
+        final int end = offset + frames * channelCount;
+
+        for (int channel = 0; channel < channelCount; channel++) {
+            double z1 = state[channel * 2];
+            double z2 = state[channel * 2 + 1];
+
+            for (int i = offset + channel; i < end; i += channelCount) {
+                final double x = buffer[i];
+                final double y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                buffer[i] = (float) y;
+            }
+
+            // Decaying state is flushed to zero so silence does not end up in slow denormal arithmetic.
+            state[channel * 2] = (Math.abs(z1) < DENORMAL_THRESHOLD) ? 0 : z1;
+            state[channel * 2 + 1] = (Math.abs(z2) < DENORMAL_THRESHOLD) ? 0 : z2;
+        }
+    }
+
+}
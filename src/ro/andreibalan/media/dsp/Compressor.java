@@ -0,0 +1,196 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+/**
+ * Feed forward peak compressor with linked channels, so the stereo image does not move when one side gets louder.
+ * <br/><br/>
+ * The level follows the loudest channel of every frame with separate attack and release times, the gain reduction above the threshold
+ * is set by the ratio and the makeup gain is applied afterwards.
+ */
+public class Compressor extends Effect {
+
+    public final static String TAG = Compressor.class.getSimpleName();
+
+    public final static float DEFAULT_ATTACK = 10f;
+
+    public final static float DEFAULT_RELEASE = 100f;
+
+    private volatile float mThreshold;
+
+    private volatile float mRatio;
+
+    private volatile float mAttack = DEFAULT_ATTACK;
+
+    private volatile float mRelease = DEFAULT_RELEASE;
+
+    private volatile float mMakeup = 0f;
+
+    /**
+     * Values derived from the parameters, written by the thread that changes them.
+     */
+    private volatile float mThresholdLevel;
+
+    private volatile float mSlope;
+
+    private volatile float mMakeupGain = 1f;
+
+    private volatile float mAttackCoefficient;
+
+    private volatile float mReleaseCoefficient;
+
+    /**
+     * Level of the detector. Only used by the processing thread.
+     */
+    private float mEnvelope;
+
+    /**
+     * Last gain reduction in dB, for metering.
+     */
+    private volatile float mReduction;
+
+    /**
+     * @param threshold - Level in dBFS above which the signal is compressed.
+     * @param ratio - Compression ratio, 4 means 4 dB over the threshold come out as 1 dB.
+     */
+    public Compressor(final float threshold, final float ratio) {
+        setThreshold(threshold);
+        setRatio(ratio);
+    }
+
+    public void setThreshold(final float threshold) {
+        if (threshold > 0)
+            throw new IllegalArgumentException("Threshold can not be above 0 dBFS.");
+
+        mThreshold = threshold;
+        mThresholdLevel = toGain(threshold);
+    }
+
+    public float getThreshold() {
+        return mThreshold;
+    }
+
+    public void setRatio(final float ratio) {
+        if (ratio < 1)
+            throw new IllegalArgumentException("Ratio can not be below 1.");
+
+        mRatio = ratio;
+        mSlope = 1f / ratio - 1f;
+    }
+
+    public float getRatio() {
+        return mRatio;
+    }
+
+    /**
+     * @param attack - Attack time in milliseconds.
+     */
+    public void setAttack(final float attack) {
+        if (attack < 0)
+            throw new IllegalArgumentException("Attack can not be negative.");
+
+        mAttack = attack;
+        mAttackCoefficient = getSmoothingCoefficient(attack, getSampleRate());
+    }
+
+    public float getAttack() {
+        return mAttack;
+    }
+
+    /**
+     * @param release - Release time in milliseconds.
+     */
+    public void setRelease(final float release) {
+        if (release < 0)
+            throw new IllegalArgumentException("Release can not be negative.");
+
+        mRelease = release;
+        mReleaseCoefficient = getSmoothingCoefficient(release, getSampleRate());
+    }
+
+    public float getRelease() {
+        return mRelease;
+    }
+
+    /**
+     * @param makeup - Gain in dB applied after the compression.
+     */
+    public void setMakeup(final float makeup) {
+        mMakeup = makeup;
+        mMakeupGain = toGain(makeup);
+    }
+
+    public float getMakeup() {
+        return mMakeup;
+    }
+
+    /**
+     * Returns the gain reduction in dB at the end of the last block, 0 or negative.
+     */
+    public float getReduction() {
+        return mReduction;
+    }
+
+    @Override
+    protected void onPrepare(final int sampleRate, final int channelCount) {
+        mAttackCoefficient = getSmoothingCoefficient(mAttack, sampleRate);
+        mReleaseCoefficient = getSmoothingCoefficient(mRelease, sampleRate);
+    }
+
+    @Override
+    protected void onReset() {
+        mEnvelope = 0f;
+        mReduction = 0f;
+    }
+
+    @Override
+    protected void onProcess(final float[] buffer, final int offset, final int frames) {
+        final float threshold = mThresholdLevel;
+        final float slope = mSlope;
+        final float makeup = mMakeupGain;
+        final float attack = mAttackCoefficient;
+        final float release = mReleaseCoefficient;
+        final int channelCount = getChannelCount();
+        final int end = offset + frames * channelCount;
+
+        float envelope = mEnvelope;
+        float gain = 1f;
+
+        for (int i = offset; i < end; i += channelCount) {
+            float peak = 0f;
+            for (int channel = 0; channel < channelCount; channel++)
+                peak = Math.max(peak, Math.abs(buffer[i + channel]));
+
+            final float coefficient = (peak > envelope) ? attack : release;
+            envelope = peak + coefficient * (envelope - peak);
+
+            // Below the threshold the gain is 1 and the power is skipped.
+            gain = (envelope > threshold) ? (float) Math.pow(envelope / threshold, slope) : 1f;
+
+            final float frameGain = gain * makeup;
+            for (int channel = 0; channel < channelCount; channel++)
+                buffer[i + channel] *= frameGain;
+        }
+
+        mEnvelope = (envelope < 1e-20f) ? 0f : envelope;
+        mReduction = (gain < 1f) ? (float) (20 * Math.log10(gain)) : 0f;
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+/**
+ * Feedback delay with a dry and wet mix.
+ * <br/><br/>
+ * The delay line is allocated for the longest delay given to the constructor, so the delay time can be changed while playing.
+ */
+public class Delay extends Effect {
+
+    public final static String TAG = Delay.class.getSimpleName();
+
+    private final float mMaxTime;
+
+    private volatile float mTime;
+
+    private volatile float mFeedback;
+
+    private volatile float mMix;
+
+    private float[] mLine;
+
+    private int mLineFrames;
+
+    private int mWritePosition;
+
+    /**
+     * @param maxTime - Longest delay time in milliseconds.
+     * @param time - Delay time in milliseconds.
+     * @param feedback - Part of the delayed signal fed back into the line, between 0.0 and 0.95.
+     * @param mix - Part of the output that is delayed, between 0.0 (dry) and 1.0 (wet).
+     */
+    public Delay(final float maxTime, final float time, final float feedback, final float mix) {
+        if (maxTime <= 0)
+            throw new IllegalArgumentException("Max time must be positive.");
+
+        mMaxTime = maxTime;
+        setTime(time);
+        setFeedback(feedback);
+        setMix(mix);
+    }
+
+    public void setTime(final float time) {
+        if (time < 0 || time > mMaxTime)
+            throw new IllegalArgumentException("Time must be between 0 and " + mMaxTime + " ms.");
+
+        mTime = time;
+    }
+
+    public float getTime() {
+        return mTime;
+    }
+
+    public float getMaxTime() {
+        return mMaxTime;
+    }
+
+    public void setFeedback(final float feedback) {
+        if (feedback < 0 || feedback > 0.95f)
+            throw new IllegalArgumentException("Feedback must be between 0.0 and 0.95.");
+
+        mFeedback = feedback;
+    }
+
+    public float getFeedback() {
+        return mFeedback;
+    }
+
+    public void setMix(final float mix) {
+        if (mix < 0 || mix > 1)
+            throw new IllegalArgumentException("Mix must be between 0.0 and 1.0.");
+
+        mMix = mix;
+    }
+
+    public float getMix() {
+        return mMix;
+    }
+
+    @Override
+    protected void onPrepare(final int sampleRate, final int channelCount) {
+        mLineFrames = (int) Math.ceil(mMaxTime * sampleRate / 1000f) + 1;
+        mLine = new float[mLineFrames * channelCount];
+    }
+
+    @Override
+    protected void onReset() {
+        for (int i = 0; i < mLine.length; i++)
+            mLine[i] = 0f;
+
+        mWritePosition = 0;
+    }
+
+    @Override
+    protected void onProcess(final float[] buffer, final int offset, final int frames) {
+        final float feedback = mFeedback;
+        final float wet = mMix;
+        final float dry = 1f - wet;
+        final int channelCount = getChannelCount();
+        final float[] line = mLine;
+        final int lineLength = line.length;
+        final int delayFrames = Math.max(1, Math.min(mLineFrames - 1, Math.round(mTime * getSampleRate() / 1000f)));
+        final int end = offset + frames * channelCount;
+
+        int write = mWritePosition;
+        int read = write - delayFrames * channelCount;
+        if (read < 0)
+            read += lineLength;
+
+        for (int i = offset; i < end; i += channelCount) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                final float input = buffer[i + channel];
+                final float delayed = line[read + channel];
+                line[write + channel] = input + delayed * feedback;
+                buffer[i + channel] = input * dry + delayed * wet;
+            }
+
+            write += channelCount;
+            if (write == lineLength)
+                write = 0;
+
+            read += channelCount;
+            if (read == lineLength)
+                read = 0;
+        }
+
+        mWritePosition = write;
+    }
+
+}
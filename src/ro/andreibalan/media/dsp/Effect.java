@@ -0,0 +1,162 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+/**
+ * Insert effect that processes interleaved float blocks in place, e.g. the mix blocks of the software sample pools.
+ * <br/><br/>
+ * All the state an effect needs is allocated by {@link #prepare(int, int)}, so {@link #process(float[], int, int)} never allocates.
+ * Parameters can be changed from any thread and are picked up by the next block, {@link #prepare(int, int)} must not be called while
+ * the effect is processing.
+ * <br/><br/>
+ * A bypassed effect returns right away and leaves the block untouched. Its state is reset when it is enabled again, so a delay does not
+ * replay what it held before it was bypassed.
+ */
+public abstract class Effect {
+
+    public final static String TAG = Effect.class.getSimpleName();
+
+    private int mSampleRate;
+
+    private int mChannelCount;
+
+    private volatile boolean mBypassed = false;
+
+    /**
+     * Set by any thread, consumed by the thread that processes the effect so the state is only ever touched by that thread.
+     */
+    private volatile boolean mResetPending = false;
+
+    /**
+     * Allocates the state of the effect for the given format and resets it.
+     * 
+     * @param sampleRate - Sample rate of the blocks in Hz.
+     * @param channelCount - Number of interleaved channels of the blocks.
+     */
+    public final void prepare(final int sampleRate, final int channelCount) {
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("Sample rate must be positive.");
+
+        if (channelCount <= 0)
+            throw new IllegalArgumentException("Channel count must be positive.");
+
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mResetPending = false;
+
+        onPrepare(sampleRate, channelCount);
+        onReset();
+    }
+
+    /**
+     * Returns true once {@link #prepare(int, int)} has been called.
+     */
+    public boolean isPrepared() {
+        return mSampleRate != 0;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Processes a block in place. Does nothing while the effect is bypassed or has not been prepared.
+     * 
+     * @param buffer - Interleaved samples of {@link #getChannelCount()} channels.
+     * @param offset - Index of the first sample of the block in the buffer.
+     * @param frames - Number of frames of the block.
+     */
+    public final void process(final float[] buffer, final int offset, final int frames) {
+        if (mBypassed || mSampleRate == 0)
+            return;
+
+        if (mResetPending) {
+            mResetPending = false;
+            onReset();
+        }
+
+        onProcess(buffer, offset, frames);
+    }
+
+    /**
+     * Clears the state of the effect, e.g. the filter history or the delay line, before the next block is processed.
+     */
+    public void reset() {
+        mResetPending = true;
+    }
+
+    /**
+     * Bypassing an effect leaves the blocks untouched and costs nothing but the check of the flag.
+     */
+    public void setBypassed(final boolean bypassed) {
+        if (mBypassed && !bypassed)
+            mResetPending = true;
+
+        mBypassed = bypassed;
+    }
+
+    public boolean isBypassed() {
+        return mBypassed;
+    }
+
+    /**
+     * Returns the number of frames the effect delays the signal by. Effects that look ahead override this, default is 0.
+     */
+    public int getLatencyFrames() {
+        return 0;
+    }
+
+    /**
+     * Allocates the state for the given format. This is the only place an effect may allocate.
+     */
+    protected abstract void onPrepare(int sampleRate, int channelCount);
+
+    /**
+     * Clears the state. Called on the processing thread or from {@link #prepare(int, int)}.
+     */
+    protected abstract void onReset();
+
+    /**
+     * Processes a block in place, see {@link #process(float[], int, int)}.
+     */
+    protected abstract void onProcess(float[] buffer, int offset, int frames);
+
+    /**
+     * Converts decibels to a linear gain.
+     */
+    public static float toGain(final float decibels) {
+        return (float) Math.pow(10, decibels / 20.0);
+    }
+
+    /**
+     * Returns the coefficient of a one pole smoother that covers about 63% of a step in the given time.
+     */
+    static float getSmoothingCoefficient(final float milliseconds, final int sampleRate) {
+        if (milliseconds <= 0 || sampleRate == 0)
+            return 0f;
+
+        return (float) Math.exp(-1000.0 / (milliseconds * sampleRate));
+    }
+
+}
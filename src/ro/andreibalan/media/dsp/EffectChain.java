@@ -0,0 +1,173 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Ordered chain of insert effects, e.g. an EQ followed by a compressor and a limiter, processed in place one after the other.
+ * <br/><br/>
+ * The chain is an effect itself, so it can be bypassed as a whole or nested in another chain. Effects are added and removed by copying
+ * the array of effects, so the processing thread never takes a lock and never sees a chain that is half changed. An effect added to a
+ * prepared chain is prepared before it is published.
+ * <br/><br/>
+ * An effect holds the state of a single signal, so an effect or a chain can only be attached to one stream or sample pool at a time.
+ */
+public class EffectChain extends Effect {
+
+    public final static String TAG = EffectChain.class.getSimpleName();
+
+    private final static Effect[] EMPTY = new Effect[0];
+
+    private volatile Effect[] mEffects = EMPTY;
+
+    public EffectChain() {
+    }
+
+    public EffectChain(final Effect... effects) {
+        for (Effect effect : effects)
+            add(effect);
+    }
+
+    /**
+     * Appends an effect to the end of the chain.
+     * 
+     * @throws IllegalArgumentException if the effect is already in the chain.
+     */
+    public synchronized void add(final Effect effect) {
+        add(mEffects.length, effect);
+    }
+
+    /**
+     * Inserts an effect at the given position of the chain.
+     * 
+     * @throws IllegalArgumentException if the effect is already in the chain.
+     */
+    public synchronized void add(final int index, final Effect effect) {
+        if (effect == null)
+            throw new IllegalArgumentException("Effect can not be null.");
+
+        if (effect == this || indexOf(effect) >= 0)
+            throw new IllegalArgumentException("Effect is already in the chain.");
+
+        final Effect[] effects = mEffects;
+        if (index < 0 || index > effects.length)
+            throw new IllegalArgumentException("Index " + index + " is outside the chain of " + effects.length + " effects.");
+
+        if (isPrepared())
+            effect.prepare(getSampleRate(), getChannelCount());
+
+        final Effect[] added = new Effect[effects.length + 1];
+        System.arraycopy(effects, 0, added, 0, index);
+        added[index] = effect;
+        System.arraycopy(effects, index, added, index + 1, effects.length - index);
+        mEffects = added;
+    }
+
+    public synchronized boolean remove(final Effect effect) {
+        final int index = indexOf(effect);
+        if (index < 0)
+            return false;
+
+        final Effect[] effects = mEffects;
+        final Effect[] removed = new Effect[effects.length - 1];
+        System.arraycopy(effects, 0, removed, 0, index);
+        System.arraycopy(effects, index + 1, removed, index, effects.length - index - 1);
+        mEffects = removed;
+        return true;
+    }
+
+    public synchronized void clear() {
+        mEffects = EMPTY;
+    }
+
+    public int indexOf(final Effect effect) {
+        final Effect[] effects = mEffects;
+        for (int i = 0; i < effects.length; i++)
+            if (effects[i] == effect)
+                return i;
+
+        return -1;
+    }
+
+    public Effect get(final int index) {
+        return mEffects[index];
+    }
+
+    public int size() {
+        return mEffects.length;
+    }
+
+    /**
+     * Returns a copy of the effects in processing order.
+     */
+    public Effect[] getEffects() {
+        final Effect[] effects = mEffects;
+        return Arrays.copyOf(effects, effects.length);
+    }
+
+    /**
+     * Returns true if processing the chain would change a block, i.e. it is not bypassed and has an effect that is not bypassed either.
+     * The sample pools use it to skip the chain entirely.
+     */
+    public boolean isActive() {
+        if (isBypassed())
+            return false;
+
+        for (Effect effect : mEffects)
+            if (!effect.isBypassed())
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Returns the number of frames the effects of the chain that are not bypassed delay the signal by.
+     */
+    @Override
+    public int getLatencyFrames() {
+        int latency = 0;
+        for (Effect effect : mEffects)
+            if (!effect.isBypassed())
+                latency += effect.getLatencyFrames();
+
+        return latency;
+    }
+
+    @Override
+    protected synchronized void onPrepare(final int sampleRate, final int channelCount) {
+        for (Effect effect : mEffects)
+            effect.prepare(sampleRate, channelCount);
+    }
+
+    @Override
+    protected void onReset() {
+        for (Effect effect : mEffects)
+            effect.reset();
+    }
+
+    @Override
+    protected void onProcess(final float[] buffer, final int offset, final int frames) {
+        final Effect[] effects = mEffects;
+        for (int i = 0; i < effects.length; i++)
+            effects[i].process(buffer, offset, frames);
+    }
+
+}
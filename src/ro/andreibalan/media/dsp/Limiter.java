@@ -0,0 +1,225 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.dsp;
+
+/**
+ * Brick-wall limiter with lookahead, no sample leaves it above the ceiling.
+ * <br/><br/>
+ * The signal is delayed by the lookahead time while the gain is computed from the undelayed signal, as the smallest gain any frame in the
+ * lookahead window needs. The gain drops as soon as a peak enters the window, so it is already low enough when the peak comes out, and
+ * recovers with the release time once the peak has left. The channels are linked.
+ * <br/><br/>
+ * The lookahead adds its length to the latency of the chain.
+ */
+public class Limiter extends Effect {
+
+    public final static String TAG = Limiter.class.getSimpleName();
+
+    public final static float DEFAULT_LOOKAHEAD = 1.5f;
+
+    public final static float DEFAULT_RELEASE = 50f;
+
+    private final float mLookahead;
+
+    private volatile float mCeiling;
+
+    private volatile float mCeilingLevel;
+
+    private volatile float mRelease = DEFAULT_RELEASE;
+
+    private volatile float mReleaseCoefficient;
+
+    private int mLookaheadFrames;
+
+    /**
+     * Delay line of the lookahead, interleaved like the blocks.
+     */
+    private float[] mDelay;
+
+    private int mDelayPosition;
+
+    /**
+     * Monotonic queue of the gains the frames in the window need, used as a ring. The head holds the smallest gain.
+     */
+    private float[] mQueueGains;
+
+    private long[] mQueueFrames;
+
+    private int mQueueHead;
+
+    private int mQueueSize;
+
+    private long mFrame;
+
+    private float mGain;
+
+    private volatile float mReduction;
+
+    /**
+     * @param ceiling - Highest output level in dBFS.
+     */
+    public Limiter(final float ceiling) {
+        this(ceiling, DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * @param ceiling - Highest output level in dBFS.
+     * @param lookahead - Lookahead time in milliseconds, fixed since the delay line is allocated by {@link #prepare(int, int)}.
+     */
+    public Limiter(final float ceiling, final float lookahead) {
+        if (lookahead < 0)
+            throw new IllegalArgumentException("Lookahead can not be negative.");
+
+        mLookahead = lookahead;
+        setCeiling(ceiling);
+    }
+
+    public void setCeiling(final float ceiling) {
+        if (ceiling > 0)
+            throw new IllegalArgumentException("Ceiling can not be above 0 dBFS.");
+
+        mCeiling = ceiling;
+        mCeilingLevel = toGain(ceiling);
+    }
+
+    public float getCeiling() {
+        return mCeiling;
+    }
+
+    /**
+     * @param release - Release time in milliseconds.
+     */
+    public void setRelease(final float release) {
+        if (release < 0)
+            throw new IllegalArgumentException("Release can not be negative.");
+
+        mRelease = release;
+        mReleaseCoefficient = getSmoothingCoefficient(release, getSampleRate());
+    }
+
+    public float getRelease() {
+        return mRelease;
+    }
+
+    public float getLookahead() {
+        return mLookahead;
+    }
+
+    /**
+     * Returns the number of frames the limiter delays the signal by, known once it has been prepared.
+     */
+    @Override
+    public int getLatencyFrames() {
+        return mLookaheadFrames;
+    }
+
+    /**
+     * Returns the gain reduction in dB at the end of the last block, 0 or negative.
+     */
+    public float getReduction() {
+        return mReduction;
+    }
+
+    @Override
+    protected void onPrepare(final int sampleRate, final int channelCount) {
+        mLookaheadFrames = Math.round(mLookahead * sampleRate / 1000f);
+        mDelay = new float[Math.max(1, mLookaheadFrames) * channelCount];
+        mQueueGains = new float[mLookaheadFrames + 1];
+        mQueueFrames = new long[mLookaheadFrames + 1];
+        mReleaseCoefficient = getSmoothingCoefficient(mRelease, sampleRate);
+    }
+
+    @Override
+    protected void onReset() {
+        for (int i = 0; i < mDelay.length; i++)
+            mDelay[i] = 0f;
+
+        mDelayPosition = 0;
+        mQueueHead = 0;
+        mQueueSize = 0;
+        mFrame = 0;
+        mGain = 1f;
+        mReduction = 0f;
+    }
+
+    @Override
+    protected void onProcess(final float[] buffer, final int offset, final int frames) {
+        final float ceiling = mCeilingLevel;
+        final float release = mReleaseCoefficient;
+        final int channelCount = getChannelCount();
+        final int lookahead = mLookaheadFrames;
+        final float[] delay = mDelay;
+        final float[] queueGains = mQueueGains;
+        final long[] queueFrames = mQueueFrames;
+        final int capacity = queueGains.length;
+        final int end = offset + frames * channelCount;
+
+        float gain = mGain;
+
+        for (int i = offset; i < end; i += channelCount) {
+            float peak = 0f;
+            for (int channel = 0; channel < channelCount; channel++)
+                peak = Math.max(peak, Math.abs(buffer[i + channel]));
+
+            final float needed = (peak > ceiling) ? ceiling / peak : 1f;
+
+            // Frames older than the lookahead have already left the delay line.
+            if (mQueueSize > 0 && queueFrames[mQueueHead] < mFrame - lookahead) {
+                mQueueHead = (mQueueHead + 1) % capacity;
+                mQueueSize--;
+            }
+
+            // Gains that are not smaller than the new one can never be the minimum of the window again.
+            while (mQueueSize > 0 && queueGains[(mQueueHead + mQueueSize - 1) % capacity] >= needed)
+                mQueueSize--;
+
+            final int tail = (mQueueHead + mQueueSize) % capacity;
+            queueGains[tail] = needed;
+            queueFrames[tail] = mFrame;
+            mQueueSize++;
+
+            final float target = queueGains[mQueueHead];
+            gain = (target < gain) ? target : target + release * (gain - target);
+            mFrame++;
+
+            for (int channel = 0; channel < channelCount; channel++) {
+                final float input = buffer[i + channel];
+                float output = input;
+                if (lookahead > 0) {
+                    output = delay[mDelayPosition + channel];
+                    delay[mDelayPosition + channel] = input;
+                }
+
+                // Rounding of the gain must not let a sample through above the ceiling.
+                buffer[i + channel] = Math.max(-ceiling, Math.min(ceiling, output * gain));
+            }
+
+            if (lookahead > 0) {
+                mDelayPosition += channelCount;
+                if (mDelayPosition == delay.length)
+                    mDelayPosition = 0;
+            }
+        }
+
+        mGain = gain;
+        mReduction = (gain < 1f) ? (float) (20 * Math.log10(gain)) : 0f;
+    }
+
+}
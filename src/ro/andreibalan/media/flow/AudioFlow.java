@@ -0,0 +1,81 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.flow;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Reactive stream interfaces shaped after java.util.concurrent.Flow, which is not available on the platforms this library supports.
+ * <br/><br/>
+ * Subscribers choose the executor they are called on and pull values with {@link Subscription#request(long)}, so a slow subscriber
+ * never blocks the thread that publishes. The publishers of this library conflate, so a subscriber that falls behind only ever
+ * receives the latest value.
+ */
+public final class AudioFlow {
+
+    private AudioFlow() {
+    }
+
+    public static interface Publisher<T> {
+
+        /**
+         * Subscribes on the executor chosen by the publisher. The publishers of this library call on the main thread.
+         */
+        public void subscribe(Subscriber<? super T> subscriber);
+
+        /**
+         * Subscribes with every call to the subscriber made on the executor, one at a time.
+         */
+        public void subscribe(Subscriber<? super T> subscriber, Executor executor);
+    }
+
+    public static interface Subscriber<T> {
+
+        /**
+         * Called first, before any other method. No values are delivered until {@link Subscription#request(long)} is called.
+         */
+        public void onSubscribe(Subscription subscription);
+
+        public void onNext(T item);
+
+        public void onError(Throwable throwable);
+
+        /**
+         * Called once the publisher will not publish anymore, e.g. after the Audio Instance has been released.
+         */
+        public void onComplete();
+    }
+
+    public static interface Subscription {
+
+        /**
+         * Adds to the number of values the subscriber is ready to receive. Use Long.MAX_VALUE for unbounded demand.
+         * 
+         * @param n - Number of values, greater than 0.
+         */
+        public void request(long n);
+
+        /**
+         * Stops the delivery. Values may still be delivered while the cancellation is taking effect.
+         */
+        public void cancel();
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * {@link AudioFlow.Publisher} that keeps only the latest value for every subscriber.
+ * <br/><br/>
+ * Publishing stores the value in the slot of every subscriber and, if the subscriber has demand and is not being called already,
+ * hands one drain task to its executor. Values published while a subscriber is busy or has no demand replace each other, so a fade
+ * publishing on every frame costs a slow subscriber one call instead of a backlog. New subscribers receive the latest value first.
+ * <br/><br/>
+ * Publishing never blocks and does not allocate once the subscribers are known.
+ */
+public class ConflatingPublisher<T> implements AudioFlow.Publisher<T> {
+
+    public final static String TAG = ConflatingPublisher.class.getSimpleName();
+
+    /**
+     * Executor calling on the main thread, created on first use.
+     */
+    private static Executor sMainExecutor;
+
+    @SuppressWarnings("rawtypes")
+    private final static ConflatingSubscription[] NO_SUBSCRIPTIONS = new ConflatingSubscription[0];
+
+    /**
+     * Current subscriptions, replaced on every change so publishing can iterate without locking.
+     */
+    @SuppressWarnings("unchecked")
+    private volatile ConflatingSubscription<T>[] mSubscriptions = NO_SUBSCRIPTIONS;
+
+    private volatile T mLatest;
+
+    private volatile boolean mCompleted = false;
+
+    /**
+     * Subscribes with every call to the subscriber made on the main thread, so a subscriber never runs on the audio thread unless it asks to.
+     */
+    @Override
+    public void subscribe(final AudioFlow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, getMainExecutor());
+    }
+
+    private static synchronized Executor getMainExecutor() {
+        if (sMainExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainExecutor = new Executor() {
+
+                @Override
+                public void execute(final Runnable command) {
+                    if (!handler.post(command))
+                        throw new RejectedExecutionException("The main looper is exiting.");
+                }
+            };
+        }
+
+        return sMainExecutor;
+    }
+
+    @Override
+    public void subscribe(final AudioFlow.Subscriber<? super T> subscriber, final Executor executor) {
+        if (subscriber == null || executor == null)
+            throw new IllegalArgumentException("The subscriber and the executor can not be null.");
+
+        final ConflatingSubscription<T> subscription = new ConflatingSubscription<T>(this, subscriber, executor);
+
+        synchronized (this) {
+            if (mCompleted) {
+                subscription.complete();
+            } else {
+                // Added before the latest value is read, so a concurrent publish either sees the subscription or has already stored its value.
+                add(subscription);
+
+                final T latest = mLatest;
+                if (latest != null)
+                    subscription.offerInitial(latest);
+            }
+        }
+
+        subscription.signal();
+    }
+
+    /**
+     * Publishes a value to every subscriber. Ignored once the publisher has completed.
+     */
+    public void publish(final T value) {
+        if (value == null)
+            throw new IllegalArgumentException("You cannot publish a null value.");
+
+        mLatest = value;
+
+        final ConflatingSubscription<T>[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].offer(value);
+            subscriptions[i].signal();
+        }
+    }
+
+    /**
+     * Completes every subscriber once it has received the latest value, or right away if it has no demand left. Later subscribers are completed right away.
+     */
+    public void complete() {
+        final ConflatingSubscription<T>[] subscriptions;
+
+        synchronized (this) {
+            if (mCompleted)
+                return;
+
+            mCompleted = true;
+            subscriptions = mSubscriptions;
+            clear();
+        }
+
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].complete();
+            subscriptions[i].signal();
+        }
+    }
+
+    /**
+     * Returns true if anybody is subscribed, so publishers can skip building values nobody would receive.
+     */
+    public boolean hasSubscribers() {
+        return mSubscriptions.length > 0;
+    }
+
+    public int getSubscriberCount() {
+        return mSubscriptions.length;
+    }
+
+    /**
+     * Returns the latest published value, or null if nothing has been published yet.
+     */
+    public T getLatest() {
+        return mLatest;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void add(final ConflatingSubscription<T> subscription) {
+        final ConflatingSubscription<T>[] subscriptions = mSubscriptions;
+        final ConflatingSubscription<T>[] newSubscriptions = new ConflatingSubscription[subscriptions.length + 1];
+        System.arraycopy(subscriptions, 0, newSubscriptions, 0, subscriptions.length);
+        newSubscriptions[subscriptions.length] = subscription;
+        mSubscriptions = newSubscriptions;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    synchronized void remove(final ConflatingSubscription<T> subscription) {
+        final ConflatingSubscription<T>[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == subscription) {
+                final ConflatingSubscription<T>[] newSubscriptions = new ConflatingSubscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, newSubscriptions, 0, i);
+                System.arraycopy(subscriptions, i + 1, newSubscriptions, i, subscriptions.length - i - 1);
+                mSubscriptions = newSubscriptions;
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void clear() {
+        mSubscriptions = NO_SUBSCRIPTIONS;
+    }
+
+    /**
+     * Subscription holding one pending value. All calls to the subscriber are made by the drain task, which runs on the executor
+     * and is never queued twice, so the subscriber is called one at a time and in order.
+     */
+    private final static class ConflatingSubscription<T> implements AudioFlow.Subscription, Runnable {
+
+        private final ConflatingPublisher<T> mPublisher;
+
+        private final AudioFlow.Subscriber<? super T> mSubscriber;
+
+        private final Executor mExecutor;
+
+        private final AtomicReference<T> mPending = new AtomicReference<T>();
+
+        private final AtomicLong mDemand = new AtomicLong();
+
+        /**
+         * Number of signals since the drain task last checked, the task is only queued when it goes up from 0.
+         */
+        private final AtomicInteger mSignals = new AtomicInteger();
+
+        private volatile boolean mCancelled = false;
+
+        private volatile boolean mCompleteRequested = false;
+
+        private volatile Throwable mError;
+
+        /**
+         * Only used by the drain task.
+         */
+        private boolean mSubscribed = false;
+
+        private boolean mDone = false;
+
+        private ConflatingSubscription(final ConflatingPublisher<T> publisher, final AudioFlow.Subscriber<? super T> subscriber, final Executor executor) {
+            mPublisher = publisher;
+            mSubscriber = subscriber;
+            mExecutor = executor;
+        }
+
+        private void offer(final T value) {
+            mPending.set(value);
+        }
+
+        /**
+         * Offers the latest value to a new subscription unless a publish has already offered a newer one.
+         */
+        private void offerInitial(final T value) {
+            mPending.compareAndSet(null, value);
+        }
+
+        private void complete() {
+            mCompleteRequested = true;
+        }
+
+        private void signal() {
+            if (mSignals.getAndIncrement() != 0)
+                return;
+
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "signal: executor rejected the delivery, cancelling " + mSubscriber, e);
+                mSignals.set(0);
+                cancel();
+            }
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                mError = new IllegalArgumentException("Requested " + n + " values, the demand must be greater than 0.");
+            } else {
+                long demand;
+                do {
+                    demand = mDemand.get();
+                    if (demand == Long.MAX_VALUE)
+                        break;
+                } while (!mDemand.compareAndSet(demand, (demand + n < 0) ? Long.MAX_VALUE : demand + n));
+            }
+
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            mPending.set(null);
+            mPublisher.remove(this);
+        }
+
+        @Override
+        public void run() {
+            int signals = 1;
+
+            do {
+                drain();
+                signals = mSignals.addAndGet(-signals);
+            } while (signals != 0);
+        }
+
+        private void drain() {
+            if (mDone || mCancelled)
+                return;
+
+            try {
+                if (!mSubscribed) {
+                    mSubscribed = true;
+                    mSubscriber.onSubscribe(this);
+                }
+
+                if (mError != null) {
+                    mDone = true;
+                    cancel();
+                    mSubscriber.onError(mError);
+                    return;
+                }
+
+                while (!mCancelled && mDemand.get() > 0) {
+                    final T value = mPending.getAndSet(null);
+                    if (value == null)
+                        break;
+
+                    if (mDemand.get() != Long.MAX_VALUE)
+                        mDemand.decrementAndGet();
+
+                    mSubscriber.onNext(value);
+                }
+
+                if (mCompleteRequested && !mCancelled && (mPending.get() == null || mDemand.get() == 0)) {
+                    mDone = true;
+                    mSubscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain: subscriber failed, cancelling " + mSubscriber, e);
+                mDone = true;
+                cancel();
+            }
+        }
+    }
+
+}
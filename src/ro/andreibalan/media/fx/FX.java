@@ -19,35 +19,274 @@
  */
 package ro.andreibalan.media.fx;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import ro.andreibalan.media.Audio;
+import ro.andreibalan.media.AudioClock;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioSnapshot;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.TrimPolicy;
+import ro.andreibalan.media.backend.SampleBackend;
+import ro.andreibalan.media.backend.ScheduledSampleBackend;
 import android.util.Log;
 
 public class FX extends Audio {
 
     public final static String TAG = FX.class.getSimpleName();
 
+    /**
+     * Default number of voices a FX plays at the same time.
+     */
+    public final static int DEFAULT_MAX_VOICES = 8;
+
+    /**
+     * Default time in milliseconds after which a voice is assumed to have finished. SoundPool decodes a sample into at most 1 MB,
+     * about 6 seconds of 44.1 kHz stereo, which plays for up to 12 seconds at the lowest rate.
+     */
+    public final static int DEFAULT_VOICE_LIFETIME = 12000;
+
+    private final static int VOICE_STOP = 0;
+
+    private final static int VOICE_PAUSE = 1;
+
+    private final static int VOICE_RESUME = 2;
+
+    private final static int VOICE_VOLUME = 3;
+
+    private final static int VOICE_PLAY = 4;
+
+    /**
+     * The SoundPool shard of the category this FX has been loaded in.
+     */
+    private final SoundPoolShard mShard;
+
     /**
      * This is where we store the current FX's sample ID returned from the System Sound Pool.
      * We can only reference the audio by this ID.
      */
-    private int mSampleID;
+    private volatile int mSampleID;
 
     /**
      * Reflects the Audio FX current state: Loaded or UnLoaded.
      * This is because all Audio FX are loaded async through the audio pool.
      */
-    private boolean mIsLoaded = false;
+    private volatile boolean mIsLoaded = false;
+
+    /**
+     * Every play starts a stream, its voice. The voices that may still be playing are kept here so stop, pause and volume changes reach all of them.
+     * Only touched on the audio thread.
+     */
+    private VoiceRing mVoices = new VoiceRing(DEFAULT_MAX_VOICES);
+
+    /**
+     * Number of voices, readable from any thread.
+     */
+    private volatile int mVoiceCount = 0;
+
+    private volatile int mMaxVoices = DEFAULT_MAX_VOICES;
+
+    /**
+     * Time in milliseconds after which a voice is assumed to have finished, 0 if voices only end when they are stopped or stolen.
+     */
+    private volatile int mVoiceLifetime = DEFAULT_VOICE_LIFETIME;
+
+    /**
+     * Start time of the newest voice. Only touched on the audio thread.
+     */
+    private long mLastVoiceStartTime = Long.MIN_VALUE;
+
+    /**
+     * Time the prune command is scheduled at, Long.MAX_VALUE if it is not scheduled. Only touched on the audio thread.
+     */
+    private long mPruneTime = Long.MAX_VALUE;
 
     /**
-     * When we start playback we will get a stream if from the Audio Pool and we store it here for referencing.
+     * Drops the voices that have reached their end, so the FX stops once its last voice has finished.
      */
-    private int mStreamID;
+    private final AudioCommand mPruneCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            mPruneTime = Long.MAX_VALUE;
+            pruneVoices();
+            schedulePrune();
+        }
+    };
+
+    private final AtomicInteger mNextVoiceHandle = new AtomicInteger();
 
     /**
-     * Audio FX Playback rate. Range between 0.5f and 2.0f
+     * Handle the next stream is started with, set while a {@link #playVoice()} runs on the audio thread, otherwise 0.
+     */
+    private int mRequestedHandle = 0;
+
+    /**
+     * Handle of a play deferred until the sample has loaded again.
+     */
+    private int mDeferredHandle = 0;
+
+    /**
+     * True if the deferred play is a scheduled one, started at {@link #mDeferredTime}.
+     */
+    private boolean mDeferredScheduled = false;
+
+    private long mDeferredTime;
+
+    /**
+     * Audio FX Playback rate. Range depends on the sample pool, between 0.5f and 2.0f for SoundPool.
      * Default playback is 1.0f
      */
-    private float mRate = 1.0f;
+    private volatile float mRate = 1.0f;
+
+    /**
+     * Reused command that applies the rate to the playing stream on the audio thread.
+     */
+    private final AudioCommand mRateCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            // Every voice keeps the pitch it has been started with on top of the new rate.
+            final SampleBackend sampleBackend = mShard.getSampleBackend();
+            for (int i = 0; i < mVoices.size(); i++)
+                sampleBackend.setRate(mVoices.getStreamID(i), getVoiceRate(sampleBackend, mVoices.getPitch(i)));
+        }
+    };
+
+    /**
+     * True once the sample has been loaded again after a trim, so a play issued while it is still loading is deferred until it has loaded.
+     */
+    private volatile boolean mReloaded = false;
+
+    private final AtomicBoolean mPlayPending = new AtomicBoolean(false);
+
+    /**
+     * Runs a play that has been deferred until the sample finished loading.
+     */
+    private final AudioCommand mPendingPlayCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            mRequestedHandle = mDeferredHandle;
+            mDeferredHandle = 0;
+
+            if (mDeferredScheduled) {
+                mDeferredScheduled = false;
+                handlePlayAt(mDeferredTime);
+            } else
+                handlePlay();
+        }
+    };
+
+    /**
+     * Tag used by a {@link SidechainDucker} to decide if this FX ducks its target, e.g. "dialogue".
+     */
+    private volatile String mTag;
+
+    /**
+     * Trigger policy set by the {@link FXManager}, null if every play starts a stream.
+     */
+    private volatile TriggerPolicy mTriggerPolicy;
+
+    /**
+     * Start time of the last accepted play. Only touched on the audio thread.
+     */
+    private long mLastTriggerTime = Long.MIN_VALUE;
+
+    /**
+     * Frame of the audio thread in which a coalesced stream is waiting to start, or -1.
+     */
+    private long mPendingFrame = -1;
+
+    private float mPendingGain;
+
+    private int mPendingHandle;
+
+    /**
+     * Starts the coalesced stream at the end of the frame with the merged gain of every play of the frame.
+     */
+    private final AudioCommand mFlushTriggerCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            // Stopped within the same frame.
+            if (mPendingFrame != getAudioManager().getAudioThread().getFrame())
+                return;
+
+            mPendingFrame = -1;
+            if (!startStream(mPendingGain, mPendingHandle))
+                updateVoiceState();
+        }
+    };
+
+    /**
+     * Command addressing a single voice.
+     */
+    private final class VoiceCommand extends AudioCommand {
+
+        private final int mOperation;
+
+        private final int mHandle;
+
+        private final float mValue;
+
+        private VoiceCommand(final int operation, final int handle, final float value) {
+            mOperation = operation;
+            mHandle = handle;
+            mValue = value;
+        }
+
+        @Override
+        public void run() {
+            if (mOperation == VOICE_PLAY) {
+                // Runs the play transport right away since this is the audio thread.
+                mRequestedHandle = mHandle;
+                play();
+                mRequestedHandle = 0;
+                return;
+            }
+
+            pruneVoices();
+
+            final int index = mVoices.indexOf(mHandle);
+            if (index < 0)
+                return;
+
+            final SampleBackend sampleBackend = mShard.getSampleBackend();
+            final int streamID = mVoices.getStreamID(index);
+            final long now = getAudioManager().getAudioThread().getClock().nanoTime();
+
+            switch (mOperation) {
+                case VOICE_STOP:
+                    sampleBackend.stop(streamID);
+                    mVoices.removeAt(index);
+                    break;
+
+                case VOICE_PAUSE:
+                    sampleBackend.pause(streamID);
+                    mVoices.pause(index, now);
+                    break;
+
+                case VOICE_RESUME:
+                    sampleBackend.resume(streamID);
+                    mVoices.resume(index, now);
+                    schedulePrune();
+                    break;
+
+                case VOICE_VOLUME:
+                    mVoices.setVolume(index, mValue);
+                    applyVoiceVolume(sampleBackend, index);
+                    break;
+            }
+
+            updateVoiceState();
+        }
+    }
 
     /**
      * This is a protected constructor and will only be instanced from the FXFactory
@@ -56,11 +295,51 @@ public class FX extends Audio {
      * @param sampleID - ID for the Sample Loaded using the Audio Pool.
      */
     protected FX(final FXManager fxManager, int sampleID) {
+        this(fxManager, fxManager.getShard(FXManager.CATEGORY_DEFAULT), sampleID);
+    }
+
+    /**
+     * This is a protected constructor and will only be instanced from the FXFactory
+     * 
+     * @param fxManager - FXManager Instance
+     * @param shard - SoundPool shard the sample has been loaded in.
+     * @param sampleID - ID for the Sample Loaded using the shard's Audio Pool.
+     */
+    protected FX(final FXManager fxManager, final SoundPoolShard shard, int sampleID) {
         super(fxManager);
-        Log.v(TAG, "Constructor: sampleID: " + sampleID);
+        Log.v(TAG, "Constructor: category: " + shard.getCategory() + ", sampleID: " + sampleID);
+        mShard = shard;
         mSampleID = sampleID;
     }
 
+    /**
+     * Restores a FX Instance from an {@link AudioSnapshot} record. The sample is not loaded until the FX is played.
+     * 
+     * @param fxManager - FXManager Instance
+     * @param source - Source the sample will be loaded from.
+     * @param in - Snapshot record positioned after the source.
+     */
+    FX(final FXManager fxManager, final AudioSource source, final DataInput in) throws IOException {
+        super(fxManager, source, in);
+        mShard = fxManager.getShardOrDefault(in.readUTF());
+        mRate = in.readFloat();
+        Log.v(TAG, "Constructor: category: " + mShard.getCategory() + ", source: " + source);
+    }
+
+    /**
+     * Returns the SoundPool shard this FX has been loaded in.
+     */
+    protected SoundPoolShard getShard() {
+        return mShard;
+    }
+
+    /**
+     * Returns the category of this FX.
+     */
+    public String getCategory() {
+        return mShard.getCategory();
+    }
+
     /**
      * Returns the sample ID from the Audio Pool
      */
@@ -69,12 +348,57 @@ public class FX extends Audio {
         return mSampleID;
     }
 
+    /**
+     * Returns the number of samples this FX plays, which are mapped in its shard.
+     */
+    int getSampleCount() {
+        return 1;
+    }
+
+    /**
+     * Returns the sample ID at the given index, see {@link #getSampleCount()}.
+     */
+    int getSampleID(final int index) {
+        return mSampleID;
+    }
+
+    /**
+     * Returns the sample ID a new stream is started with. Called once per play on the audio thread.
+     */
+    protected int selectSampleID() {
+        return mSampleID;
+    }
+
+    /**
+     * Returns the pitch a new stream is started with, multiplying the rate of the FX. Called once per play on the audio thread.
+     */
+    protected float selectPitch() {
+        return 1.0f;
+    }
+
+    /**
+     * Returns the rate of a voice with the given pitch, within the range of the sample pool.
+     */
+    private float getVoiceRate(final SampleBackend sampleBackend, final float pitch) {
+        return Math.max(sampleBackend.getMinRate(), Math.min(sampleBackend.getMaxRate(), mRate * pitch));
+    }
+
+    /**
+     * Returns the volume multiplier a new stream is started with, between 0.0 and 1.0. Called once per play on the audio thread.
+     */
+    protected float selectGain() {
+        return 1.0f;
+    }
+
     /**
      * This will be called by the FXManager when the Audio FX has been loaded and ready to play.
      */
     protected void setLoaded(boolean loaded) {
         Log.v(TAG, "setLoaded: " + loaded);
         mIsLoaded = loaded;
+
+        if (loaded && mPlayPending.getAndSet(false))
+            getAudioManager().getAudioThread().post(mPendingPlayCommand);
     }
 
     /**
@@ -86,18 +410,22 @@ public class FX extends Audio {
     }
 
     /**
-     * Changes the rate of the AudioFX playback.
+     * Changes the rate of the AudioFX playback. A playing stream changes its rate right away.
      * <br/><br/>
-     * Default is 1.0f - Range is between 0.5f - 2.0f.
+     * Default is 1.0f - Range is between 0.5f - 2.0f on SoundPool, software sample pools support a wider range.
+     * 
+     * @throws IllegalArgumentException if the rate is outside the range of the sample pool.
      */
     public void setRate(final float rate) {
         Log.v(TAG, "setRate: " + rate);
 
-        // First check if the argument rate is within the correct parameters.
-        if (rate < -0.5f || rate > 2.0f)
-            throw new IllegalArgumentException("FX Audio Rate Range is between 0.5f and 1.0f.");
+        // First check if the argument rate is within the range of the sample pool.
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        if (rate < sampleBackend.getMinRate() || rate > sampleBackend.getMaxRate())
+            throw new IllegalArgumentException("FX Audio Rate Range is between " + sampleBackend.getMinRate() + " and " + sampleBackend.getMaxRate() + ".");
 
         mRate = rate;
+        getAudioManager().getAudioThread().post(mRateCommand);
     }
 
     /**
@@ -115,10 +443,14 @@ public class FX extends Audio {
 
     @Override
     protected void handleVolumeChange() {
-        if (this.mStreamID != 0)
-            ((FXManager) getAudioManager()).getSoundPool().setVolume(this.mStreamID, getVolume().getCalculatedLeftChannel(),
-                    getVolume().getCalculatedRightChannel());
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        for (int i = 0; i < mVoices.size(); i++)
+            applyVoiceVolume(sampleBackend, i);
+    }
 
+    private void applyVoiceVolume(final SampleBackend sampleBackend, final int index) {
+        final float gain = mVoices.getGain(index);
+        sampleBackend.setVolume(mVoices.getStreamID(index), getVolume().getCalculatedLeftChannel() * gain, getVolume().getCalculatedRightChannel() * gain);
     }
 
     @Override
@@ -127,48 +459,576 @@ public class FX extends Audio {
     }
 
     @Override
-    public void play() {
-        if (mStreamID != 0 && isPaused()) {
+    protected void handlePlay() {
+        pruneVoices();
+
+        if (mRequestedHandle == 0 && isPaused() && mVoices.hasPaused()) {
             Log.v(TAG, "resume");
 
-            // Act as Resume from here.
-            ((FXManager) getAudioManager()).getSoundPool().resume(mStreamID);
+            // Act as Resume from here, for every paused voice.
+            resumeVoices();
         } else {
+            final int handle = takeVoiceHandle();
+            if (deferUntilLoaded(handle, false, 0))
+                return;
+
+            // Rejected and coalesced plays stop here, before any call into the sample pool.
+            if (mTriggerPolicy != null && !admitTrigger(true, handle))
+                return;
+
             Log.v(TAG, "play");
 
             // Act as normal play.
-            mStreamID = ((FXManager) getAudioManager()).getSoundPool().play(mSampleID, getVolume().getCalculatedLeftChannel(),
-                    getVolume().getCalculatedRightChannel(), 1, 0, mRate);
+            if (!startStream(selectGain(), handle))
+                return;
         }
 
-        super.play();
+        setState(State.PLAYING);
+    }
+
+    /**
+     * Defers a play while the sample is loading again after a trim, it runs as soon as the sample has loaded.
+     * 
+     * @param handle - Voice handle of the play.
+     * @param scheduled - True for a play started at the given time.
+     * @param time - Clock time of a scheduled play.
+     * @return - true if the play has been deferred, false if it can go on.
+     */
+    private boolean deferUntilLoaded(final int handle, final boolean scheduled, final long time) {
+        if (mIsLoaded || !mReloaded)
+            return false;
+
+        mDeferredHandle = handle;
+        mDeferredScheduled = scheduled;
+        mDeferredTime = time;
+        mPlayPending.set(true);
+
+        // The sample may have loaded meanwhile, in which case the play goes on here.
+        if (!mIsLoaded || !mPlayPending.getAndSet(false))
+            return true;
+
+        mDeferredHandle = 0;
+        mDeferredScheduled = false;
+        return false;
+    }
+
+    @Override
+    protected long getScheduleLead() {
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        return (sampleBackend instanceof ScheduledSampleBackend) ? ((ScheduledSampleBackend) sampleBackend).getScheduleLead() : 0;
     }
 
     @Override
-    public void stop() {
+    protected void handlePlayAt(final long time) {
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+
+        // Resuming and pools that can not schedule start right away.
+        if (!(sampleBackend instanceof ScheduledSampleBackend) || (isPaused() && mVoices.hasPaused())) {
+            handlePlay();
+            return;
+        }
+
+        pruneVoices();
+
+        // A scheduled play of a sample that is loading again after a trim starts once it has loaded, right away if its time has passed.
+        final int handle = takeVoiceHandle();
+        if (deferUntilLoaded(handle, true, time))
+            return;
+
+        if (mTriggerPolicy != null && !admitTrigger(false, handle))
+            return;
+
+        Log.v(TAG, "playAt: " + time);
+
+        final int sampleID = selectSampleID();
+        final float gain = selectGain();
+        final float pitch = selectPitch();
+        final int streamID = ((ScheduledSampleBackend) sampleBackend).playAt(sampleID, getVolume().getCalculatedLeftChannel() * gain,
+                getVolume().getCalculatedRightChannel() * gain, 1, 0, getVoiceRate(sampleBackend, pitch), time);
+
+        if (streamID == 0) {
+            Log.w(TAG, "playAt: the sample pool did not start a stream of sample " + sampleID);
+            return;
+        }
+
+        addVoice(handle, streamID, gain, pitch, time);
+        ((FXManager) getAudioManager()).onStreamStarted(this, streamID);
+
+        setState(State.PLAYING);
+    }
+
+    /**
+     * Starts a new stream of the selected sample as a new voice.
+     * 
+     * @return - false if the sample pool did not start a stream, e.g. because the sample has not loaded.
+     */
+    private boolean startStream(final float gain, final int handle) {
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        final int sampleID = selectSampleID();
+        final float pitch = selectPitch();
+        final int streamID = sampleBackend.play(sampleID, getVolume().getCalculatedLeftChannel() * gain,
+                getVolume().getCalculatedRightChannel() * gain, 1, 0, getVoiceRate(sampleBackend, pitch));
+
+        if (streamID == 0) {
+            Log.w(TAG, "play: the sample pool did not start a stream of sample " + sampleID);
+            return false;
+        }
+
+        addVoice(handle, streamID, gain, pitch, getAudioManager().getAudioThread().getClock().nanoTime());
+        ((FXManager) getAudioManager()).onStreamStarted(this, streamID);
+        return true;
+    }
+
+    /**
+     * Returns the handle of the stream being started, the one returned by {@link #playVoice()} or a new one for a plain play.
+     */
+    private int takeVoiceHandle() {
+        final int handle = mRequestedHandle;
+        mRequestedHandle = 0;
+
+        return (handle != 0) ? handle : mNextVoiceHandle.incrementAndGet();
+    }
+
+    /**
+     * Adds a started stream to the voices, stopping the oldest voice if the ring is full.
+     */
+    private void addVoice(final int handle, final int streamID, final float gain, final float pitch, final long startTime) {
+        final int voiceLifetime = mVoiceLifetime;
+        final long end = (voiceLifetime > 0) ? startTime + voiceLifetime * AudioClock.NANOS_PER_MILLISECOND : Long.MAX_VALUE;
+
+        final int stolenStreamID = mVoices.add(handle, streamID, gain, pitch, startTime, end);
+        if (stolenStreamID != 0) {
+            Log.v(TAG, "steal voice: " + stolenStreamID);
+            mShard.getSampleBackend().stop(stolenStreamID);
+        }
+
+        mVoiceCount = mVoices.size();
+        mLastVoiceStartTime = Math.max(mLastVoiceStartTime, startTime);
+        schedulePrune();
+    }
+
+    /**
+     * Schedules the prune command at the end of the voice that finishes first.
+     */
+    private void schedulePrune() {
+        final long nextEnd = mVoices.getNextEnd();
+        if (nextEnd == mPruneTime)
+            return;
+
+        final AudioThread audioThread = getAudioManager().getAudioThread();
+        audioThread.unschedule(mPruneCommand);
+        mPruneTime = nextEnd;
+
+        if (nextEnd != Long.MAX_VALUE)
+            audioThread.schedule(mPruneCommand, nextEnd);
+    }
+
+    /**
+     * Drops the voices that have outlived the voice lifetime. Their streams have already finished, so nothing is stopped.
+     */
+    private void pruneVoices() {
+        if (mVoices.size() > 0 && mVoices.prune(getAudioManager().getAudioThread().getClock().nanoTime()) > 0) {
+            mVoiceCount = mVoices.size();
+
+            // Every voice has finished.
+            if (mVoiceCount == 0 && mPendingFrame == -1 && isPlaying())
+                setState(State.STOPPED);
+        }
+    }
+
+    private void resumeVoices() {
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        final long now = getAudioManager().getAudioThread().getClock().nanoTime();
+
+        for (int i = 0; i < mVoices.size(); i++) {
+            if (mVoices.isPaused(i)) {
+                sampleBackend.resume(mVoices.getStreamID(i));
+                mVoices.resume(i, now);
+            }
+        }
+
+        schedulePrune();
+    }
+
+    /**
+     * Brings the state in line with the voices after a single voice has changed.
+     */
+    private void updateVoiceState() {
+        mVoiceCount = mVoices.size();
+
+        if (mVoices.hasPlaying())
+            setState(State.PLAYING);
+        else if (mVoices.size() > 0)
+            setState(State.PAUSED);
+        else if (mPendingFrame == -1)
+            setState(State.STOPPED);
+    }
+
+    /**
+     * Starts a new voice and returns its handle right away, so the voice can be stopped, paused or changed on its own while
+     * other voices of this FX keep playing.<br/>
+     * The handle refers to no voice if the play is rejected by the trigger policy or merged into another play of the same frame,
+     * and stops referring to it once the voice has been stopped, stolen or has outlived the voice lifetime.
+     * 
+     * @return - Voice handle, never 0.
+     */
+    public int playVoice() {
+        final int handle = mNextVoiceHandle.incrementAndGet();
+        getAudioManager().getAudioThread().post(new VoiceCommand(VOICE_PLAY, handle, 0));
+        return handle;
+    }
+
+    /**
+     * Stops a single voice. Does nothing if the voice is not active anymore.
+     */
+    public void stopVoice(final int handle) {
+        getAudioManager().getAudioThread().post(new VoiceCommand(VOICE_STOP, handle, 0));
+    }
+
+    /**
+     * Pauses a single voice. The FX is paused once all of its voices are.
+     */
+    public void pauseVoice(final int handle) {
+        getAudioManager().getAudioThread().post(new VoiceCommand(VOICE_PAUSE, handle, 0));
+    }
+
+    /**
+     * Resumes a single paused voice. {@link #play()} resumes every paused voice.
+     */
+    public void resumeVoice(final int handle) {
+        getAudioManager().getAudioThread().post(new VoiceCommand(VOICE_RESUME, handle, 0));
+    }
+
+    /**
+     * Sets the volume of a single voice, applied on top of the volume of the FX.
+     * 
+     * @param volume - Volume between 0.0 and 1.0.
+     */
+    public void setVoiceVolume(final int handle, final float volume) {
+        if (volume < 0 || volume > 1)
+            throw new IllegalArgumentException("The voice volume must be between 0.0 and 1.0.");
+
+        getAudioManager().getAudioThread().post(new VoiceCommand(VOICE_VOLUME, handle, volume));
+    }
+
+    /**
+     * Returns the number of voices that may still be playing. Voices only leave when they are stopped or stolen,
+     * or when they have outlived the voice lifetime, which is checked whenever the FX is used.
+     */
+    public int getVoiceCount() {
+        return mVoiceCount;
+    }
+
+    /**
+     * Returns true if the stream is still one of the voices of this FX, i.e. it has not been stopped, stolen or outlived the voice lifetime.
+     * Always called on the audio thread.
+     */
+    boolean hasStream(final int streamID) {
+        for (int i = 0; i < mVoices.size(); i++)
+            if (mVoices.getStreamID(i) == streamID)
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Sets the number of voices this FX plays at the same time. Once they are all used, a new play steals the oldest voice.
+     * 
+     * @param maxVoices - Number of voices, at least 1.
+     */
+    public void setMaxVoices(final int maxVoices) {
+        if (maxVoices < 1)
+            throw new IllegalArgumentException("A FX needs at least one voice.");
+
+        mMaxVoices = maxVoices;
+        getAudioManager().getAudioThread().post(new AudioCommand() {
+
+            @Override
+            public void run() {
+                resizeVoices(maxVoices);
+            }
+        });
+    }
+
+    /**
+     * Changes the capacity of the voice ring on the audio thread. Keeps the newest voices and stops the ones that do not fit.
+     */
+    private void resizeVoices(final int maxVoices) {
+        if (mVoices.getCapacity() == maxVoices)
+            return;
+
+        final VoiceRing voices = new VoiceRing(maxVoices);
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        final int first = Math.max(0, mVoices.size() - maxVoices);
+
+        for (int i = 0; i < mVoices.size(); i++) {
+            if (i < first)
+                sampleBackend.stop(mVoices.getStreamID(i));
+            else
+                voices.copy(mVoices, i);
+        }
+
+        mVoices = voices;
+        mVoiceCount = voices.size();
+    }
+
+    public int getMaxVoices() {
+        return mMaxVoices;
+    }
+
+    /**
+     * Sets how long a voice is assumed to play, so finished voices are dropped without asking the sample pool.<br/>
+     * Sample pools do not report finished streams, so without a lifetime a voice is only dropped when it is stopped or stolen.
+     * Once every voice has been dropped the FX stops. Applies to voices started from now on, default is {@link #DEFAULT_VOICE_LIFETIME}.
+     * 
+     * @param voiceLifetime - Time in milliseconds, e.g. the length of the longest sample, or 0 if unknown.
+     */
+    public void setVoiceLifetime(final int voiceLifetime) {
+        if (voiceLifetime < 0)
+            throw new IllegalArgumentException("The voice lifetime can not be negative.");
+
+        mVoiceLifetime = voiceLifetime;
+    }
+
+    public int getVoiceLifetime() {
+        return mVoiceLifetime;
+    }
+
+    /**
+     * Applies the trigger policy to a new play. Always called on the audio thread.
+     * 
+     * @param canCoalesce - True if the play can be merged with the other plays of the frame.
+     * @param handle - Voice handle of the play, kept for the stream that starts at the end of the frame.
+     * @return - true if the stream should be started right away, false if the play has been rejected or its stream starts at the end of the frame.
+     */
+    private boolean admitTrigger(final boolean canCoalesce, final int handle) {
+        final TriggerPolicy policy = mTriggerPolicy;
+        final FXManager fxManager = (FXManager) getAudioManager();
+        final AudioThread audioThread = fxManager.getAudioThread();
+        final boolean coalesce = canCoalesce && policy.getCoalescing() != TriggerPolicy.Coalescing.NONE;
+
+        if (coalesce && mPendingFrame == audioThread.getFrame()) {
+            final float gain = selectGain();
+            mPendingGain = (policy.getCoalescing() == TriggerPolicy.Coalescing.SUM) ? Math.min(1.0f, mPendingGain + gain) : Math.max(mPendingGain, gain);
+            fxManager.onTriggerCoalesced();
+            return false;
+        }
+
+        final long now = audioThread.getClock().nanoTime();
+        if (mLastTriggerTime != Long.MIN_VALUE && now - mLastTriggerTime < policy.getMinRetriggerInterval() * AudioClock.NANOS_PER_MILLISECOND) {
+            fxManager.onTriggerRejected();
+            return false;
+        }
+
+        // Instances are the voices started within the instance lifetime that have not been stopped, plus a coalesced stream not started yet.
+        if (policy.getMaxInstances() > 0) {
+            final long lifetime = policy.getInstanceLifetime() * AudioClock.NANOS_PER_MILLISECOND;
+            final int instances = mVoices.countStartedAfter(now - lifetime) + ((mPendingFrame != -1) ? 1 : 0);
+            if (instances >= policy.getMaxInstances()) {
+                fxManager.onTriggerRejected();
+                return false;
+            }
+        }
+
+        mLastTriggerTime = now;
+
+        if (coalesce) {
+            mPendingFrame = audioThread.getFrame();
+            mPendingGain = selectGain();
+            mPendingHandle = handle;
+            audioThread.runAtFrameEnd(mFlushTriggerCommand);
+            setState(State.PLAYING);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets the trigger policy on the audio thread, called by the {@link FXManager}.
+     */
+    void applyTriggerPolicy(final TriggerPolicy policy) {
+        mTriggerPolicy = policy;
+        mPendingFrame = -1;
+        mLastTriggerTime = Long.MIN_VALUE;
+
+        // Instances are voices, so there have to be enough of them for the policy to be the limit and not the oldest voice being stolen.
+        if (policy != null && policy.getMaxInstances() > mVoices.getCapacity()) {
+            mMaxVoices = policy.getMaxInstances();
+            resizeVoices(policy.getMaxInstances());
+        }
+    }
+
+    /**
+     * Tags this FX, e.g. "dialogue" or "important", so a {@link SidechainDucker} listening to the tag ducks its target while it plays.
+     */
+    public void setTag(final String tag) {
+        mTag = tag;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * Returns the trigger policy or null if every play starts a stream.
+     */
+    public TriggerPolicy getTriggerPolicy() {
+        return mTriggerPolicy;
+    }
+
+    @Override
+    protected void handleStop() {
         Log.v(TAG, "stop");
-        if (this.mStreamID == 0)
+
+        // A coalesced stream that has not started yet is dropped.
+        final boolean pending = (mPendingFrame != -1);
+        mPendingFrame = -1;
+        mLastTriggerTime = Long.MIN_VALUE;
+
+        // A play waiting for the sample to load again is dropped as well.
+        mPlayPending.set(false);
+
+        if (mVoices.size() == 0) {
+            if (pending)
+                setState(State.STOPPED);
             return;
+        }
 
-        ((FXManager) getAudioManager()).getSoundPool().stop(mStreamID);
-        super.stop();
+        stopVoices();
+        setState(State.STOPPED);
+    }
+
+    private void stopVoices() {
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        for (int i = 0; i < mVoices.size(); i++)
+            sampleBackend.stop(mVoices.getStreamID(i));
+
+        mVoices.clear();
+        mVoiceCount = 0;
     }
 
     @Override
-    public void pause() {
+    protected void handlePause() {
         Log.v(TAG, "pause");
-        if (this.mStreamID == 0)
+        pruneVoices();
+        if (!mVoices.hasPlaying())
             return;
 
-        ((FXManager) getAudioManager()).getSoundPool().pause(mStreamID);
-        super.pause();
+        final SampleBackend sampleBackend = mShard.getSampleBackend();
+        final long now = getAudioManager().getAudioThread().getClock().nanoTime();
+
+        for (int i = 0; i < mVoices.size(); i++) {
+            if (!mVoices.isPaused(i)) {
+                sampleBackend.pause(mVoices.getStreamID(i));
+                mVoices.pause(i, now);
+            }
+        }
+
+        setState(State.PAUSED);
 
     }
 
+    /**
+     * Overridden so the {@link FXFactory} can set the source.
+     */
+    @Override
+    protected void setSource(final AudioSource source) {
+        super.setSource(source);
+    }
+
+    /**
+     * Appends the category and the rate to the snapshot record.
+     */
     @Override
-    public void release() {
+    protected void writeSnapshot(final DataOutput out) throws IOException {
+        super.writeSnapshot(out);
+
+        out.writeUTF(mShard.getCategory());
+        out.writeFloat(mRate);
+    }
+
+    /**
+     * Sets the sample IDs after the samples have been loaded again by the {@link FXFactory}, one per {@link #getSampleSource(int)}.
+     */
+    void setReloadedSampleIDs(final int[] sampleIDs) {
+        mSampleID = sampleIDs[0];
+        mReloaded = true;
+    }
+
+    @Override
+    protected TrimPolicy.Tier getDefaultTrimTier() {
+        return TrimPolicy.Tier.STALE;
+    }
+
+    /**
+     * Idle once every voice has reached its end. Voices without a lifetime never end on their own, they are assumed finished once
+     * the newest of them is older than {@link #DEFAULT_VOICE_LIFETIME}.
+     */
+    @Override
+    protected boolean isIdle() {
+        pruneVoices();
+        if (mPendingFrame != -1 || mVoices.getNextEnd() != Long.MAX_VALUE)
+            return false;
+
+        final long now = getAudioManager().getAudioThread().getClock().nanoTime();
+        return !mVoices.hasPlaying() || now - mLastVoiceStartTime >= DEFAULT_VOICE_LIFETIME * AudioClock.NANOS_PER_MILLISECOND;
+    }
+
+    /**
+     * Returns the source the sample at the given index is loaded again from after a trim, see {@link #getSampleCount()}.
+     */
+    AudioSource getSampleSource(final int index) {
+        return getSource();
+    }
+
+    /**
+     * Forgets the sample IDs once the samples have been unloaded by a trim.
+     */
+    void clearSampleIDs() {
+        mSampleID = 0;
+    }
+
+    @Override
+    protected boolean handleTrim() {
+        if (mSampleID == 0)
+            return false;
+
+        Log.v(TAG, "trim sampleID: " + mSampleID);
+
+        stopVoices();
+        mShard.remove(this);
+        mShard.unload(this);
+        clearSampleIDs();
+        mIsLoaded = false;
+
+        if (!isStopped())
+            setState(State.STOPPED);
+
+        return true;
+    }
+
+    @Override
+    protected void handleRestore() {
+        Log.v(TAG, "restore: " + getSource());
+        FXFactory.reload(getAudioManager().getContext(), this);
+    }
+
+    @Override
+    protected void handleRelease() {
         Log.v(TAG, "release");
+
+        mPlayPending.set(false);
+        mPendingFrame = -1;
+        mLastTriggerTime = Long.MIN_VALUE;
+        stopVoices();
+        getAudioManager().getAudioThread().unschedule(mPruneCommand);
+        mPruneTime = Long.MAX_VALUE;
+
         ((FXManager) getAudioManager()).remove(this);
+
+        // The samples are only kept while another FX Instance still plays them.
+        mShard.unload(this);
     }
 
 }
@@ -0,0 +1,336 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import java.util.Arrays;
+
+import ro.andreibalan.media.AudioSource;
+import android.util.Log;
+
+/**
+ * A FX made of variations of the same sound, e.g. footsteps or impacts, that picks one of them every time it is played.
+ * <br/><br/>
+ * Variations are selected with {@link Selection}, and every play can pick its own pitch and volume from a range so repeated sounds do not
+ * sound the same. The whole container is a single FX Instance in the pool, created using the {@link FXFactory}. Selecting a variation
+ * is done on the audio thread without allocating.
+ * <br/><br/>
+ * Containers keep the source of every variation, so they are trimmed and loaded again like any other FX. They have no single source
+ * though, so {@link ro.andreibalan.media.AudioSnapshot} skips them.
+ */
+public class FXContainer extends FX {
+
+    public final static String TAG = FXContainer.class.getSimpleName();
+
+    /**
+     * How the next variation is picked.
+     */
+    public enum Selection {
+
+        /**
+         * Random variation, never the same one twice in a row.
+         */
+        RANDOM_NO_REPEAT,
+
+        /**
+         * Every variation plays once in a random order before any of them plays again.
+         */
+        SHUFFLE_BAG,
+
+        /**
+         * Variations play in the order they have been added.
+         */
+        SEQUENTIAL
+    }
+
+    private final int[] mSampleIDs;
+
+    /**
+     * Source of every variation, so the samples can be loaded again after a trim.
+     */
+    private volatile AudioSource[] mSources;
+
+    /**
+     * Permutation of the variation indexes used by {@link Selection#SHUFFLE_BAG}.
+     */
+    private final int[] mBag;
+
+    private int mBagPosition;
+
+    private int mLastVariation = -1;
+
+    private volatile Selection mSelection = Selection.RANDOM_NO_REPEAT;
+
+    private volatile float mMinPitch = 1.0f;
+
+    private volatile float mMaxPitch = 1.0f;
+
+    private volatile float mMinGain = 1.0f;
+
+    private volatile float mMaxGain = 1.0f;
+
+    /**
+     * State of the xorshift generator, only used on the audio thread.
+     */
+    private long mRandomState;
+
+    /**
+     * This is a protected constructor and will only be instanced from the FXFactory
+     * 
+     * @param fxManager - FXManager Instance
+     * @param shard - SoundPool shard the samples have been loaded in.
+     * @param sampleIDs - IDs of the variation samples loaded using the shard's Audio Pool.
+     */
+    protected FXContainer(final FXManager fxManager, final SoundPoolShard shard, final int[] sampleIDs) {
+        super(fxManager, shard, sampleIDs[0]);
+        Log.v(TAG, "Constructor: variations: " + sampleIDs.length);
+
+        mSampleIDs = sampleIDs.clone();
+        mBag = new int[sampleIDs.length];
+        mBagPosition = sampleIDs.length;
+
+        setSeed(System.nanoTime() ^ System.identityHashCode(this));
+    }
+
+    /**
+     * Returns the number of variations.
+     */
+    public int getVariationCount() {
+        return mSampleIDs.length;
+    }
+
+    /**
+     * Returns the index of the variation played last or -1.
+     */
+    public int getLastVariation() {
+        return mLastVariation;
+    }
+
+    public void setSelection(final Selection selection) {
+        if (selection == null)
+            throw new IllegalArgumentException("Selection can not be null.");
+
+        mSelection = selection;
+    }
+
+    public Selection getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Sets the range every play picks a pitch from. The pitch multiplies the rate set using {@link #setRate(float)}
+     * and the result is kept within the range of the sample pool.
+     * 
+     * @param minPitch - Lowest pitch, greater than 0.
+     * @param maxPitch - Highest pitch, not lower than minPitch.
+     */
+    public void setPitchRange(final float minPitch, final float maxPitch) {
+        if (minPitch <= 0 || maxPitch < minPitch)
+            throw new IllegalArgumentException("Pitch range must be greater than 0 with the minimum not above the maximum.");
+
+        mMinPitch = minPitch;
+        mMaxPitch = maxPitch;
+    }
+
+    public float getMinPitch() {
+        return mMinPitch;
+    }
+
+    public float getMaxPitch() {
+        return mMaxPitch;
+    }
+
+    /**
+     * Sets the range every play picks a volume multiplier from.
+     * 
+     * @param minGain - Lowest multiplier, between 0.0 and 1.0.
+     * @param maxGain - Highest multiplier, between minGain and 1.0.
+     */
+    public void setVolumeRange(final float minGain, final float maxGain) {
+        if (minGain < 0 || maxGain > 1 || maxGain < minGain)
+            throw new IllegalArgumentException("Volume range must be between 0.0 and 1.0 with the minimum not above the maximum.");
+
+        mMinGain = minGain;
+        mMaxGain = maxGain;
+    }
+
+    public float getMinGain() {
+        return mMinGain;
+    }
+
+    public float getMaxGain() {
+        return mMaxGain;
+    }
+
+    /**
+     * Seeds the random generator so the same sequence of variations, pitches and volumes can be played again.
+     */
+    public void setSeed(final long seed) {
+        // Xorshift never leaves the zero state, so it is replaced with a constant.
+        mRandomState = (seed != 0) ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Sets the sources the variations have been loaded from, called by the {@link FXFactory}.
+     */
+    void setSources(final AudioSource[] sources) {
+        mSources = sources.clone();
+    }
+
+    @Override
+    protected boolean isRestorable() {
+        return mSources != null;
+    }
+
+    @Override
+    AudioSource getSampleSource(final int index) {
+        return mSources[index];
+    }
+
+    @Override
+    void clearSampleIDs() {
+        Arrays.fill(mSampleIDs, 0);
+        super.clearSampleIDs();
+    }
+
+    @Override
+    void setReloadedSampleIDs(final int[] sampleIDs) {
+        System.arraycopy(sampleIDs, 0, mSampleIDs, 0, mSampleIDs.length);
+        super.setReloadedSampleIDs(sampleIDs);
+    }
+
+    @Override
+    int getSampleCount() {
+        return mSampleIDs.length;
+    }
+
+    @Override
+    int getSampleID(final int index) {
+        return mSampleIDs[index];
+    }
+
+    /**
+     * Called for every variation that loads, so the container only becomes loaded once all of them have loaded and selection never
+     * picks a sample the pool would refuse to play.
+     */
+    @Override
+    protected void setLoaded(final boolean loaded) {
+        if (loaded) {
+            final SampleMap sampleMap = getShard().getSampleMap();
+            for (int i = 0; i < mSampleIDs.length; i++)
+                if (!sampleMap.isLoaded(mSampleIDs[i]))
+                    return;
+        }
+
+        super.setLoaded(loaded);
+    }
+
+    @Override
+    protected int selectSampleID() {
+        final int count = mSampleIDs.length;
+        int variation = 0;
+
+        if (count > 1) {
+            switch (mSelection) {
+                case SEQUENTIAL:
+                    variation = (mLastVariation + 1) % count;
+                    break;
+
+                case SHUFFLE_BAG:
+                    if (mBagPosition == count)
+                        shuffle();
+
+                    variation = mBag[mBagPosition++];
+                    break;
+
+                case RANDOM_NO_REPEAT:
+                default:
+                    // Picks from every variation but the last one by skipping over it.
+                    variation = nextInt(mLastVariation < 0 ? count : count - 1);
+                    if (mLastVariation >= 0 && variation >= mLastVariation)
+                        variation++;
+                    break;
+            }
+        }
+
+        mLastVariation = variation;
+        return mSampleIDs[variation];
+    }
+
+    @Override
+    protected float selectPitch() {
+        return nextFloat(mMinPitch, mMaxPitch);
+    }
+
+    @Override
+    protected float selectGain() {
+        return nextFloat(mMinGain, mMaxGain);
+    }
+
+    /**
+     * Refills the bag with every variation in a random order. The first one is never the variation that has just played.
+     */
+    private void shuffle() {
+        final int count = mBag.length;
+        for (int i = 0; i < count; i++)
+            mBag[i] = i;
+
+        for (int i = count - 1; i > 0; i--) {
+            final int j = nextInt(i + 1);
+            final int swap = mBag[i];
+            mBag[i] = mBag[j];
+            mBag[j] = swap;
+        }
+
+        if (mBag[0] == mLastVariation) {
+            final int j = 1 + nextInt(count - 1);
+            mBag[0] = mBag[j];
+            mBag[j] = mLastVariation;
+        }
+
+        mBagPosition = 0;
+    }
+
+    /**
+     * Xorshift64* step.
+     */
+    private long nextLong() {
+        long x = mRandomState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mRandomState = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * Returns a random number between 0 inclusive and bound exclusive.
+     */
+    private int nextInt(final int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    private float nextFloat(final float min, final float max) {
+        if (max <= min)
+            return min;
+
+        return min + (max - min) * ((nextLong() >>> 40) * 0x1.0p-24f);
+    }
+
+}
@@ -22,6 +22,8 @@ package ro.andreibalan.media.fx;
 import java.io.File;
 import java.io.IOException;
 
+import ro.andreibalan.media.AssetDescriptorCache;
+import ro.andreibalan.media.AudioSource;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.util.Log;
@@ -37,19 +39,20 @@ public class FXFactory {
      * Internal method used to create and add a FX Instance.
      * Mainly used to prevent code duplication all around the factory.
      * 
-     * @param musicManager
+     * @param fxManager
+     * @param shard
      * @param sampleID
      */
-    private static FX create(final FXManager fxManager, final int sampleID) {
+    private static FX create(final FXManager fxManager, final SoundPoolShard shard, final int sampleID) {
         Log.v(TAG, "create and add FX Instance");
-        final FX fx = new FX(fxManager, sampleID);
+        final FX fx = new FX(fxManager, shard, sampleID);
 
         fxManager.add(fx);
         return fx;
     }
 
     /**
-     * Creates a FX Instance from asset files.<br/>
+     * Creates a FX Instance from asset files in the default category.<br/>
      * <b>NOTE: This will only load the AssetFileDescriptor from the given path and call on {@link #create(Context, FXManager, AssetFileDescriptor)}}</b>
      * 
      * @param context - Application Context
@@ -60,16 +63,40 @@ public class FXFactory {
      * @throws IOException
      */
     public static FX create(final Context context, final FXManager fxManager, final String assetPath) throws IOException {
-        synchronized (fxManager) {
-            Log.v(TAG, "create assetPath: " + assetPath);
+        return create(context, fxManager, FXManager.CATEGORY_DEFAULT, assetPath);
+    };
+
+    /**
+     * Creates a FX Instance from asset files in the given category.<br/>
+     * <b>NOTE: This will only acquire the AssetFileDescriptor of the given path from the {@link AssetDescriptorCache} and call on {@link #create(Context, FXManager, String, AssetFileDescriptor)}}</b>
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)}
+     * @param assetPath - Path of the Asset to load.
+     * @return - FX Instance with the loaded asset.
+     * 
+     * @throws IOException
+     */
+    public static FX create(final Context context, final FXManager fxManager, final String category, final String assetPath) throws IOException {
+        Log.v(TAG, "create category: " + category + ", assetPath: " + assetPath);
+
+        // The descriptor is shared with every load of the same asset, the SoundPool keeps its own duplicate so it is released right away.
+        final AssetDescriptorCache.Reference assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), assetPath);
 
-            final AssetFileDescriptor assetFileDescritor = context.getAssets().openFd(assetPath);
-            return create(context, fxManager, assetFileDescritor);
+        final FX fx;
+        try {
+            fx = create(fxManager, category, assetPath, assetReference.getAssetFileDescriptor());
+        } finally {
+            assetReference.release();
         }
+
+        fx.setSource(AudioSource.asset(assetPath));
+        return fx;
     };
 
     /**
-     * Creates a FX Instance from AssetFileDescriptor
+     * Creates a FX Instance from AssetFileDescriptor in the default category.
      * 
      * @param context - Application Context
      * @param fxManager - Loaded FX Manager
@@ -79,16 +106,46 @@ public class FXFactory {
      * @throws IOException
      */
     public static FX create(final Context context, final FXManager fxManager, final AssetFileDescriptor assetFileDescriptor) throws IOException {
-        synchronized (fxManager) {
-            Log.v(TAG, "create assetFileDescriptor: " + assetFileDescriptor.describeContents());
+        return create(context, fxManager, FXManager.CATEGORY_DEFAULT, assetFileDescriptor);
+    };
 
-            final int sampleID = fxManager.getSoundPool().load(assetFileDescriptor, 1);
-            return create(fxManager, sampleID);
-        }
+    /**
+     * Creates a FX Instance from AssetFileDescriptor in the given category.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)}
+     * @param assetFileDescriptor - AssetFileDescriptor from loaded asset
+     * @return - FX Instance with the loaded asset.
+     * 
+     * @throws IOException
+     */
+    public static FX create(final Context context, final FXManager fxManager, final String category, final AssetFileDescriptor assetFileDescriptor) throws IOException {
+        return create(fxManager, category, null, assetFileDescriptor);
     };
 
     /**
-     * Creates a FX Instance from File on the disk.
+     * Creates a FX Instance from a descriptor, identified by its asset path if it has one so the sample can be shared with other loads of the asset.
+     */
+    private static FX create(final FXManager fxManager, final String category, final String assetPath, final AssetFileDescriptor assetFileDescriptor) {
+        final SoundPoolShard shard = fxManager.getShard(category);
+
+        // Only the shard is locked so loads of different categories do not wait for each other.
+        synchronized (shard) {
+            Log.v(TAG, "create category: " + shard.getCategory() + ", assetFileDescriptor: " + assetFileDescriptor.describeContents());
+
+            final int sampleID;
+            if (assetPath != null)
+                sampleID = shard.getSampleBackend().loadAsset(assetPath, assetFileDescriptor, 1);
+            else
+                sampleID = shard.getSampleBackend().load(assetFileDescriptor, 1);
+
+            return create(fxManager, shard, sampleID);
+        }
+    }
+
+    /**
+     * Creates a FX Instance from File on the disk in the default category.
      * 
      * @param context - Application Context
      * @param fxManager - Loaded FX Manager
@@ -98,16 +155,35 @@ public class FXFactory {
      * @throws IOException
      */
     public static FX create(final Context context, final FXManager fxManager, final File file) throws IOException {
-        synchronized (fxManager) {
-            Log.v(TAG, "create file: " + file.getAbsolutePath());
+        return create(context, fxManager, FXManager.CATEGORY_DEFAULT, file);
+    }
+
+    /**
+     * Creates a FX Instance from File on the disk in the given category.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)}
+     * @param file - File
+     * @return - FX Instance with the loaded file.
+     * 
+     * @throws IOException
+     */
+    public static FX create(final Context context, final FXManager fxManager, final String category, final File file) throws IOException {
+        final SoundPoolShard shard = fxManager.getShard(category);
 
-            final int sampleID = fxManager.getSoundPool().load(file.getAbsolutePath(), 1);
-            return create(fxManager, sampleID);
+        synchronized (shard) {
+            Log.v(TAG, "create category: " + shard.getCategory() + ", file: " + file.getAbsolutePath());
+
+            final int sampleID = shard.getSampleBackend().load(file.getAbsolutePath(), 1);
+            final FX fx = create(fxManager, shard, sampleID);
+            fx.setSource(AudioSource.file(file));
+            return fx;
         }
     }
 
     /**
-     * Creates a FX Instance from a resource.
+     * Creates a FX Instance from a resource in the default category.
      * 
      * @param context - Application Context
      * @param fxManager - Loaded FX Manager
@@ -117,12 +193,222 @@ public class FXFactory {
      * @throws IOException
      */
     public static FX create(final Context context, final FXManager fxManager, final int rawResID) {
-        synchronized (fxManager) {
-            Log.v(TAG, "create rawResID: " + rawResID);
+        return create(context, fxManager, FXManager.CATEGORY_DEFAULT, rawResID);
+    }
+
+    /**
+     * Creates a FX Instance from a resource in the given category.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)}
+     * @param rawResID - internal resource id 
+     * @return - FX Instance with the loaded file.
+     */
+    public static FX create(final Context context, final FXManager fxManager, final String category, final int rawResID) {
+        final SoundPoolShard shard = fxManager.getShard(category);
+
+        synchronized (shard) {
+            Log.v(TAG, "create category: " + shard.getCategory() + ", rawResID: " + rawResID);
+
+            final int sampleID = shard.getSampleBackend().load(context, rawResID, 1);
+            final FX fx = create(fxManager, shard, sampleID);
+            fx.setSource(AudioSource.resource(rawResID));
+            return fx;
+        }
+    }
+
+    /**
+     * Internal method used to create and add a FX Container.
+     */
+    private static FXContainer createContainer(final FXManager fxManager, final SoundPoolShard shard, final int[] sampleIDs, final AudioSource[] sources) {
+        Log.v(TAG, "create and add FX Container");
+        final FXContainer fxContainer = new FXContainer(fxManager, shard, sampleIDs);
+        fxContainer.setSources(sources);
+
+        fxManager.add(fxContainer);
+        return fxContainer;
+    }
+
+    /**
+     * Creates a FX Container that plays one of the given assets every time it is played.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)} or null for the default category.
+     * @param assetPaths - Paths of the variation assets.
+     * @return - FX Container with the loaded variations.
+     * 
+     * @throws IOException
+     */
+    public static FXContainer createContainer(final Context context, final FXManager fxManager, final String category, final String[] assetPaths) throws IOException {
+        if (assetPaths == null || assetPaths.length == 0)
+            throw new IllegalArgumentException("A FX Container needs at least one variation.");
+
+        final SoundPoolShard shard = fxManager.getShard(category);
+        final int[] sampleIDs = new int[assetPaths.length];
+
+        synchronized (shard) {
+            Log.v(TAG, "createContainer category: " + shard.getCategory() + ", assets: " + assetPaths.length);
+
+            try {
+                for (int i = 0; i < assetPaths.length; i++) {
+                    final AssetDescriptorCache.Reference assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), assetPaths[i]);
+                    try {
+                        sampleIDs[i] = shard.getSampleBackend().loadAsset(assetPaths[i], assetReference.getAssetFileDescriptor(), 1);
+                    } finally {
+                        assetReference.release();
+                    }
+                }
+            } catch (IOException e) {
+                unloadSamples(shard, sampleIDs);
+                throw e;
+            } catch (RuntimeException e) {
+                unloadSamples(shard, sampleIDs);
+                throw e;
+            }
+
+            final AudioSource[] sources = new AudioSource[assetPaths.length];
+            for (int i = 0; i < assetPaths.length; i++)
+                sources[i] = AudioSource.asset(assetPaths[i]);
+
+            return createContainer(fxManager, shard, sampleIDs, sources);
+        }
+    }
+
+    /**
+     * Creates a FX Container that plays one of the given files every time it is played.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)} or null for the default category.
+     * @param files - Variation files.
+     * @return - FX Container with the loaded variations.
+     */
+    public static FXContainer createContainer(final Context context, final FXManager fxManager, final String category, final File[] files) {
+        if (files == null || files.length == 0)
+            throw new IllegalArgumentException("A FX Container needs at least one variation.");
+
+        final SoundPoolShard shard = fxManager.getShard(category);
+        final int[] sampleIDs = new int[files.length];
+
+        synchronized (shard) {
+            Log.v(TAG, "createContainer category: " + shard.getCategory() + ", files: " + files.length);
+
+            try {
+                for (int i = 0; i < files.length; i++)
+                    sampleIDs[i] = shard.getSampleBackend().load(files[i].getAbsolutePath(), 1);
+            } catch (RuntimeException e) {
+                unloadSamples(shard, sampleIDs);
+                throw e;
+            }
+
+            final AudioSource[] sources = new AudioSource[files.length];
+            for (int i = 0; i < files.length; i++)
+                sources[i] = AudioSource.file(files[i]);
+
+            return createContainer(fxManager, shard, sampleIDs, sources);
+        }
+    }
+
+    /**
+     * Creates a FX Container that plays one of the given resources every time it is played.
+     * 
+     * @param context - Application Context
+     * @param fxManager - Loaded FX Manager
+     * @param category - Category added using {@link FXManager#addCategory(String, int)} or null for the default category.
+     * @param rawResIDs - Variation resource ids.
+     * @return - FX Container with the loaded variations.
+     */
+    public static FXContainer createContainer(final Context context, final FXManager fxManager, final String category, final int[] rawResIDs) {
+        if (rawResIDs == null || rawResIDs.length == 0)
+            throw new IllegalArgumentException("A FX Container needs at least one variation.");
+
+        final SoundPoolShard shard = fxManager.getShard(category);
+        final int[] sampleIDs = new int[rawResIDs.length];
+
+        synchronized (shard) {
+            Log.v(TAG, "createContainer category: " + shard.getCategory() + ", resources: " + rawResIDs.length);
+
+            try {
+                for (int i = 0; i < rawResIDs.length; i++)
+                    sampleIDs[i] = shard.getSampleBackend().load(context, rawResIDs[i], 1);
+            } catch (RuntimeException e) {
+                unloadSamples(shard, sampleIDs);
+                throw e;
+            }
+
+            final AudioSource[] sources = new AudioSource[rawResIDs.length];
+            for (int i = 0; i < rawResIDs.length; i++)
+                sources[i] = AudioSource.resource(rawResIDs[i]);
+
+            return createContainer(fxManager, shard, sampleIDs, sources);
+        }
+    }
+
+    /**
+     * Unloads the samples that have been loaded before loading one of the samples of a FX Instance failed.
+     */
+    private static void unloadSamples(final SoundPoolShard shard, final int[] sampleIDs) {
+        for (int i = 0; i < sampleIDs.length; i++) {
+            if (sampleIDs[i] != 0)
+                shard.getSampleBackend().unload(sampleIDs[i]);
+        }
+    }
+
+    /**
+     * Loads the samples of a trimmed FX Instance again from their sources into its shard.
+     * 
+     * @param context - Application Context
+     * @param fx - Trimmed FX Instance
+     * 
+     * @throws IllegalStateException if an asset can not be opened.
+     */
+    static void reload(final Context context, final FX fx) {
+        final SoundPoolShard shard = fx.getShard();
+
+        synchronized (shard) {
+            final int[] sampleIDs = new int[fx.getSampleCount()];
+            try {
+                for (int i = 0; i < sampleIDs.length; i++)
+                    sampleIDs[i] = reload(context, shard, fx.getSampleSource(i));
+            } catch (RuntimeException e) {
+                unloadSamples(shard, sampleIDs);
+                throw e;
+            }
+
+            fx.setReloadedSampleIDs(sampleIDs);
+            shard.put(fx);
+        }
+    }
+
+    /**
+     * Loads one sample again from its source. The asset descriptor is only held while the sample pool duplicates it.
+     */
+    private static int reload(final Context context, final SoundPoolShard shard, final AudioSource source) {
+        Log.v(TAG, "reload category: " + shard.getCategory() + ", source: " + source);
+
+        switch (source.getType()) {
+            case ASSET:
+                final AssetDescriptorCache.Reference assetReference;
+                try {
+                    assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), source.getPath());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to open " + source, e);
+                }
+
+                try {
+                    return shard.getSampleBackend().loadAsset(source.getPath(), assetReference.getAssetFileDescriptor(), 1);
+                } finally {
+                    assetReference.release();
+                }
+
+            case FILE:
+                return shard.getSampleBackend().load(source.getPath(), 1);
 
-            final int sampleID = fxManager.getSoundPool().load(context, rawResID, 1);
-            return create(fxManager, sampleID);
+            default:
+                return shard.getSampleBackend().load(context, source.getResourceID(), 1);
         }
     }
 
-}
+}
\ No newline at end of file
@@ -19,66 +19,224 @@
  */
 package ro.andreibalan.media.fx;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
 import ro.andreibalan.media.AudioManager;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.backend.AudioBackend;
+import ro.andreibalan.media.backend.SampleBackend;
+import ro.andreibalan.media.volume.Fader;
 import android.content.Context;
-import android.media.SoundPool;
-import android.media.SoundPool.OnLoadCompleteListener;
 import android.util.Log;
-import android.util.SparseArray;
 
-public class FXManager extends AudioManager<FX> implements OnLoadCompleteListener {
+public class FXManager extends AudioManager<FX> {
 
     public final static String TAG = FXManager.class.getSimpleName();
 
     /**
-     * This is the SoundPool where we will load all the audio FX Instances.
-     * We create this SoundPool in the constructor.
+     * The category used for FX Instances that have been created without specifying one.
+     */
+    public final static String CATEGORY_DEFAULT = "default";
+
+    /**
+     * Every category has its own SoundPool shard with its own stream budget and load queue.
+     * The default shard is created in the constructor and the others using {@link #addCategory(String, int)}.
+     */
+    private final ConcurrentHashMap<String, SoundPoolShard> mShards = new ConcurrentHashMap<String, SoundPoolShard>();
+
+    /**
+     * The shard used for the default category and for unknown categories.
      */
-    private SoundPool mSoundPool;
+    private final SoundPoolShard mDefaultShard;
 
     /**
-     * Sparse Array of FX Instances.
+     * Duckers that are notified when a stream starts, see {@link SidechainDucker#start()}. Only touched on the audio thread.
      */
-    private final SparseArray<FX> mSoundMap = new SparseArray<FX>();
+    private final ArrayList<SidechainDucker> mDuckers = new ArrayList<SidechainDucker>();
+
+    private final AtomicLong mRejectedTriggerCount = new AtomicLong();
+
+    private final AtomicLong mCoalescedTriggerCount = new AtomicLong();
 
     /**
      * Default constructor for the FXManager.<br/><br/>
      * 
      * @param context - Application Context
-     * @param maxSimultaneousStreams - Number of simultaneous playback streams or audio instances.
+     * @param maxSimultaneousStreams - Number of simultaneous playback streams or audio instances of the default category.
      */
     public FXManager(Context context, final int maxSimultaneousStreams) {
         super(context);
         Log.v(TAG, "Constructor: maxSimultaneousStreams: " + maxSimultaneousStreams);
 
-        this.mSoundPool = new SoundPool(maxSimultaneousStreams, android.media.AudioManager.STREAM_MUSIC, 0);
-        this.mSoundPool.setOnLoadCompleteListener(this);
+        mDefaultShard = addCategory(CATEGORY_DEFAULT, maxSimultaneousStreams);
     }
 
-    @Override
-    public synchronized void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
-        if (status == 0) {
-            final FX fx = mSoundMap.get(sampleId);
-            if (fx != null)
-                fx.setLoaded(true);
+    /**
+     * Constructor used to run the FXManager on a specific backend, e.g. a simulated one.<br/><br/>
+     * 
+     * @param context - Application Context
+     * @param maxSimultaneousStreams - Number of simultaneous playback streams or audio instances of the default category.
+     * @param backend - Backend used for every platform audio call.
+     */
+    public FXManager(Context context, final int maxSimultaneousStreams, final AudioBackend backend) {
+        super(context, backend);
+        Log.v(TAG, "Constructor: maxSimultaneousStreams: " + maxSimultaneousStreams);
+
+        mDefaultShard = addCategory(CATEGORY_DEFAULT, maxSimultaneousStreams);
+    }
+
+    /**
+     * Constructor used to run the FXManager on a specific backend and audio thread, e.g. ones driven by a virtual clock.<br/><br/>
+     * 
+     * @param context - Application Context
+     * @param maxSimultaneousStreams - Number of simultaneous playback streams or audio instances of the default category.
+     * @param backend - Backend used for every platform audio call.
+     * @param audioThread - Thread where all the audio control operations are executed.
+     * @param fader - Fader of the volumes created by the manager.
+     */
+    public FXManager(Context context, final int maxSimultaneousStreams, final AudioBackend backend, final AudioThread audioThread, final Fader fader) {
+        super(context, backend, audioThread, fader);
+        Log.v(TAG, "Constructor: maxSimultaneousStreams: " + maxSimultaneousStreams);
+
+        mDefaultShard = addCategory(CATEGORY_DEFAULT, maxSimultaneousStreams);
+    }
+
+    /**
+     * Adds a new category with its own SoundPool shard.<br/>
+     * FX Instances created for this category using the {@link FXFactory} will load and play from this shard only.
+     * 
+     * @param category - Category name, e.g. "ui", "ambience", "alerts"
+     * @param maxSimultaneousStreams - Number of simultaneous playback streams for this category.
+     * @return - The created shard.
+     */
+    public SoundPoolShard addCategory(final String category, final int maxSimultaneousStreams) {
+        Log.v(TAG, "addCategory: " + category + ", maxSimultaneousStreams: " + maxSimultaneousStreams);
+
+        if (category == null)
+            throw new IllegalArgumentException("You cannot pass a null category to addCategory.");
+
+        final SoundPoolShard shard = new SoundPoolShard(getBackend(), category, maxSimultaneousStreams);
+        if (mShards.putIfAbsent(category, shard) != null) {
+            shard.release();
+            throw new IllegalArgumentException("Category " + category + " has already been added.");
         }
+
+        return shard;
     }
 
     /**
-     * Returns the loaded SoundPool
+     * Returns the shard of the given category, or the default shard for a null category.
+     * 
+     * @throws IllegalArgumentException if the category has not been added, so a misspelled category is not silently played from the default shard.
      */
-    protected SoundPool getSoundPool() {
-        Log.v(TAG, "getSoundPool");
-        return mSoundPool;
+    public SoundPoolShard getShard(final String category) {
+        if (category == null)
+            return mDefaultShard;
+
+        final SoundPoolShard shard = mShards.get(category);
+        if (shard == null)
+            throw new IllegalArgumentException("Category " + category + " has not been added.");
+
+        return shard;
+    }
+
+    /**
+     * Returns the shard of the given category or the default shard if the category has not been added, e.g. when restoring a snapshot
+     * taken before the category was added again.
+     */
+    SoundPoolShard getShardOrDefault(final String category) {
+        final SoundPoolShard shard = (category != null) ? mShards.get(category) : null;
+        if (shard != null)
+            return shard;
+
+        if (category != null)
+            Log.w(TAG, "Category " + category + " has not been added, using the default category.");
+
+        return mDefaultShard;
+    }
+
+    /**
+     * Sets the trigger policy of the FX Instance on the audio thread, e.g. to limit how many bullet hits play at the same time.
+     * 
+     * @param fx - FX Instance
+     * @param policy - Trigger policy or null to let every play start a stream.
+     */
+    public void setTriggerPolicy(final FX fx, final TriggerPolicy policy) {
+        Log.v(TAG, "setTriggerPolicy: " + fx + ", policy: " + policy);
+
+        if (fx == null)
+            throw new IllegalArgumentException("FX can not be null.");
+
+        getAudioThread().execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                fx.applyTriggerPolicy(policy);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of plays rejected by a trigger policy.
+     */
+    public long getRejectedTriggerCount() {
+        return mRejectedTriggerCount.get();
+    }
+
+    /**
+     * Returns the number of plays merged into the stream of another play of the same frame.
+     */
+    public long getCoalescedTriggerCount() {
+        return mCoalescedTriggerCount.get();
+    }
+
+    void addDucker(final SidechainDucker ducker) {
+        if (!mDuckers.contains(ducker))
+            mDuckers.add(ducker);
+    }
+
+    void removeDucker(final SidechainDucker ducker) {
+        mDuckers.remove(ducker);
+    }
+
+    /**
+     * Called by the FX Instance on the audio thread every time it starts a stream.
+     */
+    void onStreamStarted(final FX fx, final int streamID) {
+        for (int i = 0; i < mDuckers.size(); i++)
+            mDuckers.get(i).onStreamStarted(fx, streamID);
+    }
+
+    void onTriggerRejected() {
+        mRejectedTriggerCount.incrementAndGet();
+    }
+
+    void onTriggerCoalesced() {
+        mCoalescedTriggerCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the SoundPool of the default category.
+     */
+    protected SampleBackend getSampleBackend() {
+        Log.v(TAG, "getSampleBackend");
+        return mDefaultShard.getSampleBackend();
     }
 
     @Override
     public boolean add(final FX fx) {
         Log.v(TAG, "add: " + fx);
 
-        // Before adding this to the audio pool we also add it to our own SparseArray
+        // Before adding this to the audio pool we also map it in its own shard.
         final boolean added = super.add(fx);
-        mSoundMap.put(fx.getSampleID(), fx);
+        fx.getShard().put(fx);
 
         return added;
     }
@@ -89,19 +247,59 @@ public class FXManager extends AudioManager<FX> implements OnLoadCompleteListene
 
         final boolean removed = super.remove(fx);
         if (removed)
-            this.mSoundMap.remove(fx.getSampleID());
+            fx.getShard().remove(fx);
+
+        return removed;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends FX> fx) {
+        Log.v(TAG, "addAll: " + fx.size());
+
+        final boolean added = super.addAll(fx);
+        for (FX fxInstance : fx)
+            fxInstance.getShard().put(fxInstance);
+
+        return added;
+    }
+
+    @Override
+    public boolean removeAll(final Collection<? extends FX> fx) {
+        Log.v(TAG, "removeAll: " + fx.size());
+
+        // Only the FX Instances that are actually in the pool are unmapped from their shard.
+        final ArrayList<FX> pooled = new ArrayList<FX>(fx.size());
+        for (FX fxInstance : fx)
+            if (contains(fxInstance))
+                pooled.add(fxInstance);
+
+        final boolean removed = super.removeAll(pooled);
+        for (FX fxInstance : pooled)
+            if (!contains(fxInstance))
+                fxInstance.getShard().remove(fxInstance);
 
         return removed;
     }
 
+    /**
+     * Restores a FX Instance in its category, or in the default category if the category has not been added yet.
+     */
+    @Override
+    protected FX createFromSnapshot(final AudioSource source, final DataInput in) throws IOException {
+        final FX fx = new FX(this, source, in);
+        add(fx);
+        return fx;
+    }
+
     @Override
-    public void releaseAll() {
-        Log.v(TAG, "releaseAll");
+    protected void handleReleaseAll() {
+        Log.v(TAG, "handleReleaseAll");
 
-        super.releaseAll();
+        super.handleReleaseAll();
 
-        // Release our own SoundPool
-        mSoundPool.release();
+        // Release all of our SoundPool shards
+        for (SoundPoolShard shard : mShards.values())
+            shard.release();
     }
 
 }
@@ -0,0 +1,358 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.util.Log;
+
+/**
+ * Concurrent map from primitive sample IDs to the FX Instances that play them.
+ * <br/><br/>
+ * The map uses open addressing with linear probing over primitive key arrays, so sample IDs are never boxed.
+ * Reads and load notifications never take a lock: keys are claimed with compare-and-set and a resize publishes a new table
+ * through a volatile field. Only adding and removing FX Instances is serialized between the threads adding sounds.
+ * <br/><br/>
+ * More than one FX Instance can share the same sample ID. They are kept in a small immutable array per sample which is
+ * replaced on every change, so the array returned by {@link #get(int)} can be iterated without any locking.
+ */
+public class SampleMap {
+
+    public final static String TAG = SampleMap.class.getSimpleName();
+
+    /**
+     * SoundPool never returns 0 as a valid sample ID so we use it to mark empty slots.
+     */
+    private final static int EMPTY = 0;
+
+    private final static int MIN_CAPACITY = 16;
+
+    /**
+     * One generation of the hash table. Slots are only ever claimed, never freed, until the next resize drops the unused ones.
+     */
+    private static final class Table {
+
+        private final int mMask;
+
+        private final AtomicIntegerArray mKeys;
+
+        private final AtomicIntegerArray mLoaded;
+
+        private final AtomicReferenceArray<FX[]> mValues;
+
+        /**
+         * Number of claimed slots, including the ones that do not hold FX Instances anymore. Counted per table so claims that race
+         * with a resize never count on the table that replaced it.
+         */
+        private final AtomicInteger mUsedSlots = new AtomicInteger();
+
+        private Table(final int capacity) {
+            mMask = capacity - 1;
+            mKeys = new AtomicIntegerArray(capacity);
+            mLoaded = new AtomicIntegerArray(capacity);
+            mValues = new AtomicReferenceArray<FX[]>(capacity);
+        }
+
+        private int capacity() {
+            return mMask + 1;
+        }
+    }
+
+    private volatile Table mTable = new Table(MIN_CAPACITY);
+
+    /**
+     * Serializes put, remove and resize. It is never taken by readers or by load notifications.
+     */
+    private final Object mWriteLock = new Object();
+
+    private static int hash(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the slot of the key or -1 if it is not in the table.
+     */
+    private static int find(final Table table, final int key) {
+        final int mask = table.mMask;
+        int index = hash(key) & mask;
+
+        for (int probe = 0; probe <= mask; probe++) {
+            final int slotKey = table.mKeys.get(index);
+            if (slotKey == key)
+                return index;
+            if (slotKey == EMPTY)
+                return -1;
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the slot of the key, claiming an empty one if it is not in the table yet. Returns -1 if the table is full.
+     */
+    private static int claim(final Table table, final int key) {
+        final int mask = table.mMask;
+        int index = hash(key) & mask;
+
+        for (int probe = 0; probe <= mask; probe++) {
+            final int slotKey = table.mKeys.get(index);
+            if (slotKey == key)
+                return index;
+
+            if (slotKey == EMPTY) {
+                if (table.mKeys.compareAndSet(index, EMPTY, key)) {
+                    table.mUsedSlots.incrementAndGet();
+                    return index;
+                }
+
+                // Somebody else claimed this slot in the meantime, it might have been for the same key.
+                if (table.mKeys.get(index) == key)
+                    return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the FX Instances playing the given sample or null if there are none.<br/>
+     * The returned array is shared and must never be modified.
+     */
+    public FX[] get(final int sampleID) {
+        final Table table = mTable;
+        final int index = find(table, sampleID);
+        return (index < 0) ? null : table.mValues.get(index);
+    }
+
+    /**
+     * Returns true if the sample has been reported as loaded.
+     */
+    public boolean isLoaded(final int sampleID) {
+        final Table table = mTable;
+        final int index = find(table, sampleID);
+        return (index >= 0) && (table.mLoaded.get(index) != 0);
+    }
+
+    /**
+     * Maps the FX Instance to its sample ID. If the sample has already been loaded the FX Instance is marked as loaded right away.
+     */
+    public void put(final int sampleID, final FX fx) {
+        if (sampleID == EMPTY)
+            return;
+
+        synchronized (mWriteLock) {
+            ensureCapacity();
+
+            final Table table = mTable;
+            final int index = claim(table, sampleID);
+
+            final FX[] current = table.mValues.get(index);
+            final FX[] updated;
+            if (current == null) {
+                updated = new FX[] {
+                    fx
+                };
+            } else {
+                for (FX existing : current)
+                    if (existing == fx)
+                        return;
+
+                updated = new FX[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = fx;
+            }
+
+            // The value is published before the loaded flag is read and markLoaded does it the other way around,
+            // so at least one of us will always see the other and mark the FX Instance as loaded.
+            table.mValues.set(index, updated);
+            if (table.mLoaded.get(index) != 0)
+                fx.setLoaded(true);
+        }
+    }
+
+    /**
+     * Removes the FX Instance mapping for the given sample ID.
+     * 
+     * @return - Number of FX Instances still playing the sample.
+     */
+    public int remove(final int sampleID, final FX fx) {
+        if (sampleID == EMPTY)
+            return 0;
+
+        synchronized (mWriteLock) {
+            final Table table = mTable;
+            final int index = find(table, sampleID);
+            if (index < 0)
+                return 0;
+
+            final FX[] current = table.mValues.get(index);
+            if (current == null)
+                return 0;
+
+            int position = -1;
+            for (int i = 0; i < current.length; i++)
+                if (current[i] == fx)
+                    position = i;
+
+            if (position < 0)
+                return current.length;
+
+            if (current.length == 1) {
+                table.mValues.set(index, null);
+                return 0;
+            }
+
+            final FX[] updated = new FX[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            System.arraycopy(current, position + 1, updated, position, current.length - position - 1);
+            table.mValues.set(index, updated);
+            return updated.length;
+        }
+    }
+
+    /**
+     * Marks the sample as loaded and notifies every FX Instance playing it.<br/>
+     * This is called from the load callback and does not block while another thread is adding sounds. Only a full table is grown under
+     * the write lock, so the mark is never dropped.
+     */
+    public void markLoaded(final int sampleID) {
+        if (sampleID == EMPTY)
+            return;
+
+        Table table = mTable;
+        while (true) {
+            final int index = claim(table, sampleID);
+            if (index >= 0) {
+                table.mLoaded.set(index, 1);
+
+                final FX[] fx = table.mValues.get(index);
+                if (fx != null)
+                    for (int i = 0; i < fx.length; i++)
+                        fx[i].setLoaded(true);
+            } else {
+                Log.w(TAG, "markLoaded: table is full, growing it for sample " + sampleID);
+                synchronized (mWriteLock) {
+                    if (mTable == table)
+                        resize(table);
+                }
+            }
+
+            // If a resize has been published in the meantime the mark might not have been copied so we repeat it on the new table.
+            final Table current = mTable;
+            if (current == table)
+                return;
+
+            table = current;
+        }
+    }
+
+    /**
+     * Clears the loaded flag of the sample, e.g. after it has been unloaded from the SoundPool.
+     */
+    public void markUnloaded(final int sampleID) {
+        final Table table = mTable;
+        final int index = find(table, sampleID);
+        if (index < 0)
+            return;
+
+        table.mLoaded.set(index, 0);
+
+        final FX[] fx = table.mValues.get(index);
+        if (fx != null)
+            for (int i = 0; i < fx.length; i++)
+                fx[i].setLoaded(false);
+    }
+
+    /**
+     * Grows or compacts the table when it is half full. Must be called while holding the write lock.
+     */
+    private void ensureCapacity() {
+        final Table table = mTable;
+        if ((table.mUsedSlots.get() + 1) * 2 <= table.capacity())
+            return;
+
+        resize(table);
+    }
+
+    /**
+     * Replaces the table with one that holds its live slots at most a quarter full. Must be called while holding the write lock.
+     */
+    private void resize(final Table table) {
+        int live = 0;
+        for (int i = 0; i < table.capacity(); i++)
+            if (isLive(table, i))
+                live++;
+
+        int capacity = MIN_CAPACITY;
+        while (capacity < (live + 1) * 4)
+            capacity <<= 1;
+
+        final Table resized = new Table(capacity);
+        int used = 0;
+        for (int i = 0; i < table.capacity(); i++) {
+            if (!isLive(table, i))
+                continue;
+
+            final int index = claimUncounted(resized, table.mKeys.get(i));
+            resized.mValues.set(index, table.mValues.get(i));
+            resized.mLoaded.set(index, table.mLoaded.get(i));
+            used++;
+        }
+
+        resized.mUsedSlots.set(used);
+        mTable = resized;
+
+        // Load notifications that raced with the copy have either seen the new table or are visible here. Their FX Instances
+        // have already been notified on the old table, so only the flag is copied.
+        for (int i = 0; i < table.capacity(); i++) {
+            final int key = table.mKeys.get(i);
+            if (key == EMPTY || table.mLoaded.get(i) == 0)
+                continue;
+
+            final int index = claim(resized, key);
+            if (index >= 0)
+                resized.mLoaded.set(index, 1);
+        }
+    }
+
+    private static boolean isLive(final Table table, final int index) {
+        return (table.mKeys.get(index) != EMPTY) && (table.mValues.get(index) != null || table.mLoaded.get(index) != 0);
+    }
+
+    /**
+     * Claims a slot in a table that has not been published yet.
+     */
+    private static int claimUncounted(final Table table, final int key) {
+        int index = hash(key) & table.mMask;
+        while (table.mKeys.get(index) != EMPTY)
+            index = (index + 1) & table.mMask;
+
+        table.mKeys.set(index, key);
+        return index;
+    }
+
+}
@@ -0,0 +1,360 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ro.andreibalan.media.AudioClock;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.volume.Volume;
+import android.util.Log;
+
+/**
+ * Ducks a target Volume, usually the master volume of the MusicManager, while tagged FX Instances are playing.
+ * <br/><br/>
+ * FX Instances whose tag or category has been added using {@link #addTag(String)} join the active voice set when they start a stream.
+ * Once per tick the ducker drops the voices that have ended and moves its gain towards the ducked level while any voice is active,
+ * keeps it there for the hold time after the last one and then releases it. Overlapping voices only extend the duck, they never stack.
+ * <br/><br/>
+ * The gain is applied using {@link Volume#setSidechainGain(float)}, so it does not interfere with the focus ducking of {@link Volume#lowerChannels()}.
+ * SoundPool does not report when a stream has ended, so a voice counts as active for the instance lifetime of the FX Instance's
+ * {@link TriggerPolicy} or for the voice lifetime of the ducker.
+ */
+public class SidechainDucker {
+
+    public final static String TAG = SidechainDucker.class.getSimpleName();
+
+    public final static int DEFAULT_ATTACK = 50;
+
+    public final static int DEFAULT_HOLD = 200;
+
+    public final static int DEFAULT_RELEASE = 500;
+
+    public final static float DEFAULT_DEPTH = 0.5f;
+
+    public final static int DEFAULT_VOICE_LIFETIME = 1000;
+
+    /**
+     * Time between two ticks in milliseconds.
+     */
+    public final static int TICK_INTERVAL = 10;
+
+    private final FXManager mSource;
+
+    private final Volume mTarget;
+
+    private final AudioThread mAudioThread;
+
+    private final Set<String> mTags = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile int mAttack = DEFAULT_ATTACK;
+
+    private volatile int mHold = DEFAULT_HOLD;
+
+    private volatile int mRelease = DEFAULT_RELEASE;
+
+    private volatile float mDepth = DEFAULT_DEPTH;
+
+    private volatile int mVoiceLifetime = DEFAULT_VOICE_LIFETIME;
+
+    // Active voice set with the stream of every voice and the time it ends, only touched on the audio thread.
+    private FX[] mVoices = new FX[8];
+    private int[] mVoiceStreams = new int[8];
+    private long[] mVoiceEnds = new long[8];
+    private int mVoiceCount = 0;
+
+    private boolean mStarted = false;
+
+    private boolean mTickScheduled = false;
+
+    private long mLastTickTime;
+
+    private long mHoldEnd;
+
+    private boolean mDucking = false;
+
+    private float mRampStart = 1.0f;
+
+    private volatile float mGain = 1.0f;
+
+    /**
+     * Reused command that evaluates the voice set and schedules the next tick while ducking.
+     */
+    private final AudioCommand mTickCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            mTickScheduled = false;
+            tick(mAudioThread.getClock().nanoTime());
+            scheduleTick();
+        }
+    };
+
+    /**
+     * @param source - FX Manager whose tagged FX Instances duck the target.
+     * @param target - Volume to duck, e.g. the master volume of the MusicManager.
+     */
+    public SidechainDucker(final FXManager source, final Volume target) {
+        Log.v(TAG, "Constructor");
+
+        if (source == null || target == null)
+            throw new IllegalArgumentException("Source and target can not be null.");
+
+        mSource = source;
+        mTarget = target;
+        mAudioThread = source.getAudioThread();
+    }
+
+    /**
+     * Adds a tag or a category whose FX Instances duck the target.
+     */
+    public void addTag(final String tag) {
+        if (tag == null)
+            throw new IllegalArgumentException("Tag can not be null.");
+
+        mTags.add(tag);
+    }
+
+    public void removeTag(final String tag) {
+        if (tag != null)
+            mTags.remove(tag);
+    }
+
+    /**
+     * Sets how many milliseconds it takes to reach the ducked level.
+     */
+    public void setAttack(final int attack) {
+        if (attack < 0)
+            throw new IllegalArgumentException("Attack can not be negative.");
+
+        mAttack = attack;
+    }
+
+    public int getAttack() {
+        return mAttack;
+    }
+
+    /**
+     * Sets how many milliseconds the target stays ducked after the last voice has ended.
+     */
+    public void setHold(final int hold) {
+        if (hold < 0)
+            throw new IllegalArgumentException("Hold can not be negative.");
+
+        mHold = hold;
+    }
+
+    public int getHold() {
+        return mHold;
+    }
+
+    /**
+     * Sets how many milliseconds it takes to return from the ducked level.
+     */
+    public void setRelease(final int release) {
+        if (release < 0)
+            throw new IllegalArgumentException("Release can not be negative.");
+
+        mRelease = release;
+    }
+
+    public int getRelease() {
+        return mRelease;
+    }
+
+    /**
+     * Sets how much the target is lowered, between 0.0 for no ducking and 1.0 for silence.
+     */
+    public void setDepth(final float depth) {
+        if (depth < 0f || depth > 1f)
+            throw new IllegalArgumentException("Depth should be between 0.0 and 1.0");
+
+        mDepth = depth;
+    }
+
+    public float getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Sets how many milliseconds a voice without a trigger policy counts as active after it has started.
+     */
+    public void setVoiceLifetime(final int voiceLifetime) {
+        if (voiceLifetime <= 0)
+            throw new IllegalArgumentException("Voice lifetime must be greater than 0.");
+
+        mVoiceLifetime = voiceLifetime;
+    }
+
+    public int getVoiceLifetime() {
+        return mVoiceLifetime;
+    }
+
+    /**
+     * Returns the gain currently applied to the target, 1.0 when not ducking.
+     */
+    public float getGain() {
+        return mGain;
+    }
+
+    /**
+     * Returns true while the target is lowered.
+     */
+    public boolean isDucking() {
+        return (mGain < 1.0f);
+    }
+
+    /**
+     * Starts listening to the streams started by the FX Instances of the source on the audio thread.
+     */
+    public void start() {
+        Log.v(TAG, "start");
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                mStarted = true;
+                mSource.addDucker(SidechainDucker.this);
+            }
+        });
+    }
+
+    /**
+     * Stops listening and restores the target right away on the audio thread.
+     */
+    public void stop() {
+        Log.v(TAG, "stop");
+
+        mAudioThread.execute(new AudioCommand() {
+
+            @Override
+            public void run() {
+                mStarted = false;
+                mSource.removeDucker(SidechainDucker.this);
+                mAudioThread.unschedule(mTickCommand);
+                mTickScheduled = false;
+
+                Arrays.fill(mVoices, 0, mVoiceCount, null);
+                mVoiceCount = 0;
+
+                mDucking = false;
+                mGain = 1.0f;
+                mTarget.setSidechainGain(1.0f);
+            }
+        });
+    }
+
+    /**
+     * Called by the {@link FXManager} on the audio thread every time a FX Instance starts a stream.
+     */
+    void onStreamStarted(final FX fx, final int streamID) {
+        if (!mStarted || streamID == 0)
+            return;
+
+        final String tag = fx.getTag();
+        if ((tag == null || !mTags.contains(tag)) && !mTags.contains(fx.getCategory()))
+            return;
+
+        final long now = mAudioThread.getClock().nanoTime();
+        final TriggerPolicy policy = fx.getTriggerPolicy();
+        final int lifetime = (policy != null) ? policy.getInstanceLifetime() : mVoiceLifetime;
+        final long end = now + lifetime * AudioClock.NANOS_PER_MILLISECOND;
+
+        // Every stream is a voice of its own, so a FX Instance playing several voices keeps ducking until the last one ends.
+        if (mVoiceCount == mVoices.length) {
+            mVoices = Arrays.copyOf(mVoices, mVoiceCount * 2);
+            mVoiceStreams = Arrays.copyOf(mVoiceStreams, mVoiceCount * 2);
+            mVoiceEnds = Arrays.copyOf(mVoiceEnds, mVoiceCount * 2);
+        }
+
+        mVoices[mVoiceCount] = fx;
+        mVoiceStreams[mVoiceCount] = streamID;
+        mVoiceEnds[mVoiceCount] = end;
+        mVoiceCount++;
+
+        // The attack starts from now if the ducker has been idle. The FX Instance only becomes playing after the stream has started,
+        // so the voice set is evaluated on the next tick.
+        if (!mTickScheduled) {
+            mLastTickTime = now;
+            scheduleTick();
+        }
+    }
+
+    private void scheduleTick() {
+        if (mTickScheduled || !mStarted || (mVoiceCount == 0 && mGain >= 1.0f))
+            return;
+
+        mTickScheduled = true;
+        mAudioThread.schedule(mTickCommand, mAudioThread.getClock().fromNow(TICK_INTERVAL));
+    }
+
+    /**
+     * Drops the voices that have ended, been stopped or stolen, and moves the gain towards the level of the current voice set.
+     */
+    private void tick(final long now) {
+        int index = 0;
+        while (index < mVoiceCount) {
+            final FX fx = mVoices[index];
+            if (now < mVoiceEnds[index] && fx.isPlaying() && fx.hasStream(mVoiceStreams[index])) {
+                index++;
+                continue;
+            }
+
+            final int last = --mVoiceCount;
+            mVoices[index] = mVoices[last];
+            mVoiceStreams[index] = mVoiceStreams[last];
+            mVoiceEnds[index] = mVoiceEnds[last];
+            mVoices[last] = null;
+            mVoiceEnds[last] = 0;
+        }
+
+        if (mVoiceCount > 0)
+            mHoldEnd = now + mHold * AudioClock.NANOS_PER_MILLISECOND;
+
+        final float ducked = 1.0f - mDepth;
+        final float elapsed = (float) (now - mLastTickTime) / AudioClock.NANOS_PER_MILLISECOND;
+        mLastTickTime = now;
+
+        // Every ramp covers the distance from the gain it started at in the attack or release time.
+        float gain = mGain;
+        final boolean ducking = (mVoiceCount > 0 || now < mHoldEnd);
+        if (ducking != mDucking) {
+            mDucking = ducking;
+            mRampStart = gain;
+        }
+
+        if (ducking) {
+            final int attack = mAttack;
+            gain = (attack > 0) ? Math.max(ducked, gain - Math.max(mRampStart - ducked, 0f) * elapsed / attack) : ducked;
+        } else {
+            final int release = mRelease;
+            gain = (release > 0) ? Math.min(1.0f, gain + (1.0f - mRampStart) * elapsed / release) : 1.0f;
+        }
+
+        mGain = gain;
+        mTarget.setSidechainGain(gain);
+    }
+
+}
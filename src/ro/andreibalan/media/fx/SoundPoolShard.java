@@ -0,0 +1,178 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import ro.andreibalan.media.backend.AudioBackend;
+import ro.andreibalan.media.backend.SampleBackend;
+import ro.andreibalan.media.backend.SampleBackend.OnLoadCompleteListener;
+import ro.andreibalan.media.backend.SoftwareSampleBackend;
+import ro.andreibalan.media.dsp.EffectChain;
+import android.util.Log;
+
+/**
+ * A single SoundPool owned by the {@link FXManager} for one category of FX Instances.
+ * <br/><br/>
+ * Every shard has its own stream budget and its own load queue, so loading or playing a lot of sounds in one category
+ * will not delay or starve the sounds of another category.
+ */
+public class SoundPoolShard implements OnLoadCompleteListener {
+
+    public final static String TAG = SoundPoolShard.class.getSimpleName();
+
+    /**
+     * The category this shard serves.
+     */
+    private final String mCategory;
+
+    /**
+     * Number of simultaneous playback streams this shard can play.
+     */
+    private final int mMaxSimultaneousStreams;
+
+    /**
+     * This is the SoundPool where we will load all the audio FX Instances of this category.
+     */
+    private final SampleBackend mSoundPool;
+
+    /**
+     * Map of sample IDs to FX Instances. Sample IDs are only unique per SoundPool so every shard keeps its own.
+     */
+    private final SampleMap mSoundMap = new SampleMap();
+
+    /**
+     * This is a protected constructor and will only be instanced from the FXManager.
+     * 
+     * @param backend - Backend used to create the SoundPool.
+     * @param category - Category name
+     * @param maxSimultaneousStreams - Number of simultaneous playback streams for this category.
+     */
+    SoundPoolShard(final AudioBackend backend, final String category, final int maxSimultaneousStreams) {
+        Log.v(TAG, "Constructor: category: " + category + ", maxSimultaneousStreams: " + maxSimultaneousStreams);
+
+        mCategory = category;
+        mMaxSimultaneousStreams = maxSimultaneousStreams;
+
+        mSoundPool = backend.createSamplePool(maxSimultaneousStreams);
+        mSoundPool.setOnLoadCompleteListener(this);
+    }
+
+    /**
+     * Called from the SoundPool thread. This never blocks on threads that are adding sounds to the shard.
+     */
+    @Override
+    public void onLoadComplete(SampleBackend sampleBackend, int sampleId, int status) {
+        if (status == 0)
+            mSoundMap.markLoaded(sampleId);
+    }
+
+    /**
+     * Returns the category name of this shard.
+     */
+    public String getCategory() {
+        return mCategory;
+    }
+
+    /**
+     * Returns the number of simultaneous playback streams of this shard.
+     */
+    public int getMaxSimultaneousStreams() {
+        return mMaxSimultaneousStreams;
+    }
+
+    /**
+     * Returns the SoundPool of this shard.
+     */
+    protected SampleBackend getSampleBackend() {
+        return mSoundPool;
+    }
+
+    /**
+     * Inserts an effect chain on the mix of this category, e.g. an EQ and a limiter for all the UI sounds, or removes it when the chain is null.
+     * <br/><br/>
+     * Only sample pools mixed in software can process effects, see {@link SoftwareSampleBackend#setEffectChain(EffectChain)}.
+     * 
+     * @return - False if the SoundPool of this shard can not process effects.
+     */
+    public boolean setEffectChain(final EffectChain chain) {
+        Log.v(TAG, "setEffectChain: " + mCategory);
+
+        if (!(mSoundPool instanceof SoftwareSampleBackend))
+            return false;
+
+        ((SoftwareSampleBackend) mSoundPool).setEffectChain(chain);
+        return true;
+    }
+
+    /**
+     * Returns the map of sample IDs to FX Instances of this shard.
+     */
+    public SampleMap getSampleMap() {
+        return mSoundMap;
+    }
+
+    /**
+     * Maps the FX Instance to its sample IDs so we can notify it when a sample has been loaded.
+     */
+    void put(final FX fx) {
+        final int sampleCount = fx.getSampleCount();
+        for (int i = 0; i < sampleCount; i++)
+            mSoundMap.put(fx.getSampleID(i), fx);
+    }
+
+    /**
+     * Removes the FX Instance mappings.
+     * 
+     * @return - Highest number of FX Instances still playing one of its samples.
+     */
+    int remove(final FX fx) {
+        int remaining = 0;
+
+        final int sampleCount = fx.getSampleCount();
+        for (int i = 0; i < sampleCount; i++)
+            remaining = Math.max(remaining, mSoundMap.remove(fx.getSampleID(i), fx));
+
+        return remaining;
+    }
+
+    /**
+     * Unloads the samples of a released FX Instance that no other FX Instance plays anymore. Software sample pools free the decoded
+     * sample right away once no other pool holds it either.
+     */
+    void unload(final FX fx) {
+        final int sampleCount = fx.getSampleCount();
+        for (int i = 0; i < sampleCount; i++) {
+            final int sampleID = fx.getSampleID(i);
+            if (sampleID != 0 && mSoundMap.get(sampleID) == null) {
+                Log.v(TAG, "unload sampleID: " + sampleID);
+                mSoundPool.unload(sampleID);
+                mSoundMap.markUnloaded(sampleID);
+            }
+        }
+    }
+
+    /**
+     * Releases the SoundPool of this shard.
+     */
+    void release() {
+        Log.v(TAG, "release: " + mCategory);
+        mSoundPool.release();
+    }
+
+}
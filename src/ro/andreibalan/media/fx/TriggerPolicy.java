@@ -0,0 +1,119 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+/**
+ * Limits how a FX Instance can be triggered, set using {@link FXManager#setTriggerPolicy(FX, TriggerPolicy)}.
+ * <br/><br/>
+ * A play is rejected when the minimum retrigger interval has not passed since the last accepted play, or when the maximum number of instances
+ * are still playing. Plays issued within the same audio thread frame can be coalesced into one stream whose gain is the sum or the maximum
+ * of their gains. Rejected and coalesced plays never reach the sample pool.
+ * <br/><br/>
+ * SoundPool does not report when a stream has ended, so an instance counts as playing for the instance lifetime after it has started,
+ * unless its voice is stopped, stolen or ends before.
+ * Set it to about the length of the sample.
+ */
+public final class TriggerPolicy {
+
+    public final static String TAG = TriggerPolicy.class.getSimpleName();
+
+    /**
+     * How plays within the same frame are merged.
+     */
+    public enum Coalescing {
+
+        /**
+         * Every play starts its own stream.
+         */
+        NONE,
+
+        /**
+         * One stream with the sum of the gains, up to 1.0, so many hits sound louder.
+         */
+        SUM,
+
+        /**
+         * One stream with the highest of the gains.
+         */
+        MAX
+    }
+
+    /**
+     * Used as the instance lifetime when none is given.
+     */
+    public final static int DEFAULT_INSTANCE_LIFETIME = 1000;
+
+    private final int mMaxInstances;
+
+    private final int mMinRetriggerInterval;
+
+    private final Coalescing mCoalescing;
+
+    private final int mInstanceLifetime;
+
+    /**
+     * @see #TriggerPolicy(int, int, Coalescing, int)
+     */
+    public TriggerPolicy(final int maxInstances, final int minRetriggerInterval, final Coalescing coalescing) {
+        this(maxInstances, minRetriggerInterval, coalescing, DEFAULT_INSTANCE_LIFETIME);
+    }
+
+    /**
+     * @param maxInstances - Maximum number of instances playing at the same time, 0 for no limit. A FX with fewer voices gets this many, see {@link FX#setMaxVoices(int)}.
+     * @param minRetriggerInterval - Milliseconds that have to pass between two accepted plays, 0 for no limit.
+     * @param coalescing - How plays within the same frame are merged.
+     * @param instanceLifetime - Milliseconds an instance counts as playing after it has started.
+     */
+    public TriggerPolicy(final int maxInstances, final int minRetriggerInterval, final Coalescing coalescing, final int instanceLifetime) {
+        if (maxInstances < 0 || minRetriggerInterval < 0 || instanceLifetime <= 0)
+            throw new IllegalArgumentException("Limits can not be negative and the instance lifetime must be greater than 0.");
+
+        if (coalescing == null)
+            throw new IllegalArgumentException("Coalescing can not be null.");
+
+        mMaxInstances = maxInstances;
+        mMinRetriggerInterval = minRetriggerInterval;
+        mCoalescing = coalescing;
+        mInstanceLifetime = instanceLifetime;
+    }
+
+    public int getMaxInstances() {
+        return mMaxInstances;
+    }
+
+    public int getMinRetriggerInterval() {
+        return mMinRetriggerInterval;
+    }
+
+    public Coalescing getCoalescing() {
+        return mCoalescing;
+    }
+
+    public int getInstanceLifetime() {
+        return mInstanceLifetime;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[maxInstances: " + mMaxInstances + ", minRetriggerInterval: " + mMinRetriggerInterval + ", coalescing: " + mCoalescing
+                + ", instanceLifetime: " + mInstanceLifetime + "]";
+    }
+
+}
@@ -0,0 +1,290 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+/**
+ * Fixed capacity ring of the voices (streams) of a polyphonic {@link FX}, oldest first.
+ * <br/><br/>
+ * Every voice is stored in parallel primitive arrays, so adding, removing and pruning voices never allocates.
+ * When the ring is full the oldest voice is stolen. Only used on the audio thread.
+ */
+final class VoiceRing {
+
+    private final int[] mHandles;
+
+    private final int[] mStreamIDs;
+
+    /**
+     * Gain the stream has been started with, see {@link FX#selectGain()}.
+     */
+    private final float[] mStreamGains;
+
+    /**
+     * Pitch the stream has been started with, see {@link FX#selectPitch()}. Multiplies the rate of the FX.
+     */
+    private final float[] mPitches;
+
+    /**
+     * Volume set on the single voice.
+     */
+    private final float[] mVolumes;
+
+    /**
+     * Clock time at which the voice has been started.
+     */
+    private final long[] mStarts;
+
+    /**
+     * Clock time at which the voice is assumed to have finished, Long.MAX_VALUE if its length is unknown.
+     */
+    private final long[] mEnds;
+
+    /**
+     * Time left until the end while the voice is paused, -1 while it is playing.
+     */
+    private final long[] mRemaining;
+
+    private int mHead = 0;
+
+    private int mCount = 0;
+
+    VoiceRing(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("A FX needs at least one voice.");
+
+        mHandles = new int[capacity];
+        mStreamIDs = new int[capacity];
+        mStreamGains = new float[capacity];
+        mPitches = new float[capacity];
+        mVolumes = new float[capacity];
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        mRemaining = new long[capacity];
+    }
+
+    int getCapacity() {
+        return mHandles.length;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the position in the arrays of the voice at the given age index, 0 being the oldest.
+     */
+    private int slot(final int index) {
+        return (mHead + index) % mHandles.length;
+    }
+
+    /**
+     * Adds a voice, stealing the oldest one if the ring is full.
+     * 
+     * @return - Stream ID of the stolen voice, which must be stopped, or 0.
+     */
+    int add(final int handle, final int streamID, final float streamGain, final float pitch, final long start, final long end) {
+        int stolenStreamID = 0;
+        if (mCount == mHandles.length) {
+            stolenStreamID = mStreamIDs[slot(0)];
+            removeAt(0);
+        }
+
+        final int slot = slot(mCount++);
+        mHandles[slot] = handle;
+        mStreamIDs[slot] = streamID;
+        mStreamGains[slot] = streamGain;
+        mPitches[slot] = pitch;
+        mVolumes[slot] = 1.0f;
+        mStarts[slot] = start;
+        mEnds[slot] = end;
+        mRemaining[slot] = -1;
+        return stolenStreamID;
+    }
+
+    /**
+     * Appends the voice at the given age index of another ring, keeping its volume, end and pause state. The ring must not be full.
+     */
+    void copy(final VoiceRing source, final int index) {
+        final int from = source.slot(index);
+        final int to = slot(mCount++);
+        mHandles[to] = source.mHandles[from];
+        mStreamIDs[to] = source.mStreamIDs[from];
+        mStreamGains[to] = source.mStreamGains[from];
+        mPitches[to] = source.mPitches[from];
+        mVolumes[to] = source.mVolumes[from];
+        mStarts[to] = source.mStarts[from];
+        mEnds[to] = source.mEnds[from];
+        mRemaining[to] = source.mRemaining[from];
+    }
+
+    /**
+     * Returns the age index of the voice with the handle, or -1 if it is not active.
+     */
+    int indexOf(final int handle) {
+        for (int i = 0; i < mCount; i++) {
+            if (mHandles[slot(i)] == handle)
+                return i;
+        }
+
+        return -1;
+    }
+
+    void removeAt(final int index) {
+        if (index == 0) {
+            mHead = slot(1);
+        } else {
+            // Close the gap by moving the newer voices back by one.
+            for (int i = index; i < mCount - 1; i++) {
+                final int to = slot(i);
+                final int from = slot(i + 1);
+                mHandles[to] = mHandles[from];
+                mStreamIDs[to] = mStreamIDs[from];
+                mStreamGains[to] = mStreamGains[from];
+                mPitches[to] = mPitches[from];
+                mVolumes[to] = mVolumes[from];
+                mStarts[to] = mStarts[from];
+                mEnds[to] = mEnds[from];
+                mRemaining[to] = mRemaining[from];
+            }
+        }
+
+        mCount--;
+    }
+
+    /**
+     * Removes the playing voices that have reached their end.
+     * 
+     * @return - Number of removed voices.
+     */
+    int prune(final long now) {
+        int removed = 0;
+        for (int i = mCount - 1; i >= 0; i--) {
+            final int slot = slot(i);
+            if (mRemaining[slot] < 0 && now >= mEnds[slot]) {
+                removeAt(i);
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Returns the earliest end of the playing voices, Long.MAX_VALUE if none of them has a known end.
+     */
+    long getNextEnd() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            final int slot = slot(i);
+            if (mRemaining[slot] < 0 && mEnds[slot] < next)
+                next = mEnds[slot];
+        }
+
+        return next;
+    }
+
+    /**
+     * Returns the number of voices started after the given clock time.
+     */
+    int countStartedAfter(final long time) {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mStarts[slot(i)] > time)
+                count++;
+        }
+
+        return count;
+    }
+
+    void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+
+    int getHandle(final int index) {
+        return mHandles[slot(index)];
+    }
+
+    int getStreamID(final int index) {
+        return mStreamIDs[slot(index)];
+    }
+
+    /**
+     * Returns the volume multiplier of the voice, its stream gain times its own volume.
+     */
+    float getGain(final int index) {
+        final int slot = slot(index);
+        return mStreamGains[slot] * mVolumes[slot];
+    }
+
+    float getPitch(final int index) {
+        return mPitches[slot(index)];
+    }
+
+    void setVolume(final int index, final float volume) {
+        mVolumes[slot(index)] = volume;
+    }
+
+    boolean isPaused(final int index) {
+        return mRemaining[slot(index)] >= 0;
+    }
+
+    /**
+     * Returns true if at least one voice is paused.
+     */
+    boolean hasPaused() {
+        for (int i = 0; i < mCount; i++) {
+            if (isPaused(i))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if at least one voice is playing.
+     */
+    boolean hasPlaying() {
+        for (int i = 0; i < mCount; i++) {
+            if (!isPaused(i))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops the clock of the voice, so the time it is paused does not count towards its end.
+     */
+    void pause(final int index, final long now) {
+        final int slot = slot(index);
+        if (mRemaining[slot] < 0)
+            mRemaining[slot] = (mEnds[slot] == Long.MAX_VALUE) ? Long.MAX_VALUE : Math.max(0, mEnds[slot] - now);
+    }
+
+    void resume(final int index, final long now) {
+        final int slot = slot(index);
+        if (mRemaining[slot] >= 0) {
+            mEnds[slot] = (mRemaining[slot] == Long.MAX_VALUE) ? Long.MAX_VALUE : now + mRemaining[slot];
+            mRemaining[slot] = -1;
+        }
+    }
+
+}
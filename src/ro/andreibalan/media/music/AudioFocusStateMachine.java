@@ -0,0 +1,249 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.music;
+
+import java.util.ArrayList;
+
+import ro.andreibalan.media.Audio.State;
+import ro.andreibalan.media.volume.Volume;
+import android.util.Log;
+
+/**
+ * Explicit audio focus state machine used by the {@link MusicManager}.
+ * <br/><br/>
+ * Every focus change reported by the system is only recorded as the pending target state. The transition is executed once the focus
+ * has been stable for the debounce window, so quick LOSS/GAIN flaps caused by notification bursts will not pause, resume or duck the
+ * music instances at all. Ducking is done by fading the master volume offset instead of stepping it.
+ * <br/><br/>
+ * The state machine is only accessed from the audio thread.
+ */
+public class AudioFocusStateMachine {
+
+    public final static String TAG = AudioFocusStateMachine.class.getSimpleName();
+
+    /**
+     * Default time in milliseconds a focus change must be stable before we act on it.
+     */
+    public final static int DEFAULT_DEBOUNCE_WINDOW = 300;
+
+    /**
+     * All the focus states the Music Manager can be in.
+     */
+    public enum FocusState {
+
+        /**
+         * We own the focus and can play at full volume.
+         */
+        FOCUSED,
+
+        /**
+         * We still own the focus but the master volume must be lowered.
+         */
+        DUCKED,
+
+        /**
+         * We lost the focus for a short time and the playing music is paused until we gain it back.
+         */
+        LOST_TRANSIENT,
+
+        /**
+         * We lost the focus for an unknown amount of time and every music instance is stopped.
+         */
+        LOST
+    }
+
+    private final MusicManager mMusicManager;
+
+    /**
+     * The state we have actually transitioned to.
+     */
+    private FocusState mState = FocusState.FOCUSED;
+
+    /**
+     * The last state reported by the system which will be applied once the debounce window passes.
+     */
+    private FocusState mPendingState = FocusState.FOCUSED;
+
+    private volatile int mDebounceWindow = DEFAULT_DEBOUNCE_WINDOW;
+
+    private volatile int mDuckDuration = Volume.FADE_DURATION_SHORT;
+
+    /**
+     * Music instances that have been paused because of a transient focus loss.
+     * Only these will be resumed when we gain the focus back, so anything paused by the user stays paused.
+     */
+    private final ArrayList<Music> mFocusPausedMusic = new ArrayList<Music>();
+
+    private final Runnable mSettleRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            transition(mPendingState);
+        }
+    };
+
+    AudioFocusStateMachine(final MusicManager musicManager) {
+        mMusicManager = musicManager;
+    }
+
+    /**
+     * Called with the raw focus change from the system. The change is debounced and only the last one reported within the window is applied.
+     */
+    public void onAudioFocusChange(final int focusChange) {
+        Log.v(TAG, "onAudioFocusChange: " + focusChange);
+
+        final FocusState state = toFocusState(focusChange);
+        if (state == null)
+            return;
+
+        mPendingState = state;
+        mMusicManager.getAudioThread().removeCallbacks(mSettleRunnable);
+
+        // The flap settled back to where we already are so there is nothing left to do.
+        if (mPendingState == mState)
+            return;
+
+        if (mDebounceWindow > 0)
+            mMusicManager.getAudioThread().postDelayed(mSettleRunnable, mDebounceWindow);
+        else
+            transition(mPendingState);
+    }
+
+    /**
+     * Called when a focus request has been granted again. Any pending change is dropped because the system handed us the focus directly.
+     */
+    void onFocusGranted() {
+        Log.v(TAG, "onFocusGranted");
+
+        mMusicManager.getAudioThread().removeCallbacks(mSettleRunnable);
+        mPendingState = FocusState.FOCUSED;
+
+        if (mState == FocusState.DUCKED)
+            mMusicManager.getMasterVolume().raiseChannels(mDuckDuration);
+
+        mFocusPausedMusic.clear();
+        mState = FocusState.FOCUSED;
+    }
+
+    /**
+     * Executes the side effects needed to go from the current state to the given one.
+     */
+    private void transition(final FocusState to) {
+        final FocusState from = mState;
+        if (from == to)
+            return;
+
+        Log.v(TAG, "transition from: " + from + ", to: " + to);
+        mState = to;
+
+        // Leaving or entering the ducked state fades the master volume.
+        if (from == FocusState.DUCKED)
+            mMusicManager.getMasterVolume().raiseChannels(mDuckDuration);
+        if (to == FocusState.DUCKED)
+            mMusicManager.getMasterVolume().lowerChannels(mDuckDuration);
+
+        switch (to) {
+            case FOCUSED:
+            case DUCKED:
+                if (from == FocusState.LOST_TRANSIENT)
+                    resumeFocusPausedMusic();
+                break;
+
+            case LOST_TRANSIENT:
+                for (Music music : mMusicManager.getPool(State.PLAYING)) {
+                    mMusicManager.changeMusicState(music, State.PAUSED);
+                    mFocusPausedMusic.add(music);
+                }
+                break;
+
+            case LOST:
+                mFocusPausedMusic.clear();
+                for (Music music : mMusicManager.getPool(State.PAUSED, State.PLAYING))
+                    mMusicManager.changeMusicState(music, State.STOPPED);
+                break;
+        }
+    }
+
+    private void resumeFocusPausedMusic() {
+        for (int i = 0; i < mFocusPausedMusic.size(); i++) {
+            final Music music = mFocusPausedMusic.get(i);
+
+            // The user may have stopped or released it in the meantime.
+            if (music.isPaused())
+                mMusicManager.changeMusicState(music, State.PLAYING);
+        }
+
+        mFocusPausedMusic.clear();
+    }
+
+    private static FocusState toFocusState(final int focusChange) {
+        switch (focusChange) {
+            case android.media.AudioManager.AUDIOFOCUS_GAIN:
+                return FocusState.FOCUSED;
+
+            case android.media.AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                return FocusState.DUCKED;
+
+            case android.media.AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                return FocusState.LOST_TRANSIENT;
+
+            case android.media.AudioManager.AUDIOFOCUS_LOSS:
+                return FocusState.LOST;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the focus state we are currently in.
+     */
+    public FocusState getState() {
+        return mState;
+    }
+
+    /**
+     * Changes the time in milliseconds a focus change must be stable before we act on it. 0 disables debouncing.
+     */
+    public void setDebounceWindow(final int debounceWindow) {
+        if (debounceWindow < 0)
+            throw new IllegalArgumentException("Debounce window cannot be negative.");
+
+        mDebounceWindow = debounceWindow;
+    }
+
+    public int getDebounceWindow() {
+        return mDebounceWindow;
+    }
+
+    /**
+     * Changes the fade duration used when ducking or restoring the master volume.
+     */
+    public void setDuckDuration(final int duckDuration) {
+        if (duckDuration < 0)
+            throw new IllegalArgumentException("Duck duration cannot be negative.");
+
+        mDuckDuration = duckDuration;
+    }
+
+    public int getDuckDuration() {
+        return mDuckDuration;
+    }
+
+}
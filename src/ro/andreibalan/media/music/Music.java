@@ -19,11 +19,22 @@
  */
 package ro.andreibalan.media.music;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+
+import ro.andreibalan.media.AssetDescriptorCache;
 import ro.andreibalan.media.Audio;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioSnapshot;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.TrimPolicy;
+import ro.andreibalan.media.backend.PlayerBackend;
+import ro.andreibalan.media.pcm.StreamingPlayerBackend;
 import ro.andreibalan.media.volume.Volume;
-import android.media.MediaPlayer;
-import android.os.Handler;
 
 public class Music extends Audio {
 
@@ -31,17 +42,137 @@ public class Music extends Audio {
 
     public final static int CROSSFADE_DURATION = 2000;
 
-    private boolean mIsLooping = false;
-    private int mCrossfadeDuration = 0;
-    private MediaPlayer mMediaPlayer;
+    /**
+     * Default interval of the position listeners and of the resyncs of the playback clock with the player, in milliseconds.
+     */
+    public final static int DEFAULT_POSITION_UPDATE_INTERVAL = 100;
+
+    public final static int DEFAULT_RESYNC_INTERVAL = 1000;
+
+    /**
+     * Interface definition for a callback to be invoked while the Music Instance is playing, on the audio thread.
+     */
+    public interface OnPositionChangeListener {
+
+        /**
+         * @param music - The Music Instance.
+         * @param position - Interpolated position in milliseconds.
+         * @param duration - Duration in milliseconds or -1 if it is not known.
+         */
+        public void onPositionChange(final Music music, final int position, final int duration);
+
+    }
+
+    private volatile boolean mIsLooping = false;
+    private volatile int mCrossfadeDuration = 0;
+    private PlayerBackend mMediaPlayer;
 
     private boolean mIsPendingStopped = false;
-    
-    private Handler mHandler = new Handler();
 
-    Music(final MusicManager musicManager, final MediaPlayer mediaPlayer) {
+    /**
+     * True if the player streams the file itself, so it is created the same way when the Music is loaded again after a trim.
+     */
+    private final boolean mIsStreaming;
+
+    /**
+     * Reference to the shared asset descriptor this Music has been created from, released together with the Music.
+     */
+    private volatile AssetDescriptorCache.Reference mAssetReference;
+
+    private final PlaybackClock mPlaybackClock;
+
+    private final CopyOnWriteArrayList<OnPositionChangeListener> mPositionListeners = new CopyOnWriteArrayList<OnPositionChangeListener>();
+
+    private volatile int mPositionUpdateInterval = DEFAULT_POSITION_UPDATE_INTERVAL;
+
+    private volatile int mResyncInterval = DEFAULT_RESYNC_INTERVAL;
+
+    /**
+     * Play delayed by half of the crossfade that has not started yet, so {@link #stop()}, {@link #pause()} and {@link #release()}
+     * can cancel it. Only used on the audio thread.
+     */
+    private AudioCommand mDelayedPlay;
+
+    /**
+     * Command that notifies the position listeners and schedules itself again while playing.
+     */
+    private final AudioCommand mPositionCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            final AudioThread audioThread = getAudioManager().getAudioThread();
+            audioThread.unschedule(this);
+
+            if (mPositionListeners.isEmpty())
+                return;
+
+            notifyPositionChange();
+
+            if (isPlaying())
+                audioThread.schedule(this, audioThread.getClock().fromNow(mPositionUpdateInterval));
+        }
+    };
+
+    /**
+     * Command that anchors the playback clock to the player again and schedules itself while playing.
+     */
+    private final AudioCommand mResyncCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            final AudioThread audioThread = getAudioManager().getAudioThread();
+            audioThread.unschedule(this);
+
+            if (mMediaPlayer == null || !isPlaying())
+                return;
+
+            mPlaybackClock.anchor(mMediaPlayer.getCurrentPosition(), true);
+            audioThread.schedule(this, audioThread.getClock().fromNow(mResyncInterval));
+        }
+    };
+
+    /**
+     * Reused command that applies the looping flag to the MediaPlayer on the audio thread.
+     */
+    private final AudioCommand mLoopingCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            if (mMediaPlayer != null)
+                mMediaPlayer.setLooping(mIsLooping);
+        }
+    };
+
+    Music(final MusicManager musicManager, final PlayerBackend mediaPlayer) {
         super(musicManager);
         mMediaPlayer = mediaPlayer;
+        mIsStreaming = (mediaPlayer instanceof StreamingPlayerBackend);
+        mPlaybackClock = new PlaybackClock(musicManager.getAudioThread().getClock(), mediaPlayer.getDuration());
+    }
+
+    /**
+     * Restores a Music Instance from an {@link AudioSnapshot} record. No player is created until the Music is played.
+     */
+    Music(final MusicManager musicManager, final AudioSource source, final DataInput in) throws IOException {
+        super(musicManager, source, in);
+
+        final int duration = in.readInt();
+        final int position = in.readInt();
+        mIsLooping = in.readBoolean();
+        mCrossfadeDuration = in.readInt();
+        mIsStreaming = in.readBoolean();
+
+        // The position is restored from the paused clock when the player is created.
+        mPlaybackClock = new PlaybackClock(musicManager.getAudioThread().getClock(), duration);
+        mPlaybackClock.setLooping(mIsLooping);
+        mPlaybackClock.anchor(isPaused() ? position : 0, false);
+    }
+
+    /**
+     * Attaches the asset descriptor reference the Music has been created from so it is released with the Music.
+     */
+    void setAssetReference(final AssetDescriptorCache.Reference assetReference) {
+        mAssetReference = assetReference;
     }
 
     @Override
@@ -64,19 +195,56 @@ public class Music extends Audio {
 
     @Override
     protected void handleStateChange(State state) {
+        final AudioThread audioThread = getAudioManager().getAudioThread();
+
+        // Every state change anchors the playback clock, which costs one call into the player.
+        switch (state) {
+            case PLAYING:
+                mPlaybackClock.anchor(mMediaPlayer.getCurrentPosition(), true);
+                audioThread.schedule(mResyncCommand, audioThread.getClock().fromNow(mResyncInterval));
+                break;
+
+            case PAUSED:
+                mPlaybackClock.anchor(mMediaPlayer.getCurrentPosition(), false);
+                audioThread.unschedule(mResyncCommand);
+                break;
+
+            case STOPPED:
+                mPlaybackClock.anchor(0, false);
+                audioThread.unschedule(mResyncCommand);
+                break;
+        }
 
+        // Listeners get the position of the new state right away and then periodically while playing.
+        mPositionCommand.run();
+    }
+
+    private void notifyPositionChange() {
+        final int position = mPlaybackClock.getPosition();
+        final int duration = mPlaybackClock.getDuration();
+
+        for (OnPositionChangeListener listener : mPositionListeners)
+            listener.onPositionChange(this, position, duration);
     }
 
     // OVERWRITTEN METHODS
 
+    /**
+     * Music instances only care about the last transport operation issued within a frame.
+     */
+    @Override
+    protected boolean isTransportCoalesced() {
+        return true;
+    }
+
     @Override
-    public void play() {
+    protected void handlePlay() {
         if (mMediaPlayer == null)
             return;
 
         // Music audio cannot play all at the same time.
         // We get all music instances in the pool and see if there is any playing.
-        CopyOnWriteArrayList<Music> playingMusic = ((MusicManager) getAudioManager()).getPool(State.PLAYING);
+        List<Music> playingMusic = ((MusicManager) getAudioManager()).getPool(State.PLAYING);
         if (!playingMusic.isEmpty()) {
             for (Music musicInstance : playingMusic) {
                 if (mCrossfadeDuration > 0)
@@ -86,48 +254,79 @@ public class Music extends Audio {
             }
         }
 		
-		// We start the play in a Handler so we can delay the playback if we neet to.
-	    mHandler.postDelayed(new Runnable() {
+		// The crossfade can be changed before the delayed playback runs so we use the one set when play was called.
+		final int crossfadeDuration = mCrossfadeDuration;
+
+		// We schedule the play on the audio thread so we can delay the playback if we neet to.
+		// A play that is still waiting is replaced by this one.
+		final AudioThread audioThread = getAudioManager().getAudioThread();
+		cancelDelayedPlay();
+		mDelayedPlay = new AudioCommand() {
 	
 			@Override
 		    public void run() {
-		            
+		    	if (mDelayedPlay == this)
+		    		mDelayedPlay = null;
+
+		    	// The instance might have been released while we were waiting.
+		    	if (mMediaPlayer == null)
+		    		return;
+
 		    	// Request Audio Focus and then try to play the music.
         		if (((MusicManager) getAudioManager()).requestFocus(android.media.AudioManager.STREAM_MUSIC, getFocusType()) == android.media.AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
             		mMediaPlayer.start();
-            		Music.super.play();
+            		setState(State.PLAYING);
 
             		// If we have crossfading enabled we do this by manipulating the Volume Instance of our Object.
-            		if (mCrossfadeDuration > 0) {
+            		if (crossfadeDuration > 0) {
 		                // Set the channel to 0 directly so we start from there.
 		                getVolume().setChannel(Volume.MIN);
 		
 		                // Now raise the volume to maximum using the selected crossfade duration.
-		                getVolume().setChannel(Volume.MAX, mCrossfadeDuration);
+		                getVolume().setChannel(Volume.MAX, crossfadeDuration);
 		            }
         		}
 		    }
 		         
-		}, mCrossfadeDuration/2);
+		};
+	    audioThread.schedule(mDelayedPlay, audioThread.getClock().fromNow(crossfadeDuration/2));
             
     }
 
+    /**
+     * Cancels the delayed play that has not started yet, if any. Must be called on the audio thread.
+     */
+    private void cancelDelayedPlay() {
+        if (mDelayedPlay != null) {
+            getAudioManager().getAudioThread().unschedule(mDelayedPlay);
+            mDelayedPlay = null;
+        }
+    }
+
     @Override
-    public void pause() {
+    protected void handlePause() {
+        cancelDelayedPlay();
+
         if (mMediaPlayer == null)
             return;
 
         if (isPlaying()) {
             mMediaPlayer.pause();
-            super.pause();
+            setState(State.PAUSED);
             ((MusicManager) getAudioManager()).abandonFocus();
         }
     }
 
     @Override
-    public void stop() {
-        if (mMediaPlayer == null)
+    protected void handleStop() {
+        cancelDelayedPlay();
+
+        // A trimmed Music has no player but still has to forget its paused position.
+        if (mMediaPlayer == null) {
+            if (isTrimmed() && isPaused())
+                setState(State.STOPPED);
             return;
+        }
 
         if (mCrossfadeDuration > 0) {
             mIsPendingStopped = true;
@@ -145,6 +344,13 @@ public class Music extends Audio {
         mCrossfadeDuration = 0;
     }
 
+    /**
+     * Returns the current crossfade duration or 0 if crossfading is disabled.
+     */
+    public int getCrossfadeDuration() {
+        return mCrossfadeDuration;
+    }
+
     /**
      * Because when the Media Player is stopped it also releases its loaded audio source we don't have the luxury to reloaded and
      * we do not actually stop the player we just set it to a pause state and seek back to the start of the audio.
@@ -157,30 +363,180 @@ public class Music extends Audio {
 
         mMediaPlayer.pause();
         mMediaPlayer.seekTo(0);
-        super.stop();
+        setState(State.STOPPED);
         ((MusicManager) getAudioManager()).abandonFocus();
     }
 
     public void setLooping(boolean isLooping) {
-        if (mMediaPlayer == null)
-            return;
-
         mIsLooping = isLooping;
-        mMediaPlayer.setLooping(mIsLooping);
+        mPlaybackClock.setLooping(isLooping);
+        getAudioManager().getAudioThread().execute(mLoopingCommand);
     }
 
     public boolean isLooping() {
         return mIsLooping;
     }
 
+    /**
+     * Returns the playback clock, which can be read from any thread without calling into the player.
+     */
+    public PlaybackClock getPlaybackClock() {
+        return mPlaybackClock;
+    }
+
+    /**
+     * Returns the interpolated playback position in milliseconds.
+     */
+    public int getPosition() {
+        return mPlaybackClock.getPosition();
+    }
+
+    /**
+     * Returns the duration in milliseconds or -1 if it is not known.
+     */
+    public int getDuration() {
+        return mPlaybackClock.getDuration();
+    }
+
+    /**
+     * Returns the playback position as a fraction of the duration between 0 and 1.
+     */
+    public float getProgress() {
+        return mPlaybackClock.getProgress();
+    }
+
+    /**
+     * Adds a listener that is called on the audio thread every position update interval while playing and on every state change.
+     */
+    public void addOnPositionChangeListener(final OnPositionChangeListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("Listener can not be null.");
+
+        mPositionListeners.addIfAbsent(listener);
+
+        // Starts the updates if we are already playing.
+        getAudioManager().getAudioThread().post(mPositionCommand);
+    }
+
+    public void removeOnPositionChangeListener(final OnPositionChangeListener listener) {
+        mPositionListeners.remove(listener);
+    }
+
+    /**
+     * Sets how often the position listeners are called while playing, in milliseconds.
+     */
+    public void setPositionUpdateInterval(final int interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Position update interval must be positive.");
+
+        mPositionUpdateInterval = interval;
+    }
+
+    public int getPositionUpdateInterval() {
+        return mPositionUpdateInterval;
+    }
+
+    /**
+     * Sets how often the playback clock is resynced with the player while playing, in milliseconds.
+     */
+    public void setResyncInterval(final int interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Resync interval must be positive.");
+
+        mResyncInterval = interval;
+    }
+
+    public int getResyncInterval() {
+        return mResyncInterval;
+    }
+
+    /**
+     * Overridden so the {@link MusicFactory} can set the source.
+     */
+    @Override
+    protected void setSource(final AudioSource source) {
+        super.setSource(source);
+    }
+
+    /**
+     * Appends the duration, position, looping and crossfade settings to the snapshot record.
+     */
+    @Override
+    protected void writeSnapshot(final DataOutput out) throws IOException {
+        super.writeSnapshot(out);
+
+        out.writeInt(mPlaybackClock.getDuration());
+        out.writeInt(mPlaybackClock.getPosition());
+        out.writeBoolean(mIsLooping);
+        out.writeInt(mCrossfadeDuration);
+        out.writeBoolean(mIsStreaming);
+    }
+
+    /**
+     * Returns true if this Music streams its file through a {@link StreamingPlayerBackend}.
+     */
+    boolean isStreaming() {
+        return mIsStreaming;
+    }
+
+    @Override
+    protected TrimPolicy.Tier getDefaultTrimTier() {
+        return TrimPolicy.Tier.IDLE;
+    }
+
+    @Override
+    protected boolean handleTrim() {
+        if (mMediaPlayer == null)
+            return false;
+
+        // The playback clock is not running, so it keeps the paused position for the restore.
+        mIsPendingStopped = false;
+        mMediaPlayer.release();
+        mMediaPlayer = null;
+        releaseAssetReference();
+
+        return true;
+    }
+
     @Override
-    public void release() {
+    protected void handleRestore() {
+        final PlayerBackend mediaPlayer = MusicFactory.reload(getAudioManager().getContext(), getAudioManager().getBackend(), this);
+
+        final int position = mPlaybackClock.getPosition();
+        if (position > 0)
+            mediaPlayer.seekTo(position);
+
+        mediaPlayer.setLooping(mIsLooping);
+        mediaPlayer.setVolume(getVolume().getCalculatedLeftChannel(), getVolume().getCalculatedRightChannel());
+        mMediaPlayer = mediaPlayer;
+    }
+
+    private void releaseAssetReference() {
+        final AssetDescriptorCache.Reference assetReference = mAssetReference;
+        if (assetReference != null) {
+            assetReference.release();
+            mAssetReference = null;
+        }
+    }
+
+    @Override
+    protected void handleRelease() {
+        cancelDelayedPlay();
+
+        final AudioThread audioThread = getAudioManager().getAudioThread();
+        audioThread.unschedule(mResyncCommand);
+        audioThread.unschedule(mPositionCommand);
+        mPositionListeners.clear();
+
         if (mMediaPlayer != null) {
             mIsPendingStopped = false;
             mMediaPlayer.release();
             mMediaPlayer = null;
         }
 
+        // The player is released first since a streaming player reads from the descriptor until then.
+        releaseAssetReference();
+
         ((MusicManager) getAudioManager()).remove(this);
     }
 
@@ -23,9 +23,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 
+import ro.andreibalan.media.AssetDescriptorCache;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.backend.AudioBackend;
+import ro.andreibalan.media.backend.PlayerBackend;
+import ro.andreibalan.media.pcm.StreamingPlayerBackend;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
-import android.media.MediaPlayer;
 import android.util.Log;
 
 public class MusicFactory {
@@ -42,7 +46,7 @@ public class MusicFactory {
      * @param musicManager
      * @param mediaPlayer
      */
-    private static Music create(final MusicManager musicManager, final MediaPlayer mediaPlayer) {
+    private static Music create(final MusicManager musicManager, final PlayerBackend mediaPlayer) {
         Log.v(TAG, "create and add Music Instance");
 
         Music music = new Music(musicManager, mediaPlayer);
@@ -52,7 +56,7 @@ public class MusicFactory {
 
     /**
      * Creates a Music Instance from asset files.<br/>
-     * <b>NOTE: This will only load the AssetFileDescriptor from the given path and call on {@link #create(Context, MusicManager, AssetFileDescriptor)}}</b>
+     * <b>NOTE: This will only acquire the AssetFileDescriptor of the given path from the {@link AssetDescriptorCache} and call on {@link #create(Context, MusicManager, AssetFileDescriptor)}}</b>
      * 
      * @param context - Application Context
      * @param musicManager - Loaded Music Manager
@@ -65,8 +69,23 @@ public class MusicFactory {
         synchronized (musicManager) {
             Log.v(TAG, "create assetPath: " + assetPath);
 
-            final AssetFileDescriptor assetFileDescritor = context.getAssets().openFd(assetPath);
-            return create(context, musicManager, assetFileDescritor);
+            // The descriptor is shared with every other Instance created from the same asset and closed with the last of them.
+            final AssetDescriptorCache.Reference assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), assetPath);
+
+            final Music music;
+            try {
+                music = create(context, musicManager, assetReference.getAssetFileDescriptor());
+            } catch (IOException e) {
+                assetReference.release();
+                throw e;
+            } catch (RuntimeException e) {
+                assetReference.release();
+                throw e;
+            }
+
+            music.setAssetReference(assetReference);
+            music.setSource(AudioSource.asset(assetPath));
+            return music;
         }
     };
 
@@ -84,7 +103,7 @@ public class MusicFactory {
         synchronized (musicManager) {
             Log.v(TAG, "create assetFileDescritor: " + assetFileDescritor.describeContents());
 
-            final MediaPlayer mediaPlayer = new MediaPlayer();
+            final PlayerBackend mediaPlayer = musicManager.getBackend().createPlayer();
 
             mediaPlayer.setDataSource(assetFileDescritor.getFileDescriptor(), assetFileDescritor.getStartOffset(), assetFileDescritor.getLength());
             mediaPlayer.prepare();
@@ -103,16 +122,116 @@ public class MusicFactory {
      * 
      * @throws IOException
      */
-    @SuppressWarnings("resource")
     public static Music create(final Context context, final MusicManager musicManager, final File file) throws IOException {
         synchronized (musicManager) {
             Log.v(TAG, "create file: " + file.getAbsolutePath());
 
-            final MediaPlayer mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(new FileInputStream(file).getFD());
+            final PlayerBackend mediaPlayer = musicManager.getBackend().createPlayer();
+
+            // The player keeps its own duplicate of the descriptor so the stream can be closed right away.
+            final FileInputStream inputStream = new FileInputStream(file);
+            try {
+                mediaPlayer.setDataSource(inputStream.getFD());
+            } finally {
+                inputStream.close();
+            }
+
             mediaPlayer.prepare();
 
-            return create(musicManager, mediaPlayer);
+            final Music music = create(musicManager, mediaPlayer);
+            music.setSource(AudioSource.file(file));
+            return music;
+        }
+    }
+
+    /**
+     * Creates a Music Instance that streams a WAVE file from the disk instead of handing it to the MediaPlayer.<br/>
+     * Linear PCM, float and IMA-ADPCM files are supported. Only a small ring of decoded buffers is kept in memory,
+     * which suits long ambient or music beds.
+     * 
+     * @param context - Application Context
+     * @param musicManager - Loaded Music Manager
+     * @param file - WAVE file on disk.
+     * @return - Music Instance streaming the audio file.
+     * 
+     * @throws IOException if the file can not be opened or is not a supported WAVE file.
+     */
+    public static Music createStreaming(final Context context, final MusicManager musicManager, final File file) throws IOException {
+        synchronized (musicManager) {
+            Log.v(TAG, "createStreaming file: " + file.getAbsolutePath());
+
+            final StreamingPlayerBackend player = new StreamingPlayerBackend();
+            try {
+                player.setDataSource(file);
+                player.prepare();
+            } catch (IOException e) {
+                player.release();
+                throw e;
+            }
+
+            final Music music = create(musicManager, player);
+            music.setSource(AudioSource.file(file));
+            return music;
+        }
+    }
+
+    /**
+     * Creates a Music Instance that streams a WAVE asset instead of handing it to the MediaPlayer.<br/>
+     * The descriptor is acquired from the {@link AssetDescriptorCache} and kept open until the Music Instance is released.
+     * <b>NOTE: The asset must be stored uncompressed.</b>
+     * 
+     * @param context - Application Context
+     * @param musicManager - Loaded Music Manager
+     * @param assetPath - Path of the WAVE asset.
+     * @return - Music Instance streaming the asset.
+     * 
+     * @throws IOException if the asset can not be opened or is not a supported WAVE stream.
+     */
+    public static Music createStreaming(final Context context, final MusicManager musicManager, final String assetPath) throws IOException {
+        synchronized (musicManager) {
+            Log.v(TAG, "createStreaming assetPath: " + assetPath);
+
+            final AssetDescriptorCache.Reference assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), assetPath);
+
+            final Music music;
+            try {
+                music = createStreaming(context, musicManager, assetReference.getAssetFileDescriptor());
+            } catch (IOException e) {
+                assetReference.release();
+                throw e;
+            }
+
+            music.setAssetReference(assetReference);
+            music.setSource(AudioSource.asset(assetPath));
+            return music;
+        }
+    }
+
+    /**
+     * Creates a Music Instance that streams a WAVE asset instead of handing it to the MediaPlayer.<br/>
+     * <b>NOTE: The asset must be stored uncompressed and the AssetFileDescriptor must stay open while the Music Instance is used.</b>
+     * 
+     * @param context - Application Context
+     * @param musicManager - Loaded Music Manager
+     * @param assetFileDescritor - AssetFileDescriptor of the WAVE asset.
+     * @return - Music Instance streaming the asset.
+     * 
+     * @throws IOException if the asset is not a supported WAVE stream.
+     */
+    public static Music createStreaming(final Context context, final MusicManager musicManager, final AssetFileDescriptor assetFileDescritor) throws IOException {
+        synchronized (musicManager) {
+            Log.v(TAG, "createStreaming assetFileDescritor: " + assetFileDescritor.describeContents());
+
+            final StreamingPlayerBackend player = new StreamingPlayerBackend();
+            try {
+                player.setDataSource(assetFileDescritor.getFileDescriptor(), assetFileDescritor.getStartOffset(), assetFileDescritor.getLength());
+                player.prepare();
+            } catch (IOException e) {
+                player.release();
+                throw e;
+            }
+
+            return create(musicManager, player);
         }
     }
 
@@ -130,9 +249,66 @@ public class MusicFactory {
         synchronized (musicManager) {
             Log.v(TAG, "create rawResID: " + rawResID);
 
-            final MediaPlayer mediaPlayer = MediaPlayer.create(context, rawResID);
-            return create(musicManager, mediaPlayer);
+            final PlayerBackend mediaPlayer = musicManager.getBackend().createPlayer(context, rawResID);
+            final Music music = create(musicManager, mediaPlayer);
+            music.setSource(AudioSource.resource(rawResID));
+            return music;
+        }
+    }
+
+    /**
+     * Creates and prepares a new player for a trimmed Music Instance from its source, the same way it has been created.
+     * 
+     * @param context - Application Context
+     * @param backend - Backend of the Music Manager
+     * @param music - Trimmed Music Instance
+     * @return - Prepared player.
+     * 
+     * @throws IllegalStateException if the source can not be opened or prepared.
+     */
+    static PlayerBackend reload(final Context context, final AudioBackend backend, final Music music) {
+        final AudioSource source = music.getSource();
+        Log.v(TAG, "reload source: " + source + ", streaming: " + music.isStreaming());
+
+        if (source.getType() == AudioSource.Type.RESOURCE) {
+            final PlayerBackend mediaPlayer = backend.createPlayer(context, source.getResourceID());
+            if (mediaPlayer == null)
+                throw new IllegalStateException("Failed to create a player for " + source);
+
+            return mediaPlayer;
         }
+
+        final PlayerBackend mediaPlayer = music.isStreaming() ? new StreamingPlayerBackend() : backend.createPlayer();
+        AssetDescriptorCache.Reference assetReference = null;
+
+        try {
+            if (source.getType() == AudioSource.Type.ASSET) {
+                assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), source.getPath());
+                mediaPlayer.setDataSource(assetReference.getFileDescriptor(), assetReference.getStartOffset(), assetReference.getLength());
+            } else if (music.isStreaming()) {
+                ((StreamingPlayerBackend) mediaPlayer).setDataSource(source.getFile());
+            } else {
+                final FileInputStream inputStream = new FileInputStream(source.getFile());
+                try {
+                    mediaPlayer.setDataSource(inputStream.getFD());
+                } finally {
+                    inputStream.close();
+                }
+            }
+
+            mediaPlayer.prepare();
+        } catch (IOException e) {
+            mediaPlayer.release();
+            if (assetReference != null)
+                assetReference.release();
+
+            throw new IllegalStateException("Failed to load " + source, e);
+        }
+
+        if (assetReference != null)
+            music.setAssetReference(assetReference);
+
+        return mediaPlayer;
     }
 
-}
+}
\ No newline at end of file
@@ -19,10 +19,17 @@
  */
 package ro.andreibalan.media.music;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.List;
 
 import ro.andreibalan.media.Audio.State;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
 import ro.andreibalan.media.AudioManager;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.backend.AudioBackend;
+import ro.andreibalan.media.volume.Fader;
 import android.content.Context;
 import android.media.AudioManager.OnAudioFocusChangeListener;
 import android.util.Log;
@@ -31,37 +38,28 @@ public class MusicManager extends AudioManager<Music> {
 
     public final static String TAG = MusicManager.class.getSimpleName();
 
+    /**
+     * The focus state machine that will debounce focus changes and manage the volumes or playback from here.
+     */
+    private final AudioFocusStateMachine mFocusStateMachine = new AudioFocusStateMachine(this);
+
     /**
      * Audio Focus Change Listener that is registered every time the Music Instance requests a focus of playing back audio.
      * <br/><br/>
-     * Will handle audio focus gain and loss, transient and duck so we can manage the volumes or playback from here.
+     * Will forward audio focus gain and loss, transient and duck to the {@link AudioFocusStateMachine} on the audio thread,
+     * so they are ordered with the calls made by the user.
      */
     private final OnAudioFocusChangeListener mAudioFocusChangeListener = new OnAudioFocusChangeListener() {
 
         @Override
-        public void onAudioFocusChange(int focusChange) {
-
-            switch (focusChange) {
-                case android.media.AudioManager.AUDIOFOCUS_GAIN:
-                    getMasterVolume().raiseChannels();
-
-                    changeMusicState(State.PAUSED, State.PLAYING);
-                    break;
-
-                case android.media.AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-                    changeMusicState(State.PLAYING, State.PAUSED);
-                    break;
-
-                case android.media.AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                    getMasterVolume().lowerChannels();
-                    break;
-
-                case android.media.AudioManager.AUDIOFOCUS_LOSS:
-                    changeMusicState(new State[]{
-                            State.PAUSED, State.PLAYING
-                    }, State.STOPPED);
-                    break;
-            }
+        public void onAudioFocusChange(final int focusChange) {
+            getAudioThread().execute(new AudioCommand() {
+
+                @Override
+                public void run() {
+                    mFocusStateMachine.onAudioFocusChange(focusChange);
+                }
+            });
         }
     };
 
@@ -73,6 +71,29 @@ public class MusicManager extends AudioManager<Music> {
         Log.v(TAG, "Construct");
     }
 
+    /**
+     * Constructor used to run the Music Manager on a specific backend, e.g. a simulated one.
+     */
+    public MusicManager(Context context, AudioBackend backend) {
+        super(context, backend);
+        Log.v(TAG, "Construct");
+    }
+
+    /**
+     * Constructor used to run the Music Manager on a specific backend and audio thread, e.g. ones driven by a virtual clock.
+     */
+    public MusicManager(Context context, AudioBackend backend, AudioThread audioThread, Fader fader) {
+        super(context, backend, audioThread, fader);
+        Log.v(TAG, "Construct");
+    }
+
+    /**
+     * Returns the focus state machine so the debounce window and duck fade duration can be tuned.
+     */
+    public AudioFocusStateMachine getFocusStateMachine() {
+        return mFocusStateMachine;
+    }
+
     private void changeMusicState(final State from, final State to) {
         changeMusicState(new State[]{
                 from
@@ -82,23 +103,35 @@ public class MusicManager extends AudioManager<Music> {
     private void changeMusicState(final State[] from, final State to) {
         Log.v(TAG, "changeState from: " + from.toString() + ", to: " + to.toString());
 
-        CopyOnWriteArrayList<Music> music = getPool(from);
-        for (Music musicInstance : music) {
-            musicInstance.disableCrossfade();
-            switch (to) {
-                case STOPPED:
-                    musicInstance.stop();
-                    break;
-
-                case PLAYING:
-                    musicInstance.play();
-                    break;
-
-                case PAUSED:
-                    musicInstance.pause();
-                    break;
-            }
+        List<Music> music = getPool(from);
+        for (Music musicInstance : music)
+            changeMusicState(musicInstance, to);
+    }
+
+    /**
+     * Changes the state of a single Music Instance without crossfading.<br/>
+     * The crossfade setting of the instance is restored afterwards so the next user triggered change will crossfade again.
+     */
+    void changeMusicState(final Music musicInstance, final State to) {
+        final int crossfadeDuration = musicInstance.getCrossfadeDuration();
+        musicInstance.disableCrossfade();
+
+        switch (to) {
+            case STOPPED:
+                musicInstance.stop();
+                break;
+
+            case PLAYING:
+                musicInstance.play();
+                break;
+
+            case PAUSED:
+                musicInstance.pause();
+                break;
         }
+
+        if (crossfadeDuration > 0)
+            musicInstance.enableCrossfade(crossfadeDuration);
     }
 
     /**
@@ -108,11 +141,12 @@ public class MusicManager extends AudioManager<Music> {
     protected int requestFocus(int streamType, int audioFocusType) {
         Log.v(TAG, "requestFocus: streamType: " + streamType + ", audioFocusType: " + audioFocusType);
 
-        if (getSystemAudioManager() != null)
-            // Request audio focus for playback.
-            return getSystemAudioManager().requestAudioFocus(mAudioFocusChangeListener, streamType, audioFocusType);
+        // Request audio focus for playback.
+        final int result = getBackend().requestAudioFocus(mAudioFocusChangeListener, streamType, audioFocusType);
+        if (result == android.media.AudioManager.AUDIOFOCUS_REQUEST_GRANTED)
+            mFocusStateMachine.onFocusGranted();
 
-        return android.media.AudioManager.AUDIOFOCUS_REQUEST_FAILED;
+        return result;
     }
 
     /**
@@ -121,24 +155,31 @@ public class MusicManager extends AudioManager<Music> {
     protected int abandonFocus() {
         Log.v(TAG, "abandonFocus");
 
-        return getSystemAudioManager().abandonAudioFocus(mAudioFocusChangeListener);
+        return getBackend().abandonAudioFocus(mAudioFocusChangeListener);
+    }
+
+    @Override
+    protected Music createFromSnapshot(final AudioSource source, final DataInput in) throws IOException {
+        final Music music = new Music(this, source, in);
+        add(music);
+        return music;
     }
 
     @Override
-    public void start() {
+    protected void handleStart() {
         // If this audio manager has previously been stopped we resume all Music Playback.
         if (getState() == ManagerState.STOPPED)
             changeMusicState(State.PAUSED, State.PLAYING);
 
-        super.start();
+        super.handleStart();
     }
 
     @Override
-    public void stop() {
+    protected void handleStop() {
         // We pause all music playback for the moment until this manager will be started again.
         changeMusicState(State.PLAYING, State.PAUSED);
 
-        super.stop();
+        super.handleStop();
     }
 
 }
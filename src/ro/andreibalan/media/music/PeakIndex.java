@@ -0,0 +1,467 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.music;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ro.andreibalan.media.AssetDescriptorCache;
+import ro.andreibalan.media.AudioSource;
+import ro.andreibalan.media.pcm.PcmDecoder;
+import ro.andreibalan.media.pcm.WavFormat;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Multi-resolution min/max peaks of a music track, used to draw its waveform at any zoom level without decoding it.
+ * <br/><br/>
+ * The peaks are computed in a single streaming pass over the track and stored in a memory-mapped file next to it (or in the cache
+ * directory for assets). Level 0 holds the minimum and maximum of every {@link #BASE_FRAMES} frames of all channels, every further
+ * level merges {@link #LEVEL_FACTOR} entries of the previous one. Queries pick the coarsest level that still has at least one entry
+ * per pixel, so every pixel reads at most a handful of entries whatever the length of the range.
+ * <br/><br/>
+ * <b>NOTE: Only WAVE tracks can be analyzed. The peaks file is rebuilt when the size or modification time of the track changes.</b>
+ */
+public class PeakIndex {
+
+    public final static String TAG = PeakIndex.class.getSimpleName();
+
+    /**
+     * Number of frames summarized by one entry of level 0.
+     */
+    public final static int BASE_FRAMES = 256;
+
+    /**
+     * Number of entries of a level merged into one entry of the next level.
+     */
+    public final static int LEVEL_FACTOR = 4;
+
+    /**
+     * Extension appended to the track name for the peaks file.
+     */
+    public final static String EXTENSION = ".peaks";
+
+    /**
+     * "PEAK" in ASCII.
+     */
+    private final static int MAGIC = 0x5045414B;
+
+    private final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 48;
+
+    /**
+     * Number of encoded blocks read at once while building.
+     */
+    private final static int READ_BLOCKS = 4096;
+
+    private final ByteBuffer mBuffer;
+
+    private final int mSampleRate;
+
+    private final long mFrameCount;
+
+    private final int[] mLevelCounts;
+
+    /**
+     * Byte offset of every level in the buffer.
+     */
+    private final int[] mLevelOffsets;
+
+    private PeakIndex(final ByteBuffer buffer, final int sampleRate, final long frameCount) {
+        mBuffer = buffer;
+        mSampleRate = sampleRate;
+        mFrameCount = frameCount;
+        mLevelCounts = getLevelCounts(frameCount);
+        mLevelOffsets = new int[mLevelCounts.length];
+
+        int offset = HEADER_SIZE;
+        for (int level = 0; level < mLevelCounts.length; level++) {
+            mLevelOffsets[level] = offset;
+            offset += mLevelCounts[level] * 4;
+        }
+    }
+
+    /**
+     * Opens the peaks of a WAVE file, building them into a file next to it if they do not exist yet or the track has changed.
+     */
+    public static PeakIndex open(final File track) throws IOException {
+        return open(track, new File(track.getPath() + EXTENSION));
+    }
+
+    /**
+     * Opens the peaks of a WAVE file from the given peaks file, building them first if needed.
+     */
+    public static PeakIndex open(final File track, final File peaksFile) throws IOException {
+        final PeakIndex peakIndex = map(peaksFile, track.length(), track.lastModified());
+        if (peakIndex != null)
+            return peakIndex;
+
+        final FileInputStream inputStream = new FileInputStream(track);
+        try {
+            return build(inputStream.getChannel(), 0, inputStream.getChannel().size(), track.length(), track.lastModified(), peaksFile);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Opens the peaks of a WAVE track stored in an uncompressed asset or any other part of a file descriptor.<br/>
+     * Since there is no modification time, the peaks file is only rebuilt when the length changes.
+     * 
+     * @param fileDescriptor - Descriptor of the track. The caller owns it and has to close it once this method returns, it is never closed here.
+     * @param offset - Offset of the track within the descriptor.
+     * @param length - Length of the track in bytes.
+     * @param peaksFile - File the peaks are kept in.
+     */
+    public static PeakIndex open(final FileDescriptor fileDescriptor, final long offset, final long length, final File peaksFile) throws IOException {
+        final PeakIndex peakIndex = map(peaksFile, length, 0);
+        if (peakIndex != null)
+            return peakIndex;
+
+        // The stream only borrows the caller's descriptor and is not closed, closing it would close the descriptor as well.
+        final FileInputStream inputStream = new FileInputStream(fileDescriptor);
+        return build(inputStream.getChannel(), offset, length, length, 0, peaksFile);
+    }
+
+    /**
+     * Opens the peaks of the track a Music Instance has been loaded from.<br/>
+     * Peaks of files are kept next to them, peaks of assets in the cache directory of the application.
+     * 
+     * @throws IllegalArgumentException if the Music Instance has been loaded from a resource or has no source.
+     */
+    public static PeakIndex open(final Context context, final Music music) throws IOException {
+        final AudioSource source = music.getSource();
+        if (source == null || source.getType() == AudioSource.Type.RESOURCE)
+            throw new IllegalArgumentException("Peaks can only be built for music loaded from a file or an asset.");
+
+        if (source.getType() == AudioSource.Type.FILE)
+            return open(source.getFile());
+
+        final File peaksFile = new File(new File(context.getCacheDir(), "peaks"), source.getPath() + EXTENSION);
+        final File directory = peaksFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create " + directory);
+
+        final AssetDescriptorCache.Reference assetReference = AssetDescriptorCache.getInstance().acquire(context.getAssets(), source.getPath());
+        try {
+            return open(assetReference.getFileDescriptor(), assetReference.getStartOffset(), assetReference.getLength(), peaksFile);
+        } finally {
+            assetReference.release();
+        }
+    }
+
+    /**
+     * Maps an existing peaks file, or returns null if it is missing, incomplete or has been built from another version of the track.
+     */
+    private static PeakIndex map(final File peaksFile, final long trackLength, final long trackModified) throws IOException {
+        if (!peaksFile.isFile() || peaksFile.length() < HEADER_SIZE)
+            return null;
+
+        final RandomAccessFile file = new RandomAccessFile(peaksFile, "r");
+        try {
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+                return null;
+
+            if (buffer.getLong(16) != trackLength || buffer.getLong(24) != trackModified)
+                return null;
+
+            if (buffer.getInt(32) != BASE_FRAMES || buffer.getInt(36) != LEVEL_FACTOR)
+                return null;
+
+            final long frameCount = buffer.getLong(8);
+            if (file.length() != getFileSize(getLevelCounts(frameCount)))
+                return null;
+
+            Log.v(TAG, "map: " + peaksFile);
+            return new PeakIndex(buffer, buffer.getInt(40), frameCount);
+        } finally {
+            // The mapping stays valid after the file has been closed.
+            file.close();
+        }
+    }
+
+    /**
+     * Decodes the track once and writes every level into a new mapped peaks file.<br/>
+     * The header is written last, so a file left over by an interrupted build is never mapped.
+     */
+    private static PeakIndex build(final FileChannel channel, final long offset, final long length, final long trackLength, final long trackModified,
+            final File peaksFile) throws IOException {
+        final WavFormat format = WavFormat.read(channel, offset, length);
+        final long frameCount = format.getFrameCount();
+        final int[] levelCounts = getLevelCounts(frameCount);
+        final long fileSize = getFileSize(levelCounts);
+
+        if (fileSize > Integer.MAX_VALUE)
+            throw new IOException("Track is too long to be indexed.");
+
+        Log.v(TAG, "build: " + peaksFile + ", " + format + ", levels: " + levelCounts.length);
+
+        final RandomAccessFile file = new RandomAccessFile(peaksFile, "rw");
+        final MappedByteBuffer buffer;
+        try {
+            file.setLength(0);
+            file.setLength(fileSize);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        } finally {
+            file.close();
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final PeakIndex peakIndex = new PeakIndex(buffer, format.getSampleRate(), frameCount);
+        peakIndex.fill(channel, format);
+
+        buffer.putLong(8, frameCount);
+        buffer.putLong(16, trackLength);
+        buffer.putLong(24, trackModified);
+        buffer.putInt(32, BASE_FRAMES);
+        buffer.putInt(36, LEVEL_FACTOR);
+        buffer.putInt(40, format.getSampleRate());
+        buffer.force();
+
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.force();
+
+        return peakIndex;
+    }
+
+    /**
+     * Streams the decoded track through the level accumulators. Entries of level 0 are emitted every {@link #BASE_FRAMES} frames
+     * and cascade into the higher levels, so every level is complete once the last frame has been read.
+     */
+    private void fill(final FileChannel channel, final WavFormat format) throws IOException {
+        final PcmDecoder decoder = format.createDecoder();
+        final int channelCount = format.getChannelCount();
+        final int levelCount = mLevelCounts.length;
+
+        final short[] levelMin = new short[levelCount];
+        final short[] levelMax = new short[levelCount];
+        final int[] levelMerged = new int[levelCount];
+        final int[] levelWritten = new int[levelCount];
+
+        // A short track needs less than a full read.
+        final long blockCount = format.getBlockCount();
+        final int readBlocks = (int) Math.min(READ_BLOCKS, blockCount);
+        final ByteBuffer input = ByteBuffer.allocate(readBlocks * decoder.getInputBlockSize());
+        final ByteBuffer output = ByteBuffer.allocate(readBlocks * decoder.getOutputBlockSize()).order(ByteOrder.LITTLE_ENDIAN);
+
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        int frames = 0;
+        long frame = 0;
+        long position = format.getDataOffset();
+
+        for (long block = 0; block < blockCount;) {
+            final int blocks = (int) Math.min(readBlocks, blockCount - block);
+
+            input.clear();
+            input.limit(blocks * decoder.getInputBlockSize());
+            while (input.hasRemaining()) {
+                final int read = channel.read(input, position);
+                if (read < 0)
+                    throw new IOException("Unexpected end of WAVE stream.");
+
+                position += read;
+            }
+            input.flip();
+
+            output.clear();
+            decoder.decode(input, output);
+            output.flip();
+
+            while (output.remaining() >= channelCount * 2 && frame < mFrameCount) {
+                for (int i = 0; i < channelCount; i++) {
+                    final short sample = output.getShort();
+                    if (sample < min)
+                        min = sample;
+                    if (sample > max)
+                        max = sample;
+                }
+
+                frame++;
+                if (++frames == BASE_FRAMES) {
+                    emit(0, min, max, levelMin, levelMax, levelMerged, levelWritten);
+                    min = Short.MAX_VALUE;
+                    max = Short.MIN_VALUE;
+                    frames = 0;
+                }
+            }
+
+            block += blocks;
+        }
+
+        // Flush the partial entries from the lowest level up, each one cascading into the next.
+        if (frames > 0)
+            emit(0, min, max, levelMin, levelMax, levelMerged, levelWritten);
+
+        for (int level = 1; level < levelCount; level++) {
+            if (levelMerged[level] > 0) {
+                levelMerged[level] = 0;
+                emit(level, levelMin[level], levelMax[level], levelMin, levelMax, levelMerged, levelWritten);
+            }
+        }
+    }
+
+    private void emit(final int level, final short min, final short max, final short[] levelMin, final short[] levelMax, final int[] levelMerged,
+            final int[] levelWritten) {
+        final int offset = mLevelOffsets[level] + levelWritten[level] * 4;
+        mBuffer.putShort(offset, min);
+        mBuffer.putShort(offset + 2, max);
+        levelWritten[level]++;
+
+        final int next = level + 1;
+        if (next >= mLevelCounts.length)
+            return;
+
+        if (levelMerged[next] == 0) {
+            levelMin[next] = min;
+            levelMax[next] = max;
+        } else {
+            if (min < levelMin[next])
+                levelMin[next] = min;
+            if (max > levelMax[next])
+                levelMax[next] = max;
+        }
+
+        if (++levelMerged[next] == LEVEL_FACTOR) {
+            levelMerged[next] = 0;
+            emit(next, levelMin[next], levelMax[next], levelMin, levelMax, levelMerged, levelWritten);
+        }
+    }
+
+    /**
+     * Returns the number of entries of every level, down to a single entry.
+     */
+    private static int[] getLevelCounts(final long frameCount) {
+        int levelCount = 1;
+        long count = Math.max(1, (frameCount + BASE_FRAMES - 1) / BASE_FRAMES);
+        for (long c = count; c > 1; c = (c + LEVEL_FACTOR - 1) / LEVEL_FACTOR)
+            levelCount++;
+
+        final int[] counts = new int[levelCount];
+        for (int level = 0; level < levelCount; level++) {
+            counts[level] = (int) Math.min(Integer.MAX_VALUE, count);
+            count = (count + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+        }
+
+        return counts;
+    }
+
+    private static long getFileSize(final int[] levelCounts) {
+        long size = HEADER_SIZE;
+        for (int count : levelCounts)
+            size += (long) count * 4;
+
+        return size;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the duration of the indexed track in milliseconds.
+     */
+    public long getDuration() {
+        return mFrameCount * 1000 / mSampleRate;
+    }
+
+    public int getLevelCount() {
+        return mLevelCounts.length;
+    }
+
+    /**
+     * Fills the output with the minimum and maximum of every pixel of a time range, as interleaved pairs between -1.0 and 1.0.<br/>
+     * Pixels past the end of the track are set to 0. Pixel edges are rounded out to the entries of the level used, which are never longer than a pixel.
+     * 
+     * @param startTime - Start of the range in milliseconds.
+     * @param endTime - End of the range in milliseconds, after the start.
+     * @param width - Number of pixels.
+     * @param peaks - Output of at least width * 2 values.
+     */
+    public void getPeaks(final long startTime, final long endTime, final int width, final float[] peaks) {
+        if (startTime < 0 || endTime <= startTime)
+            throw new IllegalArgumentException("The time range must start at or after 0 and end after its start.");
+
+        if (width <= 0 || peaks == null || peaks.length < width * 2)
+            throw new IllegalArgumentException("The output must hold a minimum and a maximum for each of the " + width + " pixels.");
+
+        final double startFrame = (double) startTime * mSampleRate / 1000.0;
+        final double framesPerPixel = (double) (endTime - startTime) * mSampleRate / 1000.0 / width;
+
+        // Coarsest level that still has at least one entry per pixel.
+        int level = 0;
+        long levelFrames = BASE_FRAMES;
+        while (level + 1 < mLevelCounts.length && levelFrames * LEVEL_FACTOR <= framesPerPixel) {
+            level++;
+            levelFrames *= LEVEL_FACTOR;
+        }
+
+        final int count = mLevelCounts[level];
+        final int offset = mLevelOffsets[level];
+
+        for (int pixel = 0; pixel < width; pixel++) {
+            final double pixelStart = startFrame + pixel * framesPerPixel;
+            if (pixelStart >= mFrameCount) {
+                peaks[pixel * 2] = 0;
+                peaks[pixel * 2 + 1] = 0;
+                continue;
+            }
+
+            final int first = (int) (pixelStart / levelFrames);
+            final int end = Math.min(count, Math.max(first + 1, (int) Math.ceil((pixelStart + framesPerPixel) / levelFrames)));
+
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            for (int entry = first; entry < end; entry++) {
+                final short entryMin = mBuffer.getShort(offset + entry * 4);
+                final short entryMax = mBuffer.getShort(offset + entry * 4 + 2);
+                if (entryMin < min)
+                    min = entryMin;
+                if (entryMax > max)
+                    max = entryMax;
+            }
+
+            peaks[pixel * 2] = min / 32768f;
+            peaks[pixel * 2 + 1] = max / 32768f;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[sampleRate: " + mSampleRate + ", frames: " + mFrameCount + ", levels: " + mLevelCounts.length + "]";
+    }
+
+}
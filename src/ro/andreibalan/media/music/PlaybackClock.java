@@ -0,0 +1,123 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.music;
+
+import ro.andreibalan.media.AudioClock;
+
+/**
+ * Playback position of a Music Instance interpolated from the {@link AudioClock}.
+ * <br/><br/>
+ * The clock is anchored to the position of the player on every state change and on periodic resyncs. In between the position is
+ * computed from the time passed since the last anchor, so reading it never calls into the player and can be done from any thread.
+ */
+public class PlaybackClock {
+
+    public final static String TAG = PlaybackClock.class.getSimpleName();
+
+    /**
+     * Immutable anchor, replaced as a whole so readers never see a half updated one.
+     */
+    private final static class Anchor {
+
+        private final int mPosition;
+
+        private final long mTime;
+
+        private final boolean mRunning;
+
+        private Anchor(final int position, final long time, final boolean running) {
+            mPosition = position;
+            mTime = time;
+            mRunning = running;
+        }
+    }
+
+    private final AudioClock mClock;
+
+    private volatile Anchor mAnchor;
+
+    private volatile int mDuration;
+
+    private volatile boolean mLooping;
+
+    /**
+     * @param clock - Clock the position is interpolated with.
+     * @param duration - Duration of the track in milliseconds or -1 if it is not known.
+     */
+    PlaybackClock(final AudioClock clock, final int duration) {
+        mClock = clock;
+        mDuration = duration;
+        mAnchor = new Anchor(0, clock.nanoTime(), false);
+    }
+
+    /**
+     * Anchors the clock to a position read from the player.
+     * 
+     * @param position - Position of the player in milliseconds.
+     * @param running - True if the position advances from now on.
+     */
+    void anchor(final int position, final boolean running) {
+        mAnchor = new Anchor(position, mClock.nanoTime(), running);
+    }
+
+    void setLooping(final boolean looping) {
+        mLooping = looping;
+    }
+
+    /**
+     * Returns true if the position is advancing.
+     */
+    public boolean isRunning() {
+        return mAnchor.mRunning;
+    }
+
+    /**
+     * Returns the interpolated playback position in milliseconds.
+     */
+    public int getPosition() {
+        final Anchor anchor = mAnchor;
+
+        long position = anchor.mPosition;
+        if (anchor.mRunning)
+            position += (mClock.nanoTime() - anchor.mTime) / AudioClock.NANOS_PER_MILLISECOND;
+
+        final int duration = mDuration;
+        if (duration > 0)
+            position = mLooping ? position % duration : Math.min(position, duration);
+
+        return (int) position;
+    }
+
+    /**
+     * Returns the duration in milliseconds or -1 if it is not known.
+     */
+    public int getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * Returns the position as a fraction of the duration between 0 and 1, or 0 if the duration is not known.
+     */
+    public float getProgress() {
+        final int duration = mDuration;
+        return (duration > 0) ? (float) getPosition() / duration : 0f;
+    }
+
+}
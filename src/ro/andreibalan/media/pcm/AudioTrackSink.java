@@ -0,0 +1,146 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * PCM Sink that plays through a streaming AudioTrack on the music stream.
+ */
+public class AudioTrackSink implements PcmSink {
+
+    public final static String TAG = AudioTrackSink.class.getSimpleName();
+
+    private AudioTrack mAudioTrack;
+
+    /**
+     * Scratch array used to hand direct buffers to the AudioTrack, grown once to the streaming buffer size.
+     */
+    private byte[] mScratch = new byte[0];
+
+    /**
+     * Head position of the AudioTrack at the last flush.
+     */
+    private volatile long mHeadOffset;
+
+    @Override
+    public void open(final int sampleRate, final int channelCount) throws IOException {
+        Log.v(TAG, "open sampleRate: " + sampleRate + ", channelCount: " + channelCount);
+
+        final int channelConfig = (channelCount == 1) ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        final int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0)
+            throw new IOException("Unsupported output format, sampleRate: " + sampleRate + ", channelCount: " + channelCount);
+
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2,
+                AudioTrack.MODE_STREAM);
+    }
+
+    @Override
+    public void write(final ByteBuffer pcm) {
+        final int length = pcm.remaining();
+        if (mScratch.length < length)
+            mScratch = new byte[length];
+
+        pcm.get(mScratch, 0, length);
+
+        int offset = 0;
+        while (offset < length) {
+            final int written = mAudioTrack.write(mScratch, offset, length - offset);
+            if (written <= 0) {
+                Log.e(TAG, "AudioTrack write failed: " + written);
+                return;
+            }
+
+            offset += written;
+        }
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        mAudioTrack.pause();
+    }
+
+    @Override
+    public void stop() {
+        mAudioTrack.stop();
+    }
+
+    @Override
+    public void flush() {
+        // Flushing only takes effect on a paused or stopped track.
+        final boolean isPlaying = mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+        if (isPlaying)
+            mAudioTrack.pause();
+
+        mAudioTrack.flush();
+        mHeadOffset = getHeadPosition();
+
+        if (isPlaying)
+            mAudioTrack.play();
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        // Lollipop and newer only take a single gain for all channels, so a balance still needs the stereo call.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && leftVolume == rightVolume)
+            mAudioTrack.setVolume(leftVolume);
+        else
+            setStereoVolume(leftVolume, rightVolume);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setStereoVolume(final float leftVolume, final float rightVolume) {
+        mAudioTrack.setStereoVolume(leftVolume, rightVolume);
+    }
+
+    @Override
+    public long getPlaybackPosition() {
+        return getHeadPosition() - mHeadOffset;
+    }
+
+    private long getHeadPosition() {
+        // The head position is an unsigned 32 bit frame count.
+        return mAudioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void close() {
+        Log.v(TAG, "close");
+
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+/**
+ * Frees the native memory of direct buffers right away instead of waiting for the garbage collector to find them.
+ * <br/><br/>
+ * There is no public API for this, so the platform hooks are looked up once: NioUtils on Android, the cleaner of the buffer on Java 8
+ * and Unsafe.invokeCleaner on later Java versions. When none is available the memory is left to the garbage collector.
+ */
+final class DirectBuffers {
+
+    public final static String TAG = DirectBuffers.class.getSimpleName();
+
+    private final static int NONE = 0;
+
+    private final static int ANDROID = 1;
+
+    private final static int CLEANER = 2;
+
+    private final static int UNSAFE = 3;
+
+    private static int sMethod = NONE;
+
+    private static Method sFree;
+
+    private static Method sClean;
+
+    private static Object sUnsafe;
+
+    static {
+        try {
+            sFree = Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class);
+            sMethod = ANDROID;
+        } catch (Exception e) {
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                sFree = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                sUnsafe = field.get(null);
+                sMethod = UNSAFE;
+            } catch (Exception e2) {
+                try {
+                    sFree = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                    sClean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                    sMethod = CLEANER;
+                } catch (Exception e3) {
+                    Log.w(TAG, "Direct buffers can not be freed, their memory is left to the garbage collector.");
+                }
+            }
+        }
+    }
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Frees the memory of a direct buffer. The buffer and every view of it must not be used anymore.
+     * 
+     * @return - False if the buffer is not direct or its memory is left to the garbage collector.
+     */
+    static boolean free(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || sMethod == NONE)
+            return false;
+
+        try {
+            switch (sMethod) {
+                case ANDROID:
+                    sFree.invoke(null, buffer);
+                    return true;
+
+                case UNSAFE:
+                    sFree.invoke(sUnsafe, buffer);
+                    return true;
+
+                case CLEANER:
+                    final Object cleaner = sFree.invoke(buffer);
+                    if (cleaner == null)
+                        return false;
+
+                    sClean.invoke(cleaner);
+                    return true;
+
+                default:
+                    return false;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to free a direct buffer, its memory is left to the garbage collector.", e);
+            return false;
+        }
+    }
+
+}
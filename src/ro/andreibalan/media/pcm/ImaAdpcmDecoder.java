@@ -0,0 +1,151 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoder for IMA-ADPCM (DVI) WAVE streams.
+ * <br/><br/>
+ * Every block starts with a 4 byte header per channel holding the first sample and the step index, followed by 4 bit codes.
+ * Mono blocks store two codes per byte, low nibble first. Stereo blocks interleave 4 byte groups (8 codes) per channel.
+ */
+public class ImaAdpcmDecoder implements PcmDecoder {
+
+    private final static int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130,
+            143, 157, 173, 190, 209, 230, 253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282,
+            1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630,
+            9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private final static int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private final int mChannelCount;
+
+    private final int mBlockAlign;
+
+    private final int mFramesPerBlock;
+
+    /**
+     * Decoder state per channel, reset from the header of every block.
+     */
+    private final int[] mPredictor;
+
+    private final int[] mStepIndex;
+
+    public ImaAdpcmDecoder(final int channelCount, final int blockAlign, final int framesPerBlock) {
+        mChannelCount = channelCount;
+        mBlockAlign = blockAlign;
+        mFramesPerBlock = framesPerBlock;
+        mPredictor = new int[channelCount];
+        mStepIndex = new int[channelCount];
+    }
+
+    @Override
+    public int getInputBlockSize() {
+        return mBlockAlign;
+    }
+
+    @Override
+    public int getOutputBlockSize() {
+        return mFramesPerBlock * mChannelCount * 2;
+    }
+
+    @Override
+    public int decode(final ByteBuffer input, final ByteBuffer output) {
+        input.order(ByteOrder.LITTLE_ENDIAN);
+        output.order(ByteOrder.LITTLE_ENDIAN);
+
+        int blocks = 0;
+        while (input.remaining() >= mBlockAlign && output.remaining() >= getOutputBlockSize()) {
+            decodeBlock(input, output);
+            blocks++;
+        }
+
+        return blocks;
+    }
+
+    private void decodeBlock(final ByteBuffer input, final ByteBuffer output) {
+        final int blockStart = input.position();
+        final int outputStart = output.position();
+        final int channels = mChannelCount;
+
+        for (int channel = 0; channel < channels; channel++) {
+            mPredictor[channel] = input.getShort();
+            mStepIndex[channel] = Math.max(0, Math.min(88, input.get() & 0xFF));
+            input.get();
+
+            output.putShort(outputStart + channel * 2, (short) mPredictor[channel]);
+        }
+
+        // Codes are stored in groups of 4 bytes (8 codes) per channel. When the block size is not a whole number of groups
+        // the last group is cut short, the frames past the end of the block hold the last sample.
+        final int blockEnd = blockStart + mBlockAlign;
+        int frame = 1;
+        while (frame < mFramesPerBlock) {
+            for (int channel = 0; channel < channels; channel++) {
+                for (int i = 0; i < 4; i++) {
+                    final boolean inBlock = input.position() < blockEnd;
+                    final int codes = inBlock ? input.get() & 0xFF : 0;
+                    final int first = frame + i * 2;
+
+                    if (first < mFramesPerBlock)
+                        writeSample(output, outputStart, first, channel, inBlock ? decodeNibble(channel, codes & 0x0F) : mPredictor[channel]);
+                    if (first + 1 < mFramesPerBlock)
+                        writeSample(output, outputStart, first + 1, channel, inBlock ? decodeNibble(channel, codes >> 4) : mPredictor[channel]);
+                }
+            }
+
+            frame += 8;
+        }
+
+        input.position(blockStart + mBlockAlign);
+        output.position(outputStart + getOutputBlockSize());
+    }
+
+    private void writeSample(final ByteBuffer output, final int outputStart, final int frame, final int channel, final int sample) {
+        output.putShort(outputStart + (frame * mChannelCount + channel) * 2, (short) sample);
+    }
+
+    private int decodeNibble(final int channel, final int code) {
+        final int step = STEP_TABLE[mStepIndex[channel]];
+
+        int difference = step >> 3;
+        if ((code & 4) != 0)
+            difference += step;
+        if ((code & 2) != 0)
+            difference += step >> 1;
+        if ((code & 1) != 0)
+            difference += step >> 2;
+
+        int predictor = mPredictor[channel] + (((code & 8) != 0) ? -difference : difference);
+        predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+
+        mPredictor[channel] = predictor;
+        mStepIndex[channel] = Math.max(0, Math.min(88, mStepIndex[channel] + INDEX_TABLE[code]));
+
+        return predictor;
+    }
+
+}
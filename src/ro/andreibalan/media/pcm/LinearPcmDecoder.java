@@ -0,0 +1,96 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoder for linear PCM and 32 bit float streams. Every sample is converted to 16 bit.
+ */
+public class LinearPcmDecoder implements PcmDecoder {
+
+    private final int mChannelCount;
+
+    private final int mBytesPerSample;
+
+    private final boolean mFloat;
+
+    public LinearPcmDecoder(final int channelCount, final int bitsPerSample, final boolean isFloat) {
+        mChannelCount = channelCount;
+        mBytesPerSample = bitsPerSample / 8;
+        mFloat = isFloat;
+    }
+
+    @Override
+    public int getInputBlockSize() {
+        return mChannelCount * mBytesPerSample;
+    }
+
+    @Override
+    public int getOutputBlockSize() {
+        return mChannelCount * 2;
+    }
+
+    @Override
+    public int decode(final ByteBuffer input, final ByteBuffer output) {
+        input.order(ByteOrder.LITTLE_ENDIAN);
+        output.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int frames = Math.min(input.remaining() / getInputBlockSize(), output.remaining() / getOutputBlockSize());
+        final int samples = frames * mChannelCount;
+
+        switch (mBytesPerSample) {
+            case 1:
+                // 8 bit PCM is unsigned.
+                for (int i = 0; i < samples; i++)
+                    output.putShort((short) (((input.get() & 0xFF) - 128) << 8));
+                break;
+
+            case 2:
+                for (int i = 0; i < samples; i++)
+                    output.putShort(input.getShort());
+                break;
+
+            case 3:
+                // Keep the two most significant bytes.
+                for (int i = 0; i < samples; i++) {
+                    input.get();
+                    output.putShort(input.getShort());
+                }
+                break;
+
+            case 4:
+                if (mFloat) {
+                    for (int i = 0; i < samples; i++) {
+                        final float value = input.getFloat();
+                        output.putShort((short) (Math.max(-1f, Math.min(1f, value)) * Short.MAX_VALUE));
+                    }
+                } else {
+                    for (int i = 0; i < samples; i++)
+                        output.putShort((short) (input.getInt() >> 16));
+                }
+                break;
+        }
+
+        return frames;
+    }
+
+}
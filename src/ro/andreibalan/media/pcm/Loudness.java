@@ -0,0 +1,93 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+/**
+ * Loudness measurements of one audio file, computed by the {@link LoudnessAnalyzer}.
+ * <br/><br/>
+ * The integrated loudness follows ITU-R BS.1770: K-weighted, gated over 400 ms blocks, in LUFS.
+ */
+public final class Loudness {
+
+    public final static String TAG = Loudness.class.getSimpleName();
+
+    private final float mPeak;
+
+    private final float mRms;
+
+    private final float mIntegrated;
+
+    /**
+     * @param peak - Highest absolute sample value, between 0.0 and 1.0.
+     * @param rms - Root mean square of every sample, between 0.0 and 1.0.
+     * @param integrated - Integrated loudness in LUFS, negative infinity for silence.
+     */
+    public Loudness(final float peak, final float rms, final float integrated) {
+        mPeak = peak;
+        mRms = rms;
+        mIntegrated = integrated;
+    }
+
+    public float getPeak() {
+        return mPeak;
+    }
+
+    public float getPeakDb() {
+        return toDb(mPeak);
+    }
+
+    public float getRms() {
+        return mRms;
+    }
+
+    public float getRmsDb() {
+        return toDb(mRms);
+    }
+
+    /**
+     * Returns the integrated loudness in LUFS, negative infinity for silence.
+     */
+    public float getIntegrated() {
+        return mIntegrated;
+    }
+
+    /**
+     * Returns the gain that brings the file to the target loudness, between 0.0 and 1.0.<br/>
+     * Volumes can only attenuate, so files that are quieter than the target keep a gain of 1.0.
+     * 
+     * @param targetLoudness - Target loudness in LUFS, e.g. -23.
+     */
+    public float getGain(final float targetLoudness) {
+        if (Float.isInfinite(mIntegrated) || Float.isNaN(mIntegrated))
+            return 1.0f;
+
+        return (float) Math.min(1.0, Math.pow(10.0, (targetLoudness - mIntegrated) / 20.0));
+    }
+
+    private static float toDb(final float value) {
+        return (value > 0) ? (float) (20.0 * Math.log10(value)) : Float.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[peak: " + getPeakDb() + " dBFS, rms: " + getRmsDb() + " dBFS, integrated: " + mIntegrated + " LUFS]";
+    }
+
+}
@@ -0,0 +1,544 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the peak, RMS and integrated loudness of WAVE files and keeps a {@link LoudnessIndex} up to date.
+ * <br/><br/>
+ * Every file is split into chunks of a few seconds that are decoded and measured in parallel, so a single long file uses every core
+ * as well as a directory of short ones. Each chunk starts decoding slightly before its range so the K-weighting filters have settled
+ * once the range begins, and stores the weighted energy of every 100 ms sub-block; the 400 ms gating blocks of BS.1770 are built
+ * from the sub-blocks once all chunks of a file are done.
+ * <br/><br/>
+ * Nothing here depends on the Android platform, so the analyzer also runs on a plain JVM, e.g. in a build step.
+ * <br/><br/>
+ * <b>NOTE: Analysis reads whole files and is meant to run at build time or on a background thread, never on the audio thread.</b>
+ */
+public class LoudnessAnalyzer {
+
+    public final static String TAG = LoudnessAnalyzer.class.getSimpleName();
+
+    /**
+     * Number of 100 ms sub-blocks measured by one task.
+     */
+    private final static int CHUNK_SUB_BLOCKS = 50;
+
+    /**
+     * Number of 100 ms sub-blocks decoded before a chunk to settle the filters.
+     */
+    private final static int WARM_UP_SUB_BLOCKS = 1;
+
+    /**
+     * Number of encoded blocks read at once.
+     */
+    private final static int READ_BLOCKS = 4096;
+
+    private final static float ABSOLUTE_GATE = -70f;
+
+    private final static float RELATIVE_GATE = -10f;
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates an analyzer that uses one thread per available processor.
+     */
+    public LoudnessAnalyzer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount - Number of analysis threads.
+     */
+    public LoudnessAnalyzer(final int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("The thread count must be at least 1.");
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, TAG + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops the analysis threads. The analyzer can not be used afterwards.
+     */
+    public void release() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Measures a single WAVE file.
+     */
+    public Loudness analyze(final File file) throws IOException {
+        final List<File> files = new ArrayList<File>(1);
+        files.add(file);
+        return analyze(files).get(0);
+    }
+
+    /**
+     * Measures the WAVE files in parallel.
+     * 
+     * @return - Measurements in the same order as the files.
+     * @throws IOException if any of the files can not be read or is not a supported WAVE file.
+     */
+    public List<Loudness> analyze(final List<File> files) throws IOException {
+        final List<FileAnalysis> analyses = new ArrayList<FileAnalysis>(files.size());
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try {
+            // Every chunk of every file is queued from here so no task ever waits for another one.
+            for (File file : files) {
+                final FileAnalysis analysis = new FileAnalysis(file);
+                analyses.add(analysis);
+
+                for (int i = 0; i < analysis.mChunkCount; i++)
+                    futures.add(mExecutor.submit(analysis.createChunk(i)));
+            }
+
+            for (Future<?> future : futures)
+                await(future);
+
+            final List<Loudness> results = new ArrayList<Loudness>(analyses.size());
+            for (FileAnalysis analysis : analyses)
+                results.add(analysis.combine());
+
+            return results;
+        } finally {
+            for (Future<?> future : futures)
+                future.cancel(true);
+
+            for (FileAnalysis analysis : analyses)
+                analysis.close();
+        }
+    }
+
+    /**
+     * Brings the index up to date with every WAVE file below the directory.<br/>
+     * Files are keyed by their path relative to the directory using '/' separators, the same way assets are named when the directory
+     * is the assets directory. Files whose size and modification time have not changed are not read, files whose content is already
+     * known are only hashed and the rest are measured.
+     * 
+     * @return - Number of files that have been measured.
+     */
+    public int update(final LoudnessIndex index, final File directory) throws IOException {
+        if (!directory.isDirectory())
+            throw new IllegalArgumentException(directory + " is not a directory.");
+
+        final Map<String, File> files = new HashMap<String, File>();
+        collect(directory, "", files);
+        return update(index, files);
+    }
+
+    /**
+     * Brings the index entry of a single WAVE file up to date.
+     * 
+     * @param key - Path under which the file is looked up, e.g. its asset path or {@link File#getPath()}.
+     * @return - True if the file has been measured.
+     */
+    public boolean update(final LoudnessIndex index, final File file, final String key) throws IOException {
+        final Map<String, File> files = new HashMap<String, File>(1);
+        files.put(key, file);
+        return update(index, files) > 0;
+    }
+
+    private int update(final LoudnessIndex index, final Map<String, File> files) throws IOException {
+        final List<File> pendingFiles = new ArrayList<File>();
+        final List<Long> pendingHashes = new ArrayList<Long>();
+        final Map<Long, Boolean> queued = new HashMap<Long, Boolean>();
+        int unchanged = 0;
+
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            final File file = entry.getValue();
+            final long size = file.length();
+            final long modified = file.lastModified();
+
+            if (index.isCurrent(entry.getKey(), size, modified)) {
+                unchanged++;
+                continue;
+            }
+
+            final long hash = hash(file);
+            index.putPath(entry.getKey(), size, modified, hash);
+
+            if (index.getByHash(hash) == null && !queued.containsKey(hash)) {
+                queued.put(hash, Boolean.TRUE);
+                pendingFiles.add(file);
+                pendingHashes.add(hash);
+            }
+        }
+
+        final List<Loudness> results = analyze(pendingFiles);
+        for (int i = 0; i < results.size(); i++)
+            index.putMeasurement(pendingHashes.get(i), results.get(i));
+
+        return pendingFiles.size();
+    }
+
+    private static void collect(final File directory, final String prefix, final Map<String, File> files) {
+        final File[] children = directory.listFiles();
+        if (children == null)
+            return;
+
+        for (File child : children) {
+            if (child.isDirectory())
+                collect(child, prefix + child.getName() + "/", files);
+            else if (child.getName().toLowerCase().endsWith(".wav"))
+                files.put(prefix + child.getName(), child);
+        }
+    }
+
+    /**
+     * Returns the first 64 bits of the SHA-1 digest of the file content.
+     */
+    static long hash(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] buffer = new byte[64 * 1024];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+
+        final byte[] bytes = digest.digest();
+        long hash = 0;
+        for (int i = 0; i < 8; i++)
+            hash = (hash << 8) | (bytes[i] & 0xFF);
+
+        return hash;
+    }
+
+    private static void await(final Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while analyzing.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Shared state of the chunks of one file. Every chunk writes only its own sub-blocks and its own slot of the chunk totals.
+     */
+    private final static class FileAnalysis {
+
+        private final File mFile;
+
+        private final RandomAccessFile mRandomAccessFile;
+
+        private final FileChannel mChannel;
+
+        private final WavFormat mFormat;
+
+        private final int mChannelCount;
+
+        private final long mFrameCount;
+
+        private final int mSubBlockFrames;
+
+        private final int mSubBlockCount;
+
+        private final int mChunkCount;
+
+        /**
+         * K-weighted energy of every channel of every sub-block, interleaved.
+         */
+        private final double[] mSubBlockEnergies;
+
+        private final float[] mChunkPeaks;
+
+        private final double[] mChunkSquares;
+
+        /**
+         * Pre-filter (high shelf) and RLB filter (high-pass) coefficients: b0, b1, b2, a1, a2.
+         */
+        private final double[] mShelf = new double[5];
+
+        private final double[] mHighPass = new double[5];
+
+        private FileAnalysis(final File file) throws IOException {
+            mFile = file;
+            mRandomAccessFile = new RandomAccessFile(file, "r");
+
+            try {
+                mChannel = mRandomAccessFile.getChannel();
+                mFormat = WavFormat.read(mChannel, 0, mChannel.size());
+            } catch (IOException e) {
+                mRandomAccessFile.close();
+                throw new IOException("Failed to read " + file + ": " + e.getMessage());
+            }
+
+            mChannelCount = mFormat.getChannelCount();
+            mFrameCount = mFormat.getFrameCount();
+            mSubBlockFrames = Math.max(1, mFormat.getSampleRate() / 10);
+
+            final long frameChunks = (mFrameCount + (long) mSubBlockFrames * CHUNK_SUB_BLOCKS - 1) / ((long) mSubBlockFrames * CHUNK_SUB_BLOCKS);
+            mSubBlockCount = (int) (mFrameCount / mSubBlockFrames);
+            mChunkCount = (int) frameChunks;
+
+            mSubBlockEnergies = new double[mSubBlockCount * mChannelCount];
+            mChunkPeaks = new float[mChunkCount];
+            mChunkSquares = new double[mChunkCount];
+
+            createFilters(mFormat.getSampleRate());
+        }
+
+        /**
+         * Computes the K-weighting coefficients for the sample rate, so rates other than 48 kHz are weighted the same way.
+         */
+        private void createFilters(final double sampleRate) {
+            double f0 = 1681.974450955533;
+            double q = 0.7071752369554196;
+            double k = Math.tan(Math.PI * f0 / sampleRate);
+            final double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+            final double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1.0 + k / q + k * k;
+
+            mShelf[0] = (vh + vb * k / q + k * k) / a0;
+            mShelf[1] = 2.0 * (k * k - vh) / a0;
+            mShelf[2] = (vh - vb * k / q + k * k) / a0;
+            mShelf[3] = 2.0 * (k * k - 1.0) / a0;
+            mShelf[4] = (1.0 - k / q + k * k) / a0;
+
+            f0 = 38.13547087602444;
+            q = 0.5003270373238773;
+            k = Math.tan(Math.PI * f0 / sampleRate);
+            a0 = 1.0 + k / q + k * k;
+
+            mHighPass[0] = 1.0;
+            mHighPass[1] = -2.0;
+            mHighPass[2] = 1.0;
+            mHighPass[3] = 2.0 * (k * k - 1.0) / a0;
+            mHighPass[4] = (1.0 - k / q + k * k) / a0;
+        }
+
+        private Runnable createChunk(final int chunk) {
+            return new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        analyzeChunk(chunk);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to read " + mFile + ": " + e.getMessage(), e);
+                    }
+                }
+            };
+        }
+
+        private void analyzeChunk(final int chunk) throws IOException {
+            final long startFrame = (long) chunk * CHUNK_SUB_BLOCKS * mSubBlockFrames;
+            final long endFrame = Math.min(mFrameCount, startFrame + (long) CHUNK_SUB_BLOCKS * mSubBlockFrames);
+            final long warmUpFrame = Math.max(0, startFrame - (long) WARM_UP_SUB_BLOCKS * mSubBlockFrames);
+            final long gatedEndFrame = (long) mSubBlockCount * mSubBlockFrames;
+
+            final int framesPerBlock = mFormat.getFramesPerBlock();
+            final PcmDecoder decoder = mFormat.createDecoder();
+            final long firstBlock = warmUpFrame / framesPerBlock;
+            final long endBlock = (endFrame + framesPerBlock - 1) / framesPerBlock;
+
+            // A chunk of a short file needs less than a full read.
+            final int readBlocks = (int) Math.min(READ_BLOCKS, endBlock - firstBlock);
+            final ByteBuffer input = ByteBuffer.allocate(readBlocks * decoder.getInputBlockSize());
+            final ByteBuffer output = ByteBuffer.allocate(readBlocks * decoder.getOutputBlockSize()).order(ByteOrder.LITTLE_ENDIAN);
+
+            final int channelCount = mChannelCount;
+            final double[] shelfState = new double[channelCount * 4];
+            final double[] highPassState = new double[channelCount * 4];
+            final double[] energies = new double[channelCount];
+
+            float peak = 0;
+            double squares = 0;
+            long frame = firstBlock * framesPerBlock;
+            int subBlock = (int) (startFrame / mSubBlockFrames);
+            int subBlockFrame = 0;
+
+            for (long block = firstBlock; block < endBlock;) {
+                final int blocks = (int) Math.min(readBlocks, endBlock - block);
+                WavFormat.readFully(mChannel, input, mFormat.getDataOffset() + block * decoder.getInputBlockSize(), blocks * decoder.getInputBlockSize());
+
+                output.clear();
+                decoder.decode(input, output);
+                output.flip();
+
+                final int frames = output.remaining() / (channelCount * 2);
+                for (int i = 0; i < frames && frame < endFrame; i++, frame++) {
+                    final boolean measured = frame >= startFrame;
+
+                    for (int channel = 0; channel < channelCount; channel++) {
+                        final double sample = output.getShort() / 32768.0;
+                        final double weighted = filter(mHighPass, highPassState, channel, filter(mShelf, shelfState, channel, sample));
+
+                        if (measured) {
+                            final float magnitude = (float) Math.abs(sample);
+                            if (magnitude > peak)
+                                peak = magnitude;
+
+                            squares += sample * sample;
+                            energies[channel] += weighted * weighted;
+                        }
+                    }
+
+                    if (measured && frame < gatedEndFrame && ++subBlockFrame == mSubBlockFrames) {
+                        for (int channel = 0; channel < channelCount; channel++) {
+                            mSubBlockEnergies[subBlock * channelCount + channel] = energies[channel];
+                            energies[channel] = 0;
+                        }
+
+                        subBlock++;
+                        subBlockFrame = 0;
+                    }
+                }
+
+                block += blocks;
+            }
+
+            mChunkPeaks[chunk] = peak;
+            mChunkSquares[chunk] = squares;
+        }
+
+        /**
+         * Runs one sample of a channel through a biquad in direct form I. The state holds x1, x2, y1, y2 of every channel.
+         */
+        private static double filter(final double[] coefficients, final double[] state, final int channel, final double x) {
+            final int offset = channel * 4;
+            final double y = coefficients[0] * x + coefficients[1] * state[offset] + coefficients[2] * state[offset + 1]
+                    - coefficients[3] * state[offset + 2] - coefficients[4] * state[offset + 3];
+
+            state[offset + 1] = state[offset];
+            state[offset] = x;
+            state[offset + 3] = state[offset + 2];
+            state[offset + 2] = y;
+            return y;
+        }
+
+        /**
+         * Combines the chunk results into the measurements of the file once every chunk is done.
+         */
+        private Loudness combine() {
+            float peak = 0;
+            double squares = 0;
+            for (int i = 0; i < mChunkCount; i++) {
+                peak = Math.max(peak, mChunkPeaks[i]);
+                squares += mChunkSquares[i];
+            }
+
+            final long sampleCount = mFrameCount * mChannelCount;
+            final float rms = (sampleCount > 0) ? (float) Math.sqrt(squares / sampleCount) : 0f;
+
+            // Channel weights of BS.1770, the LFE channel of 5.1 is not measured.
+            final double[] weights = new double[mChannelCount];
+            for (int channel = 0; channel < mChannelCount; channel++)
+                weights[channel] = (mChannelCount == 6) ? ((channel == 3) ? 0.0 : (channel > 3) ? 1.41 : 1.0) : 1.0;
+
+            // 400 ms gating blocks overlapping by 75%.
+            final int gatingBlockCount = Math.max(0, mSubBlockCount - 3);
+            final double[] blockPowers = new double[gatingBlockCount];
+            final double blockFrames = 4.0 * mSubBlockFrames;
+
+            for (int i = 0; i < gatingBlockCount; i++) {
+                double power = 0;
+                for (int channel = 0; channel < mChannelCount; channel++) {
+                    double energy = 0;
+                    for (int j = i; j < i + 4; j++)
+                        energy += mSubBlockEnergies[j * mChannelCount + channel];
+
+                    power += weights[channel] * energy / blockFrames;
+                }
+
+                blockPowers[i] = power;
+            }
+
+            final double absoluteGate = Math.pow(10.0, (ABSOLUTE_GATE + 0.691) / 10.0);
+            final double relativeGate = mean(blockPowers, absoluteGate) * Math.pow(10.0, RELATIVE_GATE / 10.0);
+            final double power = mean(blockPowers, Math.max(absoluteGate, relativeGate));
+            final float integrated = (power > 0) ? (float) (-0.691 + 10.0 * Math.log10(power)) : Float.NEGATIVE_INFINITY;
+
+            return new Loudness(peak, rms, integrated);
+        }
+
+        /**
+         * Returns the mean of the powers above the gate, or 0 if none is.
+         */
+        private static double mean(final double[] powers, final double gate) {
+            double sum = 0;
+            int count = 0;
+            for (double power : powers) {
+                if (power > gate) {
+                    sum += power;
+                    count++;
+                }
+            }
+
+            return (count > 0) ? sum / count : 0;
+        }
+
+        private void close() {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                // The file has only been read, nothing is lost.
+            }
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact index of {@link Loudness} measurements keyed by the content hash of the analyzed files.
+ * <br/><br/>
+ * Paths, e.g. asset paths, point to a content hash together with the size and modification time the file had when it was hashed,
+ * so the {@link LoudnessAnalyzer} only reads files that have changed and files with the same content share one measurement.
+ * The index is usually built over the assets directory at build time and shipped as an asset, then set on the managers
+ * using {@link ro.andreibalan.media.AudioManager#setLoudnessIndex(LoudnessIndex, float)}.
+ */
+public class LoudnessIndex {
+
+    public final static String TAG = LoudnessIndex.class.getSimpleName();
+
+    /**
+     * "ALIX" in ASCII.
+     */
+    private final static int MAGIC = 0x414C4958;
+
+    private final static int VERSION = 1;
+
+    /**
+     * What a path pointed to when it was indexed.
+     */
+    private final static class PathEntry {
+
+        private final long mSize;
+
+        private final long mModified;
+
+        private final long mHash;
+
+        private PathEntry(final long size, final long modified, final long hash) {
+            mSize = size;
+            mModified = modified;
+            mHash = hash;
+        }
+    }
+
+    private final ConcurrentHashMap<String, PathEntry> mPaths = new ConcurrentHashMap<String, PathEntry>();
+
+    private final ConcurrentHashMap<Long, Loudness> mMeasurements = new ConcurrentHashMap<Long, Loudness>();
+
+    /**
+     * Returns the measurement of the file at the given path, or null if it has not been indexed.
+     */
+    public Loudness get(final String path) {
+        final PathEntry entry = (path != null) ? mPaths.get(path) : null;
+        return (entry != null) ? mMeasurements.get(entry.mHash) : null;
+    }
+
+    /**
+     * Returns the measurement of the content with the given hash, or null.
+     */
+    public Loudness getByHash(final long hash) {
+        return mMeasurements.get(hash);
+    }
+
+    /**
+     * Returns the gain that brings the file at the given path to the target loudness, or 1.0 if it has not been indexed.
+     */
+    public float getGain(final String path, final float targetLoudness) {
+        final Loudness loudness = get(path);
+        return (loudness != null) ? loudness.getGain(targetLoudness) : 1.0f;
+    }
+
+    public int getPathCount() {
+        return mPaths.size();
+    }
+
+    public int getMeasurementCount() {
+        return mMeasurements.size();
+    }
+
+    public void remove(final String path) {
+        mPaths.remove(path);
+    }
+
+    /**
+     * Removes the measurements no path points to anymore.
+     * 
+     * @return - Number of removed measurements.
+     */
+    public int prune() {
+        final HashSet<Long> used = new HashSet<Long>();
+        for (PathEntry entry : mPaths.values())
+            used.add(entry.mHash);
+
+        int removed = 0;
+        for (Iterator<Long> iterator = mMeasurements.keySet().iterator(); iterator.hasNext();) {
+            if (!used.contains(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Returns true if the path has been indexed with the same size and modification time, so the file does not need to be read again.
+     */
+    boolean isCurrent(final String path, final long size, final long modified) {
+        final PathEntry entry = mPaths.get(path);
+        return entry != null && entry.mSize == size && entry.mModified == modified && mMeasurements.containsKey(entry.mHash);
+    }
+
+    void putPath(final String path, final long size, final long modified, final long hash) {
+        mPaths.put(path, new PathEntry(size, modified, hash));
+    }
+
+    void putMeasurement(final long hash, final Loudness loudness) {
+        mMeasurements.put(hash, loudness);
+    }
+
+    /**
+     * Writes the index to the file. The file is replaced only once the index has been written completely.
+     */
+    public void write(final File file) throws IOException {
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            out.writeInt(mMeasurements.size());
+            for (Map.Entry<Long, Loudness> measurement : mMeasurements.entrySet()) {
+                out.writeLong(measurement.getKey());
+                out.writeFloat(measurement.getValue().getPeak());
+                out.writeFloat(measurement.getValue().getRms());
+                out.writeFloat(measurement.getValue().getIntegrated());
+            }
+
+            out.writeInt(mPaths.size());
+            for (Map.Entry<String, PathEntry> path : mPaths.entrySet()) {
+                out.writeUTF(path.getKey());
+                out.writeLong(path.getValue().mSize);
+                out.writeLong(path.getValue().mModified);
+                out.writeLong(path.getValue().mHash);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(File)}, returning an empty index if the file does not exist.
+     */
+    public static LoudnessIndex read(final File file) throws IOException {
+        if (!file.exists())
+            return new LoudnessIndex();
+
+        final InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(File)}, e.g. from an asset. The stream is not closed.
+     */
+    public static LoudnessIndex read(final InputStream inputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a loudness index.");
+
+        final int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported loudness index version " + version);
+
+        final LoudnessIndex index = new LoudnessIndex();
+
+        final int measurementCount = in.readInt();
+        for (int i = 0; i < measurementCount; i++)
+            index.mMeasurements.put(in.readLong(), new Loudness(in.readFloat(), in.readFloat(), in.readFloat()));
+
+        final int pathCount = in.readInt();
+        for (int i = 0; i < pathCount; i++)
+            index.mPaths.put(in.readUTF(), new PathEntry(in.readLong(), in.readLong(), in.readLong()));
+
+        return index;
+    }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes whole blocks of an encoded stream into 16 bit little endian interleaved PCM.
+ * <br/><br/>
+ * Decoders keep no state between blocks so they can be used after seeking to any block boundary.
+ */
+public interface PcmDecoder {
+
+    /**
+     * Returns the size in bytes of one encoded block.
+     */
+    public int getInputBlockSize();
+
+    /**
+     * Returns the size in bytes of one decoded block.
+     */
+    public int getOutputBlockSize();
+
+    /**
+     * Decodes as many whole blocks as are available in the input and fit in the output.
+     * Both buffers are advanced by the consumed and produced bytes.
+     * 
+     * @return - Number of blocks that have been decoded.
+     */
+    public int decode(final ByteBuffer input, final ByteBuffer output);
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed ring of direct buffers holding decoded PCM between a single producer and a single consumer.
+ * <br/><br/>
+ * All buffers are allocated once so streaming never allocates. Every written buffer is tagged with a generation,
+ * which lets the consumer drop buffers decoded before a seek without the producer and consumer stopping each other.
+ */
+public class PcmRingBuffer {
+
+    public final static String TAG = PcmRingBuffer.class.getSimpleName();
+
+    private final ByteBuffer[] mBuffers;
+
+    private final int[] mGenerations;
+
+    /**
+     * Total count of written and read buffers. Only the producer advances the first and only the consumer the second.
+     */
+    private volatile long mWriteCount;
+
+    private volatile long mReadCount;
+
+    /**
+     * @param bufferCount - Number of buffers in the ring.
+     * @param bufferSize - Size in bytes of every buffer.
+     */
+    public PcmRingBuffer(final int bufferCount, final int bufferSize) {
+        if (bufferCount < 2)
+            throw new IllegalArgumentException("The ring needs at least two buffers.");
+
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive.");
+
+        mBuffers = new ByteBuffer[bufferCount];
+        mGenerations = new int[bufferCount];
+        for (int i = 0; i < bufferCount; i++)
+            mBuffers[i] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getBufferCount() {
+        return mBuffers.length;
+    }
+
+    public int getBufferSize() {
+        return mBuffers[0].capacity();
+    }
+
+    /**
+     * Returns the memory held by the ring in bytes.
+     */
+    public int getCapacity() {
+        return getBufferCount() * getBufferSize();
+    }
+
+    /**
+     * Returns the number of buffers that have been written and not yet read.
+     */
+    public int getReadableCount() {
+        return (int) (mWriteCount - mReadCount);
+    }
+
+    public boolean isFull() {
+        return getReadableCount() == mBuffers.length;
+    }
+
+    /**
+     * Returns the next free buffer, cleared, or null if the ring is full. Producer only.
+     */
+    public ByteBuffer getWriteBuffer() {
+        if (isFull())
+            return null;
+
+        final ByteBuffer buffer = mBuffers[(int) (mWriteCount % mBuffers.length)];
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Publishes the buffer returned by {@link #getWriteBuffer()}, which must be flipped for reading. Producer only.
+     * 
+     * @param generation - Generation of the data in the buffer.
+     */
+    public void commitWrite(final int generation) {
+        mGenerations[(int) (mWriteCount % mBuffers.length)] = generation;
+        mWriteCount++;
+    }
+
+    /**
+     * Returns the oldest written buffer or null if the ring is empty. Consumer only.
+     */
+    public ByteBuffer getReadBuffer() {
+        if (getReadableCount() == 0)
+            return null;
+
+        return mBuffers[(int) (mReadCount % mBuffers.length)];
+    }
+
+    /**
+     * Returns the generation of the buffer returned by {@link #getReadBuffer()}. Consumer only.
+     */
+    public int getReadGeneration() {
+        return mGenerations[(int) (mReadCount % mBuffers.length)];
+    }
+
+    /**
+     * Frees the buffer returned by {@link #getReadBuffer()}. Consumer only.
+     */
+    public void commitRead() {
+        mReadCount++;
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fully decoded sample held in memory as interleaved 16 bit frames.
+ * <br/><br/>
+ * Decoded samples live in a direct buffer outside of the Java heap, so large sample sets cost the garbage collector nothing. The frames
+ * are shared read-only by every stream playing the sample, and the memory is freed by {@link PcmSampleStore} when the last reference to the
+ * sample is released.
+ */
+public class PcmSample {
+
+    public final static String TAG = PcmSample.class.getSimpleName();
+
+    /**
+     * Number of bytes of encoded blocks read from the channel at once while decoding.
+     */
+    private final static int READ_SIZE = 64 * 1024;
+
+    private final ByteBuffer mBuffer;
+
+    private final ShortBuffer mData;
+
+    private final int mChannelCount;
+
+    private final int mSampleRate;
+
+    private volatile boolean mFreed = false;
+
+    /**
+     * @param buffer - 16 bit little endian interleaved frames, preferably in a direct buffer. The sample takes ownership of the buffer.
+     * @param channelCount - 1 or 2.
+     * @param sampleRate - Sample rate in Hz.
+     */
+    public PcmSample(final ByteBuffer buffer, final int channelCount, final int sampleRate) {
+        if (buffer == null)
+            throw new IllegalArgumentException("Buffer can not be null.");
+
+        if (channelCount < 1 || channelCount > 2)
+            throw new IllegalArgumentException("Only mono and stereo samples are supported.");
+
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("Sample rate must be positive.");
+
+        mBuffer = buffer;
+        mData = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
+        mChannelCount = channelCount;
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Decodes the whole WAVE stream found in the given range of the channel into a direct buffer.
+     * 
+     * @param channel - Channel to read from. Only positional reads are used.
+     * @param offset - Start of the WAVE stream in the channel.
+     * @param length - Length of the WAVE stream or -1 to use the rest of the channel.
+     * 
+     * @throws IOException if the stream can not be read or is not a supported WAVE stream.
+     */
+    public static PcmSample decode(final FileChannel channel, final long offset, final long length) throws IOException {
+        final WavFormat format = WavFormat.read(channel, offset, length);
+        final PcmDecoder decoder = format.createDecoder();
+
+        final long blockCount = format.getBlockCount();
+        final long outputSize = blockCount * decoder.getOutputBlockSize();
+        if (outputSize > Integer.MAX_VALUE)
+            throw new IOException("Sample is too long to be decoded in memory.");
+
+        final ByteBuffer output = ByteBuffer.allocateDirect((int) outputSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        // The encoded data is read in chunks of whole blocks, so decoding never needs a second copy of the sample on the heap.
+        final int inputBlockSize = decoder.getInputBlockSize();
+        final ByteBuffer input = ByteBuffer.allocate(Math.max(1, READ_SIZE / inputBlockSize) * inputBlockSize);
+        final long inputLength = blockCount * inputBlockSize;
+
+        long position = 0;
+        try {
+            while (position < inputLength) {
+                final int count = (int) Math.min(input.capacity(), inputLength - position);
+                WavFormat.readFully(channel, input, format.getDataOffset() + position, count);
+                decoder.decode(input, output);
+                position += count;
+            }
+        } catch (IOException e) {
+            DirectBuffers.free(output);
+            throw e;
+        }
+
+        output.flip();
+        return new PcmSample(output, format.getChannelCount(), format.getSampleRate());
+    }
+
+    /**
+     * Returns the interleaved frames as a read-only view shared by every caller. Only absolute gets must be used on it.
+     * 
+     * @throws IllegalStateException if the sample has been freed.
+     */
+    public ShortBuffer getData() {
+        if (mFreed)
+            throw new IllegalStateException("Sample has been freed.");
+
+        return mData;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getFrameCount() {
+        return mData.capacity() / mChannelCount;
+    }
+
+    /**
+     * Returns the number of bytes the frames take.
+     */
+    public int getByteCount() {
+        return mData.capacity() * 2;
+    }
+
+    /**
+     * Returns true if the frames are held outside of the Java heap.
+     */
+    public boolean isDirect() {
+        return mBuffer.isDirect();
+    }
+
+    /**
+     * Returns the duration in milliseconds.
+     */
+    public long getDuration() {
+        return (long) getFrameCount() * 1000 / mSampleRate;
+    }
+
+    public boolean isFreed() {
+        return mFreed;
+    }
+
+    /**
+     * Frees the memory of the frames. Nothing may read the frames anymore, which {@link PcmSampleStore} makes sure of by only freeing
+     * samples that are not referenced.
+     */
+    void free() {
+        if (mFreed)
+            return;
+
+        mFreed = true;
+        DirectBuffers.free(mBuffer);
+    }
+
+}
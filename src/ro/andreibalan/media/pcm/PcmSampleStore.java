@@ -0,0 +1,312 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+/**
+ * Process wide store of decoded samples shared by every software sample pool.
+ * <br/><br/>
+ * Every sample is decoded once and shared read-only by all the streams, FX and variants that load the same source. Each load holds a
+ * {@link Reference} that is released when the sample is unloaded, and the off-heap memory of the sample is freed as soon as its last
+ * reference is released instead of whenever the garbage collector gets to it.
+ * <br/><br/>
+ * Sources are identified by a key, see {@link #getFileKey(String)}, {@link #getAssetKey(String, long, long)},
+ * {@link #getDescriptorKey(FileDescriptor, long, long)} and {@link #getResourceKey(int)}.
+ */
+public class PcmSampleStore {
+
+    public final static String TAG = PcmSampleStore.class.getSimpleName();
+
+    private static PcmSampleStore sInstance;
+
+    /**
+     * Decodes the sample of a key the first time it is acquired.
+     */
+    public static interface Source {
+
+        public PcmSample decode() throws IOException;
+
+    }
+
+    private final HashMap<Object, Entry> mEntries = new HashMap<Object, Entry>();
+
+    /**
+     * Number of bytes held by the decoded samples.
+     */
+    private long mByteCount;
+
+    private int mDecodeCalls;
+
+    private int mHits;
+
+    public static synchronized PcmSampleStore getInstance() {
+        if (sInstance == null)
+            sInstance = new PcmSampleStore();
+
+        return sInstance;
+    }
+
+    /**
+     * Returns the key of a file path.
+     */
+    public static Object getFileKey(final String path) {
+        if (path == null)
+            throw new IllegalArgumentException("Path can not be null.");
+
+        return "file:" + path;
+    }
+
+    /**
+     * Returns the key of an asset. Keys only depend on the path and the range of the asset in the APK, so loads of the same asset share
+     * the sample even though every load may open its own descriptor.
+     */
+    public static Object getAssetKey(final String assetPath, final long offset, final long length) {
+        if (assetPath == null)
+            throw new IllegalArgumentException("Asset path can not be null.");
+
+        return "asset:" + assetPath + "@" + offset + "+" + length;
+    }
+
+    /**
+     * Returns the key of a range of a descriptor whose origin is unknown. Keys are only equal for the same descriptor object, so a
+     * descriptor that is closed and opened again decodes its sample again. Use {@link #getAssetKey(String, long, long)} for assets.
+     */
+    public static Object getDescriptorKey(final FileDescriptor descriptor, final long offset, final long length) {
+        if (descriptor == null)
+            throw new IllegalArgumentException("Descriptor can not be null.");
+
+        return new DescriptorKey(descriptor, offset, length);
+    }
+
+    /**
+     * Returns the key of a raw resource.
+     */
+    public static Object getResourceKey(final int rawResID) {
+        return "res:" + rawResID;
+    }
+
+    /**
+     * Returns a reference to the sample of the given key, decoding it only if no other reference to it is held.
+     * <br/><br/>
+     * Decoding happens on the calling thread. Other threads acquiring the same key wait for it instead of decoding it again.
+     * 
+     * @throws IOException if the sample can not be decoded. No reference is held then.
+     */
+    public Reference acquire(final Object key, final Source source) throws IOException {
+        if (key == null)
+            throw new IllegalArgumentException("Key can not be null.");
+
+        if (source == null)
+            throw new IllegalArgumentException("Source can not be null.");
+
+        final Entry entry;
+        synchronized (this) {
+            Entry existing = mEntries.get(key);
+            if (existing == null) {
+                existing = new Entry(key);
+                mEntries.put(key, existing);
+            }
+
+            existing.mReferenceCount++;
+            entry = existing;
+        }
+
+        // Only the entry is locked while decoding so other samples can be acquired and released meanwhile.
+        synchronized (entry) {
+            if (entry.mSample == null) {
+                final PcmSample sample;
+                try {
+                    sample = source.decode();
+                } catch (IOException e) {
+                    release(entry);
+                    throw e;
+                }
+
+                synchronized (this) {
+                    Log.v(TAG, "decode key: " + key + ", bytes: " + sample.getByteCount());
+
+                    entry.mSample = sample;
+                    mByteCount += sample.getByteCount();
+                    mDecodeCalls++;
+                }
+            } else {
+                synchronized (this) {
+                    mHits++;
+                }
+            }
+
+            return new Reference(entry);
+        }
+    }
+
+    private synchronized void release(final Entry entry) {
+        if (--entry.mReferenceCount > 0)
+            return;
+
+        mEntries.remove(entry.mKey);
+
+        final PcmSample sample = entry.mSample;
+        if (sample != null) {
+            Log.v(TAG, "free key: " + entry.mKey);
+
+            mByteCount -= sample.getByteCount();
+            entry.mSample = null;
+            sample.free();
+        }
+    }
+
+    /**
+     * Returns the number of samples that are currently decoded.
+     */
+    public synchronized int getSampleCount() {
+        int count = 0;
+        for (Entry entry : mEntries.values())
+            if (entry.mSample != null)
+                count++;
+
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes held by the decoded samples.
+     */
+    public synchronized long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Returns the number of references held to the sample of the given key, 0 if it is not decoded.
+     */
+    public synchronized int getReferenceCount(final Object key) {
+        final Entry entry = mEntries.get(key);
+        return (entry != null) ? entry.mReferenceCount : 0;
+    }
+
+    /**
+     * Returns the number of times a sample had to be decoded.
+     */
+    public synchronized int getDecodeCallCount() {
+        return mDecodeCalls;
+    }
+
+    /**
+     * Returns the number of times an already decoded sample was shared.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    private final static class DescriptorKey {
+
+        private final FileDescriptor mDescriptor;
+
+        private final long mOffset;
+
+        private final long mLength;
+
+        private DescriptorKey(final FileDescriptor descriptor, final long offset, final long length) {
+            mDescriptor = descriptor;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof DescriptorKey))
+                return false;
+
+            final DescriptorKey key = (DescriptorKey) object;
+            return mDescriptor == key.mDescriptor && mOffset == key.mOffset && mLength == key.mLength;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mDescriptor) * 31 + (int) (mOffset ^ (mOffset >>> 32)) * 17 + (int) (mLength ^ (mLength >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return "fd:" + System.identityHashCode(mDescriptor) + "@" + mOffset + "+" + mLength;
+        }
+    }
+
+    private final static class Entry {
+
+        private final Object mKey;
+
+        /**
+         * Guarded by the store, null until the sample has been decoded.
+         */
+        private PcmSample mSample;
+
+        /**
+         * Guarded by the store.
+         */
+        private int mReferenceCount;
+
+        private Entry(final Object key) {
+            mKey = key;
+        }
+    }
+
+    /**
+     * Reference to a shared sample. Releasing it more than once has no effect, releasing the last reference frees the sample.
+     */
+    public final class Reference {
+
+        private final Entry mEntry;
+
+        private final PcmSample mSample;
+
+        private final AtomicBoolean mReleased = new AtomicBoolean(false);
+
+        private Reference(final Entry entry) {
+            mEntry = entry;
+            mSample = entry.mSample;
+        }
+
+        public Object getKey() {
+            return mEntry.mKey;
+        }
+
+        /**
+         * Returns the shared sample. It must not be read anymore once the reference has been released.
+         */
+        public PcmSample getSample() {
+            return mSample;
+        }
+
+        public boolean isReleased() {
+            return mReleased.get();
+        }
+
+        public void release() {
+            if (mReleased.compareAndSet(false, true))
+                PcmSampleStore.this.release(mEntry);
+        }
+    }
+
+}
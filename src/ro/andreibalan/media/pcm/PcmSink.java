@@ -0,0 +1,62 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of decoded 16 bit little endian interleaved PCM, e.g. an AudioTrack or a test recorder.
+ * <br/><br/>
+ * {@link #write(ByteBuffer)} is only called from the streaming thread while the other methods are called from the audio thread.
+ */
+public interface PcmSink {
+
+    public void open(final int sampleRate, final int channelCount) throws IOException;
+
+    /**
+     * Writes all the remaining bytes of the buffer, blocking until the sink has room for them.
+     */
+    public void write(final ByteBuffer pcm);
+
+    public void play();
+
+    public void pause();
+
+    /**
+     * Stops playback after all written data has been played.
+     */
+    public void stop();
+
+    /**
+     * Discards all written data that has not been played yet.
+     */
+    public void flush();
+
+    public void setVolume(final float leftVolume, final float rightVolume);
+
+    /**
+     * Returns the number of frames played since the sink was opened or last flushed.
+     */
+    public long getPlaybackPosition();
+
+    public void close();
+
+}
@@ -0,0 +1,390 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Converts the rate of in memory samples while mixing them into a stereo buffer.
+ * <br/><br/>
+ * Sources are 16 bit frames read with absolute gets, so they can live in direct buffers outside of the Java heap. The scale to floats
+ * between -1 and 1 is folded into the gains.
+ * <br/><br/>
+ * Positions and increments are 32.32 fixed point frame counts so a voice keeps its exact phase across blocks.
+ * Instances hold no per voice state and all tables are computed once, so one instance is shared by every voice.
+ */
+public abstract class Resampler {
+
+    public final static String TAG = Resampler.class.getSimpleName();
+
+    /**
+     * Available interpolation qualities, from cheapest to best.
+     */
+    public enum Quality {
+        /**
+         * 2 point linear interpolation.
+         */
+        LINEAR,
+
+        /**
+         * 4 point Catmull-Rom interpolation.
+         */
+        CUBIC,
+
+        /**
+         * 16 tap Blackman windowed sinc with precomputed polyphase tables.
+         */
+        SINC
+    }
+
+    public final static int FRACTION_BITS = 32;
+
+    /**
+     * One frame in fixed point.
+     */
+    public final static long ONE = 1L << FRACTION_BITS;
+
+    private final static long FRACTION_MASK = ONE - 1;
+
+    private final static float FRACTION_SCALE = 1f / ONE;
+
+    /**
+     * Scale of a 16 bit sample to a float between -1 and 1.
+     */
+    private final static float SAMPLE_SCALE = 1f / 32768f;
+
+    private static Resampler sLinear;
+
+    private static Resampler sCubic;
+
+    private static Resampler sSinc;
+
+    /**
+     * Returns the shared resampler of the given quality.
+     */
+    public static synchronized Resampler getInstance(final Quality quality) {
+        switch (quality) {
+            case LINEAR:
+                if (sLinear == null)
+                    sLinear = new LinearResampler();
+                return sLinear;
+
+            case CUBIC:
+                if (sCubic == null)
+                    sCubic = new CubicResampler();
+                return sCubic;
+
+            case SINC:
+                if (sSinc == null)
+                    sSinc = new SincResampler();
+                return sSinc;
+
+            default:
+                throw new IllegalArgumentException("Unknown quality: " + quality);
+        }
+    }
+
+    /**
+     * Returns the fixed point increment that plays a source at the given rate on an output of the given sample rate.
+     */
+    public static long getIncrement(final float rate, final int sourceSampleRate, final int outputSampleRate) {
+        return (long) ((double) rate * sourceSampleRate / outputSampleRate * ONE);
+    }
+
+    /**
+     * Resamples the source and adds the result to the stereo output buffer.
+     * <br/><br/>
+     * Mono sources are mixed to both channels. Stops early when the position passes the last source frame.
+     * 
+     * @param source - Interleaved 16 bit source frames.
+     * @param channelCount - Source channel count, 1 or 2.
+     * @param frameCount - Number of frames in the source.
+     * @param position - Fixed point read position in source frames.
+     * @param increment - Fixed point source frames advanced per output frame.
+     * @param output - Interleaved stereo buffer the result is added to.
+     * @param outputOffset - First output frame.
+     * @param outputFrames - Maximum number of output frames to produce.
+     * @param leftGain - Gain of the left output channel.
+     * @param rightGain - Gain of the right output channel.
+     * @return - Number of output frames produced. The new position is position + produced * increment.
+     */
+    public final int mix(final ShortBuffer source, final int channelCount, final int frameCount, final long position, final long increment,
+            final float[] output, final int outputOffset, final int outputFrames, final float leftGain, final float rightGain) {
+        if (increment <= 0)
+            throw new IllegalArgumentException("Increment must be positive.");
+
+        final long remaining = ((long) frameCount << FRACTION_BITS) - position;
+        if (remaining <= 0 || outputFrames <= 0)
+            return 0;
+
+        final int frames = (int) Math.min(outputFrames, (remaining + increment - 1) / increment);
+        final float left = leftGain * SAMPLE_SCALE;
+        final float right = rightGain * SAMPLE_SCALE;
+        if (channelCount == 1)
+            mixMono(source, frameCount, position, increment, output, outputOffset * 2, frames, left, right);
+        else
+            mixStereo(source, frameCount, position, increment, output, outputOffset * 2, frames, left, right);
+
+        return frames;
+    }
+
+    protected abstract void mixMono(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+            int outputIndex, final int frames, final float leftGain, final float rightGain);
+
+    protected abstract void mixStereo(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+            int outputIndex, final int frames, final float leftGain, final float rightGain);
+
+    /**
+     * Returns the integer frame of a fixed point position.
+     */
+    protected static int frame(final long position) {
+        return (int) (position >>> FRACTION_BITS);
+    }
+
+    /**
+     * Returns the fraction of a fixed point position between 0 and 1.
+     */
+    protected static float fraction(final long position) {
+        return (position & FRACTION_MASK) * FRACTION_SCALE;
+    }
+
+    /**
+     * Returns the fraction of a fixed point position as an index with the given number of bits.
+     */
+    protected static int fraction(final long position, final int bits) {
+        return (int) ((position & FRACTION_MASK) >>> (FRACTION_BITS - bits));
+    }
+
+    /**
+     * Returns a source sample or silence outside the source.
+     */
+    protected static float sample(final ShortBuffer source, final int channelCount, final int frameCount, final int frame, final int channel) {
+        return (frame >= 0 && frame < frameCount) ? source.get(frame * channelCount + channel) : 0f;
+    }
+
+    private final static class LinearResampler extends Resampler {
+
+        @Override
+        protected void mixMono(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            for (int i = 0; i < frames; i++) {
+                final int frame = frame(position);
+                final float a = source.get(frame);
+                final float b = sample(source, 1, frameCount, frame + 1, 0);
+                final float value = a + (b - a) * fraction(position);
+
+                output[outputIndex++] += value * leftGain;
+                output[outputIndex++] += value * rightGain;
+                position += increment;
+            }
+        }
+
+        @Override
+        protected void mixStereo(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            for (int i = 0; i < frames; i++) {
+                final int frame = frame(position);
+                final float fraction = fraction(position);
+
+                final float leftA = source.get(frame * 2);
+                final float rightA = source.get(frame * 2 + 1);
+                final float leftB = sample(source, 2, frameCount, frame + 1, 0);
+                final float rightB = sample(source, 2, frameCount, frame + 1, 1);
+
+                output[outputIndex++] += (leftA + (leftB - leftA) * fraction) * leftGain;
+                output[outputIndex++] += (rightA + (rightB - rightA) * fraction) * rightGain;
+                position += increment;
+            }
+        }
+    }
+
+    private final static class CubicResampler extends Resampler {
+
+        private static float interpolate(final float p0, final float p1, final float p2, final float p3, final float t) {
+            final float a = -0.5f * p0 + 1.5f * p1 - 1.5f * p2 + 0.5f * p3;
+            final float b = p0 - 2.5f * p1 + 2f * p2 - 0.5f * p3;
+            final float c = -0.5f * p0 + 0.5f * p2;
+            return ((a * t + b) * t + c) * t + p1;
+        }
+
+        @Override
+        protected void mixMono(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            for (int i = 0; i < frames; i++) {
+                final int frame = frame(position);
+                final float value = interpolate(sample(source, 1, frameCount, frame - 1, 0), source.get(frame), sample(source, 1, frameCount, frame + 1, 0),
+                        sample(source, 1, frameCount, frame + 2, 0), fraction(position));
+
+                output[outputIndex++] += value * leftGain;
+                output[outputIndex++] += value * rightGain;
+                position += increment;
+            }
+        }
+
+        @Override
+        protected void mixStereo(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            for (int i = 0; i < frames; i++) {
+                final int frame = frame(position);
+                final float fraction = fraction(position);
+
+                final float left = interpolate(sample(source, 2, frameCount, frame - 1, 0), source.get(frame * 2), sample(source, 2, frameCount, frame + 1, 0),
+                        sample(source, 2, frameCount, frame + 2, 0), fraction);
+                final float right = interpolate(sample(source, 2, frameCount, frame - 1, 1), source.get(frame * 2 + 1),
+                        sample(source, 2, frameCount, frame + 1, 1), sample(source, 2, frameCount, frame + 2, 1), fraction);
+
+                output[outputIndex++] += left * leftGain;
+                output[outputIndex++] += right * rightGain;
+                position += increment;
+            }
+        }
+    }
+
+    /**
+     * Polyphase windowed sinc resampler. The fraction of the position selects one of {@link #PHASES} precomputed filters.
+     * <br/><br/>
+     * When a source is played faster than the output rate the cutoff has to be lowered to avoid aliasing, so a separate table is
+     * kept for every octave of the increment: up to 1, 2, 4, 8 frames and so on up to {@link #MAX_OCTAVE}. The taps do not grow with
+     * the octave, so the higher tables roll off more gently but still cut below the new Nyquist frequency.
+     */
+    private final static class SincResampler extends Resampler {
+
+        private final static int TAPS = 16;
+
+        private final static int HALF_TAPS = TAPS / 2;
+
+        private final static int PHASE_BITS = 8;
+
+        private final static int PHASES = 1 << PHASE_BITS;
+
+        /**
+         * Cutoff of the table for increments up to one frame, relative to the Nyquist frequency.
+         */
+        private final static float CUTOFF = 0.95f;
+
+        /**
+         * Octave of the last table, increments up to 2^10 frames. Higher increments, far beyond any supported rate, use it as well.
+         */
+        private final static int MAX_OCTAVE = 10;
+
+        /**
+         * Filter tables per octave of the increment, holding {@link #TAPS} coefficients per phase.
+         */
+        private final float[][] mTables = new float[MAX_OCTAVE + 1][];
+
+        private SincResampler() {
+            for (int octave = 0; octave <= MAX_OCTAVE; octave++)
+                mTables[octave] = createTable(CUTOFF / (1 << octave));
+        }
+
+        private static float[] createTable(final float cutoff) {
+            final float[] table = new float[PHASES * TAPS];
+
+            for (int phase = 0; phase < PHASES; phase++) {
+                final double fraction = (double) phase / PHASES;
+
+                double sum = 0;
+                for (int tap = 0; tap < TAPS; tap++) {
+                    // Distance of the tap from the interpolated position, taps cover frames -7 to +8.
+                    final double distance = tap - (HALF_TAPS - 1) - fraction;
+                    final double x = Math.PI * cutoff * distance;
+                    final double sinc = (Math.abs(x) < 1e-9) ? 1 : Math.sin(x) / x;
+                    final double window = 0.42 + 0.5 * Math.cos(Math.PI * distance / HALF_TAPS) + 0.08 * Math.cos(2 * Math.PI * distance / HALF_TAPS);
+
+                    final double coefficient = (Math.abs(distance) >= HALF_TAPS) ? 0 : cutoff * sinc * window;
+                    table[phase * TAPS + tap] = (float) coefficient;
+                    sum += coefficient;
+                }
+
+                // Normalize so every phase has unity gain at DC.
+                for (int tap = 0; tap < TAPS; tap++)
+                    table[phase * TAPS + tap] /= sum;
+            }
+
+            return table;
+        }
+
+        private float[] getTable(final long increment) {
+            if (increment <= ONE)
+                return mTables[0];
+
+            // Smallest octave holding the increment, e.g. 1 for increments up to 2 frames and 2 for increments up to 4.
+            final int octave = 64 - Long.numberOfLeadingZeros((increment - 1) >>> FRACTION_BITS);
+            return mTables[Math.min(octave, MAX_OCTAVE)];
+        }
+
+        @Override
+        protected void mixMono(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            final float[] table = getTable(increment);
+
+            for (int i = 0; i < frames; i++) {
+                final int first = frame(position) - (HALF_TAPS - 1);
+                final int coefficients = fraction(position, PHASE_BITS) * TAPS;
+
+                float value = 0;
+                if (first >= 0 && first + TAPS <= frameCount) {
+                    for (int tap = 0; tap < TAPS; tap++)
+                        value += source.get(first + tap) * table[coefficients + tap];
+                } else {
+                    for (int tap = 0; tap < TAPS; tap++)
+                        value += sample(source, 1, frameCount, first + tap, 0) * table[coefficients + tap];
+                }
+
+                output[outputIndex++] += value * leftGain;
+                output[outputIndex++] += value * rightGain;
+                position += increment;
+            }
+        }
+
+        @Override
+        protected void mixStereo(final ShortBuffer source, final int frameCount, long position, final long increment, final float[] output,
+                int outputIndex, final int frames, final float leftGain, final float rightGain) {
+            final float[] table = getTable(increment);
+
+            for (int i = 0; i < frames; i++) {
+                final int first = frame(position) - (HALF_TAPS - 1);
+                final int coefficients = fraction(position, PHASE_BITS) * TAPS;
+
+                float left = 0;
+                float right = 0;
+                if (first >= 0 && first + TAPS <= frameCount) {
+                    int index = first * 2;
+                    for (int tap = 0; tap < TAPS; tap++) {
+                        final float coefficient = table[coefficients + tap];
+                        left += source.get(index++) * coefficient;
+                        right += source.get(index++) * coefficient;
+                    }
+                } else {
+                    for (int tap = 0; tap < TAPS; tap++) {
+                        final float coefficient = table[coefficients + tap];
+                        left += sample(source, 2, frameCount, first + tap, 0) * coefficient;
+                        right += sample(source, 2, frameCount, first + tap, 1) * coefficient;
+                    }
+                }
+
+                output[outputIndex++] += left * leftGain;
+                output[outputIndex++] += right * rightGain;
+                position += increment;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,521 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ro.andreibalan.media.backend.PlayerBackend;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Player Backend that streams uncompressed or IMA-ADPCM WAVE files through a {@link PcmSink}.
+ * <br/><br/>
+ * A reader thread decodes the file with positional FileChannel reads into a fixed {@link PcmRingBuffer} of direct buffers,
+ * and a writer thread drains the ring into the sink. Memory use is bounded by the ring (128KB by default) no matter how long
+ * the track is, and a slow read is absorbed by the decoded data already waiting in the ring.
+ * <br/><br/>
+ * Seeking bumps a generation counter instead of stopping the threads. The reader restarts from the new position and the writer
+ * flushes the sink and drops every buffer decoded for an older generation.
+ */
+public class StreamingPlayerBackend implements PlayerBackend {
+
+    public final static String TAG = StreamingPlayerBackend.class.getSimpleName();
+
+    public final static int DEFAULT_BUFFER_COUNT = 8;
+
+    public final static int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final PcmSink mSink;
+
+    private final int mBufferCount;
+
+    private final int mBufferSize;
+
+    /**
+     * Stream opened by {@link #setDataSource(File)} which is owned and closed by this backend.
+     */
+    private FileInputStream mOwnedStream;
+
+    private FileChannel mChannel;
+
+    private long mOffset;
+
+    private long mLength = -1;
+
+    private WavFormat mFormat;
+
+    private PcmDecoder mDecoder;
+
+    private PcmRingBuffer mRing;
+
+    private ByteBuffer mReadBuffer;
+
+    private Thread mReaderThread;
+
+    private Thread mWriterThread;
+
+    /**
+     * Guards the fields below and is used to park the streaming threads.
+     */
+    private final Object mLock = new Object();
+
+    private boolean mPrepared;
+
+    private boolean mPlaying;
+
+    private boolean mReleased;
+
+    private boolean mCompleted;
+
+    private boolean mLooping;
+
+    /**
+     * Incremented on every seek. Buffers and sink data of an older generation are discarded.
+     */
+    private int mGeneration;
+
+    /**
+     * Frame requested by the last seek, aligned to the start of its block.
+     */
+    private long mSeekFrame;
+
+    /**
+     * Set by the reader when it reached the end of the data for the current generation.
+     */
+    private boolean mReaderEndOfStream;
+
+    /**
+     * Generation the sink has been flushed for and the frame the sink position counts from.
+     */
+    private int mWriterGeneration;
+
+    private long mBaseFrame;
+
+    /**
+     * Constructs a streaming backend that plays through an AudioTrack with the default ring size.
+     */
+    public StreamingPlayerBackend() {
+        this(new AudioTrackSink(), DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param sink - Sink the decoded PCM is written to.
+     * @param bufferCount - Number of buffers in the ring.
+     * @param bufferSize - Target size of every buffer in bytes of decoded PCM.
+     */
+    public StreamingPlayerBackend(final PcmSink sink, final int bufferCount, final int bufferSize) {
+        if (sink == null)
+            throw new IllegalArgumentException("Sink can not be null.");
+
+        if (bufferCount < 2 || bufferSize <= 0)
+            throw new IllegalArgumentException("Invalid ring size, bufferCount: " + bufferCount + ", bufferSize: " + bufferSize);
+
+        mSink = sink;
+        mBufferCount = bufferCount;
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * Streams from the given file. The file is opened and closed by this backend.
+     */
+    public void setDataSource(final File file) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        mOwnedStream = inputStream;
+        setDataSource(inputStream.getChannel(), 0, -1);
+    }
+
+    /**
+     * Streams from the whole file descriptor. The descriptor stays owned by the caller and must remain open until release.
+     */
+    @Override
+    public void setDataSource(final FileDescriptor fileDescriptor) throws IOException {
+        setDataSource(fileDescriptor, 0, -1);
+    }
+
+    /**
+     * Streams from a range of the file descriptor, e.g. an uncompressed asset. The descriptor stays owned by the caller
+     * and must remain open until release.
+     */
+    @Override
+    public void setDataSource(final FileDescriptor fileDescriptor, final long offset, final long length) throws IOException {
+        // The stream is never closed since closing it would close the caller's descriptor.
+        setDataSource(new FileInputStream(fileDescriptor).getChannel(), offset, length);
+    }
+
+    private void setDataSource(final FileChannel channel, final long offset, final long length) {
+        Log.v(TAG, "setDataSource offset: " + offset + ", length: " + length);
+
+        mChannel = channel;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        if (mChannel == null)
+            throw new IllegalStateException("No data source has been set.");
+
+        mFormat = WavFormat.read(mChannel, mOffset, mLength);
+        mDecoder = mFormat.createDecoder();
+        Log.v(TAG, "prepare " + mFormat);
+
+        // Size the buffers so one read of whole blocks decodes into exactly one ring buffer.
+        final int blocksPerBuffer = Math.max(1, mBufferSize / mDecoder.getOutputBlockSize());
+        mRing = new PcmRingBuffer(mBufferCount, blocksPerBuffer * mDecoder.getOutputBlockSize());
+        mReadBuffer = ByteBuffer.allocateDirect(blocksPerBuffer * mDecoder.getInputBlockSize());
+
+        mSink.open(mFormat.getSampleRate(), mFormat.getChannelCount());
+
+        synchronized (mLock) {
+            mPrepared = true;
+        }
+
+        mReaderThread = new Thread(mReader, TAG + "-Reader");
+        mWriterThread = new Thread(mWriter, TAG + "-Writer");
+        mReaderThread.start();
+        mWriterThread.start();
+    }
+
+    /**
+     * Returns the format of the stream or null if it has not been prepared yet.
+     */
+    public WavFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Returns the memory held by the ring in bytes or 0 if it has not been prepared yet.
+     */
+    public int getBufferedCapacity() {
+        return (mRing != null) ? mRing.getCapacity() : 0;
+    }
+
+    @Override
+    public void start() {
+        synchronized (mLock) {
+            if (!mPrepared || mReleased || mPlaying)
+                return;
+
+            // Restart a completed track from the beginning like MediaPlayer does.
+            if (mCompleted)
+                seek(0);
+
+            mPlaying = true;
+            mSink.play();
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (mLock) {
+            if (!mPlaying)
+                return;
+
+            mPlaying = false;
+            mSink.pause();
+        }
+    }
+
+    @Override
+    public void seekTo(final int position) {
+        synchronized (mLock) {
+            if (!mPrepared || mReleased)
+                return;
+
+            seek(Math.max(0, (long) position) * mFormat.getSampleRate() / 1000);
+        }
+    }
+
+    /**
+     * Moves the reader and the writer to the block holding the given frame. Must hold the lock.
+     */
+    private void seek(final long frame) {
+        final long block = Math.min(frame / mFormat.getFramesPerBlock(), mFormat.getBlockCount());
+
+        mSeekFrame = block * mFormat.getFramesPerBlock();
+        mGeneration++;
+        mReaderEndOfStream = false;
+        mCompleted = false;
+        mLock.notifyAll();
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        synchronized (mLock) {
+            if (mPrepared && !mReleased)
+                mSink.setVolume(leftVolume, rightVolume);
+        }
+    }
+
+    @Override
+    public void setLooping(final boolean looping) {
+        synchronized (mLock) {
+            mLooping = looping;
+
+            // Let a reader that already reached the end wrap around.
+            if (looping && mReaderEndOfStream) {
+                mReaderEndOfStream = false;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        synchronized (mLock) {
+            return mPlaying;
+        }
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        synchronized (mLock) {
+            if (!mPrepared || mReleased)
+                return 0;
+
+            long frame = (mWriterGeneration != mGeneration) ? mSeekFrame : mBaseFrame + mSink.getPlaybackPosition();
+
+            final long frameCount = mFormat.getFrameCount();
+            if (frameCount > 0)
+                frame = mLooping ? frame % frameCount : Math.min(frame, frameCount);
+
+            return (int) (frame * 1000 / mFormat.getSampleRate());
+        }
+    }
+
+    @Override
+    public int getDuration() {
+        return (mFormat != null) ? (int) mFormat.getDuration() : -1;
+    }
+
+    @Override
+    public void release() {
+        Log.v(TAG, "release");
+
+        final boolean prepared;
+        synchronized (mLock) {
+            if (mReleased)
+                return;
+
+            mReleased = true;
+            mPlaying = false;
+            prepared = mPrepared;
+            mLock.notifyAll();
+        }
+
+        // A write blocked on a paused track only returns once the track has been stopped and flushed.
+        if (prepared) {
+            mSink.stop();
+            mSink.flush();
+        }
+
+        try {
+            if (mReaderThread != null)
+                mReaderThread.join();
+            if (mWriterThread != null)
+                mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (prepared)
+            mSink.close();
+
+        if (mOwnedStream != null) {
+            try {
+                mOwnedStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close the data source.", e);
+            }
+
+            mOwnedStream = null;
+        }
+
+        mChannel = null;
+    }
+
+    /**
+     * Decodes the file into the ring, waiting while the ring is full or the data has ended.
+     */
+    private final Runnable mReader = new Runnable() {
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+
+            final long dataStart = mFormat.getDataOffset();
+            final long dataEnd = dataStart + mFormat.getBlockCount() * mFormat.getBlockAlign();
+            final int blockSize = mDecoder.getInputBlockSize();
+
+            int generation = -1;
+            long position = dataStart;
+
+            while (true) {
+                synchronized (mLock) {
+                    while (!mReleased && generation == mGeneration && (mRing.isFull() || mReaderEndOfStream)) {
+                        if (!waitLock())
+                            return;
+                    }
+
+                    if (mReleased)
+                        return;
+
+                    if (generation != mGeneration) {
+                        generation = mGeneration;
+                        position = dataStart + (mSeekFrame / mFormat.getFramesPerBlock()) * blockSize;
+                    }
+
+                    if (mRing.isFull())
+                        continue;
+
+                    if (dataEnd - position < blockSize) {
+                        if (mLooping && dataEnd > dataStart)
+                            position = dataStart;
+                        else {
+                            mReaderEndOfStream = true;
+                            mLock.notifyAll();
+                            continue;
+                        }
+                    }
+                }
+
+                final ByteBuffer output = mRing.getWriteBuffer();
+
+                try {
+                    final int count = (int) Math.min(mReadBuffer.capacity(), ((dataEnd - position) / blockSize) * blockSize);
+                    WavFormat.readFully(mChannel, mReadBuffer, position, count);
+                    position += count;
+
+                    mDecoder.decode(mReadBuffer, output);
+                    output.flip();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read the stream.", e);
+
+                    synchronized (mLock) {
+                        if (generation == mGeneration) {
+                            mReaderEndOfStream = true;
+                            mLock.notifyAll();
+                        }
+                    }
+                    continue;
+                }
+
+                synchronized (mLock) {
+                    mRing.commitWrite(generation);
+                    mLock.notifyAll();
+                }
+            }
+        }
+    };
+
+    /**
+     * Drains the ring into the sink while playing, applying seeks and completing the track when the data has ended.
+     */
+    private final Runnable mWriter = new Runnable() {
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+
+            while (true) {
+                int generation;
+                boolean flush = false;
+                boolean complete = false;
+                long baseFrame = 0;
+
+                synchronized (mLock) {
+                    while (!mReleased && mWriterGeneration == mGeneration && !hasStaleBuffer()
+                            && !(mPlaying && (mRing.getReadableCount() > 0 || mReaderEndOfStream))) {
+                        if (!waitLock())
+                            return;
+                    }
+
+                    if (mReleased)
+                        return;
+
+                    generation = mGeneration;
+                    if (mWriterGeneration != generation) {
+                        flush = true;
+                        baseFrame = mSeekFrame;
+                    } else if (mRing.getReadableCount() == 0) {
+                        mPlaying = false;
+                        mCompleted = true;
+                        complete = true;
+                    }
+                }
+
+                if (flush) {
+                    mSink.flush();
+
+                    synchronized (mLock) {
+                        mWriterGeneration = generation;
+                        mBaseFrame = baseFrame;
+                    }
+                    continue;
+                }
+
+                if (complete) {
+                    Log.v(TAG, "Playback completed.");
+                    mSink.stop();
+                    continue;
+                }
+
+                final ByteBuffer buffer = mRing.getReadBuffer();
+                if (mRing.getReadGeneration() == generation)
+                    mSink.write(buffer);
+
+                synchronized (mLock) {
+                    mRing.commitRead();
+                    mLock.notifyAll();
+                }
+            }
+        }
+    };
+
+    /**
+     * Returns true if the oldest buffer was decoded before the last seek and can be dropped even while paused. Must hold the lock.
+     */
+    private boolean hasStaleBuffer() {
+        return mRing.getReadableCount() > 0 && mRing.getReadGeneration() != mGeneration;
+    }
+
+    /**
+     * Waits on the lock, which must be held, keeping the interrupted status.
+     * 
+     * @return - false if the thread has been interrupted and should exit.
+     */
+    private boolean waitLock() {
+        try {
+            mLock.wait();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Format of a RIFF/WAVE stream and the location of its audio data.
+ * <br/><br/>
+ * Supported encodings are linear PCM (8, 16, 24 and 32 bit), 32 bit IEEE float and IMA-ADPCM, including the
+ * WAVE_FORMAT_EXTENSIBLE variants of linear PCM and float.
+ */
+public class WavFormat {
+
+    public final static String TAG = WavFormat.class.getSimpleName();
+
+    public final static int FORMAT_PCM = 0x0001;
+    public final static int FORMAT_IEEE_FLOAT = 0x0003;
+    public final static int FORMAT_IMA_ADPCM = 0x0011;
+    public final static int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final static int RIFF = 0x46464952; // "RIFF"
+    private final static int WAVE = 0x45564157; // "WAVE"
+    private final static int FMT = 0x20746d66; // "fmt "
+    private final static int DATA = 0x61746164; // "data"
+
+    private int mEncoding;
+    private int mChannelCount;
+    private int mSampleRate;
+    private int mBlockAlign;
+    private int mBitsPerSample;
+    private int mContainerBits;
+    private int mFramesPerBlock;
+    private long mDataOffset;
+    private long mDataLength;
+
+    private WavFormat() {
+    }
+
+    /**
+     * Parses the header of the WAVE stream found in the given range of the channel.
+     * Only positional reads are used so the channel position is never changed.
+     * 
+     * @param channel - Channel to read from.
+     * @param offset - Start of the WAVE stream in the channel, e.g. the start offset of an asset.
+     * @param length - Length of the WAVE stream or -1 to use the rest of the channel.
+     * 
+     * @throws IOException if the stream is not a supported WAVE stream.
+     */
+    public static WavFormat read(final FileChannel channel, final long offset, final long length) throws IOException {
+        final long end = (length < 0) ? channel.size() : Math.min(channel.size(), offset + length);
+
+        final ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, offset, 12);
+        if (header.getInt(0) != RIFF || header.getInt(8) != WAVE)
+            throw new IOException("Not a RIFF/WAVE stream.");
+
+        final WavFormat format = new WavFormat();
+        boolean hasFormat = false;
+
+        long position = offset + 12;
+        while (position + 8 <= end) {
+            header.clear();
+            readFully(channel, header, position, 8);
+
+            final int chunkID = header.getInt(0);
+            final long chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+            final long chunkData = position + 8;
+
+            if (chunkID == FMT) {
+                header.clear();
+                readFully(channel, header, chunkData, (int) Math.min(chunkSize, header.capacity()));
+                format.parseFormat(header, (int) chunkSize);
+                hasFormat = true;
+            } else if (chunkID == DATA) {
+                if (!hasFormat)
+                    throw new IOException("WAVE data chunk found before the fmt chunk.");
+
+                format.mDataOffset = chunkData;
+                format.mDataLength = Math.min(chunkSize, end - chunkData);
+                return format;
+            }
+
+            // Chunks are always word aligned.
+            position = chunkData + chunkSize + (chunkSize & 1);
+        }
+
+        throw new IOException("WAVE stream has no data chunk.");
+    }
+
+    private void parseFormat(final ByteBuffer chunk, final int chunkSize) throws IOException {
+        if (chunkSize < 16)
+            throw new IOException("WAVE fmt chunk is too short.");
+
+        mEncoding = chunk.getShort(0) & 0xFFFF;
+        mChannelCount = chunk.getShort(2) & 0xFFFF;
+        mSampleRate = chunk.getInt(4);
+        mBlockAlign = chunk.getShort(12) & 0xFFFF;
+        mBitsPerSample = chunk.getShort(14) & 0xFFFF;
+
+        // The sub format of extensible streams starts with the real format tag.
+        if (mEncoding == FORMAT_EXTENSIBLE && chunkSize >= 26)
+            mEncoding = chunk.getShort(24) & 0xFFFF;
+
+        if (mChannelCount < 1 || mChannelCount > 2)
+            throw new IOException("Only mono and stereo WAVE streams are supported, found " + mChannelCount + " channels.");
+
+        if (mSampleRate <= 0 || mBlockAlign <= 0)
+            throw new IOException("Invalid WAVE fmt chunk.");
+
+        switch (mEncoding) {
+            case FORMAT_PCM:
+                if (mBitsPerSample != 8 && mBitsPerSample != 16 && mBitsPerSample != 24 && mBitsPerSample != 32)
+                    throw new IOException("Unsupported PCM sample size: " + mBitsPerSample);
+
+                // Samples can be stored in bigger containers (e.g. 24 bit in 32), a block has to hold exactly one container per channel.
+                final int containerBytes = mBlockAlign / mChannelCount;
+                if (mBlockAlign != mChannelCount * containerBytes || containerBytes * 8 < mBitsPerSample || containerBytes > 4)
+                    throw new IOException("Invalid PCM block size: " + mBlockAlign + " for " + mBitsPerSample + " bit samples.");
+
+                mContainerBits = containerBytes * 8;
+                mFramesPerBlock = 1;
+                break;
+
+            case FORMAT_IEEE_FLOAT:
+                if (mBitsPerSample != 32)
+                    throw new IOException("Unsupported float sample size: " + mBitsPerSample);
+
+                if (mBlockAlign != mChannelCount * 4)
+                    throw new IOException("Invalid float block size: " + mBlockAlign);
+
+                mContainerBits = 32;
+                mFramesPerBlock = 1;
+                break;
+
+            case FORMAT_IMA_ADPCM:
+                if (mBitsPerSample != 4)
+                    throw new IOException("Unsupported IMA-ADPCM sample size: " + mBitsPerSample);
+
+                mContainerBits = mBitsPerSample;
+
+                // Every channel has a 4 byte header holding the first sample, the rest are 4 bit nibbles.
+                mFramesPerBlock = ((mBlockAlign - 4 * mChannelCount) * 8) / (4 * mChannelCount) + 1;
+                if (chunkSize >= 20 && mFramesPerBlock <= 1)
+                    throw new IOException("Invalid IMA-ADPCM block size: " + mBlockAlign);
+                break;
+
+            default:
+                throw new IOException("Unsupported WAVE encoding: " + mEncoding);
+        }
+    }
+
+    /**
+     * Reads exactly the given amount of bytes at the given position into the start of the buffer.
+     */
+    static void readFully(final FileChannel channel, final ByteBuffer buffer, long position, final int count) throws IOException {
+        buffer.clear();
+        buffer.limit(count);
+
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of WAVE stream.");
+
+            position += read;
+        }
+
+        buffer.flip();
+    }
+
+    /**
+     * Creates a new decoder for this format that outputs 16 bit little endian interleaved PCM.
+     */
+    public PcmDecoder createDecoder() {
+        if (mEncoding == FORMAT_IMA_ADPCM)
+            return new ImaAdpcmDecoder(mChannelCount, mBlockAlign, mFramesPerBlock);
+
+        return new LinearPcmDecoder(mChannelCount, mContainerBits, mEncoding == FORMAT_IEEE_FLOAT);
+    }
+
+    public int getEncoding() {
+        return mEncoding;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Returns the size in bytes of one encoded block. For linear PCM a block is one frame.
+     */
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * Returns the size in bits each sample is stored in, e.g. 32 for 24 bit samples padded to 32 bit containers.
+     */
+    public int getContainerBits() {
+        return mContainerBits;
+    }
+
+    /**
+     * Returns the number of frames decoded from one encoded block.
+     */
+    public int getFramesPerBlock() {
+        return mFramesPerBlock;
+    }
+
+    /**
+     * Returns the absolute position of the audio data in the channel.
+     */
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    public long getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * Returns the number of complete blocks in the audio data.
+     */
+    public long getBlockCount() {
+        return mDataLength / mBlockAlign;
+    }
+
+    /**
+     * Returns the number of frames in the audio data.
+     */
+    public long getFrameCount() {
+        return getBlockCount() * mFramesPerBlock;
+    }
+
+    /**
+     * Returns the duration of the audio data in milliseconds.
+     */
+    public long getDuration() {
+        return getFrameCount() * 1000 / mSampleRate;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[encoding: " + mEncoding + ", channels: " + mChannelCount + ", sampleRate: " + mSampleRate + ", bits: " + mBitsPerSample
+                + ", blockAlign: " + mBlockAlign + ", frames: " + getFrameCount() + "]";
+    }
+
+}
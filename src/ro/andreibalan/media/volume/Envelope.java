@@ -0,0 +1,217 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.volume;
+
+import java.util.Arrays;
+
+/**
+ * Automation envelope made of breakpoints that can be attached to a channel or the balance of any {@link Volume}
+ * using {@link Volume#automate(Envelope, Target)}.
+ * <br/><br/>
+ * Every point has a time in milliseconds from the start of the envelope, a value and the curve used to reach it from the previous point.
+ * A loop region between two points repeats until the automation is stopped, e.g. for a pumping effect.
+ * <br/><br/>
+ * The points are copied when the envelope is attached, so an envelope can be reused and changed afterwards without affecting the running automations.
+ * All the running automations are evaluated together by the {@link EnvelopeEngine}.
+ */
+public class Envelope {
+
+    public final static String TAG = Envelope.class.getSimpleName();
+
+    /**
+     * Shape of the segment that leads to a point.
+     */
+    public enum Curve {
+
+        /**
+         * Keeps the previous value and jumps to the point value when the point is reached.
+         */
+        STEP,
+
+        /**
+         * Straight line from the previous value.
+         */
+        LINEAR,
+
+        /**
+         * Starts slowly when rising and drops quickly when falling, which sounds even for fades.
+         */
+        EXPONENTIAL,
+
+        /**
+         * S-shaped curve that starts and ends slowly.
+         */
+        SMOOTH
+    }
+
+    /**
+     * Volume value an envelope is attached to.
+     */
+    public enum Target {
+
+        /**
+         * Both channels with the same value, between 0.0 and 1.0.
+         */
+        CHANNEL,
+
+        /**
+         * Left channel, between 0.0 and 1.0.
+         */
+        LEFT_CHANNEL,
+
+        /**
+         * Right channel, between 0.0 and 1.0.
+         */
+        RIGHT_CHANNEL,
+
+        /**
+         * Channel balance, between -1.0 and +1.0.
+         */
+        BALANCE
+    }
+
+    private int[] mTimes = new int[4];
+
+    private float[] mValues = new float[4];
+
+    private Curve[] mCurves = new Curve[4];
+
+    private int mCount = 0;
+
+    private int mLoopStart = -1;
+
+    private int mLoopEnd = -1;
+
+    /**
+     * Adds a point reached with a linear segment.
+     * 
+     * @see #addPoint(int, float, Curve)
+     */
+    public Envelope addPoint(final int time, final float value) {
+        return addPoint(time, value, Curve.LINEAR);
+    }
+
+    /**
+     * Adds a point at the end of the envelope.<br/>
+     * If the first point is not at time 0 the envelope starts from the value the target has when it is attached.
+     * 
+     * @param time - Milliseconds from the start of the envelope, not before the previous point.
+     * @param value - Value of the target at this point.
+     * @param curve - Shape of the segment from the previous point to this one.
+     * @return - This envelope.
+     */
+    public Envelope addPoint(final int time, final float value, final Curve curve) {
+        if (time < 0 || (mCount > 0 && time < mTimes[mCount - 1]))
+            throw new IllegalArgumentException("Point time can not be negative or before the previous point.");
+
+        if (curve == null)
+            throw new IllegalArgumentException("Curve can not be null.");
+
+        if (mCount == mTimes.length) {
+            mTimes = Arrays.copyOf(mTimes, mCount * 2);
+            mValues = Arrays.copyOf(mValues, mCount * 2);
+            mCurves = Arrays.copyOf(mCurves, mCount * 2);
+        }
+
+        mTimes[mCount] = time;
+        mValues[mCount] = value;
+        mCurves[mCount] = curve;
+        mCount++;
+        return this;
+    }
+
+    /**
+     * Repeats the segments between the two points until the automation is stopped.
+     * 
+     * @param startPoint - Index of the point the loop jumps back to.
+     * @param endPoint - Index of the point that ends the loop, after the start point and later in time.
+     * @return - This envelope.
+     */
+    public Envelope setLoop(final int startPoint, final int endPoint) {
+        if (startPoint < 0 || endPoint <= startPoint || endPoint >= mCount)
+            throw new IllegalArgumentException("Loop points must be existing points with the start before the end.");
+
+        if (mTimes[endPoint] <= mTimes[startPoint])
+            throw new IllegalArgumentException("Loop can not have a zero length.");
+
+        mLoopStart = startPoint;
+        mLoopEnd = endPoint;
+        return this;
+    }
+
+    /**
+     * Removes the loop region so the envelope ends at its last point.
+     */
+    public Envelope clearLoop() {
+        mLoopStart = -1;
+        mLoopEnd = -1;
+        return this;
+    }
+
+    public int getPointCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the time of the last point in milliseconds.
+     */
+    public int getDuration() {
+        return (mCount > 0) ? mTimes[mCount - 1] : 0;
+    }
+
+    public boolean isLooping() {
+        return (mLoopStart >= 0);
+    }
+
+    /**
+     * Returns the index of the loop start point or -1.
+     */
+    public int getLoopStart() {
+        return mLoopStart;
+    }
+
+    /**
+     * Returns the index of the loop end point or -1.
+     */
+    public int getLoopEnd() {
+        return mLoopEnd;
+    }
+
+    public int getTime(final int point) {
+        checkPoint(point);
+        return mTimes[point];
+    }
+
+    public float getValue(final int point) {
+        checkPoint(point);
+        return mValues[point];
+    }
+
+    public Curve getCurve(final int point) {
+        checkPoint(point);
+        return mCurves[point];
+    }
+
+    private void checkPoint(final int point) {
+        if (point < 0 || point >= mCount)
+            throw new IllegalArgumentException("Point " + point + " does not exist.");
+    }
+
+}
@@ -0,0 +1,424 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.volume;
+
+import java.util.Arrays;
+
+import ro.andreibalan.media.AudioClock;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.volume.Envelope.Target;
+import android.util.Log;
+
+/**
+ * Evaluates every running {@link Envelope} automation in one pass on the audio thread.
+ * <br/><br/>
+ * The points of all the automations are packed into shared primitive arrays, and every automation only keeps its offset, loop region and
+ * the segment it is currently in. A tick walks these arrays and writes the values straight into the Volume Instances, so there is no animator
+ * per segment and no allocation per tick. The engine only ticks while there is at least one automation running.
+ * <br/><br/>
+ * Every engine runs on one AudioThread. A Volume uses the engine of its {@link Fader}, see {@link Fader#getEnvelopeEngine()}, so automations
+ * follow the thread and clock the manager has been given. Automations started or stopped by a listener called from a tick are posted
+ * and run after the tick.
+ */
+public class EnvelopeEngine {
+
+    public final static String TAG = EnvelopeEngine.class.getSimpleName();
+
+    /**
+     * Default time between two ticks in milliseconds.
+     */
+    public final static int DEFAULT_TICK_INTERVAL = 10;
+
+    private final static byte CURVE_STEP = 0;
+    private final static byte CURVE_LINEAR = 1;
+    private final static byte CURVE_EXPONENTIAL = 2;
+    private final static byte CURVE_SMOOTH = 3;
+
+    private static volatile EnvelopeEngine sInstance;
+
+    private final AudioThread mAudioThread;
+
+    // Per automation, only touched on the audio thread.
+    private Volume[] mVolumes = new Volume[8];
+    private Target[] mTargets = new Target[8];
+    private int[] mOffsets = new int[8];
+    private int[] mCounts = new int[8];
+    private int[] mLoopStarts = new int[8];
+    private int[] mLoopEnds = new int[8];
+    private int[] mCursors = new int[8];
+    private long[] mStartTimes = new long[8];
+    private int mAutomationCount = 0;
+
+    // Points of every automation, packed one after the other in the order of the automations' offsets.
+    private int[] mPointTimes = new int[64];
+    private float[] mPointValues = new float[64];
+    private byte[] mPointCurves = new byte[64];
+    private int mPointCount = 0;
+
+    /**
+     * Number of running automations that can be read from any thread.
+     */
+    private volatile int mActiveCount = 0;
+
+    private volatile int mTickInterval = DEFAULT_TICK_INTERVAL;
+
+    private boolean mTickScheduled = false;
+
+    /**
+     * True while a tick walks the automations, so changes made by the listeners it calls are posted instead of run in place.
+     */
+    private boolean mTicking = false;
+
+    private long mTickCount = 0;
+
+    /**
+     * Reused command that evaluates every automation and schedules the next tick while there is something to evaluate.
+     */
+    private final AudioCommand mTickCommand = new AudioCommand() {
+
+        @Override
+        public void run() {
+            mTickScheduled = false;
+
+            // The next tick is scheduled even if this one throws so the other envelopes keep running.
+            try {
+                tick(mAudioThread.getClock().nanoTime());
+            } finally {
+                scheduleTick();
+            }
+        }
+    };
+
+    /**
+     * @param audioThread - Thread the automations are evaluated on.
+     */
+    public EnvelopeEngine(final AudioThread audioThread) {
+        if (audioThread == null)
+            throw new IllegalArgumentException("Audio thread can not be null.");
+
+        mAudioThread = audioThread;
+    }
+
+    /**
+     * Returns the engine running on the shared {@link AudioThread#getInstance()}, used by the default fader.
+     */
+    public static EnvelopeEngine getInstance() {
+        EnvelopeEngine instance = sInstance;
+        if (instance == null) {
+            synchronized (EnvelopeEngine.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new EnvelopeEngine(AudioThread.getInstance());
+                    sInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    public AudioThread getAudioThread() {
+        return mAudioThread;
+    }
+
+    /**
+     * Sets the time between two ticks in milliseconds. Shorter intervals give smoother automations for more work on the audio thread.
+     */
+    public void setTickInterval(final int tickInterval) {
+        if (tickInterval <= 0)
+            throw new IllegalArgumentException("Tick interval must be greater than 0.");
+
+        mTickInterval = tickInterval;
+    }
+
+    public int getTickInterval() {
+        return mTickInterval;
+    }
+
+    /**
+     * Returns the number of automations that are running.
+     */
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * Returns the number of ticks since the engine has been created. Only meaningful on the audio thread.
+     */
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * Starts the automation of the target on the audio thread, replacing the one that is running on the same target.
+     */
+    void start(final Volume volume, final Target target, final Envelope envelope) {
+        // The points are copied right away so the envelope can be changed by the caller.
+        final int count = envelope.getPointCount();
+        final int[] times = new int[count];
+        final float[] values = new float[count];
+        final byte[] curves = new byte[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = envelope.getTime(i);
+            values[i] = envelope.getValue(i);
+            curves[i] = (byte) envelope.getCurve(i).ordinal();
+        }
+
+        final int loopStart = envelope.getLoopStart();
+        final int loopEnd = envelope.getLoopEnd();
+
+        run(new AudioCommand() {
+
+            @Override
+            public void run() {
+                handleStart(volume, target, times, values, curves, loopStart, loopEnd);
+            }
+        });
+    }
+
+    /**
+     * Stops the automation of the target on the audio thread, or every automation of the volume if the target is null.<br/>
+     * The target keeps the value it has at that moment.
+     */
+    void stop(final Volume volume, final Target target) {
+        if (mActiveCount == 0)
+            return;
+
+        run(new AudioCommand() {
+
+            @Override
+            public void run() {
+                for (int i = mAutomationCount - 1; i >= 0; i--)
+                    if (mVolumes[i] == volume && (target == null || mTargets[i] == target))
+                        removeAutomation(i);
+
+                mActiveCount = mAutomationCount;
+            }
+        });
+    }
+
+    /**
+     * Runs the command on the audio thread. A command issued from a tick is posted so it runs once the tick has walked every automation.
+     */
+    private void run(final AudioCommand command) {
+        if (mTicking && mAudioThread.isCurrentThread())
+            mAudioThread.post(command);
+        else
+            mAudioThread.execute(command);
+    }
+
+    private void handleStart(final Volume volume, final Target target, final int[] times, final float[] values, final byte[] curves, final int loopStart,
+            final int loopEnd) {
+        Log.v(TAG, "start target: " + target + ", points: " + times.length);
+
+        for (int i = mAutomationCount - 1; i >= 0; i--)
+            if (mVolumes[i] == volume && mTargets[i] == target)
+                removeAutomation(i);
+
+        // An envelope that does not start at 0 starts from the current value of the target.
+        final int shift = (times[0] > 0) ? 1 : 0;
+        final int count = times.length + shift;
+
+        ensureAutomationCapacity(mAutomationCount + 1);
+        ensurePointCapacity(mPointCount + count);
+
+        final int offset = mPointCount;
+        if (shift > 0) {
+            mPointTimes[offset] = 0;
+            mPointValues[offset] = volume.getAutomationValue(target);
+            mPointCurves[offset] = CURVE_STEP;
+        }
+
+        System.arraycopy(times, 0, mPointTimes, offset + shift, times.length);
+        System.arraycopy(values, 0, mPointValues, offset + shift, values.length);
+        System.arraycopy(curves, 0, mPointCurves, offset + shift, curves.length);
+        mPointCount += count;
+
+        final int index = mAutomationCount++;
+        mVolumes[index] = volume;
+        mTargets[index] = target;
+        mOffsets[index] = offset;
+        mCounts[index] = count;
+        mLoopStarts[index] = (loopStart >= 0) ? loopStart + shift : -1;
+        mLoopEnds[index] = (loopEnd >= 0) ? loopEnd + shift : -1;
+        mCursors[index] = 0;
+        mStartTimes[index] = mAudioThread.getClock().nanoTime();
+
+        mActiveCount = mAutomationCount;
+
+        // The first value is applied right away instead of waiting for the next tick.
+        tick(mStartTimes[index]);
+        scheduleTick();
+    }
+
+    private void scheduleTick() {
+        if (mTickScheduled || mAutomationCount == 0)
+            return;
+
+        mTickScheduled = true;
+        mAudioThread.schedule(mTickCommand, mAudioThread.getClock().fromNow(mTickInterval));
+    }
+
+    /**
+     * Evaluates every automation at the given clock time and removes the ones that have ended.
+     */
+    private void tick(final long now) {
+        mTickCount++;
+        mTicking = true;
+        try {
+            evaluateAutomations(now);
+        } finally {
+            mTicking = false;
+        }
+    }
+
+    private void evaluateAutomations(final long now) {
+        int index = 0;
+        while (index < mAutomationCount) {
+            final int offset = mOffsets[index];
+            final int last = offset + mCounts[index] - 1;
+            final int loopStart = mLoopStarts[index];
+            final int end = (loopStart >= 0) ? offset + mLoopEnds[index] : last;
+
+            long time = (now - mStartTimes[index]) / AudioClock.NANOS_PER_MILLISECOND;
+
+            if (loopStart >= 0) {
+                final int loopStartTime = mPointTimes[offset + loopStart];
+                final int loopEndTime = mPointTimes[offset + mLoopEnds[index]];
+
+                if (time >= loopEndTime) {
+                    final int loopLength = loopEndTime - loopStartTime;
+                    time = (loopLength > 0) ? loopStartTime + (time - loopStartTime) % loopLength : loopStartTime;
+                }
+            } else if (time >= mPointTimes[last]) {
+                // Ended, the target is left at the value of the last point.
+                mVolumes[index].applyAutomation(mTargets[index], mPointValues[last]);
+                removeAutomation(index);
+                continue;
+            }
+
+            // The cursor only moves forward unless a loop jumped back before it.
+            int point = offset + mCursors[index];
+            if (time < mPointTimes[point])
+                point = offset + Math.max(loopStart, 0);
+
+            while (point < end && mPointTimes[point + 1] <= time)
+                point++;
+
+            mCursors[index] = point - offset;
+            mVolumes[index].applyAutomation(mTargets[index], evaluate(point, end, time));
+            index++;
+        }
+
+        mActiveCount = mAutomationCount;
+    }
+
+    /**
+     * Returns the value of the segment that starts at the given point, or the value of the end point once it is reached.
+     */
+    private float evaluate(final int point, final int end, final long time) {
+        if (point >= end)
+            return mPointValues[end];
+
+        final float from = mPointValues[point];
+        final float to = mPointValues[point + 1];
+        final int span = mPointTimes[point + 1] - mPointTimes[point];
+        if (span <= 0)
+            return to;
+
+        final float x = (float) (time - mPointTimes[point]) / span;
+
+        switch (mPointCurves[point + 1]) {
+            case CURVE_STEP:
+                return from;
+
+            case CURVE_EXPONENTIAL:
+                if (to >= from)
+                    return from + (to - from) * x * x;
+
+                return to + (from - to) * (1f - x) * (1f - x);
+
+            case CURVE_SMOOTH:
+                return from + (to - from) * x * x * (3f - 2f * x);
+
+            case CURVE_LINEAR:
+            default:
+                return from + (to - from) * x;
+        }
+    }
+
+    /**
+     * Removes the automation and compacts the points of the automations that follow it.
+     */
+    private void removeAutomation(final int index) {
+        final int offset = mOffsets[index];
+        final int count = mCounts[index];
+
+        System.arraycopy(mPointTimes, offset + count, mPointTimes, offset, mPointCount - offset - count);
+        System.arraycopy(mPointValues, offset + count, mPointValues, offset, mPointCount - offset - count);
+        System.arraycopy(mPointCurves, offset + count, mPointCurves, offset, mPointCount - offset - count);
+        mPointCount -= count;
+
+        for (int i = 0; i < mAutomationCount; i++)
+            if (mOffsets[i] > offset)
+                mOffsets[i] -= count;
+
+        // The order of the automations does not matter so the last one takes the free slot.
+        final int lastIndex = --mAutomationCount;
+        mVolumes[index] = mVolumes[lastIndex];
+        mTargets[index] = mTargets[lastIndex];
+        mOffsets[index] = mOffsets[lastIndex];
+        mCounts[index] = mCounts[lastIndex];
+        mLoopStarts[index] = mLoopStarts[lastIndex];
+        mLoopEnds[index] = mLoopEnds[lastIndex];
+        mCursors[index] = mCursors[lastIndex];
+        mStartTimes[index] = mStartTimes[lastIndex];
+
+        mVolumes[lastIndex] = null;
+        mTargets[lastIndex] = null;
+    }
+
+    private void ensureAutomationCapacity(final int capacity) {
+        if (capacity <= mVolumes.length)
+            return;
+
+        final int length = Math.max(capacity, mVolumes.length * 2);
+        mVolumes = Arrays.copyOf(mVolumes, length);
+        mTargets = Arrays.copyOf(mTargets, length);
+        mOffsets = Arrays.copyOf(mOffsets, length);
+        mCounts = Arrays.copyOf(mCounts, length);
+        mLoopStarts = Arrays.copyOf(mLoopStarts, length);
+        mLoopEnds = Arrays.copyOf(mLoopEnds, length);
+        mCursors = Arrays.copyOf(mCursors, length);
+        mStartTimes = Arrays.copyOf(mStartTimes, length);
+    }
+
+    private void ensurePointCapacity(final int capacity) {
+        if (capacity <= mPointTimes.length)
+            return;
+
+        final int length = Math.max(capacity, mPointTimes.length * 2);
+        mPointTimes = Arrays.copyOf(mPointTimes, length);
+        mPointValues = Arrays.copyOf(mPointValues, length);
+        mPointCurves = Arrays.copyOf(mPointCurves, length);
+    }
+
+}
@@ -0,0 +1,254 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.volume;
+
+import ro.andreibalan.media.AudioClock;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
+import android.animation.Animator;
+import android.animation.Animator.AnimatorListener;
+import android.animation.ValueAnimator;
+import android.animation.ValueAnimator.AnimatorUpdateListener;
+
+/**
+ * Drives the fades of a {@link Volume} from a start value to an end value.
+ * <br/><br/>
+ * The default fader uses a ValueAnimator, so the fades must be started on a Looper thread. {@link #forAudioThread(AudioThread)}
+ * returns a fader that steps the fades with the scheduled commands of an AudioThread instead, so they follow its clock.
+ * <br/><br/>
+ * Every fader also supplies the {@link EnvelopeEngine} the envelope automations of its volumes run on.
+ */
+public abstract class Fader {
+
+    public final static String TAG = Fader.class.getSimpleName();
+
+    /**
+     * Default time between two steps of the faders that run on an AudioThread, in milliseconds.
+     */
+    public final static int DEFAULT_STEP = 10;
+
+    /**
+     * Receives the values of a fade.
+     */
+    public static interface Callback {
+
+        /**
+         * Called with every new value of the fade, starting with the start value.
+         */
+        public void onFadeUpdate(float value);
+
+        /**
+         * Called once when the fade has reached its end value or it has been cancelled.
+         */
+        public void onFadeEnd(Fade fade);
+    }
+
+    /**
+     * A running fade.
+     */
+    public static interface Fade {
+
+        /**
+         * Stops the fade at its current value. Does nothing if the fade has already ended.
+         */
+        public void cancel();
+    }
+
+    private EnvelopeEngine mEnvelopeEngine;
+
+    private final static Fader ANIMATOR = new Fader() {
+
+        @Override
+        public Fade start(final float startValue, final float endValue, final long duration, final Callback callback) {
+            final ValueAnimator animator = ValueAnimator.ofFloat(startValue, endValue);
+            final Fade fade = new Fade() {
+
+                @Override
+                public void cancel() {
+                    animator.cancel();
+                }
+            };
+
+            animator.setDuration(duration);
+            animator.addUpdateListener(new AnimatorUpdateListener() {
+
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    callback.onFadeUpdate((float) animation.getAnimatedValue());
+                }
+            });
+            animator.addListener(new AnimatorListener() {
+
+                @Override
+                public void onAnimationStart(Animator animation) {
+                }
+
+                @Override
+                public void onAnimationRepeat(Animator animation) {
+                }
+
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    callback.onFadeEnd(fade);
+                }
+
+                @Override
+                public void onAnimationCancel(Animator animation) {
+                    // onAnimationEnd follows right away.
+                }
+            });
+            animator.start();
+
+            return fade;
+        }
+    };
+
+    /**
+     * Returns the fader backed by ValueAnimator that is used by default.
+     */
+    public static Fader getDefault() {
+        return ANIMATOR;
+    }
+
+    /**
+     * Returns a fader that steps the fades every {@link #DEFAULT_STEP} ms on the given AudioThread, timed by its clock.
+     * The fades must be started and cancelled on that thread.
+     */
+    public static Fader forAudioThread(final AudioThread audioThread) {
+        return forAudioThread(audioThread, DEFAULT_STEP);
+    }
+
+    /**
+     * Returns a fader that steps the fades on the given AudioThread, timed by its clock.
+     * The fades must be started and cancelled on that thread.
+     * 
+     * @param audioThread - Thread the fades run on.
+     * @param step - Time between two steps in milliseconds.
+     */
+    public static Fader forAudioThread(final AudioThread audioThread, final int step) {
+        if (audioThread == null)
+            throw new IllegalArgumentException("Audio thread can not be null.");
+
+        if (step <= 0)
+            throw new IllegalArgumentException("Step must be greater than 0.");
+
+        return new Fader() {
+
+            @Override
+            public Fade start(final float startValue, final float endValue, final long duration, final Callback callback) {
+                final ScheduledFade fade = new ScheduledFade(audioThread, step, startValue, endValue, duration, callback);
+                fade.run();
+                return fade;
+            }
+
+            @Override
+            protected EnvelopeEngine createEnvelopeEngine() {
+                return new EnvelopeEngine(audioThread);
+            }
+        };
+    }
+
+    /**
+     * Returns the engine that runs the envelope automations of the volumes using this fader, created on first use.
+     */
+    public synchronized EnvelopeEngine getEnvelopeEngine() {
+        if (mEnvelopeEngine == null)
+            mEnvelopeEngine = createEnvelopeEngine();
+
+        return mEnvelopeEngine;
+    }
+
+    /**
+     * Creates the engine returned by {@link #getEnvelopeEngine()}. The default fader uses the engine of the shared AudioThread,
+     * the faders of {@link #forAudioThread(AudioThread)} one engine on their own thread.
+     */
+    protected EnvelopeEngine createEnvelopeEngine() {
+        return EnvelopeEngine.getInstance();
+    }
+
+    /**
+     * Starts a linear fade, the first value is delivered right away.
+     * 
+     * @param startValue - Start Value
+     * @param endValue - End Value
+     * @param duration - Duration of the fade in milliseconds
+     * @param callback - Receives the values and the end of the fade.
+     */
+    public abstract Fade start(float startValue, float endValue, long duration, Callback callback);
+
+    /**
+     * Fade that reschedules itself on an AudioThread until it reaches the end value.
+     */
+    private final static class ScheduledFade extends AudioCommand implements Fade {
+
+        private final AudioThread mAudioThread;
+
+        private final long mStep;
+
+        private final float mStartValue;
+
+        private final float mEndValue;
+
+        private final long mStartTime;
+
+        private final long mDuration;
+
+        private final Callback mCallback;
+
+        private boolean mEnded = false;
+
+        private ScheduledFade(final AudioThread audioThread, final int step, final float startValue, final float endValue, final long duration, final Callback callback) {
+            mAudioThread = audioThread;
+            mStep = step * AudioClock.NANOS_PER_MILLISECOND;
+            mStartValue = startValue;
+            mEndValue = endValue;
+            mStartTime = audioThread.getClock().nanoTime();
+            mDuration = Math.max(0, duration) * AudioClock.NANOS_PER_MILLISECOND;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (mEnded)
+                return;
+
+            final long now = mAudioThread.getClock().nanoTime();
+            final float fraction = (mDuration == 0) ? 1f : Math.min(1f, (float) (now - mStartTime) / mDuration);
+            mCallback.onFadeUpdate(mStartValue + (mEndValue - mStartValue) * fraction);
+
+            if (fraction >= 1f) {
+                mEnded = true;
+                mCallback.onFadeEnd(this);
+            } else
+                mAudioThread.schedule(this, Math.min(now + mStep, mStartTime + mDuration));
+        }
+
+        @Override
+        public void cancel() {
+            if (mEnded)
+                return;
+
+            mEnded = true;
+            mAudioThread.unschedule(this);
+            mCallback.onFadeEnd(this);
+        }
+    }
+
+}
@@ -11,12 +11,9 @@
  */
 package ro.andreibalan.media.volume;
 
-import java.util.concurrent.CopyOnWriteArrayList;
-
-import android.animation.Animator;
-import android.animation.Animator.AnimatorListener;
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
+import ro.andreibalan.media.ListenerRegistry;
+import ro.andreibalan.media.flow.AudioFlow;
+import ro.andreibalan.media.flow.ConflatingPublisher;
 import android.util.Log;
 
 public class Volume {
@@ -70,6 +67,18 @@ public class Volume {
      */
     private float mChannelOffset = 1.0f;
 
+    /**
+     * Multiplier set by a sidechain ducker on top of the channels and the offset, so it never interferes with {@link #lowerChannels()}.
+     */
+    private float mSidechainGain = 1.0f;
+
+    /**
+     * Multiplier and ceiling of the output device profile, set on master volumes by the AudioManager when the route changes.
+     */
+    private float mOutputGain = 1.0f;
+
+    private float mCeiling = 1.0f;
+
     /**
      * Used for temporarily lowering the volume.
      * Saving the original channel offset before lowering it and then restoring it from here.
@@ -92,20 +101,75 @@ public class Volume {
     private boolean mMuted = false;
 
     /**
-     * Animator used to Fade Channel Volumes.
+     * Drives the fades of this volume.
+     */
+    private Fader mFader = Fader.getDefault();
+
+    /**
+     * Engine of the fader running the automations of this volume, null until the first automation so volumes that are never automated
+     * do not start its thread.
+     */
+    private volatile EnvelopeEngine mEnvelopeEngine;
+
+    /**
+     * Running fade of the Channel Volumes.
+     */
+    private Fader.Fade mVolumeFade;
+
+    /**
+     * Running fade of the Balance Value.
+     */
+    private Fader.Fade mBalanceFade;
+
+    /**
+     * Running fade of the Channel Offset when temporarily lowering or raising the channels.
      */
-    private ValueAnimator mVolumeAnimator;
+    private Fader.Fade mOffsetFade;
 
     /**
-     * Animator used to Fade Balance Values.
+     * Holder for the Listeners. The registry dispatches over an array snapshot and drops weakly registered listeners that have been collected.
      */
-    private ValueAnimator mBalanceAnimator;
+    private final ListenerRegistry<OnVolumeChangeListener> mListeners = new ListenerRegistry<OnVolumeChangeListener>();
 
     /**
-     * Holder for the Listeners. Using CopyOnWriteArrayList because it is thread safe it we do not
-     * need to wrap all our add, remove and notify code into a synchronized block.
+     * Publisher of the calculated levels, for observers that should not be called on every change.
      */
-    private CopyOnWriteArrayList<OnVolumeChangeListener> mListeners = new CopyOnWriteArrayList<OnVolumeChangeListener>();
+    private final ConflatingPublisher<Level> mPublisher = new ConflatingPublisher<Level>();
+
+    /**
+     * Calculated channel levels and balance at one point in time, as published by {@link #getPublisher()}.
+     */
+    public final static class Level {
+
+        private final float mLeftChannel;
+
+        private final float mRightChannel;
+
+        private final float mBalance;
+
+        private Level(final float leftChannel, final float rightChannel, final float balance) {
+            mLeftChannel = leftChannel;
+            mRightChannel = rightChannel;
+            mBalance = balance;
+        }
+
+        public float getLeftChannel() {
+            return mLeftChannel;
+        }
+
+        public float getRightChannel() {
+            return mRightChannel;
+        }
+
+        public float getBalance() {
+            return mBalance;
+        }
+
+        @Override
+        public String toString() {
+            return "Level[left: " + mLeftChannel + ", right: " + mRightChannel + ", balance: " + mBalance + "]";
+        }
+    }
 
     /** 
      * Default Volume and Balance Listener
@@ -125,69 +189,67 @@ public class Volume {
         public void onBalanceChange(float balance);
     }
 
-    private AnimatorListener mVolumeAnimatorListener = new AnimatorListener() {
+    private final Fader.Callback mVolumeFadeCallback = new Fader.Callback() {
 
         @Override
-        public void onAnimationStart(Animator animation) {
-
+        public void onFadeUpdate(float value) {
+            setChannel(value);
         }
 
         @Override
-        public void onAnimationRepeat(Animator animation) {
-
-        }
-
-        @Override
-        public void onAnimationEnd(Animator animation) {
-            mVolumeAnimator = null;
-        }
-
-        @Override
-        public void onAnimationCancel(Animator animation) {
-            mVolumeAnimator = null;
+        public void onFadeEnd(Fader.Fade fade) {
+            if (mVolumeFade == fade)
+                mVolumeFade = null;
         }
     };
 
-    private AnimatorListener mBalanceAnimatorListener = new AnimatorListener() {
+    private final Fader.Callback mBalanceFadeCallback = new Fader.Callback() {
 
         @Override
-        public void onAnimationStart(Animator animation) {
-
+        public void onFadeUpdate(float value) {
+            setBalance(value);
         }
 
         @Override
-        public void onAnimationRepeat(Animator animation) {
-
+        public void onFadeEnd(Fader.Fade fade) {
+            if (mBalanceFade == fade)
+                mBalanceFade = null;
         }
+    };
 
-        @Override
-        public void onAnimationEnd(Animator animation) {
-            mVolumeAnimator = null;
-        }
+    private final Fader.Callback mOffsetFadeCallback = new Fader.Callback() {
 
         @Override
-        public void onAnimationCancel(Animator animation) {
-            mVolumeAnimator = null;
+        public void onFadeUpdate(float value) {
+            applyChannelOffset(value);
         }
-    };
-
-    private AnimatorUpdateListener mVolumeUpdateListener = new AnimatorUpdateListener() {
 
         @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            setChannel((float) animation.getAnimatedValue());
+        public void onFadeEnd(Fader.Fade fade) {
+            if (mOffsetFade == fade)
+                mOffsetFade = null;
         }
-
     };
 
-    private AnimatorUpdateListener mBalanceUpdateListener = new AnimatorUpdateListener() {
-
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            setBalance((float) animation.getAnimatedValue());
+    /**
+     * Sets the fader that drives the fades and the automations of this volume. Running fades keep their fader, running automations are stopped.
+     */
+    public void setFader(final Fader fader) {
+        if (fader == null)
+            throw new IllegalArgumentException("Fader can not be null.");
+
+        final EnvelopeEngine envelopeEngine = mEnvelopeEngine;
+        if (envelopeEngine != null && fader.getEnvelopeEngine() != envelopeEngine) {
+            envelopeEngine.stop(this, null);
+            mEnvelopeEngine = null;
         }
 
-    };
+        mFader = fader;
+    }
+
+    public Fader getFader() {
+        return mFader;
+    }
 
     /**
      * Empty Constructor
@@ -227,11 +289,33 @@ public class Volume {
      * @param listener - OnVolumeChangeListener
      */
     public void addOnVolumeChangeListener(OnVolumeChangeListener listener) {
-        Log.v(TAG, "addOnVolumeChangeListener: " + listener);
+        registerOnVolumeChangeListener(listener);
+    }
 
-        if (!mListeners.contains(listener))
-            if (mListeners.add(listener))
-                Log.v(TAG, "addOnVolumeChangeListener: Added");
+    /**
+     * Add an instance of Volume.OnVolumeChangeListener to the current Volume instance and return its registration.<br/>
+     * The listener stays registered until it is removed, either with {@link #removeOnVolumeChangeListener(OnVolumeChangeListener)} or through the returned registration.
+     * 
+     * @param listener - OnVolumeChangeListener
+     * @return - Registration of the listener, the existing one if it was already added.
+     */
+    public ListenerRegistry.Registration<OnVolumeChangeListener> registerOnVolumeChangeListener(OnVolumeChangeListener listener) {
+        Log.v(TAG, "registerOnVolumeChangeListener: " + listener);
+
+        return mListeners.add(listener);
+    }
+
+    /**
+     * Add an instance of Volume.OnVolumeChangeListener that is only held weakly, so the Volume does not keep its owner reachable.<br/>
+     * <b>NOTE: The caller must keep a reference to the listener, e.g. in a field of its owner, or it is dropped on the next collection.</b>
+     * 
+     * @param listener - OnVolumeChangeListener
+     * @return - Registration of the listener, the existing one if it was already added.
+     */
+    public ListenerRegistry.Registration<OnVolumeChangeListener> registerWeakOnVolumeChangeListener(OnVolumeChangeListener listener) {
+        Log.v(TAG, "registerWeakOnVolumeChangeListener: " + listener);
+
+        return mListeners.addWeak(listener);
     }
 
     /**
@@ -242,9 +326,15 @@ public class Volume {
     public void removeOnVolumeChangeListener(OnVolumeChangeListener listener) {
         Log.v(TAG, "removeOnVolumeChangeListener: " + listener);
 
-        if (mListeners.contains(listener))
-            if (mListeners.remove(listener))
-                Log.v(TAG, "removeOnVolumeChangeListener: Removed");
+        if (mListeners.remove(listener))
+            Log.v(TAG, "removeOnVolumeChangeListener: Removed");
+    }
+
+    /**
+     * Returns the number of registered listeners.
+     */
+    public int getListenerCount() {
+        return mListeners.size();
     }
 
     /**
@@ -252,9 +342,21 @@ public class Volume {
      */
     private void notifyVolumeChange() {
         Log.v(TAG, "notifyVolumeChange " + mListeners.size() + " Listeners");
+        dispatchVolumeChange();
+    }
 
-        for (int i = 0; i < mListeners.size(); i++)
-            mListeners.get(i).onVolumeChange(getCalculatedLeftChannel(), getCalculatedRightChannel());
+    /**
+     * Calls the listeners without logging, so the {@link EnvelopeEngine} does not allocate on every tick.
+     */
+    private void dispatchVolumeChange() {
+        final ListenerRegistry.Registration<OnVolumeChangeListener>[] listeners = mListeners.getSnapshot();
+        for (int i = 0; i < listeners.length; i++) {
+            final OnVolumeChangeListener listener = listeners[i].get();
+            if (listener != null)
+                listener.onVolumeChange(getCalculatedLeftChannel(), getCalculatedRightChannel());
+        }
+
+        publishLevel();
     }
 
     /**
@@ -263,9 +365,35 @@ public class Volume {
      */
     private void notifyBalanceChange() {
         Log.v(TAG, "notifyBalanceChange " + mListeners.size() + " Listeners");
+        dispatchBalanceChange();
+    }
+
+    private void dispatchBalanceChange() {
+        final ListenerRegistry.Registration<OnVolumeChangeListener>[] listeners = mListeners.getSnapshot();
+        for (int i = 0; i < listeners.length; i++) {
+            final OnVolumeChangeListener listener = listeners[i].get();
+            if (listener != null)
+                listener.onBalanceChange(mBalance);
+        }
 
-        for (int i = 0; i < mListeners.size(); i++)
-            mListeners.get(i).onBalanceChange(mBalance);
+        publishLevel();
+    }
+
+    /**
+     * Publishes the current levels. The level is only built if somebody is subscribed.
+     */
+    private void publishLevel() {
+        if (mPublisher.hasSubscribers())
+            mPublisher.publish(new Level(getCalculatedLeftChannel(), getCalculatedRightChannel(), mBalance));
+    }
+
+    /**
+     * Returns a publisher of the calculated levels that conflates to the latest level for every subscriber.<br/>
+     * Unlike {@link OnVolumeChangeListener}, which is called on every change on the changing thread, subscribers choose their executor
+     * and their demand, so a UI observing a fade receives as many levels as it can draw instead of one per frame.
+     */
+    public AudioFlow.Publisher<Level> getPublisher() {
+        return mPublisher;
     }
 
     /**
@@ -280,6 +408,7 @@ public class Volume {
         Log.v(TAG, "setChannel volume: " + volume + " duration: " + duration);
 
         verifyChannelInput(volume);
+        stopChannelAutomation();
         fadeChannelTo(getChannel(), volume, duration);
     }
 
@@ -320,13 +449,13 @@ public class Volume {
             return 0f;
 
         float volume = getChannel();
-        volume *= mChannelOffset;
-        return volume;
+        volume *= mChannelOffset * mSidechainGain * mOutputGain;
+        return Math.min(volume, mCeiling);
     }
 
     /**
      * Fades both channel volumes from and to the given values within the time duration specified.
-     * This uses a ValueAnimator and the UpdateListener calls back on {@link #setChannel(float)}
+     * This uses the {@link Fader} of this volume which calls back on {@link #setChannel(float)}
      * <br/><br/>
      * Will also cancel any running fades.
      * 
@@ -337,16 +466,12 @@ public class Volume {
     private void fadeChannelTo(final float startValue, final float endValue, final int duration) {
         Log.v(TAG, "fadeChannelTo startValue: " + startValue + ", endValue: " + endValue + ", duration: " + duration);
 
-        if (mVolumeAnimator != null) {
-            Log.v(TAG, "fadeChannelTo: old Volume Animator found, canceling and setting to null.");
-            mVolumeAnimator.cancel();
+        if (mVolumeFade != null) {
+            Log.v(TAG, "fadeChannelTo: old Volume Fade found, canceling.");
+            mVolumeFade.cancel();
         }
 
-        mVolumeAnimator = ValueAnimator.ofFloat(startValue, endValue);
-        mVolumeAnimator.setDuration(duration);
-        mVolumeAnimator.addUpdateListener(mVolumeUpdateListener);
-        mVolumeAnimator.addListener(mVolumeAnimatorListener);
-        mVolumeAnimator.start();
+        mVolumeFade = mFader.start(startValue, endValue, duration, mVolumeFadeCallback);
     }
 
     /**
@@ -447,8 +572,8 @@ public class Volume {
             return 0f;
 
         float volume = mLeftChannel;
-        volume *= mChannelOffset;
-        return volume;
+        volume *= mChannelOffset * mSidechainGain * mOutputGain;
+        return Math.min(volume, mCeiling);
     }
 
     /**
@@ -465,33 +590,107 @@ public class Volume {
             return 0f;
 
         float volume = mRightChannel;
-        volume *= mChannelOffset;
-        return volume;
+        volume *= mChannelOffset * mSidechainGain * mOutputGain;
+        return Math.min(volume, mCeiling);
     }
 
+    /**
+     * Temporarily lowers both channels to the offset threshold directly.
+     * <br/><br/>
+     * For lowering the channels using a fade effect see {@link #lowerChannels(int)}
+     */
     public void lowerChannels() {
-        Log.v(TAG, "lowerChannels");
+        lowerChannels(0);
+    }
+
+    /**
+     * Temporarily lowers both channels to the offset threshold while fading to it within the given duration.
+     * The original channel offset is saved so it can be restored using {@link #raiseChannels(int)}.
+     * <br/><br/>
+     * If the channels are already lowered or the offset is already under the threshold nothing will happen.
+     * 
+     * @param duration - Duration of the fade. 0 means that the offset will be directly set.
+     */
+    public void lowerChannels(final int duration) {
+        Log.v(TAG, "lowerChannels duration: " + duration);
 
         if (mOriginalChannelOffset == null && mChannelOffset > TEMPORARY_OFFSET_THRESHOLD) {
-            final float currentChannelOffset = mChannelOffset;
-            setChannelOffset(TEMPORARY_OFFSET_THRESHOLD);
-            mOriginalChannelOffset = currentChannelOffset;
+            mOriginalChannelOffset = mChannelOffset;
+            fadeChannelOffsetTo(mChannelOffset, TEMPORARY_OFFSET_THRESHOLD, duration);
             Log.v(TAG, "lowerChannels: Channels have been lowerd.");
         }
     }
 
+    /**
+     * Restores the channel offset saved by {@link #lowerChannels()} directly.
+     * <br/><br/>
+     * For raising the channels using a fade effect see {@link #raiseChannels(int)}
+     */
     public void raiseChannels() {
-        Log.v(TAG, "raiseChannels");
+        raiseChannels(0);
+    }
+
+    /**
+     * Restores the channel offset saved by {@link #lowerChannels(int)} while fading to it within the given duration.
+     * <br/><br/>
+     * If the channels have not been lowered nothing will happen.
+     * 
+     * @param duration - Duration of the fade. 0 means that the offset will be directly set.
+     */
+    public void raiseChannels(final int duration) {
+        Log.v(TAG, "raiseChannels duration: " + duration);
 
         if (mOriginalChannelOffset != null) {
             final float originalChannelOffset = mOriginalChannelOffset;
             mOriginalChannelOffset = null;
-            setChannelOffset(originalChannelOffset);
+            fadeChannelOffsetTo(mChannelOffset, originalChannelOffset, duration);
 
             Log.v(TAG, "raiseChannels: Channels have been raised.");
         }
     }
 
+    /**
+     * Returns true if the channels are currently lowered using {@link #lowerChannels(int)}.
+     */
+    public boolean isLowered() {
+        return (mOriginalChannelOffset != null);
+    }
+
+    /**
+     * Fades the channel offset from and to the given values within the time duration specified.
+     * A duration of 0 will set the end value directly without starting a fade.
+     * <br/><br/>
+     * Will also cancel any running offset fades.
+     * 
+     * @param startValue - Start Offset Value
+     * @param endValue - End Offset Value
+     * @param duration - Duration of the change
+     */
+    private void fadeChannelOffsetTo(final float startValue, final float endValue, final int duration) {
+        Log.v(TAG, "fadeChannelOffsetTo startValue: " + startValue + ", endValue: " + endValue + ", duration: " + duration);
+
+        if (mOffsetFade != null) {
+            Log.v(TAG, "fadeChannelOffsetTo: old Offset Fade found, canceling.");
+            mOffsetFade.cancel();
+        }
+
+        if (duration <= 0) {
+            applyChannelOffset(endValue);
+            return;
+        }
+
+        mOffsetFade = mFader.start(startValue, endValue, duration, mOffsetFadeCallback);
+    }
+
+    /**
+     * Directly changes the effective channel offset and notifies the listeners.
+     * Unlike {@link #setChannelOffset(float)} this does not touch the saved original offset.
+     */
+    private void applyChannelOffset(final float value) {
+        mChannelOffset = value;
+        notifyVolumeChange();
+    }
+
     /**
      * Sets the channel balance value using a fade effect with the duration you specified.
      * <br/><br/>
@@ -514,6 +713,7 @@ public class Volume {
         Log.v(TAG, "setBalance: " + balance + ", duration: " + duration);
 
         verifyBalanceInput(balance);
+        stopAutomation(Envelope.Target.BALANCE);
         fadeBalanceTo(mBalance, balance, duration);
     }
 
@@ -579,16 +779,12 @@ public class Volume {
     private void fadeBalanceTo(final float startValue, final float endValue, final int duration) {
         Log.v(TAG, "fadeBalanceTo startValue: " + startValue + ", endValue: " + endValue + ", duration: " + duration);
 
-        if (mBalanceAnimator != null) {
-            Log.v(TAG, "fadeBalanceTo old Balance Animator found. Canceling and setting to null.");
-            mBalanceAnimator.cancel();
+        if (mBalanceFade != null) {
+            Log.v(TAG, "fadeBalanceTo old Balance Fade found. Canceling.");
+            mBalanceFade.cancel();
         }
 
-        mBalanceAnimator = ValueAnimator.ofFloat(startValue, endValue);
-        mBalanceAnimator.setDuration(duration);
-        mBalanceAnimator.addUpdateListener(mBalanceUpdateListener);
-        mBalanceAnimator.addListener(mBalanceAnimatorListener);
-        mBalanceAnimator.start();
+        mBalanceFade = mFader.start(startValue, endValue, duration, mBalanceFadeCallback);
     }
 
     public void setChannelOffset(final float value) {
@@ -597,12 +793,17 @@ public class Volume {
         verifyChannelInput(value);
 
         // If the volume has been temporarily lowered (duck) we set the value to the saved original offset value variable. 
-        if (mOriginalChannelOffset != null)
+        if (mOriginalChannelOffset != null) {
             mOriginalChannelOffset = value;
-        else
-            mChannelOffset = value;
+            notifyVolumeChange();
+            return;
+        }
 
-        notifyVolumeChange();
+        // A new offset always wins over a running raise fade.
+        if (mOffsetFade != null)
+            mOffsetFade.cancel();
+
+        applyChannelOffset(value);
     }
 
     public float getChannelOffset() {
@@ -637,6 +838,174 @@ public class Volume {
         return mMuted;
     }
 
+    /**
+     * Automates the target with the envelope, replacing the automation that is running on the same target.<br/>
+     * A fade of the same target is cancelled. The automation owns the target until it reaches its last point or it is stopped,
+     * values set in the meantime are overwritten on the next tick.
+     * <br/><br/>
+     * Throws IllegalArgumentException if the envelope has no points or a value is outside the range of the target.
+     * 
+     * @param envelope - Envelope to follow, it is copied so it can be changed afterwards.
+     * @param target - Channel or balance to automate.
+     */
+    public void automate(final Envelope envelope, final Envelope.Target target) {
+        Log.v(TAG, "automate target: " + target);
+
+        if (envelope == null || target == null)
+            throw new IllegalArgumentException("Envelope and target can not be null.");
+
+        if (envelope.getPointCount() == 0)
+            throw new IllegalArgumentException("Envelope has no points.");
+
+        for (int i = 0; i < envelope.getPointCount(); i++) {
+            if (target == Envelope.Target.BALANCE)
+                verifyBalanceInput(envelope.getValue(i));
+            else
+                verifyChannelInput(envelope.getValue(i));
+        }
+
+        if (target == Envelope.Target.BALANCE) {
+            if (mBalanceFade != null)
+                mBalanceFade.cancel();
+        } else if (mVolumeFade != null)
+            mVolumeFade.cancel();
+
+        EnvelopeEngine envelopeEngine = mEnvelopeEngine;
+        if (envelopeEngine == null) {
+            envelopeEngine = mFader.getEnvelopeEngine();
+            mEnvelopeEngine = envelopeEngine;
+        }
+
+        envelopeEngine.start(this, target, envelope);
+    }
+
+    /**
+     * Stops the automation of the target. The target keeps the value it has at that moment.
+     */
+    public void stopAutomation(final Envelope.Target target) {
+        if (target == null)
+            throw new IllegalArgumentException("Target can not be null.");
+
+        final EnvelopeEngine envelopeEngine = mEnvelopeEngine;
+        if (envelopeEngine != null)
+            envelopeEngine.stop(this, target);
+    }
+
+    /**
+     * Stops every automation of this Volume.
+     */
+    public void stopAutomation() {
+        final EnvelopeEngine envelopeEngine = mEnvelopeEngine;
+        if (envelopeEngine != null)
+            envelopeEngine.stop(this, null);
+    }
+
+    private void stopChannelAutomation() {
+        final EnvelopeEngine envelopeEngine = mEnvelopeEngine;
+        if (envelopeEngine == null)
+            return;
+
+        envelopeEngine.stop(this, Envelope.Target.CHANNEL);
+        envelopeEngine.stop(this, Envelope.Target.LEFT_CHANNEL);
+        envelopeEngine.stop(this, Envelope.Target.RIGHT_CHANNEL);
+    }
+
+    /**
+     * Returns the current value of the target. Called by the {@link EnvelopeEngine}.
+     */
+    float getAutomationValue(final Envelope.Target target) {
+        switch (target) {
+            case LEFT_CHANNEL:
+                return mLeftChannel;
+
+            case RIGHT_CHANNEL:
+                return mRightChannel;
+
+            case BALANCE:
+                return mBalance;
+
+            default:
+                return (mLeftChannel + mRightChannel) * 0.5f;
+        }
+    }
+
+    /**
+     * Sets the target to a value that has already been verified and notifies the listeners. Called by the {@link EnvelopeEngine} on every tick.
+     */
+    void applyAutomation(final Envelope.Target target, final float value) {
+        switch (target) {
+            case CHANNEL:
+                mLeftChannel = value;
+                mRightChannel = value;
+                break;
+
+            case LEFT_CHANNEL:
+                mLeftChannel = value;
+                break;
+
+            case RIGHT_CHANNEL:
+                mRightChannel = value;
+                break;
+
+            case BALANCE:
+                mBalance = value;
+                dispatchBalanceChange();
+                return;
+        }
+
+        dispatchVolumeChange();
+    }
+
+    /**
+     * Sets the multiplier a sidechain ducker applies on top of the channels and the offset, 1.0 when not ducking.<br/>
+     * Meant to be called on every tick of the ducker, so it notifies the listeners without logging.
+     * <br/><br/>
+     * Throws IllegalArgumentExpcetion if value is not between 0.0 and 1.0.
+     */
+    public void setSidechainGain(final float gain) {
+        if (gain < 0f || gain > 1f)
+            throw new IllegalArgumentException("Sidechain gain should be between 0.0 and 1.0");
+
+        if (gain == mSidechainGain)
+            return;
+
+        mSidechainGain = gain;
+        dispatchVolumeChange();
+    }
+
+    public float getSidechainGain() {
+        return mSidechainGain;
+    }
+
+    /**
+     * Sets the gain and ceiling of the current output device, applied on top of every other setting.<br/>
+     * Set on master volumes by the AudioManager from its {@link ro.andreibalan.media.OutputProfile}s whenever the output device changes.
+     * 
+     * @param gain - Multiplier between 0.0 and 1.0.
+     * @param ceiling - Highest calculated level, between 0.0 and 1.0.
+     */
+    public void setOutputGain(final float gain, final float ceiling) {
+        Log.v(TAG, "setOutputGain: " + gain + ", ceiling: " + ceiling);
+
+        if (gain < 0f || gain > 1f || ceiling < 0f || ceiling > 1f)
+            throw new IllegalArgumentException("Output gain and ceiling should be between 0.0 and 1.0");
+
+        if (gain == mOutputGain && ceiling == mCeiling)
+            return;
+
+        mOutputGain = gain;
+        mCeiling = ceiling;
+        notifyVolumeChange();
+    }
+
+    public float getOutputGain() {
+        return mOutputGain;
+    }
+
+    public float getCeiling() {
+        return mCeiling;
+    }
+
     /**
      * This is called on each Channel Volume Values set method so it can verify the inputed values.
      * Values should always be between 0.0f and 1.0f for volume control.
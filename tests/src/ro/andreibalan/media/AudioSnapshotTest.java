@@ -0,0 +1,110 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ro.andreibalan.media.backend.SimulatedAudioBackend;
+import ro.andreibalan.media.backend.VirtualClock;
+import ro.andreibalan.media.fx.FX;
+import ro.andreibalan.media.fx.FXFactory;
+import ro.andreibalan.media.fx.FXManager;
+import ro.andreibalan.media.volume.Fader;
+
+/**
+ * Writes the pool of a simulated FXManager to a snapshot and restores it into a new manager.
+ */
+public class AudioSnapshotTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mFile = File.createTempFile("audio", ".snapshot");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static FXManager createFXManager() {
+        final SimulatedAudioBackend backend = new SimulatedAudioBackend(new VirtualClock());
+        final AudioThread audioThread = backend.createAudioThread();
+        return new FXManager(null, 4, backend, audioThread, Fader.forAudioThread(audioThread));
+    }
+
+    public void testRoundTripKeepsTheSourceAndSettings() throws Exception {
+        final FXManager fxManager = createFXManager();
+        final FX fx = FXFactory.create(null, fxManager, new File("click.ogg"));
+        fx.getVolume().setChannel(0.25f);
+        fx.setRate(1.5f);
+        fx.setTrimTag("ui");
+
+        // Containers have no single source and are skipped.
+        FXFactory.createContainer(null, fxManager, null, new File[] {
+                new File("step1.ogg"), new File("step2.ogg")
+        });
+
+        assertEquals(1, AudioSnapshot.write(fxManager, mFile));
+
+        final FXManager restoredManager = createFXManager();
+        final List<FX> restored = AudioSnapshot.restore(restoredManager, mFile);
+        assertEquals(1, restored.size());
+        assertEquals(1, restoredManager.getPoolSize());
+
+        final FX restoredFX = restored.get(0);
+        assertEquals(AudioSource.file(new File("click.ogg")), restoredFX.getSource());
+        assertEquals(0.25f, restoredFX.getVolume().getChannel(), 0.0001f);
+        assertEquals(1.5f, restoredFX.getRate(), 0f);
+        assertEquals("ui", restoredFX.getTrimTag());
+        assertTrue("Restored instances are loaded on their first play.", restoredFX.isTrimmed());
+    }
+
+    public void testMissingSnapshotRestoresNothing() throws Exception {
+        assertTrue(AudioSnapshot.restore(createFXManager(), mFile).isEmpty());
+    }
+
+    public void testRejectsFilesThatAreNotSnapshots() throws Exception {
+        final FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[] {
+                    1, 2, 3, 4, 5, 6
+            });
+        } finally {
+            out.close();
+        }
+
+        try {
+            AudioSnapshot.restore(createFXManager(), mFile);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link ConflatingPublisher} keeps only the latest value while a subscriber has no demand, replays it to new
+ * subscribers and ends the delivery on complete, cancel or a bad request.
+ */
+public class ConflatingPublisherTest extends TestCase {
+
+    private final static Executor DIRECT_EXECUTOR = new Executor() {
+
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private ConflatingPublisher<Integer> mPublisher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPublisher = new ConflatingPublisher<Integer>();
+    }
+
+    /**
+     * Subscriber recording every call, it does not request anything by itself.
+     */
+    private final static class RecordingSubscriber implements AudioFlow.Subscriber<Integer> {
+
+        private final List<Integer> mValues = new ArrayList<Integer>();
+
+        private AudioFlow.Subscription mSubscription;
+
+        private Throwable mError;
+
+        private int mCompletions = 0;
+
+        @Override
+        public void onSubscribe(final AudioFlow.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(final Integer item) {
+            mValues.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            mError = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            mCompletions++;
+        }
+    }
+
+    private RecordingSubscriber subscribe() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber, DIRECT_EXECUTOR);
+        assertNotNull(subscriber.mSubscription);
+        return subscriber;
+    }
+
+    public void testValuesWithoutDemandAreConflated() {
+        final RecordingSubscriber subscriber = subscribe();
+
+        mPublisher.publish(1);
+        mPublisher.publish(2);
+        mPublisher.publish(3);
+        assertEquals(0, subscriber.mValues.size());
+
+        subscriber.mSubscription.request(5);
+        assertEquals(1, subscriber.mValues.size());
+        assertEquals(Integer.valueOf(3), subscriber.mValues.get(0));
+
+        mPublisher.publish(4);
+        assertEquals(2, subscriber.mValues.size());
+        assertEquals(Integer.valueOf(4), subscriber.mValues.get(1));
+    }
+
+    public void testDemandLimitsTheDelivery() {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.mSubscription.request(1);
+
+        mPublisher.publish(1);
+        mPublisher.publish(2);
+        assertEquals(1, subscriber.mValues.size());
+        assertEquals(Integer.valueOf(1), subscriber.mValues.get(0));
+
+        subscriber.mSubscription.request(1);
+        assertEquals(2, subscriber.mValues.size());
+        assertEquals(Integer.valueOf(2), subscriber.mValues.get(1));
+    }
+
+    public void testNewSubscriberReceivesTheLatestValue() {
+        mPublisher.publish(1);
+        mPublisher.publish(2);
+
+        final RecordingSubscriber subscriber = subscribe();
+        assertEquals(1, mPublisher.getSubscriberCount());
+        assertEquals(0, subscriber.mValues.size());
+
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        assertEquals(1, subscriber.mValues.size());
+        assertEquals(Integer.valueOf(2), subscriber.mValues.get(0));
+    }
+
+    public void testCompleteAfterTheLatestValue() {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+
+        mPublisher.publish(1);
+        mPublisher.complete();
+        assertEquals(1, subscriber.mValues.size());
+        assertEquals(1, subscriber.mCompletions);
+        assertFalse(mPublisher.hasSubscribers());
+
+        mPublisher.publish(2);
+        assertEquals(1, subscriber.mValues.size());
+
+        final RecordingSubscriber late = subscribe();
+        assertEquals(1, late.mCompletions);
+        assertEquals(0, late.mValues.size());
+    }
+
+    public void testCancelStopsTheDelivery() {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+
+        mPublisher.publish(1);
+        subscriber.mSubscription.cancel();
+        assertFalse(mPublisher.hasSubscribers());
+
+        mPublisher.publish(2);
+        mPublisher.complete();
+        assertEquals(1, subscriber.mValues.size());
+        assertEquals(0, subscriber.mCompletions);
+    }
+
+    public void testInvalidRequestSignalsAnError() {
+        final RecordingSubscriber subscriber = subscribe();
+
+        subscriber.mSubscription.request(0);
+        assertTrue(subscriber.mError instanceof IllegalArgumentException);
+        assertFalse(mPublisher.hasSubscribers());
+
+        mPublisher.publish(1);
+        subscriber.mSubscription.request(1);
+        assertEquals(0, subscriber.mValues.size());
+    }
+
+    public void testNullValuesAreRejected() {
+        try {
+            mPublisher.publish(null);
+            fail("Publishing null must throw.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
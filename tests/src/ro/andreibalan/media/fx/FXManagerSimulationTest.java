@@ -0,0 +1,280 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.TrimPolicy;
+import ro.andreibalan.media.backend.SimulatedAudioBackend;
+import ro.andreibalan.media.backend.SimulatedSampleBackend;
+import ro.andreibalan.media.backend.VirtualClock;
+import ro.andreibalan.media.volume.Fader;
+import ro.andreibalan.media.volume.Volume;
+
+/**
+ * Runs a FXManager on a {@link SimulatedAudioBackend} and an AudioThread driven by the same {@link VirtualClock}, so nothing happens
+ * until the test advances the clock and every run gives the same results.
+ * <br/><br/>
+ * Runs as an Android test project or on the JVM against android.jar with default values for the stubbed platform calls.
+ */
+public class FXManagerSimulationTest extends TestCase {
+
+    private final static long LOAD_LATENCY = 20;
+
+    private final static long SAMPLE_DURATION = 300;
+
+    private VirtualClock mClock;
+
+    private SimulatedAudioBackend mBackend;
+
+    private AudioThread mAudioThread;
+
+    private FXManager mFXManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mClock = new VirtualClock();
+        mBackend = new SimulatedAudioBackend(mClock);
+        mBackend.setLoadLatency(LOAD_LATENCY);
+        mBackend.setSampleDuration(SAMPLE_DURATION);
+
+        mAudioThread = mBackend.createAudioThread();
+        mFXManager = new FXManager(null, 4, mBackend, mAudioThread, Fader.forAudioThread(mAudioThread));
+    }
+
+    private SimulatedSampleBackend getSamplePool() {
+        return (SimulatedSampleBackend) mFXManager.getShard(null).getSampleBackend();
+    }
+
+    private FX createFX() throws Exception {
+        final FX fx = FXFactory.create(null, mFXManager, new File("click.ogg"));
+        mFXManager.add(fx);
+        mClock.advance(0);
+        return fx;
+    }
+
+    public void testNothingRunsUntilTheClockAdvances() throws Exception {
+        final FX fx = createFX();
+
+        fx.play();
+        assertEquals(0, getSamplePool().getActiveStreamCount());
+
+        mClock.advance(0);
+        assertEquals("The sample is still loading.", 0, getSamplePool().getActiveStreamCount());
+    }
+
+    public void testPlayStartsOnLoadAndEndsWithTheSample() throws Exception {
+        final FX fx = createFX();
+
+        mClock.advance(LOAD_LATENCY);
+        assertEquals(1, getSamplePool().getLoadedSampleCount());
+
+        fx.play();
+        mClock.advance(0);
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+
+        mClock.advance(SAMPLE_DURATION - 1);
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+
+        mClock.advance(1);
+        assertEquals(0, getSamplePool().getActiveStreamCount());
+    }
+
+    public void testScheduledPlayRunsAtTheVirtualTime() throws Exception {
+        final FX fx = createFX();
+        mClock.advance(LOAD_LATENCY);
+
+        fx.playAt(mAudioThread.getClock().fromNow(100));
+        mClock.advance(99);
+        assertEquals(0, getSamplePool().getActiveStreamCount());
+
+        mClock.advance(1);
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+    }
+
+    public void testVolumeFadeFollowsTheClock() throws Exception {
+        final FX fx = createFX();
+        final Volume volume = fx.getVolume();
+        assertTrue(volume.getFader() != Fader.getDefault());
+
+        mAudioThread.post(new AudioCommand() {
+
+            @Override
+            public void run() {
+                volume.setChannel(0f, 100);
+            }
+        });
+        mClock.advance(0);
+        assertEquals(1f, volume.getChannel(), 0.001f);
+
+        mClock.advance(50);
+        assertEquals(0.5f, volume.getChannel(), 0.001f);
+
+        mClock.advance(50);
+        assertEquals(0f, volume.getChannel(), 0.001f);
+        assertEquals(0, mAudioThread.getScheduledCount());
+    }
+
+    public void testFXStopsOnceItsVoicesHaveEnded() throws Exception {
+        final FX fx = createFX();
+        fx.setVoiceLifetime((int) SAMPLE_DURATION);
+        mClock.advance(LOAD_LATENCY);
+
+        fx.play();
+        mClock.advance(0);
+        assertTrue(fx.isPlaying());
+
+        mClock.advance(SAMPLE_DURATION);
+        assertTrue(fx.isStopped());
+        assertEquals(0, fx.getVoiceCount());
+    }
+
+    public void testStoppedInstancesNoLongerCountAgainstTheTriggerPolicy() throws Exception {
+        final FX fx = createFX();
+        mFXManager.setTriggerPolicy(fx, new TriggerPolicy(1, 0, TriggerPolicy.Coalescing.NONE));
+        mClock.advance(LOAD_LATENCY);
+
+        fx.play();
+        mClock.advance(0);
+        fx.play();
+        mClock.advance(0);
+        assertEquals(1, mFXManager.getRejectedTriggerCount());
+
+        fx.stop();
+        mClock.advance(0);
+        fx.play();
+        mClock.advance(0);
+        assertEquals(1, mFXManager.getRejectedTriggerCount());
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+    }
+
+    public void testTriggerPolicyGrowsTheVoicesToItsInstances() throws Exception {
+        final FX fx = createFX();
+        mFXManager.setTriggerPolicy(fx, new TriggerPolicy(FX.DEFAULT_MAX_VOICES + 2, 0, TriggerPolicy.Coalescing.NONE));
+        mClock.advance(LOAD_LATENCY);
+        assertEquals(FX.DEFAULT_MAX_VOICES + 2, fx.getMaxVoices());
+
+        for (int i = 0; i < FX.DEFAULT_MAX_VOICES + 1; i++) {
+            fx.play();
+            mClock.advance(0);
+        }
+
+        assertEquals(FX.DEFAULT_MAX_VOICES + 1, fx.getVoiceCount());
+        assertEquals(0, mFXManager.getRejectedTriggerCount());
+    }
+
+    public void testReleasedManagerStopsFollowingRoutingChanges() throws Exception {
+        assertEquals(1, mBackend.getRoutingListenerCount());
+
+        mFXManager.releaseAll();
+        mClock.advance(0);
+        assertEquals(0, mBackend.getRoutingListenerCount());
+
+        mFXManager.start();
+        mClock.advance(0);
+        assertEquals(1, mBackend.getRoutingListenerCount());
+    }
+
+    public void testScheduledPlayAfterTrimWaitsForTheReload() throws Exception {
+        final FX fx = createFX();
+        mClock.advance(LOAD_LATENCY);
+
+        final TrimPolicy trimPolicy = new TrimPolicy(mAudioThread);
+        trimPolicy.addManager(mFXManager);
+        trimPolicy.trim(TrimPolicy.Tier.CRITICAL);
+        mClock.advance(0);
+        assertTrue(fx.isTrimmed());
+
+        fx.playAt(mAudioThread.getClock().fromNow(5));
+        mClock.advance(5);
+        assertFalse("The hit waits for the sample instead of being dropped.", fx.isPlaying());
+        assertEquals(0, getSamplePool().getActiveStreamCount());
+
+        mClock.advance(LOAD_LATENCY);
+        assertTrue(fx.isPlaying());
+        assertEquals(1, fx.getVoiceCount());
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+    }
+
+    public void testFailedStartDoesNotLeaveTheFXPlaying() throws Exception {
+        final FX fx = createFX();
+
+        // The sample has not loaded yet and nothing defers the play, so the pool starts no stream.
+        fx.play();
+        mClock.advance(0);
+        assertFalse(fx.isPlaying());
+        assertEquals(0, fx.getVoiceCount());
+    }
+
+    public void testRateChangeKeepsThePitchOfEachVoice() throws Exception {
+        final FXContainer fxContainer = FXFactory.createContainer(null, mFXManager, null, new File[] {
+                new File("step1.ogg"), new File("step2.ogg")
+        });
+        fxContainer.setPitchRange(1.5f, 1.5f);
+        mClock.advance(LOAD_LATENCY);
+
+        fxContainer.play();
+        mClock.advance(0);
+        assertEquals(1.5f, getSamplePool().getStreamRate(1), 0.0001f);
+
+        fxContainer.setRate(0.5f);
+        mClock.advance(0);
+        assertEquals("The rate multiplies the pitch the voice has been started with.", 0.75f, getSamplePool().getStreamRate(1), 0.0001f);
+    }
+
+    public void testFinishedFXAndContainersAreTrimmedAndReloaded() throws Exception {
+        final FX fx = createFX();
+        final FXContainer fxContainer = FXFactory.createContainer(null, mFXManager, null, new File[] {
+                new File("step1.ogg"), new File("step2.ogg")
+        });
+        mClock.advance(LOAD_LATENCY);
+        assertEquals(3, getSamplePool().getLoadedSampleCount());
+
+        fx.play();
+        fxContainer.play();
+        mClock.advance(0);
+
+        final TrimPolicy trimPolicy = new TrimPolicy(mAudioThread);
+        trimPolicy.addManager(mFXManager);
+
+        trimPolicy.trim(TrimPolicy.Tier.CRITICAL);
+        mClock.advance(0);
+        assertFalse("Playing voices are not trimmed.", fx.isTrimmed());
+
+        mClock.advance(FX.DEFAULT_VOICE_LIFETIME);
+        trimPolicy.trim(TrimPolicy.Tier.CRITICAL);
+        mClock.advance(0);
+        assertTrue(fx.isTrimmed());
+        assertTrue(fxContainer.isTrimmed());
+        assertEquals(0, getSamplePool().getLoadedSampleCount());
+
+        fxContainer.play();
+        mClock.advance(LOAD_LATENCY);
+        assertFalse(fxContainer.isTrimmed());
+        assertEquals(2, getSamplePool().getLoadedSampleCount());
+        assertEquals(1, getSamplePool().getActiveStreamCount());
+    }
+
+}
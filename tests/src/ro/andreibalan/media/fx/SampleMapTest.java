@@ -0,0 +1,127 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import junit.framework.TestCase;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.backend.SimulatedAudioBackend;
+import ro.andreibalan.media.backend.VirtualClock;
+import ro.andreibalan.media.volume.Fader;
+
+/**
+ * Checks the mappings and load flags of the {@link SampleMap}, including across the resizes of a growing map.
+ */
+public class SampleMapTest extends TestCase {
+
+    private FXManager mFXManager;
+
+    private SampleMap mSampleMap;
+
+    /**
+     * FX Instance that counts the load notifications it receives.
+     */
+    private static class CountingFX extends FX {
+
+        private int mLoadedCount;
+
+        private CountingFX(final FXManager fxManager, final int sampleID) {
+            super(fxManager, sampleID);
+        }
+
+        @Override
+        protected void setLoaded(final boolean loaded) {
+            if (loaded)
+                mLoadedCount++;
+
+            super.setLoaded(loaded);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final SimulatedAudioBackend backend = new SimulatedAudioBackend(new VirtualClock());
+        final AudioThread audioThread = backend.createAudioThread();
+        mFXManager = new FXManager(null, 4, backend, audioThread, Fader.forAudioThread(audioThread));
+        mSampleMap = new SampleMap();
+    }
+
+    public void testSamplesCanBeSharedByMoreFX() {
+        final FX first = new CountingFX(mFXManager, 1);
+        final FX second = new CountingFX(mFXManager, 1);
+
+        mSampleMap.put(1, first);
+        mSampleMap.put(1, second);
+        mSampleMap.put(1, second);
+        assertEquals(2, mSampleMap.get(1).length);
+        assertNull(mSampleMap.get(2));
+
+        assertEquals(1, mSampleMap.remove(1, first));
+        assertSame(second, mSampleMap.get(1)[0]);
+        assertEquals(0, mSampleMap.remove(1, second));
+    }
+
+    public void testLoadFlagReachesFXAddedBeforeAndAfterTheLoad() {
+        final FX before = new CountingFX(mFXManager, 1);
+        mSampleMap.put(1, before);
+
+        mSampleMap.markLoaded(1);
+        assertTrue(before.isLoaded());
+        assertTrue(mSampleMap.isLoaded(1));
+
+        final FX after = new CountingFX(mFXManager, 1);
+        mSampleMap.put(1, after);
+        assertTrue("A sample that has already loaded marks new FX Instances right away.", after.isLoaded());
+
+        mSampleMap.markUnloaded(1);
+        assertFalse(before.isLoaded());
+        assertFalse(after.isLoaded());
+        assertFalse(mSampleMap.isLoaded(1));
+    }
+
+    public void testGrowingKeepsMappingsAndNotifiesOnce() {
+        final CountingFX[] fx = new CountingFX[1000];
+        for (int i = 0; i < fx.length; i++) {
+            fx[i] = new CountingFX(mFXManager, i + 1);
+            mSampleMap.put(i + 1, fx[i]);
+
+            // Every other sample loads while the map keeps growing.
+            if (i % 2 == 0)
+                mSampleMap.markLoaded(i + 1);
+        }
+
+        for (int i = 0; i < fx.length; i++) {
+            assertSame(fx[i], mSampleMap.get(i + 1)[0]);
+            assertEquals("Sample " + (i + 1), i % 2 == 0, mSampleMap.isLoaded(i + 1));
+            assertEquals("Sample " + (i + 1), (i % 2 == 0) ? 1 : 0, fx[i].mLoadedCount);
+        }
+    }
+
+    public void testLoadsOfUnknownSamplesAreKept() {
+        for (int sampleID = 1; sampleID <= 100; sampleID++)
+            mSampleMap.markLoaded(sampleID);
+
+        final FX fx = new CountingFX(mFXManager, 50);
+        mSampleMap.put(50, fx);
+        assertTrue(fx.isLoaded());
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.fx;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks voice stealing, removal and the pause clock of the {@link VoiceRing}, also after the ring has wrapped around.
+ */
+public class VoiceRingTest extends TestCase {
+
+    private VoiceRing mVoices;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mVoices = new VoiceRing(3);
+    }
+
+    private void add(final int handle, final long start, final long end) {
+        assertEquals(0, mVoices.add(handle, handle * 10, 1.0f, 1.0f, start, end));
+    }
+
+    public void testFullRingStealsTheOldestVoice() {
+        add(1, 0, 100);
+        add(2, 0, 100);
+        add(3, 0, 100);
+
+        assertEquals(10, mVoices.add(4, 40, 0.5f, 1.0f, 0, 100));
+        assertEquals(3, mVoices.size());
+        assertEquals(2, mVoices.getHandle(0));
+        assertEquals(4, mVoices.getHandle(2));
+        assertEquals(-1, mVoices.indexOf(1));
+    }
+
+    public void testRemovingKeepsTheOrderAfterWrappingAround() {
+        add(1, 0, 100);
+        add(2, 0, 100);
+        add(3, 0, 100);
+        mVoices.add(4, 40, 0.5f, 2.0f, 0, 100);
+
+        mVoices.removeAt(1);
+        assertEquals(2, mVoices.size());
+        assertEquals(2, mVoices.getHandle(0));
+        assertEquals(4, mVoices.getHandle(1));
+        assertEquals(40, mVoices.getStreamID(1));
+        assertEquals(0.5f, mVoices.getGain(1), 0f);
+        assertEquals(2.0f, mVoices.getPitch(1), 0f);
+    }
+
+    public void testVoiceGainIsTheStreamGainTimesItsVolume() {
+        mVoices.add(1, 10, 0.5f, 1.0f, 0, 100);
+        mVoices.setVolume(0, 0.5f);
+
+        assertEquals(0.25f, mVoices.getGain(0), 0.0001f);
+    }
+
+    public void testPruneOnlyDropsPlayingVoicesThatHaveEnded() {
+        add(1, 0, 100);
+        add(2, 0, 200);
+        add(3, 0, Long.MAX_VALUE);
+        mVoices.pause(0, 50);
+
+        assertEquals(1, mVoices.prune(250));
+        assertEquals(1, mVoices.getHandle(0));
+        assertEquals(3, mVoices.getHandle(1));
+        assertEquals(Long.MAX_VALUE, mVoices.getNextEnd());
+    }
+
+    public void testPausedTimeDoesNotCountTowardsTheEnd() {
+        add(1, 0, 100);
+        mVoices.pause(0, 40);
+        assertTrue(mVoices.isPaused(0));
+        assertTrue(mVoices.hasPaused());
+        assertFalse(mVoices.hasPlaying());
+
+        mVoices.resume(0, 1000);
+        assertFalse(mVoices.isPaused(0));
+        assertEquals(1060, mVoices.getNextEnd());
+    }
+
+    public void testCountsTheVoicesStartedWithinALifetime() {
+        add(1, 10, 100);
+        add(2, 20, 100);
+        add(3, 30, 100);
+
+        assertEquals(2, mVoices.countStartedAfter(10));
+        assertEquals(0, mVoices.countStartedAfter(30));
+    }
+
+    public void testCopyKeepsTheStateOfTheVoice() {
+        add(1, 0, 100);
+        mVoices.setVolume(0, 0.5f);
+        mVoices.pause(0, 25);
+
+        final VoiceRing voices = new VoiceRing(1);
+        voices.copy(mVoices, 0);
+        assertEquals(1, voices.getHandle(0));
+        assertEquals(0.5f, voices.getGain(0), 0f);
+        assertTrue(voices.isPaused(0));
+
+        voices.resume(0, 200);
+        assertEquals(275, voices.getNextEnd());
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.music;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/**
+ * Builds the peaks of generated WAVE tracks and reads them back at different zoom levels.
+ */
+public class PeakIndexTest extends TestCase {
+
+    /**
+     * One second of the track is exactly one entry of level 2.
+     */
+    private final static int SAMPLE_RATE = PeakIndex.BASE_FRAMES * PeakIndex.LEVEL_FACTOR * PeakIndex.LEVEL_FACTOR * 2;
+
+    private final static float DELTA = 0.0001f;
+
+    private File mTrack;
+
+    private File mPeaksFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mTrack = File.createTempFile("track", ".wav");
+        mPeaksFile = new File(mTrack.getPath() + PeakIndex.EXTENSION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTrack.delete();
+        mPeaksFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Writes a 16 bit mono track whose first half holds the first value and second half the second value.
+     */
+    private void writeTrack(final int seconds, final float first, final float second) throws IOException {
+        final int frameCount = SAMPLE_RATE * seconds;
+        final ByteBuffer buffer = ByteBuffer.allocate(44 + frameCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46464952).putInt(36 + frameCount * 2).putInt(0x45564157);
+        buffer.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1);
+        buffer.putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        buffer.putInt(0x61746164).putInt(frameCount * 2);
+
+        for (int i = 0; i < frameCount; i++)
+            buffer.putShort((short) ((i < frameCount / 2 ? first : second) * 32768));
+
+        final FileOutputStream out = new FileOutputStream(mTrack);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testLevelsShrinkByTheLevelFactor() throws Exception {
+        writeTrack(1, 0.5f, -0.25f);
+
+        final PeakIndex peakIndex = PeakIndex.open(mTrack);
+        assertTrue(mPeaksFile.exists());
+        assertEquals(SAMPLE_RATE, peakIndex.getFrameCount());
+        assertEquals(1000, peakIndex.getDuration());
+
+        // 32 entries of level 0, then 8, 2 and 1.
+        assertEquals(4, peakIndex.getLevelCount());
+    }
+
+    public void testPeaksOfEveryZoomLevel() throws Exception {
+        writeTrack(1, 0.5f, -0.25f);
+        final PeakIndex peakIndex = PeakIndex.open(mTrack);
+
+        final float[] peaks = new float[64];
+        peakIndex.getPeaks(0, 1000, 2, peaks);
+        assertEquals(0.5f, peaks[0], DELTA);
+        assertEquals(0.5f, peaks[1], DELTA);
+        assertEquals(-0.25f, peaks[2], DELTA);
+        assertEquals(-0.25f, peaks[3], DELTA);
+
+        // One pixel per entry of level 0 gives the same halves.
+        peakIndex.getPeaks(0, 1000, 32, peaks);
+        assertEquals(0.5f, peaks[30], DELTA);
+        assertEquals(-0.25f, peaks[33], DELTA);
+
+        // A pixel that covers both halves holds both of them.
+        peakIndex.getPeaks(0, 1000, 1, peaks);
+        assertEquals(-0.25f, peaks[0], DELTA);
+        assertEquals(0.5f, peaks[1], DELTA);
+    }
+
+    public void testPixelsPastTheEndAreSilent() throws Exception {
+        writeTrack(1, 0.5f, 0.5f);
+        final PeakIndex peakIndex = PeakIndex.open(mTrack);
+
+        final float[] peaks = new float[8];
+        peakIndex.getPeaks(0, 2000, 4, peaks);
+        assertEquals(0.5f, peaks[3], DELTA);
+        assertEquals(0f, peaks[4], DELTA);
+        assertEquals(0f, peaks[7], DELTA);
+    }
+
+    public void testChangedTrackIsIndexedAgain() throws Exception {
+        writeTrack(1, 0.5f, 0.5f);
+        PeakIndex.open(mTrack);
+
+        writeTrack(2, -0.5f, -0.5f);
+        final PeakIndex peakIndex = PeakIndex.open(mTrack);
+        assertEquals(2000, peakIndex.getDuration());
+
+        final float[] peaks = new float[2];
+        peakIndex.getPeaks(0, 2000, 1, peaks);
+        assertEquals(-0.5f, peaks[1], DELTA);
+    }
+
+    public void testRejectsEmptyRangesAndShortOutputs() throws Exception {
+        writeTrack(1, 0.5f, 0.5f);
+        final PeakIndex peakIndex = PeakIndex.open(mTrack);
+
+        try {
+            peakIndex.getPeaks(500, 500, 1, new float[2]);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            peakIndex.getPeaks(0, 1000, 2, new float[3]);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
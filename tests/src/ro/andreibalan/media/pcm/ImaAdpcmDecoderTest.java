@@ -0,0 +1,94 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/**
+ * Decodes hand assembled IMA-ADPCM blocks and checks the samples against the step and index tables.
+ */
+public class ImaAdpcmDecoderTest extends TestCase {
+
+    private static ByteBuffer block(final int... bytes) {
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : bytes)
+            buffer.put((byte) value);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer output(final PcmDecoder decoder, final int blocks) {
+        return ByteBuffer.allocate(decoder.getOutputBlockSize() * blocks).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void testMonoBlockStartsWithTheHeaderAndDecodesLowNibblesFirst() {
+        final ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(1, 8, 9);
+        final ByteBuffer output = output(decoder, 1);
+
+        // Predictor 1000 with step index 0, then the codes 4, 0, 12, 0, 0, 0, 0, 0.
+        assertEquals(1, decoder.decode(block(0xE8, 0x03, 0, 0, 0x04, 0x0C, 0, 0), output));
+
+        final int[] expected = {
+                1000, 1007, 1008, 999, 1000, 1001, 1002, 1002, 1002
+        };
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("Frame " + i, expected[i], output.getShort(i * 2));
+    }
+
+    public void testStereoBlocksInterleaveGroupsOfEightCodes() {
+        final ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(2, 16, 9);
+        final ByteBuffer output = output(decoder, 1);
+
+        // Headers of 100 and -100, then 4 bytes of codes for the left channel followed by 4 bytes for the right one.
+        decoder.decode(block(100, 0, 0, 0, 0x9C, 0xFF, 0, 0, 0, 0, 0, 0, 0x04, 0, 0, 0), output);
+
+        assertEquals(100, output.getShort(0));
+        assertEquals(-100, output.getShort(2));
+        assertEquals(100, output.getShort(4));
+        assertEquals(-93, output.getShort(6));
+    }
+
+    public void testSamplesAreClampedTo16Bit() {
+        final ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(1, 8, 9);
+        final ByteBuffer output = output(decoder, 1);
+
+        // Predictor 32760 with the largest step and the largest positive code.
+        decoder.decode(block(0xF8, 0x7F, 88, 0, 0x07, 0, 0, 0), output);
+
+        assertEquals(Short.MAX_VALUE, output.getShort(2));
+    }
+
+    public void testOnlyWholeBlocksAreDecoded() {
+        final ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(1, 8, 9);
+        final ByteBuffer input = block(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        final ByteBuffer output = output(decoder, 2);
+
+        assertEquals(1, decoder.decode(input, output));
+        assertEquals(8, input.position());
+        assertEquals(decoder.getOutputBlockSize(), output.position());
+
+        assertEquals("The output has to hold a whole block.", 0, decoder.decode(block(0, 0, 0, 0, 0, 0, 0, 0), ByteBuffer.allocate(10)));
+    }
+
+}
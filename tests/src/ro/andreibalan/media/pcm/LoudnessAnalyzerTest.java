@@ -0,0 +1,119 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures generated WAVE files long enough to be split into several chunks and checks the results against BS.1770 reference levels.
+ */
+public class LoudnessAnalyzerTest extends TestCase {
+
+    private final static int SAMPLE_RATE = 48000;
+
+    private File mDirectory;
+
+    private LoudnessAnalyzer mAnalyzer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mDirectory = File.createTempFile("loudness", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+
+        mAnalyzer = new LoudnessAnalyzer(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mAnalyzer.release();
+
+        for (File file : mDirectory.listFiles())
+            file.delete();
+        mDirectory.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * Writes a 16 bit mono WAVE file holding a sine of the given frequency and amplitude.
+     */
+    private File writeSine(final String name, final float frequency, final float amplitude, final int seconds) throws IOException {
+        final int frameCount = SAMPLE_RATE * seconds;
+        final ByteBuffer buffer = ByteBuffer.allocate(44 + frameCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46464952).putInt(36 + frameCount * 2).putInt(0x45564157);
+        buffer.putInt(0x20746d66).putInt(16).putShort((short) WavFormat.FORMAT_PCM).putShort((short) 1);
+        buffer.putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        buffer.putInt(0x61746164).putInt(frameCount * 2);
+
+        for (int i = 0; i < frameCount; i++)
+            buffer.putShort((short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE)));
+
+        final File file = new File(mDirectory, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    public void testSineMatchesTheReferenceLevels() throws Exception {
+        // Longer than one chunk, so the sub-blocks of several tasks are combined.
+        final Loudness loudness = mAnalyzer.analyze(writeSine("sine.wav", 1000, 0.5f, 7));
+
+        assertEquals(0.5f, loudness.getPeak(), 0.001f);
+        assertEquals(0.5f / (float) Math.sqrt(2), loudness.getRms(), 0.001f);
+
+        // A full scale 1 kHz sine in one channel reads -3.01 LUFS, half of it 6.02 dB less.
+        assertEquals(-9.03f, loudness.getIntegrated(), 0.2f);
+    }
+
+    public void testSilenceIsGatedOut() throws Exception {
+        final Loudness loudness = mAnalyzer.analyze(writeSine("silence.wav", 1000, 0f, 1));
+
+        assertEquals(0f, loudness.getPeak(), 0f);
+        assertEquals(Float.NEGATIVE_INFINITY, loudness.getIntegrated(), 0f);
+    }
+
+    public void testUpdateOnlyMeasuresNewContent() throws Exception {
+        writeSine("loud.wav", 1000, 0.5f, 1);
+        writeSine("copy.wav", 1000, 0.5f, 1);
+        writeSine("quiet.wav", 1000, 0.1f, 1);
+
+        final LoudnessIndex index = new LoudnessIndex();
+        assertEquals("Files with the same content are measured once.", 2, mAnalyzer.update(index, mDirectory));
+        assertSame(index.get("loud.wav"), index.get("copy.wav"));
+        assertTrue(index.get("quiet.wav").getIntegrated() < index.get("loud.wav").getIntegrated());
+
+        assertEquals("Unchanged files are not read again.", 0, mAnalyzer.update(index, mDirectory));
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link PcmSampleStore} decodes every source once while it is referenced and frees it with the last reference.
+ */
+public class PcmSampleStoreTest extends TestCase {
+
+    private PcmSampleStore mStore;
+
+    private int mDecodeCount;
+
+    private final PcmSampleStore.Source mSource = new PcmSampleStore.Source() {
+
+        @Override
+        public PcmSample decode() throws IOException {
+            mDecodeCount++;
+            return new PcmSample(ByteBuffer.allocate(400), 1, 44100);
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mStore = new PcmSampleStore();
+        mDecodeCount = 0;
+    }
+
+    public void testLoadsOfTheSameAssetShareOneSample() throws Exception {
+        final PcmSampleStore.Reference first = mStore.acquire(PcmSampleStore.getAssetKey("fx/click.wav", 1024, 400), mSource);
+
+        // A later load opens its own descriptor, only the path and the range identify the asset.
+        final PcmSampleStore.Reference second = mStore.acquire(PcmSampleStore.getAssetKey("fx/click.wav", 1024, 400), mSource);
+
+        assertEquals(1, mDecodeCount);
+        assertSame(first.getSample(), second.getSample());
+        assertEquals(2, mStore.getReferenceCount(first.getKey()));
+
+        mStore.acquire(PcmSampleStore.getAssetKey("fx/step.wav", 2048, 400), mSource).release();
+        assertEquals(2, mDecodeCount);
+    }
+
+    public void testLastReleaseFreesTheSample() throws Exception {
+        final Object key = PcmSampleStore.getAssetKey("fx/click.wav", 0, 400);
+        final PcmSampleStore.Reference first = mStore.acquire(key, mSource);
+        final PcmSampleStore.Reference second = mStore.acquire(key, mSource);
+
+        first.release();
+        first.release();
+        assertEquals(1, mStore.getSampleCount());
+
+        second.release();
+        assertEquals(0, mStore.getSampleCount());
+        assertEquals(0, mStore.getByteCount());
+
+        mStore.acquire(key, mSource).release();
+        assertEquals("A freed sample is decoded again.", 2, mDecodeCount);
+    }
+
+}
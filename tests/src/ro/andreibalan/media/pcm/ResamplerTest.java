@@ -0,0 +1,118 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the fixed point positions of the {@link Resampler} and that every quality mixes into the output instead of replacing it.
+ */
+public class ResamplerTest extends TestCase {
+
+    private final static float DELTA = 0.0001f;
+
+    private static ShortBuffer source(final int... samples) {
+        final short[] values = new short[samples.length];
+        for (int i = 0; i < samples.length; i++)
+            values[i] = (short) samples[i];
+
+        return ShortBuffer.wrap(values);
+    }
+
+    public void testIncrementFollowsTheRateAndSampleRates() {
+        assertEquals(Resampler.ONE, Resampler.getIncrement(1.0f, 44100, 44100));
+        assertEquals(Resampler.ONE, Resampler.getIncrement(2.0f, 22050, 44100));
+        assertEquals(Resampler.ONE / 2, Resampler.getIncrement(0.5f, 48000, 48000));
+    }
+
+    public void testUnityRateAddsTheScaledSamples() {
+        final float[] output = new float[6];
+        Arrays.fill(output, 1.0f);
+
+        final int frames = Resampler.getInstance(Resampler.Quality.LINEAR).mix(source(16384, -16384, 8192), 1, 3, 0, Resampler.ONE, output, 0, 3,
+                1.0f, 0.5f);
+
+        assertEquals(3, frames);
+        assertEquals(1.5f, output[0], DELTA);
+        assertEquals(1.25f, output[1], DELTA);
+        assertEquals(0.5f, output[2], DELTA);
+        assertEquals(0.75f, output[3], DELTA);
+        assertEquals(1.25f, output[4], DELTA);
+        assertEquals(1.125f, output[5], DELTA);
+    }
+
+    public void testLinearInterpolatesBetweenFramesAndIntoSilence() {
+        final float[] output = new float[8];
+
+        final int frames = Resampler.getInstance(Resampler.Quality.LINEAR).mix(source(0, 16384), 1, 2, 0, Resampler.ONE / 2, output, 0, 8, 1.0f, 1.0f);
+
+        assertEquals(4, frames);
+        assertEquals(0f, output[0], DELTA);
+        assertEquals(0.25f, output[2], DELTA);
+        assertEquals(0.5f, output[4], DELTA);
+        assertEquals("The frame after the source is silence.", 0.25f, output[6], DELTA);
+    }
+
+    public void testStopsAtTheEndOfTheSource() {
+        final Resampler resampler = Resampler.getInstance(Resampler.Quality.LINEAR);
+        final float[] output = new float[20];
+
+        assertEquals(1, resampler.mix(source(1, 2, 3), 1, 3, 2 * Resampler.ONE, Resampler.ONE, output, 0, 10, 1.0f, 1.0f));
+        assertEquals(0, resampler.mix(source(1, 2, 3), 1, 3, 3 * Resampler.ONE, Resampler.ONE, output, 0, 10, 1.0f, 1.0f));
+    }
+
+    public void testStereoSourcesKeepTheirChannels() {
+        final float[] output = new float[4];
+
+        Resampler.getInstance(Resampler.Quality.LINEAR).mix(source(16384, -8192, 8192, 16384), 2, 2, 0, Resampler.ONE, output, 1, 1, 1.0f, 1.0f);
+
+        assertEquals(0f, output[0], DELTA);
+        assertEquals(0f, output[1], DELTA);
+        assertEquals(0.5f, output[2], DELTA);
+        assertEquals(-0.25f, output[3], DELTA);
+    }
+
+    public void testEveryQualityKeepsAConstantSignal() {
+        final int[] samples = new int[64];
+        Arrays.fill(samples, 16384);
+
+        for (Resampler.Quality quality : Resampler.Quality.values()) {
+            final float[] output = new float[64];
+            Resampler.getInstance(quality).mix(source(samples), 1, samples.length, 16 * Resampler.ONE + Resampler.ONE / 3, Resampler.ONE * 3 / 4,
+                    output, 0, 32, 1.0f, 1.0f);
+
+            // Away from the edges the interpolation of a constant is the constant.
+            for (int i = 0; i < 32; i += 2)
+                assertEquals(quality.name(), 0.5f, output[i], 0.01f);
+        }
+    }
+
+    public void testRejectsAnIncrementThatDoesNotAdvance() {
+        try {
+            Resampler.getInstance(Resampler.Quality.CUBIC).mix(source(1), 1, 1, 0, 0, new float[2], 0, 1, 1.0f, 1.0f);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.pcm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/**
+ * Parses WAVE headers written to a temporary file, alone and embedded in a bigger file like an uncompressed asset.
+ */
+public class WavFormatTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("wavformat", ".wav");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static ByteBuffer fmt(final int encoding, final int channelCount, final int sampleRate, final int blockAlign, final int bitsPerSample) {
+        final ByteBuffer chunk = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(0x20746d66).putInt(16);
+        chunk.putShort((short) encoding).putShort((short) channelCount).putInt(sampleRate).putInt(sampleRate * blockAlign);
+        chunk.putShort((short) blockAlign).putShort((short) bitsPerSample);
+        chunk.flip();
+        return chunk;
+    }
+
+    private static ByteBuffer chunk(final int chunkID, final int size) {
+        final ByteBuffer chunk = ByteBuffer.allocate(8 + size + (size & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(chunkID).putInt(size);
+        chunk.position(chunk.capacity());
+        chunk.flip();
+        return chunk;
+    }
+
+    private static ByteBuffer data(final int size) {
+        return chunk(0x61746164, size);
+    }
+
+    /**
+     * Writes a RIFF/WAVE stream with the given chunks after the given number of leading bytes.
+     */
+    private void write(final int padding, final ByteBuffer... chunks) throws IOException {
+        int size = 4;
+        for (ByteBuffer chunk : chunks)
+            size += chunk.remaining();
+
+        final ByteBuffer header = ByteBuffer.allocate(padding + 12).order(ByteOrder.LITTLE_ENDIAN);
+        header.position(padding);
+        header.putInt(0x46464952).putInt(size).putInt(0x45564157);
+
+        final FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(header.array());
+            for (ByteBuffer chunk : chunks)
+                out.write(chunk.array(), 0, chunk.remaining());
+        } finally {
+            out.close();
+        }
+    }
+
+    private WavFormat read(final long offset, final long length) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            return WavFormat.read(file.getChannel(), offset, length);
+        } finally {
+            file.close();
+        }
+    }
+
+    public void testReads16BitStereo() throws Exception {
+        write(0, fmt(WavFormat.FORMAT_PCM, 2, 44100, 4, 16), data(44100 * 4));
+
+        final WavFormat format = read(0, -1);
+        assertEquals(WavFormat.FORMAT_PCM, format.getEncoding());
+        assertEquals(2, format.getChannelCount());
+        assertEquals(44100, format.getSampleRate());
+        assertEquals(16, format.getContainerBits());
+        assertEquals(44, format.getDataOffset());
+        assertEquals(44100, format.getFrameCount());
+        assertEquals(1000, format.getDuration());
+    }
+
+    public void testSkipsUnknownChunksWithTheirPadding() throws Exception {
+        write(0, fmt(WavFormat.FORMAT_PCM, 1, 8000, 1, 8), chunk(0x5453494c, 3), data(8));
+
+        final WavFormat format = read(0, -1);
+        assertEquals(36 + 12 + 8, format.getDataOffset());
+        assertEquals(8, format.getDataLength());
+    }
+
+    public void testReadsAStreamInsideABiggerFile() throws Exception {
+        write(100, fmt(WavFormat.FORMAT_IEEE_FLOAT, 1, 48000, 4, 32), data(400));
+
+        final WavFormat format = read(100, 12 + 24 + 8 + 200);
+        assertEquals(WavFormat.FORMAT_IEEE_FLOAT, format.getEncoding());
+        assertEquals(144, format.getDataOffset());
+        assertEquals("The data is cut at the end of the range.", 200, format.getDataLength());
+    }
+
+    public void testImaAdpcmBlocksHoldTheHeaderSample() throws Exception {
+        write(0, fmt(WavFormat.FORMAT_IMA_ADPCM, 1, 22050, 256, 4), data(512));
+
+        final WavFormat format = read(0, -1);
+        assertEquals(505, format.getFramesPerBlock());
+        assertEquals(1010, format.getFrameCount());
+        assertTrue(format.createDecoder() instanceof ImaAdpcmDecoder);
+    }
+
+    public void testRejectsUnsupportedStreams() throws Exception {
+        write(0, data(8), fmt(WavFormat.FORMAT_PCM, 1, 8000, 1, 8));
+        assertUnsupported();
+
+        write(0, fmt(WavFormat.FORMAT_PCM, 6, 44100, 12, 16), data(12));
+        assertUnsupported();
+
+        write(0, fmt(WavFormat.FORMAT_PCM, 1, 44100, 2, 12), data(12));
+        assertUnsupported();
+    }
+
+    private void assertUnsupported() {
+        try {
+            read(0, -1);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.volume;
+
+import junit.framework.TestCase;
+import ro.andreibalan.media.AudioCommand;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.backend.VirtualClock;
+import ro.andreibalan.media.backend.VirtualDispatcher;
+
+/**
+ * Runs envelope automations on an {@link EnvelopeEngine} of an AudioThread driven by a {@link VirtualClock}.
+ */
+public class EnvelopeEngineTest extends TestCase {
+
+    private VirtualClock mClock;
+
+    private AudioThread mAudioThread;
+
+    private Volume mVolume;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mClock = new VirtualClock();
+        mAudioThread = VirtualDispatcher.createAudioThread(mClock);
+
+        mVolume = new Volume(0f);
+        mVolume.setFader(Fader.forAudioThread(mAudioThread));
+    }
+
+    private EnvelopeEngine getEngine() {
+        return mVolume.getFader().getEnvelopeEngine();
+    }
+
+    public void testVolumesUseTheEngineOfTheirFader() {
+        assertSame(mAudioThread, getEngine().getAudioThread());
+
+        // Volumes that are never automated do not need any engine.
+        mVolume.setChannel(0.5f);
+        assertEquals(0.5f, mVolume.getChannel(), 0.001f);
+    }
+
+    public void testAutomationFollowsTheClock() {
+        mVolume.automate(new Envelope().addPoint(0, 0f).addPoint(100, 1f), Envelope.Target.CHANNEL);
+        mClock.advance(0);
+        assertEquals(0f, mVolume.getChannel(), 0.001f);
+        assertEquals(1, getEngine().getActiveCount());
+
+        mClock.advance(50);
+        assertEquals(0.5f, mVolume.getChannel(), 0.001f);
+
+        mClock.advance(50);
+        assertEquals(1f, mVolume.getChannel(), 0.001f);
+        assertEquals(0, getEngine().getActiveCount());
+        assertEquals(0, mAudioThread.getScheduledCount());
+    }
+
+    public void testLoopRepeatsItsSegments() {
+        mVolume.automate(new Envelope().addPoint(0, 0f).addPoint(100, 1f).setLoop(0, 1), Envelope.Target.CHANNEL);
+        mClock.advance(0);
+
+        mClock.advance(150);
+        assertEquals(0.5f, mVolume.getChannel(), 0.001f);
+        assertEquals(1, getEngine().getActiveCount());
+
+        mVolume.stopAutomation();
+        mClock.advance(10);
+        assertEquals(0, getEngine().getActiveCount());
+    }
+
+    public void testZeroLengthLoopIsRejected() {
+        final Envelope envelope = new Envelope().addPoint(0, 0f).addPoint(100, 1f).addPoint(100, 0.5f);
+        try {
+            envelope.setLoop(1, 2);
+            fail("A loop without length can not be played.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    public void testListenerStoppingItsAutomationDoesNotSkipTheOthers() {
+        final Volume other = new Volume(0f);
+        other.setFader(mVolume.getFader());
+
+        mVolume.addOnVolumeChangeListener(new Volume.OnVolumeChangeListener() {
+
+            @Override
+            public void onVolumeChange(final float leftChannel, final float rightChannel) {
+                if (leftChannel >= 0.5f)
+                    mVolume.stopAutomation();
+            }
+
+            @Override
+            public void onBalanceChange(final float balance) {
+            }
+        });
+
+        mAudioThread.post(new AudioCommand() {
+
+            @Override
+            public void run() {
+                mVolume.automate(new Envelope().addPoint(0, 0f).addPoint(100, 1f), Envelope.Target.CHANNEL);
+                other.automate(new Envelope().addPoint(0, 0f).addPoint(100, 1f), Envelope.Target.CHANNEL);
+            }
+        });
+        mClock.advance(0);
+
+        mClock.advance(50);
+        assertEquals(0.5f, mVolume.getChannel(), 0.001f);
+        assertEquals("The tick still reaches the automation after the stopped one.", 0.5f, other.getChannel(), 0.001f);
+        assertEquals(1, getEngine().getActiveCount());
+    }
+
+    public void testListenerCanAutomateFromATick() {
+        final Envelope hold = new Envelope().addPoint(0, 0.2f).addPoint(1000, 0.2f);
+
+        mVolume.addOnVolumeChangeListener(new Volume.OnVolumeChangeListener() {
+
+            private boolean mReplaced = false;
+
+            @Override
+            public void onVolumeChange(final float leftChannel, final float rightChannel) {
+                // Replaces the running automation from inside the tick that applies it.
+                if (!mReplaced && leftChannel >= 0.5f) {
+                    mReplaced = true;
+                    mVolume.automate(hold, Envelope.Target.CHANNEL);
+                    mVolume.automate(new Envelope().addPoint(0, -1f).addPoint(1000, 1f), Envelope.Target.BALANCE);
+                }
+            }
+
+            @Override
+            public void onBalanceChange(final float balance) {
+            }
+        });
+
+        mAudioThread.post(new AudioCommand() {
+
+            @Override
+            public void run() {
+                mVolume.automate(new Envelope().addPoint(0, 0f).addPoint(100, 1f), Envelope.Target.CHANNEL);
+            }
+        });
+        mClock.advance(0);
+
+        // The new automations start once the tick has walked every automation, within the same frame.
+        mClock.advance(50);
+        assertEquals(0.2f, mVolume.getChannel(), 0.001f);
+        assertEquals(-1f, mVolume.getBalance(), 0.001f);
+        assertEquals(2, getEngine().getActiveCount());
+
+        mClock.advance(500);
+        assertEquals(0.2f, mVolume.getChannel(), 0.001f);
+        assertEquals(0f, mVolume.getBalance(), 0.001f);
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Android Media Library, an media library for the android platform.
+ * 
+ * Copyright (C) 2014 Andrei Balan
+ * 
+ * This file is part of Android Media Library
+ * 
+ * Android Media Library is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * Android Media Libraryis distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. You should have received a copy of the GNU
+ * General Public License along with Android Media Library. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Authors: Andrei Balan
+ */
+package ro.andreibalan.media.volume;
+
+import junit.framework.TestCase;
+import ro.andreibalan.media.AudioThread;
+import ro.andreibalan.media.backend.VirtualClock;
+import ro.andreibalan.media.backend.VirtualDispatcher;
+
+/**
+ * Checks how an {@link Envelope} is built and the shape of every {@link Envelope.Curve} once it is played.
+ */
+public class EnvelopeTest extends TestCase {
+
+    private VirtualClock mClock;
+
+    private Volume mVolume;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mClock = new VirtualClock();
+        final AudioThread audioThread = VirtualDispatcher.createAudioThread(mClock);
+
+        mVolume = new Volume(0f);
+        mVolume.setFader(Fader.forAudioThread(audioThread));
+    }
+
+    /**
+     * Plays the envelope and returns the channel value after the given time.
+     */
+    private float valueAt(final Envelope envelope, final int time) {
+        mVolume.automate(envelope, Envelope.Target.CHANNEL);
+        mClock.advance(0);
+        mClock.advance(time);
+        return mVolume.getChannel();
+    }
+
+    public void testPointsGrowAndKeepTheirOrder() {
+        final Envelope envelope = new Envelope();
+        for (int i = 0; i < 10; i++)
+            envelope.addPoint(i * 10, i / 10f, Envelope.Curve.SMOOTH);
+
+        assertEquals(10, envelope.getPointCount());
+        assertEquals(90, envelope.getDuration());
+        assertEquals(0.9f, envelope.getValue(9), 0f);
+        assertEquals(Envelope.Curve.SMOOTH, envelope.getCurve(9));
+    }
+
+    public void testRejectsPointsBeforeThePreviousOne() {
+        final Envelope envelope = new Envelope().addPoint(100, 1f);
+
+        try {
+            envelope.addPoint(50, 0f);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            envelope.addPoint(150, 0f, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            envelope.getTime(1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testLoopPointsMustExist() {
+        final Envelope envelope = new Envelope().addPoint(0, 0f).addPoint(100, 1f);
+
+        try {
+            envelope.setLoop(1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        envelope.setLoop(0, 1);
+        assertTrue(envelope.isLooping());
+
+        envelope.clearLoop();
+        assertFalse(envelope.isLooping());
+        assertEquals(-1, envelope.getLoopStart());
+    }
+
+    public void testCurvesShapeTheSegment() {
+        assertEquals(0f, valueAt(new Envelope().addPoint(0, 0f).addPoint(100, 1f, Envelope.Curve.STEP), 50), 0.001f);
+        assertEquals(0.25f, valueAt(new Envelope().addPoint(0, 0f).addPoint(100, 1f, Envelope.Curve.EXPONENTIAL), 50), 0.001f);
+        assertEquals(0.25f, valueAt(new Envelope().addPoint(0, 1f).addPoint(100, 0f, Envelope.Curve.EXPONENTIAL), 50), 0.001f);
+        assertEquals(0.216f, valueAt(new Envelope().addPoint(0, 0f).addPoint(100, 1f, Envelope.Curve.SMOOTH), 30), 0.001f);
+    }
+
+    public void testStartsFromTheCurrentValueWithoutAPointAtZero() {
+        mVolume.setChannel(0.2f);
+
+        assertEquals(0.6f, valueAt(new Envelope().addPoint(100, 1f), 50), 0.001f);
+    }
+
+    public void testChangesAfterAttachingDoNotAffectTheAutomation() {
+        final Envelope envelope = new Envelope().addPoint(0, 0f).addPoint(100, 1f);
+        mVolume.automate(envelope, Envelope.Target.CHANNEL);
+        envelope.addPoint(200, 0f);
+
+        mClock.advance(0);
+        mClock.advance(200);
+        assertEquals(1f, mVolume.getChannel(), 0.001f);
+    }
+
+}